@@ -0,0 +1,57 @@
+package uk.ac.cam.darknet.backend;
+
+import uk.ac.cam.darknet.database.DatabaseConfiguration;
+
+/**
+ * The settings of a data collection run by a <code>CollectorScheduler</code>,
+ * read from the database configuration file so that they can be changed
+ * without recompiling. Missing or invalid settings fall back to their
+ * defaults.
+ */
+public class CollectionSettings {
+	private static final int DEFAULT_WORKERS = 4;
+	private static final int DEFAULT_TIMEOUT_MINUTES = 30;
+	private static final int DEFAULT_MAX_AGE_DAYS = 7;
+	private final int workers;
+	private final int timeoutMinutes;
+	private final int maxAgeDays;
+
+	/**
+	 * Reads the settings from a database configuration.
+	 *
+	 * @param configuration The configuration of the database the collectors
+	 *            store their data in.
+	 */
+	public CollectionSettings(DatabaseConfiguration configuration) {
+		this.workers = Math.max(
+				configuration.getInt("collectorworkers", DEFAULT_WORKERS), 1);
+		this.timeoutMinutes = Math.max(configuration.getInt(
+				"collectortimeout", DEFAULT_TIMEOUT_MINUTES), 0);
+		this.maxAgeDays = Math.max(configuration.getInt("collectionmaxage",
+				DEFAULT_MAX_AGE_DAYS), 0);
+	}
+
+	/**
+	 * @return The maximum number of collectors running at once.
+	 */
+	public int getWorkers() {
+		return this.workers;
+	}
+
+	/**
+	 * @return The number of minutes after which a collector that has not
+	 *         finished is interrupted, or 0 if collectors are never
+	 *         interrupted.
+	 */
+	public int getTimeoutMinutes() {
+		return this.timeoutMinutes;
+	}
+
+	/**
+	 * @return The number of days after which the data collected on an
+	 *         individual is collected again.
+	 */
+	public int getMaxAgeDays() {
+		return this.maxAgeDays;
+	}
+}
@@ -0,0 +1,14 @@
+package uk.ac.cam.darknet.backend;
+
+/**
+ * A listener that is notified whenever a collector run by a
+ * <code>CollectorScheduler</code> has ended, from the thread that ran it.
+ */
+public interface CollectorListener {
+	/**
+	 * Called once for every collector, however it ended.
+	 * 
+	 * @param metrics The outcome, runtime and item count of the collector.
+	 */
+	public void collectorFinished(CollectorMetrics metrics);
+}
@@ -0,0 +1,81 @@
+package uk.ac.cam.darknet.backend;
+
+/**
+ * What happened when a secondary data collector was run by a
+ * <code>CollectorScheduler</code>: how it ended, how long it ran and how many
+ * items of data it collected.
+ */
+public class CollectorMetrics {
+	/**
+	 * The ways in which a collector can end.
+	 */
+	public enum Outcome {
+		/** The collector ran to the end. */
+		COMPLETED,
+		/** The collector threw an exception. */
+		FAILED,
+		/** The collector was interrupted after running for too long. */
+		TIMED_OUT,
+		/** The collector was cancelled, possibly before it started. */
+		CANCELLED
+	}
+
+	private final String collectorId;
+	private final Outcome outcome;
+	private final long runtimeMillis;
+	private final int itemsCollected;
+	private final Throwable error;
+
+	CollectorMetrics(String collectorId, Outcome outcome, long runtimeMillis,
+			int itemsCollected, Throwable error) {
+		this.collectorId = collectorId;
+		this.outcome = outcome;
+		this.runtimeMillis = runtimeMillis;
+		this.itemsCollected = itemsCollected;
+		this.error = error;
+	}
+
+	/**
+	 * @return The ID of the collector.
+	 */
+	public String getCollectorId() {
+		return this.collectorId;
+	}
+
+	/**
+	 * @return How the collector ended.
+	 */
+	public Outcome getOutcome() {
+		return this.outcome;
+	}
+
+	/**
+	 * @return The time the collector ran for in milliseconds, or 0 if it was
+	 *         cancelled before it started.
+	 */
+	public long getRuntimeMillis() {
+		return this.runtimeMillis;
+	}
+
+	/**
+	 * @return The number of items the collector reported as collected.
+	 */
+	public int getItemsCollected() {
+		return this.itemsCollected;
+	}
+
+	/**
+	 * @return The exception thrown by the collector, or null if it did not
+	 *         fail.
+	 */
+	public Throwable getError() {
+		return this.error;
+	}
+
+	@Override
+	public String toString() {
+		return this.collectorId + ": " + this.outcome.name().toLowerCase()
+				+ ", " + this.itemsCollected + " items in "
+				+ this.runtimeMillis / 1000.0 + " s";
+	}
+}
@@ -0,0 +1,250 @@
+package uk.ac.cam.darknet.backend;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import uk.ac.cam.darknet.common.LoggerFactory;
+
+/**
+ * Runs secondary data collectors on a fixed pool of worker threads. Collectors
+ * are started in the order they are given in, as soon as a worker is free, and
+ * each of them is interrupted if it runs for longer than the timeout. All the
+ * collectors can also be cancelled at once: those that have not started yet
+ * never run and those that are running are interrupted.
+ * 
+ * Collectors are expected to stop soon after they are interrupted and to store
+ * what they have collected so far. A collector that ignores the interruption
+ * keeps its worker until it returns.
+ * 
+ * A scheduler runs a single set of collectors; its workers are shut down once
+ * all of them have ended.
+ */
+public class CollectorScheduler {
+	private static final Logger log = LoggerFactory.getLogger();
+	private static final int NEW = 0;
+	private static final int RUNNING = 1;
+	private static final int FINISHED = 2;
+	private final ExecutorService workers;
+	private final ScheduledExecutorService watchdog;
+	private final long timeoutMillis;
+	private final List<CollectorRun> runs = new ArrayList<CollectorRun>();
+	private final List<CollectorMetrics> metrics = Collections
+			.synchronizedList(new ArrayList<CollectorMetrics>());
+	private CountDownLatch remaining;
+	private CollectorListener listener;
+
+	/**
+	 * Creates a scheduler with the given number of workers.
+	 * 
+	 * @param workers The maximum number of collectors running at once.
+	 * @param timeout The time after which a running collector is interrupted,
+	 *            or 0 to let collectors run for as long as they need.
+	 * @param unit The unit of the timeout.
+	 */
+	public CollectorScheduler(int workers, long timeout, TimeUnit unit) {
+		this.workers = Executors.newFixedThreadPool(workers,
+				daemonThreads("collector-"));
+		this.watchdog = Executors
+				.newSingleThreadScheduledExecutor(daemonThreads("collector-watchdog-"));
+		this.timeoutMillis = unit.toMillis(timeout);
+	}
+
+	/**
+	 * Starts running the given collectors, which must have been set up
+	 * already. May only be called once.
+	 * 
+	 * @param collectors The collectors to run, in the order they should be
+	 *            started in.
+	 * @param listener The listener notified whenever a collector has ended, or
+	 *            null.
+	 */
+	public synchronized void start(List<SecondaryDataCollector> collectors,
+			CollectorListener listener) {
+		if (this.remaining != null) {
+			throw new IllegalStateException("The collectors have already been started");
+		}
+		this.listener = listener;
+		this.remaining = new CountDownLatch(collectors.size());
+		for (SecondaryDataCollector collector : collectors) {
+			this.runs.add(new CollectorRun(collector));
+		}
+		if (collectors.isEmpty()) {
+			this.shutdown();
+		}
+		for (CollectorRun run : this.runs) {
+			this.workers.execute(run.task);
+		}
+	}
+
+	/**
+	 * Waits until all the collectors have ended.
+	 * 
+	 * @throws InterruptedException If the waiting thread is interrupted.
+	 */
+	public void await() throws InterruptedException {
+		this.getRemaining().await();
+	}
+
+	/**
+	 * Waits until all the collectors have ended or the given time has passed.
+	 * 
+	 * @param timeout The maximum time to wait.
+	 * @param unit The unit of the timeout.
+	 * @return True if all the collectors have ended.
+	 * @throws InterruptedException If the waiting thread is interrupted.
+	 */
+	public boolean await(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		return this.getRemaining().await(timeout, unit);
+	}
+
+	/**
+	 * Cancels all the collectors. Those that have not started yet will not be
+	 * run and those that are running are interrupted. Returns immediately;
+	 * use {@link #await()} to wait for the running collectors to stop.
+	 */
+	public synchronized void cancel() {
+		for (CollectorRun run : this.runs) {
+			run.cancel(CollectorMetrics.Outcome.CANCELLED);
+		}
+	}
+
+	/**
+	 * Returns the metrics of the collectors that have ended so far, in the
+	 * order in which they ended.
+	 * 
+	 * @return A copy of the metrics.
+	 */
+	public List<CollectorMetrics> getMetrics() {
+		synchronized (this.metrics) {
+			return new ArrayList<CollectorMetrics>(this.metrics);
+		}
+	}
+
+	private synchronized CountDownLatch getRemaining() {
+		if (this.remaining == null) {
+			throw new IllegalStateException("The collectors have not been started");
+		}
+		return this.remaining;
+	}
+
+	private void finished(CollectorMetrics collectorMetrics) {
+		log.info("Collector " + collectorMetrics);
+		this.metrics.add(collectorMetrics);
+		if (this.listener != null) {
+			try {
+				this.listener.collectorFinished(collectorMetrics);
+			}
+			catch (RuntimeException e) {
+				log.log(Level.WARNING, "Collector listener failed", e);
+			}
+		}
+		this.remaining.countDown();
+		if (this.remaining.getCount() == 0) {
+			this.shutdown();
+		}
+	}
+
+	private void shutdown() {
+		this.workers.shutdown();
+		this.watchdog.shutdownNow();
+	}
+
+	private static ThreadFactory daemonThreads(final String prefix) {
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, prefix + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * A collector together with the task running it. The state makes sure
+	 * that each collector ends exactly once, whether it runs to the end or is
+	 * cancelled before it starts.
+	 */
+	private class CollectorRun implements Runnable {
+		private final SecondaryDataCollector collector;
+		private final FutureTask<Void> task;
+		private final AtomicInteger state = new AtomicInteger(NEW);
+		private volatile CollectorMetrics.Outcome cancelledAs;
+
+		CollectorRun(SecondaryDataCollector collector) {
+			this.collector = collector;
+			this.task = new FutureTask<Void>(this, null);
+		}
+
+		@Override
+		public void run() {
+			ScheduledFuture<?> timeout = null;
+			CollectorMetrics.Outcome outcome = CollectorMetrics.Outcome.COMPLETED;
+			Throwable error = null;
+			long start;
+			if (!this.state.compareAndSet(NEW, RUNNING)) {
+				return;
+			}
+			start = System.nanoTime();
+			try {
+				if (CollectorScheduler.this.timeoutMillis > 0) {
+					timeout = CollectorScheduler.this.watchdog.schedule(
+							new Runnable() {
+								@Override
+								public void run() {
+									CollectorRun.this
+											.cancel(CollectorMetrics.Outcome.TIMED_OUT);
+								}
+							}, CollectorScheduler.this.timeoutMillis,
+							TimeUnit.MILLISECONDS);
+				}
+				this.collector.run();
+			}
+			catch (RuntimeException e) {
+				outcome = CollectorMetrics.Outcome.FAILED;
+				error = e;
+				log.log(Level.SEVERE, "Collector "
+						+ this.collector.getCollectorId() + " failed", e);
+			}
+			finally {
+				if (timeout != null) {
+					timeout.cancel(false);
+				}
+				if (this.cancelledAs != null && error == null) {
+					outcome = this.cancelledAs;
+				}
+				this.state.set(FINISHED);
+				CollectorScheduler.this.finished(new CollectorMetrics(
+						this.collector.getCollectorId(), outcome, TimeUnit.NANOSECONDS
+								.toMillis(System.nanoTime() - start),
+						this.collector.getItemsCollected(), error));
+			}
+		}
+
+		void cancel(CollectorMetrics.Outcome reason) {
+			if (this.state.compareAndSet(NEW, FINISHED)) {
+				this.task.cancel(false);
+				CollectorScheduler.this.finished(new CollectorMetrics(
+						this.collector.getCollectorId(), reason, 0, 0, null));
+			}
+			else if (this.state.get() == RUNNING && this.cancelledAs == null) {
+				this.cancelledAs = reason;
+				this.task.cancel(true);
+			}
+		}
+	}
+}
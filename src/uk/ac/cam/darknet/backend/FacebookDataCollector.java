@@ -4,9 +4,18 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Hashtable;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import javax.swing.JOptionPane;
@@ -21,14 +30,37 @@ import uk.ac.cam.darknet.exceptions.InvalidReliabilityException;
 import uk.ac.cam.darknet.exceptions.UnknownAttributeException;
 import uk.ac.cam.darknet.storage.ImageStorage;
 
-import com.restfb.Connection;
+import com.google.common.util.concurrent.RateLimiter;
 import com.restfb.DefaultFacebookClient;
 import com.restfb.Parameter;
+import com.restfb.batch.BatchRequest;
+import com.restfb.batch.BatchRequest.BatchRequestBuilder;
+import com.restfb.batch.BatchResponse;
+import com.restfb.exception.FacebookException;
+import com.restfb.exception.FacebookGraphException;
+import com.restfb.exception.FacebookNetworkException;
+import com.restfb.exception.FacebookOAuthException;
 import com.restfb.types.Photo;
 import com.restfb.types.User;
 
 /**
  * Secondary data collector which gets data from Facebook's public API.
+ * 
+ * Friends are looked up in batches of Graph requests on a bounded pool of
+ * threads, and every request is paced by a requests-per-second budget so that
+ * Facebook's rate limits are not hit. Each friend is matched against an index
+ * of the targets as soon as their details arrive; the photos of matched targets are
+ * downloaded on a separate pool, so that downloads overlap with the remaining
+ * lookups. Requests that fail with a network error or a rate limit error are
+ * retried with exponential backoff.
+ * 
+ * A run that cannot fetch the list of friends, or whose token turns out to be
+ * invalid, fails after storing what it has found. A target is only reported
+ * as collected once every friend that could match it and all of its photos
+ * have been looked up.
+ * 
+ * Every target matched and every photo downloaded counts as one item
+ * collected.
  *  
  *  @author Johann Beleites
  */
@@ -36,6 +68,16 @@ public class FacebookDataCollector extends SecondaryDataCollector {
 	
 	private static final Logger log = LoggerFactory.getLogger();
 	
+	private static final int DEFAULT_THREADS = 4;
+	private static final int DEFAULT_REQUESTS_PER_SECOND = 10;
+	private static final int DOWNLOAD_THREADS = 4;
+	// Facebook accepts at most 50 requests in one batch.
+	private static final int BATCH_SIZE = 50;
+	private static final int MAX_ATTEMPTS = 3;
+	private static final long INITIAL_BACKOFF_MILLIS = 1000;
+	// Graph API error codes for temporary problems and exceeded rate limits.
+	private static final List<Integer> TRANSIENT_ERROR_CODES = Arrays.asList(1, 2, 4, 17, 341, 613);
+	
 	private List<Individual> targets;
 	
 	//private AccessToken accessToken;
@@ -47,172 +89,356 @@ public class FacebookDataCollector extends SecondaryDataCollector {
 	//private final String appSecret = "";
 	private String token;
 	
+	private final int threads;
+	private final RateLimiter rateLimiter;
+	private final ImageStorage imageStorage = new ImageStorage();
+	
+	// State of a single run.
+	private boolean fuzzyMatching;
+	private TargetIndex targetIndex;
+	private Set<Individual> matchedTargets;
+	private ExecutorService lookupExecutor;
+	private ExecutorService downloadExecutor;
+	private ConcurrentLinkedQueue<Future<?>> pending;
+	private Set<Individual> incompleteTargets;
+	private volatile boolean aborted;
+	private volatile FacebookException failure;
+	private volatile boolean incomplete;
+	
 	
 	/**
 	 * Create a new Facebook data collector with the specified database manager.
+	 * The number of threads making Graph requests and the request budget are
+	 * read from the <code>facebookthreads</code> and
+	 * <code>facebookrequests</code> settings of its configuration file.
 	 * 
 	 * @param databaseManager
 	 *            The database manager to use to write to the database.
 	 */
 	public FacebookDataCollector(SecondaryDatabaseManager databaseManager) {
+		this(databaseManager, getSetting(databaseManager, "facebookthreads", DEFAULT_THREADS),
+				getSetting(databaseManager, "facebookrequests", DEFAULT_REQUESTS_PER_SECOND));
+	}
+	
+	/**
+	 * Create a new Facebook data collector with the specified database manager,
+	 * number of threads making Graph requests and request budget.
+	 * 
+	 * @param databaseManager
+	 *            The database manager to use to write to the database.
+	 * @param threads
+	 *            The maximum number of Graph requests in flight at once.
+	 * @param requestsPerSecond
+	 *            The maximum number of Graph requests per second. A batch
+	 *            counts as one request per item in it.
+	 */
+	public FacebookDataCollector(SecondaryDatabaseManager databaseManager, int threads, double requestsPerSecond) {
 		super(databaseManager);
+		this.threads = threads;
+		this.rateLimiter = RateLimiter.create(requestsPerSecond);
+	}
+	
+	// Reads a positive setting from the configuration file of the database,
+	// if there is one.
+	private static int getSetting(SecondaryDatabaseManager databaseManager, String name, int defaultValue) {
+		if(databaseManager == null) return defaultValue;
+		return Math.max(databaseManager.getConfiguration().getInt(name, defaultValue), 1);
+	}
+
+	/**
+	 * Sets whether friends whose name differs slightly from the name of a
+	 * target (for example by a typo) should still be matched with it. This is
+	 * off by default.
+	 * 
+	 * @param fuzzyMatching
+	 *            True to match names fuzzily.
+	 */
+	public void setFuzzyMatching(boolean fuzzyMatching) {
+		this.fuzzyMatching = fuzzyMatching;
 	}
 
 	@Override
 	public void run() {
 		if(this.targets == null || this.token == null) {
-			log.warning("Aborting Facebook data collection as collector was not intialized yet");
-			return;
+			throw new IllegalStateException("Aborting Facebook data collection as collector was not intialized yet");
 		}
 		
-		// TODO: find better authentication method
-		this.client = new DefaultFacebookClient(this.token);//,appSecret);
-		Connection<User> c = null;
-		int error;
+		this.client = this.createClient(this.token);
+		this.targetIndex = new TargetIndex(this.targets, this.fuzzyMatching);
+		this.matchedTargets = Collections.newSetFromMap(new ConcurrentHashMap<Individual, Boolean>());
+		this.incompleteTargets = Collections.newSetFromMap(new ConcurrentHashMap<Individual, Boolean>());
+		this.lookupExecutor = Executors.newFixedThreadPool(this.threads);
+		this.downloadExecutor = Executors.newFixedThreadPool(DOWNLOAD_THREADS);
+		this.pending = new ConcurrentLinkedQueue<Future<?>>();
+		this.aborted = false;
+		this.failure = null;
+		this.incomplete = false;
 		
-		error = 0;
-		do{
-			try{
-				c = this.client.fetchConnection("me/friends", User.class, Parameter.with("fields", "id,name"));
-				error = 0;
-			} catch(Exception e) {
-				error++;
-				log.warning("Exception (" + error + ") (" + e.getClass() + ") while trying to fetch friends. Message: "
-						+ e.getMessage());
-				JOptionPane.showMessageDialog(null, "Invalid user token (try " + error + "/3).", "Invalid Token", JOptionPane.ERROR_MESSAGE);
-				if(error >= 3) return;
-				try{
-					this.reauthenticate();
-					this.client = new DefaultFacebookClient(this.token);//,appSecret);
-				}catch(Exception e2){
-					log.warning("Reauthentication failed due to invalid input");
+		try {
+			List<User> friends = this.withRetry("fetch friends", 1, new GraphRequest<List<User>>() {
+				@Override
+				public List<User> execute() {
+					return FacebookDataCollector.this.client.fetchConnection("me/friends", User.class, Parameter.with("fields", "id,name")).getData();
 				}
-			}	
-		} while(error > 0);
-
-		List<User> friends = c.getData();
-		List<Photo> photos = null;
-		ImageStorage imageStorage = new ImageStorage();
-		String birthday, relationshipStatus, gender, locale;
-		User detailedFriend;
-		List<User> friendsDetailed = new LinkedList<User>();
-		boolean emailMatch;
-		String email;
-		
-		// Get more details on all friends
-		for(User f: friends) {
-			// Try to get friends' details; need to take into consideration an invalid
-			// user token (ex. when stale). Reauthentication needed in that case.
-			error = 0;
-			do{
-				try{
-					detailedFriend = this.client.fetchObject(f.getId(), User.class);						
-					error = 0;
-					friendsDetailed.add(detailedFriend);
-				} catch(Exception e) {
-					error++;
-					log.warning("Exception (" + error + ") (" + e.getClass() + ") while trying to fetch a friend. Message: "
-							+ e.getMessage());
-					JOptionPane.showMessageDialog(null, "Invalid user token (try " + error + "/3).", "Invalid Token", JOptionPane.ERROR_MESSAGE);
-					if(error >= 3) return;
-					try{
-						this.reauthenticate();
-						this.client = new DefaultFacebookClient(this.token);//,appSecret);
-					}catch(Exception e2){
-						log.warning("Reauthentication failed due to invalid input");
-					}
-				}	
-			} while(error > 0);
-		}
-		
-		// Now iterate through targets and check if they are present in friend list of facebook
-		for(Individual target: this.targets) {
-			log.info("Looking for: " + target.getFirstName() + " " + target.getLastName());
-			for(User f: friendsDetailed) {
-
-				// Try to get email address from facebook
-				email = f.getEmail();
-				emailMatch = email == null ? false : email.equalsIgnoreCase(target.getEmail());
-				
-				// See if the current target matches the current friend (by full name or email) 
-				if((f.getFirstName().equalsIgnoreCase(target.getFirstName())
-						&& f.getLastName().equalsIgnoreCase(target.getLastName()))
-						|| emailMatch) {
-					
-					// Get some potentially interesting data about target
-					relationshipStatus = f.getRelationshipStatus();
-					birthday = f.getBirthday();
-					locale = f.getLocale();
-					gender = f.getGender();
-					
-					// Now fetch 25 (max) photos of the target, if possible. Again an invalid token
-					// must be considered.
-					error = 0;
-					do{
-						try{
-							photos = this.client.fetchConnection(f.getId() + "/photos", Photo.class).getData();
-							error = 0;
-						} catch(Exception e) {
-							error++;
-							log.warning("Exception (" + error + ") (" + e.getClass() + ") while trying to fetch photos. Message: "
-									+ e.getMessage());
-							JOptionPane.showMessageDialog(null, "Invalid user token (try " + error + "/3).", "Invalid Token", JOptionPane.ERROR_MESSAGE);
-							if(error >= 3) return;
-							try{
-								this.reauthenticate();
-								this.client = new DefaultFacebookClient(this.token);//,appSecret);
-							}catch(Exception e2){
-								log.warning("Reauthentication failed due to invalid input");
-							}
-						}	
-					} while(error > 0);
-					
-					// If photos were found, store them on the hard drive
-					log.info("Trying to add " + photos.size() + " photo(s) to target...");
-					for(Photo p: photos) {
-						try {
-							//photoIds.add(imageStorage.saveImage(new URL(p.getSource())));
-							target.addAttribute("fb_photo", imageStorage.saveImage(new URL(p.getSource())), 0.8);
-						} catch (MalformedURLException e) {
-							log.warning("MalformedURLException while trying to store image! URL: "
-									+ p.getSource() + ". Message: " + e.getMessage());
-						} catch (IOException e) {
-							log.warning("IOException while trying to store image! URL: "
-									+ p.getSource() + ". Message: " + e.getMessage());
-						} catch (UnknownAttributeException
-								| InvalidAttributeTypeException
-								| InvalidReliabilityException e) {
-
-							log.severe(e.getClass() + " while trying to add photo to individual. Message: " + e.getMessage());
-						}
-					}
-					
-					// Store all other data besides photos in the individual's properties before moving on to next target
-					try {
-						if(relationshipStatus != null) target.getProperties().put("fb_relationshipStatus", relationshipStatus, 0.8);
-						if(birthday != null) target.getProperties().put("fb_birthday", birthday, 0.8);
-						if(gender != null) target.getProperties().put("fb_gender", gender, 0.8);
-						if(locale != null) target.getProperties().put("fb_locale", locale, 1.0);
-					} catch (UnknownAttributeException
-							| InvalidAttributeTypeException
-							| InvalidReliabilityException e) {
-						
-						log.severe("Exception (" + e.getClass() + ") while trying to store the individual's attributes: " 
-								+ e.getMessage());
+			});
+			
+			// Get more details on all friends, one batch at a time
+			for(int start = 0; start < friends.size(); start += BATCH_SIZE) {
+				final List<User> chunk = friends.subList(start, Math.min(start + BATCH_SIZE, friends.size()));
+				this.submit(this.lookupExecutor, new Runnable() {
+					@Override
+					public void run() {
+						FacebookDataCollector.this.lookUpFriends(chunk);
 					}
-					break;
-				}
+				});
 			}
+			this.awaitPending();
+		} catch (FacebookException e) {
+			log.warning("Exception (" + e.getClass() + ") while trying to fetch friends. Message: " + e.getMessage());
+			this.failure = e;
+		} catch (InterruptedException e) {
+			log.warning("Facebook data collection was interrupted");
+			this.incomplete = true;
+			Thread.currentThread().interrupt();
+		} finally {
+			this.lookupExecutor.shutdownNow();
+			this.downloadExecutor.shutdownNow();
+		}
+		if(this.failure != null) {
+			// Nothing has been found, or the token became invalid half-way
+			// through; what has been found is still stored.
+			this.incomplete = true;
 		}
 		
 		// Finally, store all the data collected in the database
 		try {
 			this.databaseManager.storeAttributes(this.targets);
 		} catch (SQLException e) {
-			log.severe("SQLException while trying to store Facebook data on all given targets. Message:" +
-					e.getMessage());
+			throw new IllegalStateException("SQLException while trying to store Facebook data on all given targets", e);
 		}
 		
+		// Targets that have not been matched have only been collected if every
+		// friend has been looked up; matched targets if all their photos have.
+		List<Individual> collected = new ArrayList<Individual>(this.incomplete ? this.matchedTargets : this.targets);
+		collected.removeAll(this.incompleteTargets);
+		this.addIndividualsCollected(collected);
+		if(this.failure != null) {
+			throw this.failure;
+		}
+	}
+	
+	/**
+	 * Fetches the details of a batch of friends with a single Graph request
+	 * and matches each of them against the targets. Friends whose part of the
+	 * batch failed are looked up individually.
+	 */
+	private void lookUpFriends(List<User> friends) {
+		final List<BatchRequest> requests = new ArrayList<BatchRequest>(friends.size());
+		List<BatchResponse> responses;
+		BatchResponse response;
+		for(User f: friends) {
+			requests.add(new BatchRequestBuilder(f.getId()).build());
+		}
+		try {
+			responses = this.withRetry("fetch a batch of friends", requests.size(), new GraphRequest<List<BatchResponse>>() {
+				@Override
+				public List<BatchResponse> execute() {
+					return FacebookDataCollector.this.client.executeBatch(requests);
+				}
+			});
+		} catch (FacebookException e) {
+			log.warning("Exception (" + e.getClass() + ") while trying to fetch a batch of friends. Message: " + e.getMessage());
+			this.incomplete = true;
+			return;
+		}
+		for(int i = 0; i < friends.size() && !this.aborted; i++) {
+			response = i < responses.size() ? responses.get(i) : null;
+			if(response != null && response.getCode() != null && response.getCode() == 200) {
+				this.matchFriend(this.client.getJsonMapper().toJavaObject(response.getBody(), User.class));
+			} else {
+				this.lookUpFriend(friends.get(i).getId());
+			}
+		}
+	}
+	
+	private void lookUpFriend(final String id) {
+		try {
+			this.matchFriend(this.withRetry("fetch a friend", 1, new GraphRequest<User>() {
+				@Override
+				public User execute() {
+					return FacebookDataCollector.this.client.fetchObject(id, User.class);
+				}
+			}));
+		} catch (FacebookException e) {
+			log.warning("Exception (" + e.getClass() + ") while trying to fetch a friend. Message: " + e.getMessage());
+			this.incomplete = true;
+		}
+	}
+	
+	/**
+	 * Checks whether a friend matches any of the targets (by full name or
+	 * email) and, if so, stores their details and starts fetching their
+	 * photos. Every target is matched with the first friend found for it.
+	 */
+	private void matchFriend(User f) {
+		for(Individual target: this.targetIndex.find(f.getEmail(), f.getFirstName(), f.getLastName())) {
+			if(this.matchedTargets.add(target)) {
+				log.info("Found: " + target.getFirstName() + " " + target.getLastName());
+				this.storeDetails(target, f);
+				this.addItemsCollected(1);
+				this.fetchPhotos(target, f.getId());
+			}
+		}
+	}
+	
+	private void storeDetails(Individual target, User f) {
+		// Store all other data besides photos in the individual's properties,
+		// under the same lock as the photos.
+		try {
+			synchronized(target) {
+				if(f.getRelationshipStatus() != null) target.getProperties().put("fb_relationshipStatus", f.getRelationshipStatus(), 0.8);
+				if(f.getBirthday() != null) target.getProperties().put("fb_birthday", f.getBirthday(), 0.8);
+				if(f.getGender() != null) target.getProperties().put("fb_gender", f.getGender(), 0.8);
+				if(f.getLocale() != null) target.getProperties().put("fb_locale", f.getLocale(), 1.0);
+			}
+		} catch (UnknownAttributeException
+				| InvalidAttributeTypeException
+				| InvalidReliabilityException e) {
+			
+			log.severe("Exception (" + e.getClass() + ") while trying to store the individual's attributes: " 
+					+ e.getMessage());
+		}
+	}
+	
+	/**
+	 * Fetches the list of (at most 25) photos of a matched target on the
+	 * lookup pool and hands every photo over to the download pool.
+	 */
+	private void fetchPhotos(final Individual target, final String friendId) {
+		this.submit(this.lookupExecutor, new Runnable() {
+			@Override
+			public void run() {
+				List<Photo> photos;
+				try {
+					photos = FacebookDataCollector.this.withRetry("fetch photos", 1, new GraphRequest<List<Photo>>() {
+						@Override
+						public List<Photo> execute() {
+							return FacebookDataCollector.this.client.fetchConnection(friendId + "/photos", Photo.class).getData();
+						}
+					});
+				} catch (FacebookException e) {
+					log.warning("Exception (" + e.getClass() + ") while trying to fetch photos. Message: " + e.getMessage());
+					FacebookDataCollector.this.incompleteTargets.add(target);
+					return;
+				}
+				log.info("Trying to add " + photos.size() + " photo(s) to target...");
+				for(final Photo p: photos) {
+					FacebookDataCollector.this.submit(FacebookDataCollector.this.downloadExecutor, new Runnable() {
+						@Override
+						public void run() {
+							FacebookDataCollector.this.downloadPhoto(target, p);
+						}
+					});
+				}
+			}
+		});
+	}
+	
+	private void downloadPhoto(Individual target, Photo p) {
+		if(this.aborted) {
+			this.incompleteTargets.add(target);
+			return;
+		}
+		try {
+			String path = this.imageStorage.saveImage(new URL(p.getSource()));
+			// Photos of a target are downloaded in parallel, and properties
+			// are not thread-safe.
+			synchronized(target) {
+				target.addAttribute("fb_photo", path, 0.8);
+			}
+			this.addItemsCollected(1);
+		} catch (MalformedURLException e) {
+			log.warning("MalformedURLException while trying to store image! URL: "
+					+ p.getSource() + ". Message: " + e.getMessage());
+			this.incompleteTargets.add(target);
+		} catch (IOException e) {
+			log.warning("IOException while trying to store image! URL: "
+					+ p.getSource() + ". Message: " + e.getMessage());
+			this.incompleteTargets.add(target);
+		} catch (UnknownAttributeException
+				| InvalidAttributeTypeException
+				| InvalidReliabilityException e) {
+
+			log.severe(e.getClass() + " while trying to add photo to individual. Message: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Runs a Graph request within the request budget, taking the given number
+	 * of permits from it for every attempt. Network errors and errors caused
+	 * by exceeding Facebook's rate limits are retried with exponential
+	 * backoff; an invalid token aborts the whole collection.
+	 */
+	private <T> T withRetry(String description, int permits, GraphRequest<T> request) throws FacebookException {
+		long backoff = INITIAL_BACKOFF_MILLIS;
+		for(int attempt = 1; ; attempt++) {
+			if(this.aborted) throw new FacebookNetworkException("Facebook data collection was aborted", (Throwable) null);
+			try {
+				this.rateLimiter.acquire(permits);
+				return request.execute();
+			} catch (FacebookException e) {
+				if(!isTransient(e) || attempt >= MAX_ATTEMPTS) {
+					if(e instanceof FacebookOAuthException && !isTransient(e)) {
+						log.severe("Invalid user token, aborting Facebook data collection. Message: " + e.getMessage());
+						this.failure = e;
+						this.aborted = true;
+					}
+					throw e;
+				}
+				log.warning("Exception (" + attempt + "/" + MAX_ATTEMPTS + ") (" + e.getClass() + ") while trying to " + description + ", retrying in " + backoff + " ms. Message: " + e.getMessage());
+				try {
+					Thread.sleep(backoff);
+				} catch (InterruptedException e2) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+				backoff *= 2;
+			}
+		}
+	}
+	
+	private static boolean isTransient(FacebookException e) {
+		if(e instanceof FacebookNetworkException) return true;
+		return e instanceof FacebookGraphException && TRANSIENT_ERROR_CODES.contains(((FacebookGraphException) e).getErrorCode());
+	}
+	
+	private void submit(ExecutorService executor, Runnable task) {
+		this.pending.add(executor.submit(task));
+	}
+	
+	/**
+	 * Waits for all lookups and downloads to finish. Tasks submit their
+	 * follow-up tasks before they complete, so the queue is only empty once
+	 * everything has been done.
+	 */
+	private void awaitPending() throws InterruptedException {
+		Future<?> next;
+		while((next = this.pending.poll()) != null) {
+			try {
+				next.get();
+			} catch (ExecutionException e) {
+				log.severe("Exception (" + e.getCause().getClass() + ") in Facebook data collection. Message: " + e.getCause().getMessage());
+				this.incomplete = true;
+			}
+		}
+	}
+	
+	/**
+	 * A single request to the Graph API. RestFB reports all errors as
+	 * unchecked <code>FacebookException</code>s.
+	 */
+	private interface GraphRequest<T> {
+		T execute();
 	}
 
 	@Override
@@ -227,6 +453,32 @@ public class FacebookDataCollector extends SecondaryDataCollector {
 		}
 		this.targets = individuals;
 	}
+	
+	/**
+	 * Sets up the collector with a user token that has been obtained
+	 * beforehand, instead of prompting the user for it.
+	 * 
+	 * @param individuals
+	 *            The individuals whose data should be looked up.
+	 * @param userToken
+	 *            The Facebook user token to authenticate all requests with.
+	 */
+	public void setup(List<Individual> individuals, String userToken) {
+		this.token = userToken;
+		this.targets = individuals;
+	}
+	
+	/**
+	 * Creates the client making all Graph requests of a run.
+	 * 
+	 * @param userToken
+	 *            The Facebook user token to authenticate all requests with.
+	 * @return The client.
+	 */
+	protected DefaultFacebookClient createClient(String userToken) {
+		// TODO: find better authentication method
+		return new DefaultFacebookClient(userToken);//,appSecret);
+	}
 
 	@Override
 	public Hashtable<String, AttributeCategories> getAttributeTable() {
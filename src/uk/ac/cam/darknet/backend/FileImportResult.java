@@ -0,0 +1,74 @@
+package uk.ac.cam.darknet.backend;
+
+import java.io.File;
+
+import uk.ac.cam.darknet.common.Strings;
+
+/**
+ * What happened to one of the CSV files of a <code>SeasonImport</code>: how
+ * many rows were read from it, how many individuals of it were stored, and the
+ * exception that stopped it from being read to the end, if any.
+ */
+public class FileImportResult {
+	private final File file;
+	private final int rowsRead;
+	private final int individualsStored;
+	private final Exception error;
+
+	FileImportResult(File file, int rowsRead, int individualsStored,
+			Exception error) {
+		this.file = file;
+		this.rowsRead = rowsRead;
+		this.individualsStored = individualsStored;
+		this.error = error;
+	}
+
+	/**
+	 * @return The CSV file.
+	 */
+	public File getFile() {
+		return this.file;
+	}
+
+	/**
+	 * @return The number of rows read from the file, up to the error if there
+	 *         was one.
+	 */
+	public int getRowsRead() {
+		return this.rowsRead;
+	}
+
+	/**
+	 * @return The number of individuals of the file stored in the database,
+	 *         not counting duplicates and invalid rows.
+	 */
+	public int getIndividualsStored() {
+		return this.individualsStored;
+	}
+
+	/**
+	 * @return The exception that stopped the file from being read to the end,
+	 *         or null if it was read completely.
+	 */
+	public Exception getError() {
+		return this.error;
+	}
+
+	/**
+	 * @return True if the file could not be read to the end. The rows read
+	 *         before the error have been imported all the same.
+	 */
+	public boolean isFailed() {
+		return this.error != null;
+	}
+
+	@Override
+	public String toString() {
+		if (this.error != null) {
+			return String.format(Strings.CSV_FILE_FAILED, this.file.getName(),
+					this.rowsRead, this.error);
+		}
+		return String.format(Strings.CSV_FILE_IMPORTED, this.file.getName(),
+				this.rowsRead, this.individualsStored);
+	}
+}
@@ -0,0 +1,31 @@
+package uk.ac.cam.darknet.backend;
+
+import java.util.List;
+
+import uk.ac.cam.darknet.common.Individual;
+
+/**
+ * A listener that is notified of the progress of a CSV import. It is notified every time a batch
+ * of individuals has been written to the database, from the thread writing to the database.
+ */
+public interface ImportProgressListener {
+	/**
+	 * Called after each batch of individuals has been written to the database.
+	 * 
+	 * @param rowsRead The number of rows read from the file so far.
+	 * @param individualsStored The number of individuals stored in the database so far, not
+	 *            counting duplicates and invalid rows.
+	 * @param bytesRead The number of bytes read from the file so far.
+	 * @param totalBytes The size of the file in bytes.
+	 */
+	public void importProgress(int rowsRead, int individualsStored, long bytesRead, long totalBytes);
+
+	/**
+	 * Called after each batch of individuals has been written to the database, before
+	 * {@link #importProgress(int, int, long, long)}, with the individuals of the batch that were
+	 * inserted. Duplicates and invalid rows are left out.
+	 * 
+	 * @param individuals The new individuals, carrying the IDs the database has assigned to them.
+	 */
+	public void individualsStored(List<Individual> individuals);
+}
@@ -0,0 +1,341 @@
+package uk.ac.cam.darknet.backend;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import uk.ac.cam.darknet.common.Individual;
+import uk.ac.cam.darknet.common.LoggerFactory;
+import uk.ac.cam.darknet.common.Strings;
+import uk.ac.cam.darknet.database.PrimaryDatabaseManager;
+import au.com.bytecode.opencsv.CSVReader;
+
+/**
+ * Imports a season of Spektrix CSV files, one per performance, into the
+ * database. The files are parsed in parallel on a fixed pool of worker
+ * threads, in the order they are given in, while the calling thread stores
+ * the individuals. The individuals are stored in the order of the files, and
+ * of the rows within each file, in batches of the batch size of the database
+ * manager; a batch may span several small files.
+ * 
+ * Each worker parses at most a few batches ahead of the database and then
+ * waits, so the memory used depends on the number of workers but not on the
+ * number or length of the files. A file that cannot be read to the end does
+ * not stop the import: the rows read from it before the error are imported,
+ * and the error is reported with the result of the file. A database error
+ * stops the whole import.
+ */
+public class SeasonImport {
+	private static final Logger log = LoggerFactory.getLogger();
+	// The files imported when a directory is given
+	private static final String CSV_GLOB = "*.{csv,CSV}";
+	// The number of batches each worker parses ahead of the database
+	private static final int QUEUED_BATCHES = 2;
+	private final List<File> files;
+	private final int venue;
+	private final int workers;
+
+	/**
+	 * Creates an import of the given files.
+	 * 
+	 * @param files The CSV files to import, in the order their individuals
+	 *            should be stored in. See
+	 *            {@link SpektrixCSVParser#loadfromCSV(String, int)} for their
+	 *            format.
+	 * @param venue The ID of the venue at which the shows take place.
+	 * @param workers The maximum number of files parsed at once.
+	 */
+	public SeasonImport(List<File> files, int venue, int workers) {
+		this.files = new ArrayList<File>(files);
+		this.venue = venue;
+		this.workers = Math.max(workers, 1);
+	}
+
+	/**
+	 * Finds the CSV files of a season. The files are sorted by their path, so
+	 * that files named after the date of their performance are imported in
+	 * the order of the performances.
+	 * 
+	 * @param pattern A CSV file, a directory, in which case all the CSV files
+	 *            in it are found, or a glob such as
+	 *            <code>season/2013-*.csv</code>, in which only the file name
+	 *            may contain wildcards.
+	 * @return The files found.
+	 * @throws IOException If no file is found or if the directory cannot be
+	 *             read.
+	 */
+	public static List<File> findFiles(String pattern) throws IOException {
+		File file = new File(pattern);
+		List<File> found = new ArrayList<File>();
+		if (file.isFile()) {
+			found.add(file);
+		}
+		else {
+			Path directory;
+			String glob;
+			if (file.isDirectory()) {
+				directory = file.toPath();
+				glob = CSV_GLOB;
+			}
+			else {
+				directory = file.getAbsoluteFile().getParentFile().toPath();
+				glob = file.getName();
+			}
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(
+					directory, glob);) {
+				for (Path path : stream) {
+					if (Files.isRegularFile(path)) {
+						found.add(path.toFile());
+					}
+				}
+			}
+			Collections.sort(found);
+		}
+		if (found.isEmpty()) {
+			throw new FileNotFoundException(String.format(
+					Strings.CSV_NO_FILES_EXN, pattern));
+		}
+		return found;
+	}
+
+	/**
+	 * Runs the import and waits for it to end. Batches stored before a
+	 * database error remain in the database.
+	 * 
+	 * @param databaseManager The database manager to store the individuals
+	 *            with.
+	 * @param listener The listener notified after every batch stored, or null.
+	 *            The progress it is given covers all the files.
+	 * @return The results of the files and the throughput of the import.
+	 * @throws SQLException If the individuals could not be stored.
+	 * @throws InterruptedIOException If the calling thread is interrupted.
+	 */
+	public SeasonImportReport run(PrimaryDatabaseManager databaseManager,
+			ImportProgressListener listener) throws SQLException,
+			InterruptedIOException {
+		long start = System.nanoTime();
+		int batchSize = databaseManager.getBatchSize();
+		ExecutorService parsers = Executors.newFixedThreadPool(this.workers,
+				daemonThreads("csv-parser-"));
+		List<FileParser> fileParsers = new ArrayList<FileParser>();
+		for (File file : this.files) {
+			FileParser fileParser = new FileParser(file, batchSize);
+			fileParsers.add(fileParser);
+			// The pool starts the files in this order, so the file the
+			// database is waiting for is always being parsed.
+			parsers.execute(fileParser);
+		}
+		try {
+			Writer writer = new Writer(databaseManager, listener, batchSize);
+			int[] rowsRead = new int[fileParsers.size()];
+			Exception[] errors = new Exception[fileParsers.size()];
+			Chunk chunk;
+			for (int i = 0; i < fileParsers.size(); i++) {
+				FileParser fileParser = fileParsers.get(i);
+				do {
+					chunk = fileParser.queue.take();
+					writer.add(chunk, i);
+				}
+				while (!chunk.last);
+				writer.fileDone(fileParser.file);
+				rowsRead[i] = chunk.rowsRead;
+				errors[i] = chunk.error;
+			}
+			writer.flush();
+			List<FileImportResult> results = new ArrayList<FileImportResult>();
+			for (int i = 0; i < fileParsers.size(); i++) {
+				results.add(new FileImportResult(fileParsers.get(i).file,
+						rowsRead[i], writer.stored[i], errors[i]));
+			}
+			SeasonImportReport report = new SeasonImportReport(results,
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			log.info(String.format(Strings.SEASON_IMPORT_DONE, report));
+			for (FileImportResult result : report.getFailedFiles()) {
+				log.warning(result.toString());
+			}
+			return report;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		}
+		finally {
+			// Stops the workers if the import did not run to the end.
+			parsers.shutdownNow();
+		}
+	}
+
+	private static ThreadFactory daemonThreads(final String prefix) {
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, prefix + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * A batch of individuals parsed from a file. The last chunk of a file
+	 * carries the error that stopped it, if any.
+	 */
+	private static class Chunk {
+		private final List<Individual> individuals;
+		private final int rowsRead;
+		private final long bytesRead;
+		private final boolean last;
+		private final Exception error;
+
+		Chunk(List<Individual> individuals, int rowsRead, long bytesRead,
+				boolean last, Exception error) {
+			this.individuals = individuals;
+			this.rowsRead = rowsRead;
+			this.bytesRead = bytesRead;
+			this.last = last;
+			this.error = error;
+		}
+	}
+
+	/**
+	 * Parses one file into chunks, on a worker thread. Each file has its own
+	 * parser, as parsers cache dates and may only be used by one thread.
+	 */
+	private class FileParser implements Runnable {
+		private final File file;
+		private final int batchSize;
+		private final ArrayBlockingQueue<Chunk> queue = new ArrayBlockingQueue<Chunk>(
+				QUEUED_BATCHES);
+
+		FileParser(File file, int batchSize) {
+			this.file = file;
+			this.batchSize = batchSize;
+		}
+
+		@Override
+		public void run() {
+			SpektrixCSVParser parser = new SpektrixCSVParser();
+			List<Individual> individuals = new ArrayList<Individual>(
+					this.batchSize);
+			int rowsRead = 0;
+			Exception error = null;
+			try {
+				try (FileInputStream csvStream = new FileInputStream(this.file);
+						CSVReader reader = parser.openCSV(csvStream);) {
+					Individual ind;
+					while ((ind = parser.readIndividual(reader,
+							SeasonImport.this.venue)) != null) {
+						individuals.add(ind);
+						rowsRead++;
+						if (individuals.size() == this.batchSize) {
+							this.queue.put(new Chunk(individuals, rowsRead,
+									csvStream.getChannel().position(), false,
+									null));
+							individuals = new ArrayList<Individual>(
+									this.batchSize);
+						}
+					}
+				}
+				catch (IOException | ParseException | RuntimeException e) {
+					// Rows with missing columns fail with a runtime exception.
+					error = e;
+				}
+				this.queue.put(new Chunk(individuals, rowsRead, this.file
+						.length(), true, error));
+			}
+			catch (InterruptedException e) {
+				// The import has been stopped.
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Collects the individuals of the files into batches and stores them, on
+	 * the calling thread. Remembers which file each individual of the current
+	 * batch comes from, so that the individuals stored can be counted per
+	 * file.
+	 */
+	private class Writer {
+		private final PrimaryDatabaseManager databaseManager;
+		private final ImportProgressListener listener;
+		private final SpektrixCSVParser parser = new SpektrixCSVParser();
+		private final List<Individual> batch;
+		private final int[] batchFiles;
+		private final int[] stored = new int[SeasonImport.this.files.size()];
+		private final long totalBytes;
+		private long bytesDone;
+		private long bytesRead;
+		private int rowsRead;
+		private int individualsStored;
+
+		Writer(PrimaryDatabaseManager databaseManager,
+				ImportProgressListener listener, int batchSize) {
+			this.databaseManager = databaseManager;
+			this.listener = listener;
+			this.batch = new ArrayList<Individual>(batchSize);
+			this.batchFiles = new int[batchSize];
+			long total = 0;
+			for (File file : SeasonImport.this.files) {
+				total += file.length();
+			}
+			this.totalBytes = total;
+		}
+
+		void add(Chunk chunk, int file) throws SQLException {
+			this.bytesRead = this.bytesDone + chunk.bytesRead;
+			for (Individual ind : chunk.individuals) {
+				this.batchFiles[this.batch.size()] = file;
+				this.batch.add(ind);
+				this.rowsRead++;
+				if (this.batch.size() == this.batchFiles.length) {
+					this.flush();
+				}
+			}
+		}
+
+		void fileDone(File file) {
+			this.bytesDone += file.length();
+		}
+
+		void flush() throws SQLException {
+			if (this.batch.isEmpty()) {
+				return;
+			}
+			long[] ids = this.databaseManager
+					.storeIndividualsReturningIds(this.batch);
+			for (int i = 0; i < ids.length; i++) {
+				if (ids[i] != -1) {
+					this.stored[this.batchFiles[i]]++;
+					this.individualsStored++;
+				}
+			}
+			if (this.listener != null) {
+				this.listener.individualsStored(this.parser.withIds(
+						this.batch, ids));
+				this.listener.importProgress(this.rowsRead,
+						this.individualsStored, this.bytesRead,
+						this.totalBytes);
+			}
+			this.batch.clear();
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package uk.ac.cam.darknet.backend;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import uk.ac.cam.darknet.common.Strings;
+
+/**
+ * The outcome of a <code>SeasonImport</code>: the result of each file, the
+ * totals over all of them and the throughput of the import.
+ */
+public class SeasonImportReport {
+	private final List<FileImportResult> files;
+	private final long elapsedMillis;
+	private final int rowsRead;
+	private final int individualsStored;
+
+	SeasonImportReport(List<FileImportResult> files, long elapsedMillis) {
+		int rows = 0;
+		int stored = 0;
+		for (FileImportResult file : files) {
+			rows += file.getRowsRead();
+			stored += file.getIndividualsStored();
+		}
+		this.files = Collections.unmodifiableList(files);
+		this.elapsedMillis = elapsedMillis;
+		this.rowsRead = rows;
+		this.individualsStored = stored;
+	}
+
+	/**
+	 * @return The results of the files, in the order they were imported in.
+	 */
+	public List<FileImportResult> getFiles() {
+		return this.files;
+	}
+
+	/**
+	 * @return The results of the files that could not be read to the end.
+	 */
+	public List<FileImportResult> getFailedFiles() {
+		List<FileImportResult> failed = new ArrayList<FileImportResult>();
+		for (FileImportResult file : this.files) {
+			if (file.isFailed()) {
+				failed.add(file);
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * @return The number of rows read from all the files.
+	 */
+	public int getRowsRead() {
+		return this.rowsRead;
+	}
+
+	/**
+	 * @return The number of individuals stored in the database, not counting
+	 *         duplicates and invalid rows.
+	 */
+	public int getIndividualsStored() {
+		return this.individualsStored;
+	}
+
+	/**
+	 * @return The time the whole import took in milliseconds.
+	 */
+	public long getElapsedMillis() {
+		return this.elapsedMillis;
+	}
+
+	/**
+	 * @return The number of rows read and stored per second, over the whole
+	 *         import.
+	 */
+	public double getRowsPerSecond() {
+		return this.rowsRead * 1000.0 / Math.max(this.elapsedMillis, 1);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Strings.SEASON_IMPORT_REPORT, this.files.size(),
+				this.rowsRead, this.individualsStored,
+				this.elapsedMillis / 1000.0,
+				Math.round(this.getRowsPerSecond()),
+				this.getFailedFiles().size());
+	}
+}
@@ -1,7 +1,11 @@
 package uk.ac.cam.darknet.backend;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import uk.ac.cam.darknet.common.AttributeCategories;
 import uk.ac.cam.darknet.common.Individual;
@@ -11,12 +15,19 @@ import uk.ac.cam.darknet.database.SecondaryDatabaseManager;
  * Secondary data collectors harvest data from various sources (mostly the
  * Internet) such as Facebook, Twitter and LinkedIn.
  * 
+ * A collector that cannot collect anything, for example because it has not
+ * been set up or its source cannot be reached, should throw an unchecked
+ * exception from <code>run()</code>, so that it is reported as failed.
+ * 
  * @author Augustin Zidek
  * 
  */
 public abstract class SecondaryDataCollector implements DataCollector {
 	protected SecondaryDatabaseManager databaseManager;
 	protected Hashtable<String, AttributeCategories> attributeTable;
+	private final AtomicInteger itemsCollected = new AtomicInteger();
+	private final List<Individual> individualsCollected = Collections
+			.synchronizedList(new ArrayList<Individual>());
 
 	/**
 	 * This method returns a table of the attributes that this collector
@@ -76,6 +87,50 @@ public abstract class SecondaryDataCollector implements DataCollector {
 	 */
 	public abstract void setup(List<Individual> individuals);
 
+	/**
+	 * Returns the number of items of data this collector has found so far,
+	 * for example the number of people matched or photos downloaded. What
+	 * counts as an item is up to the collector.
+	 * 
+	 * @return The number of items collected.
+	 */
+	public int getItemsCollected() {
+		return this.itemsCollected.get();
+	}
+
+	/**
+	 * Adds to the number of items collected. May be called from any thread.
+	 * 
+	 * @param count The number of items just found.
+	 */
+	protected void addItemsCollected(int count) {
+		this.itemsCollected.addAndGet(count);
+	}
+
+	/**
+	 * Returns the individuals this collector has looked up and whose data it
+	 * has stored in the database. Individuals it could not look up, or whose
+	 * data could not be stored, are left out, so that they are collected again
+	 * next time.
+	 * 
+	 * @return The individuals collected so far.
+	 */
+	public List<Individual> getIndividualsCollected() {
+		synchronized (this.individualsCollected) {
+			return new ArrayList<Individual>(this.individualsCollected);
+		}
+	}
+
+	/**
+	 * Adds to the individuals collected. Must only be called once their data
+	 * has been stored. May be called from any thread.
+	 * 
+	 * @param individuals The individuals just collected.
+	 */
+	protected void addIndividualsCollected(Collection<Individual> individuals) {
+		this.individualsCollected.addAll(individuals);
+	}
+
 	@Override
 	public String getCollectorId() {
 		return this.getClass().getSimpleName();
@@ -5,18 +5,29 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.sql.SQLException;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import uk.ac.cam.darknet.common.AttributeCategories;
 import uk.ac.cam.darknet.common.Individual;
+import uk.ac.cam.darknet.database.PrimaryDatabaseManager;
 import uk.ac.cam.darknet.exceptions.ConfigFileNotFoundException;
 import au.com.bytecode.opencsv.CSVReader;
 
@@ -26,12 +37,26 @@ import au.com.bytecode.opencsv.CSVReader;
  * into the system. This collector supports reading comma-separated values (CSV)
  * files generated by booking systems.
  * 
+ * A parser keeps a cache of the dates it has parsed, as the rows of a show all
+ * share the same date. It should therefore only be used by one thread at a
+ * time.
+ * 
  * @author Farah Patel
  */
 public class SpektrixCSVParser {
+	private static final String DATE_FORMAT = "dd/MM/yyyy HH:mm:ss";
+	private static final int DATE_CACHE_SIZE = 1024;
+	// The number of batches parsed ahead of the database. Together with the
+	// batch size this bounds the memory used by an import.
+	private static final int QUEUED_BATCHES = 2;
+	private final DateFormat df = new SimpleDateFormat(DATE_FORMAT);
+	private final HashMap<String, Date> dateCache = new HashMap<String, Date>();
+	private final Hashtable<String, AttributeCategories> table = new Hashtable<String, AttributeCategories>();
 
 	/**
-	 * Parses CSV file from Spektrix and produces a list of Individuals
+	 * Parses CSV file from Spektrix and produces a list of Individuals. The
+	 * whole file is held in memory, so large files should rather be imported
+	 * with {@link #importCSV(String, int, PrimaryDatabaseManager, ImportProgressListener)}.
 	 * 
 	 * @param pathname path to Spektrix CSV file, CSV file expected to have the
 	 *            following format: Customer Id, First Name, Last Name, Email
@@ -50,25 +75,217 @@ public class SpektrixCSVParser {
 			throws IOException, SQLException, ParseException {
 		List<Individual> audience = new ArrayList<Individual>();
 		InputStream csvStream = new FileInputStream(new File(pathname));
-		try (CSVReader reader = new CSVReader(new InputStreamReader(csvStream));) {
-			String[] nextLine;
-			DateFormat df = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss");
-			Hashtable<String, AttributeCategories> table = new Hashtable<String, AttributeCategories>();
-			reader.readNext(); // get rid of column titles (first line ignored.
-								// assumed to be field names)
-			while ((nextLine = reader.readNext()) != null) {
-				if (nextLine != null) {
-					Date eventDate = df.parse(nextLine[5]);
-					Individual ind = Individual.getNewIndividual(nextLine[1],
-							nextLine[2], nextLine[3], eventDate, venue,
-							nextLine[6], table);
-					audience.add(ind);
-				}
+		try (CSVReader reader = this.openCSV(csvStream);) {
+			Individual ind;
+			while ((ind = this.readIndividual(reader, venue)) != null) {
+				audience.add(ind);
 			}
 			return audience;
 		}
 	}
 
+	/**
+	 * Streams a CSV file from Spektrix into the database. Rows are parsed on
+	 * the calling thread and handed in batches to a second thread that stores
+	 * them with the given database manager, so the memory used does not depend
+	 * on the length of the file. The batches have the batch size of the
+	 * database manager. Batches stored before an error remain in the database,
+	 * and the method does not return or throw before the writer has stopped.
+	 * Several files are imported at once with {@link SeasonImport}.
+	 * 
+	 * @param pathname path to Spektrix CSV file, in the format described in
+	 *            {@link #loadfromCSV(String, int)}.
+	 * @param venue The ID of the venue at which the show is going to take
+	 *            place.
+	 * @param databaseManager The database manager to store the individuals
+	 *            with.
+	 * @param listener The listener notified after every batch stored, or null.
+	 * @return The number of individuals stored in the database.
+	 * @throws IOException If CSV file not found or if read is unsuccessful
+	 * @throws SQLException
+	 * @throws ParseException
+	 */
+	public int importCSV(String pathname, int venue,
+			final PrimaryDatabaseManager databaseManager,
+			final ImportProgressListener listener) throws IOException,
+			SQLException, ParseException {
+		final File file = new File(pathname);
+		final long totalBytes = file.length();
+		final int batchSize = databaseManager.getBatchSize();
+		final ArrayBlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(
+				QUEUED_BATCHES);
+		final ExecutorService writer = Executors.newSingleThreadExecutor();
+		final Future<Integer> stored = writer.submit(new Callable<Integer>() {
+			@Override
+			public Integer call() throws SQLException, InterruptedException {
+				int individualsStored = 0;
+				Batch batch;
+				// An empty batch marks the end of the file.
+				while (!(batch = queue.take()).individuals.isEmpty()) {
+					if (listener == null) {
+						individualsStored += databaseManager
+								.storeIndividual(batch.individuals);
+					}
+					else {
+						List<Individual> inserted = SpektrixCSVParser.this
+								.withIds(batch.individuals, databaseManager
+										.storeIndividualsReturningIds(batch.individuals));
+						individualsStored += inserted.size();
+						listener.individualsStored(inserted);
+						listener.importProgress(batch.rowsRead,
+								individualsStored, batch.bytesRead, totalBytes);
+					}
+				}
+				return individualsStored;
+			}
+		});
+		try (FileInputStream csvStream = new FileInputStream(file);
+				CSVReader reader = this.openCSV(csvStream);) {
+			List<Individual> individuals = new ArrayList<Individual>(batchSize);
+			int rowsRead = 0;
+			Individual ind;
+			while ((ind = this.readIndividual(reader, venue)) != null) {
+				individuals.add(ind);
+				rowsRead++;
+				if (individuals.size() == batchSize) {
+					enqueue(queue, new Batch(individuals, rowsRead, csvStream
+							.getChannel().position()), stored);
+					individuals = new ArrayList<Individual>(batchSize);
+				}
+			}
+			if (!individuals.isEmpty()) {
+				enqueue(queue, new Batch(individuals, rowsRead, totalBytes),
+						stored);
+			}
+			enqueue(queue, new Batch(Collections.<Individual> emptyList(),
+					rowsRead, totalBytes), stored);
+			return getResult(stored);
+		}
+		finally {
+			// Stops the writer if the file could not be read to the end. The
+			// writer may miss the interruption while it is storing a batch,
+			// so it is also given the end of the file instead of the batches
+			// that have not been stored yet.
+			writer.shutdownNow();
+			queue.clear();
+			queue.offer(new Batch(Collections.<Individual> emptyList(), 0, 0));
+			awaitTermination(writer);
+		}
+	}
+
+	// Waits for the writer to finish the batch it may be storing, so that the
+	// database is no longer written to once the import has returned.
+	private static void awaitTermination(ExecutorService writer) {
+		boolean interrupted = false;
+		while (!writer.isTerminated()) {
+			try {
+				writer.awaitTermination(1, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// Returns the individuals that have been given an ID by the database,
+	// as new individuals carrying that ID.
+	List<Individual> withIds(List<Individual> individuals, long[] ids) {
+		List<Individual> stored = new ArrayList<Individual>(individuals.size());
+		Individual ind;
+		for (int i = 0; i < ids.length; i++) {
+			if (ids[i] != -1) {
+				ind = individuals.get(i);
+				stored.add(new Individual(ids[i], ind.getFirstName(), ind
+						.getLastName(), ind.getEmail(), ind.getEventDate(), ind
+						.getEventVenue(), ind.getSeat(), this.table));
+			}
+		}
+		return stored;
+	}
+
+	CSVReader openCSV(InputStream csvStream) throws IOException {
+		CSVReader reader = new CSVReader(new InputStreamReader(csvStream));
+		reader.readNext(); // get rid of column titles (first line ignored.
+							// assumed to be field names)
+		return reader;
+	}
+
+	// Returns the individual on the next row, or null at the end of the file.
+	Individual readIndividual(CSVReader reader, int venue)
+			throws IOException, ParseException {
+		String[] nextLine = reader.readNext();
+		if (nextLine == null) {
+			return null;
+		}
+		Date eventDate = this.parseDate(nextLine[5]);
+		return Individual.getNewIndividual(nextLine[1], nextLine[2],
+				nextLine[3], eventDate, venue, nextLine[6], this.table);
+	}
+
+	private Date parseDate(String text) throws ParseException {
+		Date date = this.dateCache.get(text);
+		if (date == null) {
+			if (this.dateCache.size() >= DATE_CACHE_SIZE) {
+				this.dateCache.clear();
+			}
+			date = this.df.parse(text);
+			this.dateCache.put(text, date);
+		}
+		// Hand out copies, as dates are mutable.
+		return new Date(date.getTime());
+	}
+
+	// Blocks until the writer has room for the batch, unless it has failed.
+	private static void enqueue(ArrayBlockingQueue<Batch> queue, Batch batch,
+			Future<Integer> writer) throws SQLException, InterruptedIOException {
+		try {
+			while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+				if (writer.isDone()) {
+					getResult(writer);
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		}
+	}
+
+	private static int getResult(Future<Integer> writer) throws SQLException,
+			InterruptedIOException {
+		try {
+			return writer.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof SQLException) {
+				throw (SQLException) e.getCause();
+			}
+			else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new SQLException(e.getCause());
+		}
+	}
+
+	private static class Batch {
+		private final List<Individual> individuals;
+		private final int rowsRead;
+		private final long bytesRead;
+
+		Batch(List<Individual> individuals, int rowsRead, long bytesRead) {
+			this.individuals = individuals;
+			this.rowsRead = rowsRead;
+			this.bytesRead = bytesRead;
+		}
+	}
+
 	/**
 	 * this method is for testing purposes only
 	 * 
@@ -0,0 +1,202 @@
+package uk.ac.cam.darknet.backend;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import uk.ac.cam.darknet.common.Individual;
+
+/**
+ * An index of the individuals a secondary data collector is looking for, used
+ * to match the people found on a social network against them. It is built
+ * once per run and hashes the targets by normalized email address and by
+ * normalized full name, so that each person is matched in near-constant time
+ * instead of being compared with every target.
+ *
+ * Names are normalized by removing accents, punctuation and surplus white
+ * space and by ignoring case. Optionally, targets are also put into fuzzy
+ * buckets by first initial and last name and by first name and last initial,
+ * so that names with a small typo in either part are still matched.
+ *
+ * The index is not modified after it has been built and may be read by
+ * several threads at once.
+ */
+public class TargetIndex {
+	// The maximum number of edits between two full names matched fuzzily.
+	private static final int MAX_DISTANCE = 2;
+	private static final Pattern ACCENTS = Pattern.compile("\\p{M}+");
+	private static final Pattern PUNCTUATION = Pattern.compile("[^\\p{L}\\p{N} ]+");
+	private static final Pattern SPACES = Pattern.compile("\\s+");
+	private final boolean fuzzy;
+	private final HashMap<String, List<Individual>> byEmail = new HashMap<String, List<Individual>>();
+	private final HashMap<String, List<Individual>> byName = new HashMap<String, List<Individual>>();
+	private final HashMap<String, List<Individual>> byFirstInitial = new HashMap<String, List<Individual>>();
+	private final HashMap<String, List<Individual>> byLastInitial = new HashMap<String, List<Individual>>();
+
+	/**
+	 * Builds an index of the given targets.
+	 *
+	 * @param targets The individuals to look for.
+	 * @param fuzzy Whether names that differ slightly from the name of a target
+	 *            should still match it.
+	 */
+	public TargetIndex(List<Individual> targets, boolean fuzzy) {
+		String email, first, last;
+		this.fuzzy = fuzzy;
+		for (Individual target : targets) {
+			email = normalizeEmail(target.getEmail());
+			if (email != null) {
+				add(this.byEmail, email, target);
+			}
+			first = normalizeName(target.getFirstName());
+			last = normalizeName(target.getLastName());
+			if (first == null || last == null) {
+				continue;
+			}
+			add(this.byName, first + " " + last, target);
+			if (fuzzy) {
+				add(this.byFirstInitial, first.charAt(0) + " " + last, target);
+				add(this.byLastInitial, first + " " + last.charAt(0), target);
+			}
+		}
+	}
+
+	/**
+	 * Returns the targets matching a person by email address or by full name.
+	 * If fuzzy matching is enabled and no target matches exactly, the targets
+	 * whose full name is at most two edits away from the given one are
+	 * returned instead.
+	 *
+	 * @param email The email address of the person, or null if unknown.
+	 * @param firstName The first name of the person, or null if unknown.
+	 * @param lastName The last name of the person, or null if unknown.
+	 * @return The matching targets, without duplicates. The list is empty if
+	 *         there are none.
+	 */
+	public List<Individual> find(String email, String firstName,
+			String lastName) {
+		LinkedHashSet<Individual> matches = new LinkedHashSet<Individual>();
+		String normalizedEmail = normalizeEmail(email);
+		String first = normalizeName(firstName);
+		String last = normalizeName(lastName);
+		String name;
+		if (normalizedEmail != null) {
+			addAll(matches, this.byEmail.get(normalizedEmail));
+		}
+		if (first == null || last == null) {
+			return new ArrayList<Individual>(matches);
+		}
+		name = first + " " + last;
+		addAll(matches, this.byName.get(name));
+		if (this.fuzzy && matches.isEmpty()) {
+			this.addFuzzyMatches(matches,
+					this.byFirstInitial.get(first.charAt(0) + " " + last), name);
+			this.addFuzzyMatches(matches,
+					this.byLastInitial.get(first + " " + last.charAt(0)), name);
+		}
+		return new ArrayList<Individual>(matches);
+	}
+
+	/**
+	 * Normalizes an email address for matching.
+	 *
+	 * @param email The email address.
+	 * @return The trimmed address in lower case, or null if it is null or
+	 *         empty.
+	 */
+	public static String normalizeEmail(String email) {
+		if (email == null) {
+			return null;
+		}
+		email = email.trim().toLowerCase(Locale.ENGLISH);
+		return email.isEmpty() ? null : email;
+	}
+
+	/**
+	 * Normalizes a first or last name for matching.
+	 *
+	 * @param name The name.
+	 * @return The name in lower case without accents, punctuation and surplus
+	 *         white space, or null if nothing is left of it.
+	 */
+	public static String normalizeName(String name) {
+		if (name == null) {
+			return null;
+		}
+		name = Normalizer.normalize(name, Normalizer.Form.NFD);
+		name = ACCENTS.matcher(name).replaceAll("");
+		name = PUNCTUATION.matcher(name.replace('-', ' ')).replaceAll("");
+		name = SPACES.matcher(name).replaceAll(" ").trim();
+		name = name.toLowerCase(Locale.ENGLISH);
+		return name.isEmpty() ? null : name;
+	}
+
+	private void addFuzzyMatches(LinkedHashSet<Individual> matches,
+			List<Individual> bucket, String name) {
+		if (bucket == null) {
+			return;
+		}
+		for (Individual candidate : bucket) {
+			if (distance(name, normalizeName(candidate.getFirstName()) + " "
+					+ normalizeName(candidate.getLastName())) <= MAX_DISTANCE) {
+				matches.add(candidate);
+			}
+		}
+	}
+
+	/**
+	 * Computes the edit (Levenshtein) distance of two strings, giving up as
+	 * soon as it is certain to exceed <code>MAX_DISTANCE</code>.
+	 */
+	private static int distance(String a, String b) {
+		int[] previous, current, swap;
+		int rowMinimum;
+		if (Math.abs(a.length() - b.length()) > MAX_DISTANCE) {
+			return MAX_DISTANCE + 1;
+		}
+		previous = new int[b.length() + 1];
+		current = new int[b.length() + 1];
+		for (int j = 0; j <= b.length(); j++) {
+			previous[j] = j;
+		}
+		for (int i = 1; i <= a.length(); i++) {
+			current[0] = i;
+			rowMinimum = i;
+			for (int j = 1; j <= b.length(); j++) {
+				current[j] = Math.min(
+						Math.min(current[j - 1], previous[j]) + 1,
+						previous[j - 1]
+								+ (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1));
+				rowMinimum = Math.min(rowMinimum, current[j]);
+			}
+			if (rowMinimum > MAX_DISTANCE) {
+				return MAX_DISTANCE + 1;
+			}
+			swap = previous;
+			previous = current;
+			current = swap;
+		}
+		return previous[b.length()];
+	}
+
+	private static void add(HashMap<String, List<Individual>> index,
+			String key, Individual target) {
+		List<Individual> bucket = index.get(key);
+		if (bucket == null) {
+			bucket = new ArrayList<Individual>(1);
+			index.put(key, bucket);
+		}
+		bucket.add(target);
+	}
+
+	private static void addAll(LinkedHashSet<Individual> matches,
+			List<Individual> bucket) {
+		if (bucket != null) {
+			matches.addAll(bucket);
+		}
+	}
+}
@@ -54,6 +54,7 @@ public class TwitterDataCollector extends SecondaryDataCollector {
 			
 			try {
 				users = twitter.searchUsers(demoName, 1);
+				this.addItemsCollected(users.size());
 				
 				for(User u: users) {
 					if (u.getStatus() != null) {
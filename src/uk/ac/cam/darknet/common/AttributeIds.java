@@ -0,0 +1,82 @@
+package uk.ac.cam.darknet.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns attribute names as small integer IDs, so that each attribute stored in a
+ * <code>Properties</code> object costs an <code>int</code> rather than a reference to a hash table
+ * entry. The IDs are shared by the whole application: when a name is interned for the first time,
+ * all the names of the global attribute table it comes from are given the next IDs, in order, so
+ * that the IDs are the ordinals of the attributes in that table. Looking up an ID never locks.
+ */
+final class AttributeIds {
+	private static final ConcurrentHashMap<String, Integer>	IDS		= new ConcurrentHashMap<String, Integer>();
+	private static volatile String[]						names	= new String[0];
+
+	private AttributeIds() {
+	}
+
+	/**
+	 * Returns the ID of an attribute name, or -1 if the name has never been interned.
+	 * 
+	 * @param name
+	 *            The attribute name.
+	 * @return The ID of the name, or -1.
+	 */
+	static int idOf(String name) {
+		Integer id = IDS.get(name);
+		return id == null ? -1 : id.intValue();
+	}
+
+	/**
+	 * Returns the ID of an attribute name of the given global attribute table, interning the names
+	 * of the table first if needed.
+	 * 
+	 * @param name
+	 *            The attribute name, which must be present in the table.
+	 * @param globalAttributeTable
+	 *            The global table the name comes from.
+	 * @return The ID of the name.
+	 */
+	static int intern(String name, Hashtable<String, AttributeCategories> globalAttributeTable) {
+		Integer id = IDS.get(name);
+		if (id != null)
+			return id.intValue();
+		return internTable(name, globalAttributeTable);
+	}
+
+	/**
+	 * Returns the attribute name with the given ID.
+	 * 
+	 * @param id
+	 *            An ID returned by <code>intern</code>.
+	 * @return The attribute name.
+	 */
+	static String nameOf(int id) {
+		return names[id];
+	}
+
+	private static synchronized int internTable(String name, Hashtable<String, AttributeCategories> globalAttributeTable) {
+		List<String> tableNames = new ArrayList<String>(globalAttributeTable.keySet());
+		// Hash table order is arbitrary; sort so that the ordinals do not depend on it.
+		Collections.sort(tableNames);
+		if (!tableNames.contains(name))
+			tableNames.add(name);
+		int first = names.length;
+		List<String> newNames = new ArrayList<String>(Arrays.asList(names));
+		for (String currentName : tableNames) {
+			if (!IDS.containsKey(currentName))
+				newNames.add(currentName);
+		}
+		// Publish the names before their IDs, so that any ID read can be resolved.
+		names = newNames.toArray(new String[newNames.size()]);
+		for (int i = first; i < names.length; i++)
+			IDS.put(names[i], i);
+		return IDS.get(name).intValue();
+	}
+}
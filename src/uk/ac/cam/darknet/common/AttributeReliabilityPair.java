@@ -1,7 +1,5 @@
 package uk.ac.cam.darknet.common;
 
-import uk.ac.cam.darknet.exceptions.InvalidReliabilityException;
-
 /**
  * This simple class is used to store an attribute with its reliability. This class is constructed
  * only by the <code>Properties</code> class. When retrieving attributes, client code should cast it
@@ -13,9 +11,8 @@ public class AttributeReliabilityPair {
 	private final Object	attribute;
 	private final double	reliability;
 
-	AttributeReliabilityPair(Object attribute, double reliability) throws InvalidReliabilityException {
-		if (reliability < 0.0 || reliability > 1.0)
-			throw new InvalidReliabilityException(Strings.INVALID_RELIABILITY_EXN);
+	// The reliability has already been checked by the Properties class.
+	AttributeReliabilityPair(Object attribute, double reliability) {
 		this.attribute = attribute;
 		this.reliability = reliability;
 	}
@@ -193,6 +193,8 @@ public class Individual {
 	 * <code>UnknownAttributeException</code> will be thrown. If the type of the object is not as
 	 * specified by the attribute category, an <code>InvalidAttributeType</code> exception will be
 	 * thrown. This method delegates the request to the underlying <code>Properties</code> object.
+	 * Like it, this method is not thread-safe: threads adding attributes to the same individual at
+	 * once must lock the individual.
 	 * 
 	 * @param attributeName
 	 *            The name of the attribute to add.
@@ -1,6 +1,8 @@
 package uk.ac.cam.darknet.common;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.List;
@@ -17,11 +19,24 @@ import uk.ac.cam.darknet.exceptions.UnknownAttributeException;
  * attribute table when being added. However, client code should cast retrieved attributes as they
  * have to be returned as <code>Object</code>.
  * 
+ * There is one of these objects per individual, so the attributes are kept in three parallel
+ * arrays holding the interned ID of the attribute name, the value and the reliability of each
+ * attribute, in the order they were added. The pairs returned are created when they are asked for.
+ * This class is not thread-safe: an individual filled in by several threads at once must be locked
+ * by them. Once filled in, it may be read by any number of threads.
+ * 
  * @author Ibtehaj Nadeem
  */
 public class Properties {
-	private final Hashtable<String, AttributeCategories>		globalAttributeTable;
-	private Hashtable<String, List<AttributeReliabilityPair>>	hashtable;
+	private static final int								INITIAL_CAPACITY	= 4;
+	private static final int[]								NO_IDS				= new int[0];
+	private static final Object[]							NO_VALUES			= new Object[0];
+	private static final double[]							NO_RELIABILITIES	= new double[0];
+	private final Hashtable<String, AttributeCategories>	globalAttributeTable;
+	private int[]											ids					= NO_IDS;
+	private Object[]										values				= NO_VALUES;
+	private double[]										reliabilities		= NO_RELIABILITIES;
+	private int												size;
 
 	/**
 	 * Constructs a new <code>Properties</code> object with the given attribute table. This object
@@ -35,7 +50,6 @@ public class Properties {
 	 */
 	public Properties(final Hashtable<String, AttributeCategories> globalAttributeTable) {
 		this.globalAttributeTable = globalAttributeTable;
-		this.hashtable = new Hashtable<String, List<AttributeReliabilityPair>>();
 	}
 
 	/**
@@ -56,7 +70,7 @@ public class Properties {
 	 * @throws InvalidAttributeTypeException
 	 * @throws InvalidReliabilityException
 	 */
-	public synchronized void put(String key, Object value, double reliability) throws UnknownAttributeException, InvalidAttributeTypeException, InvalidReliabilityException {
+	public void put(String key, Object value, double reliability) throws UnknownAttributeException, InvalidAttributeTypeException, InvalidReliabilityException {
 		AttributeCategories attributeCategory = this.globalAttributeTable.get(key);
 		// Check if the key is a valid attribute.
 		if (attributeCategory == null)
@@ -64,15 +78,20 @@ public class Properties {
 		// Check if the value is of the correct type.
 		if (!attributeCategory.isObjectCompatible(value))
 			throw new InvalidAttributeTypeException(String.format(Strings.INVALID_TYPE_EXN, key, attributeCategory.getClassName()));
-		// If both checks are passed, add the new key-value pair.
-		AttributeReliabilityPair newAttrRel = new AttributeReliabilityPair(value, reliability);
-		if (this.hashtable.containsKey(key)) {
-			this.hashtable.get(key).add(newAttrRel);
-		} else {
-			ArrayList<AttributeReliabilityPair> newList = new ArrayList<AttributeReliabilityPair>();
-			newList.add(newAttrRel);
-			this.hashtable.put(key, newList);
+		// Check if the reliability is valid.
+		if (reliability < 0.0 || reliability > 1.0)
+			throw new InvalidReliabilityException(Strings.INVALID_RELIABILITY_EXN);
+		// If all checks are passed, add the new key-value pair.
+		if (this.size == this.ids.length) {
+			int capacity = Math.max(INITIAL_CAPACITY, this.size * 2);
+			this.ids = Arrays.copyOf(this.ids, capacity);
+			this.values = Arrays.copyOf(this.values, capacity);
+			this.reliabilities = Arrays.copyOf(this.reliabilities, capacity);
 		}
+		this.ids[this.size] = AttributeIds.intern(key, this.globalAttributeTable);
+		this.values[this.size] = value;
+		this.reliabilities[this.size] = reliability;
+		this.size++;
 	}
 
 	/**
@@ -80,11 +99,11 @@ public class Properties {
 	 * 
 	 * @param key
 	 *            The attribute name whose associated list of values is to be returned.
-	 * @return The list of values to which the specified attribute name is mapped, or null if this
-	 *         map contains no mapping for the attribute.
+	 * @return The unmodifiable list of values to which the specified attribute name is mapped, or
+	 *         null if this map contains no mapping for the attribute.
 	 */
-	public synchronized List<AttributeReliabilityPair> get(String key) {
-		return this.hashtable.get(key);
+	public List<AttributeReliabilityPair> get(String key) {
+		return this.get(AttributeIds.idOf(key));
 	}
 
 	/**
@@ -94,15 +113,27 @@ public class Properties {
 	 * @param key
 	 *            The key of the key-value pair to remove.
 	 */
-	public synchronized void remove(String key) {
-		this.hashtable.remove(key);
+	public void remove(String key) {
+		int id = AttributeIds.idOf(key);
+		int kept = 0;
+		for (int i = 0; i < this.size; i++) {
+			if (this.ids[i] != id) {
+				this.ids[kept] = this.ids[i];
+				this.values[kept] = this.values[i];
+				this.reliabilities[kept] = this.reliabilities[i];
+				kept++;
+			}
+		}
+		Arrays.fill(this.values, kept, this.size, null);
+		this.size = kept;
 	}
 
 	/**
 	 * Clears this <code>Properties</code> object so that it contains no more attributes.
 	 */
-	public synchronized void clear() {
-		this.hashtable.clear();
+	public void clear() {
+		Arrays.fill(this.values, 0, this.size, null);
+		this.size = 0;
 	}
 
 	/**
@@ -113,8 +144,13 @@ public class Properties {
 	 *            The name of the attribute whose presence should be checked.
 	 * @return True if the key is contained, false otherwise.
 	 */
-	public synchronized boolean containsAttribute(String key) {
-		return this.hashtable.containsKey(key);
+	public boolean containsAttribute(String key) {
+		int id = AttributeIds.idOf(key);
+		for (int i = 0; i < this.size; i++) {
+			if (this.ids[i] == id)
+				return true;
+		}
+		return false;
 	}
 
 	/**
@@ -122,8 +158,13 @@ public class Properties {
 	 * 
 	 * @return an enumeration of the values in this <code>Properties</code> object.
 	 */
-	public synchronized Enumeration<List<AttributeReliabilityPair>> elements() {
-		return this.hashtable.elements();
+	public Enumeration<List<AttributeReliabilityPair>> elements() {
+		List<List<AttributeReliabilityPair>> elements = new ArrayList<List<AttributeReliabilityPair>>();
+		for (int i = 0; i < this.size; i++) {
+			if (this.isFirst(i))
+				elements.add(this.get(this.ids[i]));
+		}
+		return Collections.enumeration(elements);
 	}
 
 	/**
@@ -131,7 +172,33 @@ public class Properties {
 	 * 
 	 * @return an enumeration of the keys in this <code>Properties</code> object.
 	 */
-	public synchronized Enumeration<String> keys() {
-		return this.hashtable.keys();
+	public Enumeration<String> keys() {
+		List<String> keys = new ArrayList<String>();
+		for (int i = 0; i < this.size; i++) {
+			if (this.isFirst(i))
+				keys.add(AttributeIds.nameOf(this.ids[i]));
+		}
+		return Collections.enumeration(keys);
+	}
+
+	private List<AttributeReliabilityPair> get(int id) {
+		List<AttributeReliabilityPair> pairs = null;
+		for (int i = 0; i < this.size; i++) {
+			if (this.ids[i] == id) {
+				if (pairs == null)
+					pairs = new ArrayList<AttributeReliabilityPair>(2);
+				pairs.add(new AttributeReliabilityPair(this.values[i], this.reliabilities[i]));
+			}
+		}
+		return pairs == null ? null : Collections.unmodifiableList(pairs);
+	}
+
+	// Individuals hold a handful of attributes, so a linear scan beats any set.
+	private boolean isFirst(int index) {
+		for (int i = 0; i < index; i++) {
+			if (this.ids[i] == this.ids[index])
+				return false;
+		}
+		return true;
 	}
-}
\ No newline at end of file
+}
@@ -41,4 +41,16 @@ public class Show {
 	public Venue getVenue() {
 		return this.venue;
 	}
+
+	/**
+	 * Returns the date of a show in whole seconds. Shows are stored with a precision of one second,
+	 * so dates must be compared in seconds to tell whether they are of the same show.
+	 * 
+	 * @param date
+	 *            The date and time of a show.
+	 * @return The number of seconds since the epoch.
+	 */
+	public static long toSeconds(Date date) {
+		return date.getTime() / 1000;
+	}
 }
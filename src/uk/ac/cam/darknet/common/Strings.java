@@ -24,6 +24,22 @@ public class Strings {
 	public static final String LOG_FORMAT_EXCEPTION			= "Exception occurred in conditional block of log formatter while trying to format a log entry! Check. Exception type: ";
 	public static final String NULL_GLOBAL_TABLE_EXN		= "The global attribute table cannot be null.";
 	public static final String REQUEST_NOT_SATISFIABLE		= "The request could not be satisfied.";
+	public static final String CONFIG_NOT_FOUND_EXN			= "The database configuration file %1$s could not be found.";
+	public static final String INVALID_SETTING				= "Ignoring the invalid value '%2$s' of the database setting %1$s.";
+	public static final String POOL_CLOSED_EXN				= "The database connection pool has been closed.";
+	public static final String POOL_INTERRUPTED_EXN			= "Interrupted while waiting for a database connection.";
+	public static final String POOL_RELEASED_EXN			= "The database connection has already been returned to the pool.";
+	public static final String STATEMENT_CLOSED_EXN			= "The statement has already been closed.";
+	public static final String INDIVIDUAL_DISCARDED			= "Discarding the individual %1$s %2$s as its name or show is missing or invalid.";
+	public static final String SCHEMA_MIGRATED				= "Migrated the database schema of %1$s to version %2$d.";
+	public static final String ATTRIBUTES_KEYED				= "Removed the duplicate attributes of %2$d individuals from %1$s.";
+	public static final String ATTRIBUTE_REJECTED			= "Skipping a %1$s attribute of the individual %2$d rejected by the database: %3$s";
+	public static final String EMBEDDED_SHUTDOWN_FAILED		= "Could not shut down the embedded database %1$s cleanly: %2$s";
+	public static final String CSV_NO_FILES_EXN				= "No CSV files match %1$s.";
+	public static final String CSV_FILE_FAILED				= "Could not import the CSV file %1$s completely after %2$d rows: %3$s";
+	public static final String CSV_FILE_IMPORTED			= "%1$s: %2$d rows, %3$d individuals stored";
+	public static final String SEASON_IMPORT_REPORT			= "%1$d files, %2$d rows, %3$d individuals stored in %4$s s (%5$d rows/s), %6$d files failed";
+	public static final String SEASON_IMPORT_DONE			= "Season import: %1$s";
 
 	// Date formats - DatabaseManager, LoggerFactory
 	public static final String DB_DATE_FORMAT				= "yyyy-MM-dd HH:mm:ss";
@@ -39,6 +55,7 @@ public class Strings {
 	public static final String GUI_DB_CONN_ERR				= "It wasn't possible to connect to the database.";
 	public static final String GUI_CSV_ADD_ERR				= "It wasn't possible to open or parse the given CSV file. Have you selected the right one :-)?";
 	public static final String GUI_DB_CSV_ADD_ERR			= "It wasn't possible to load the individuals from the CSV file into the database. Check your CSV file.";
+	public static final String GUI_CSV_FILES_FAILED			= "The following files could not be imported completely:";
 	public static final String GUI_SET_NEW_VENUE 			= "Please set a name for the new venue.";
 	public static final String GUI_VENUE_ADD_ERR 			= "It wasn't possible to add venue to the database. Check your connection and spelling.";
 	public static final String GUI_DB_DEL_IND_ERR 			= "It wasn't possible to delete this individual. Check your connection.";
@@ -53,6 +70,12 @@ public class Strings {
 	public static final String GUI_COLL_ERROR 				= "There was an error loading the collectors.";
 	public static final String GUI_COLLECTION_STARTED 		= "Data collection started. Please be patient, this might take a while.";
 	public static final String GUI_COLL_DONE 				= "Collection done!";
+	public static final String GUI_COLLECT_LABEL			= "Collect selected data";
+	public static final String GUI_CANCEL_COLL_LABEL		= "Cancel collection";
+	public static final String GUI_COLL_CANCELLING			= "Cancelling collection";
+	public static final String GUI_COLL_UP_TO_DATE 			= "The selected collectors have recently collected data on everyone. There is nothing new to collect.";
 	public static final String GUI_EFFECTS_DONE 			= "All effects executed successfully.";
 	public static final String GUI_EFFECT_ARG_PREFIX 		= "Please type in the ";
+	public static final String GUI_EFFECTS_FAILED 			= "The following effects failed: ";
+	public static final String GUI_EFFECTS_TIMES 			= "Time taken by each effect:";
 }
\ No newline at end of file
@@ -0,0 +1,722 @@
+package uk.ac.cam.darknet.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import uk.ac.cam.darknet.common.AttributeCategories;
+import uk.ac.cam.darknet.common.Show;
+import uk.ac.cam.darknet.common.Strings;
+import uk.ac.cam.darknet.exceptions.UnknownAttributeException;
+
+/**
+ * An immutable, column by column copy of the audience of a show (or of all shows) with all their
+ * attributes, for effects that aggregate over the whole audience rather than pick a few
+ * individuals. It is read once by <code>DatabaseManager.getAudienceSnapshot</code>.
+ * 
+ * Each individual is a row, identified by its index. The rows are sorted by ID, and the IDs are
+ * kept in a <code>long</code> array. The names, emails, seats and venues are dictionary-encoded:
+ * each distinct value is kept once and the rows hold its index. The attributes are kept per
+ * attribute name, with dictionary-encoded values and primitive reliabilities. An individual may
+ * have any number of values for an attribute.
+ * 
+ * Filters return the matching rows as a <code>BitSet</code>, so that they can be combined with
+ * <code>and</code> and <code>or</code>, and group-bys count the rows of such a set per value. Large
+ * snapshots are scanned in parallel by a fork/join pool. A snapshot may be used by any number of
+ * threads at once.
+ */
+public final class AudienceSnapshot {
+	// Rows scanned by a single task. A multiple of 64, so that tasks never share a word of a bit set.
+	private static final int								CHUNK_ROWS	= 1 << 14;
+	private static final ForkJoinPool						POOL		= new ForkJoinPool();
+	private final long[]									ids;
+	private final StringColumn								firstNames;
+	private final StringColumn								lastNames;
+	private final StringColumn								emails;
+	private final StringColumn								seats;
+	private final long[]									dates;
+	private final int[]										venueCodes;
+	private final Integer[]									venueIds;
+	private final Map<String, AttributeColumn>				attributes;
+	private final Hashtable<String, AttributeCategories>	globalAttributeTable;
+
+	private AudienceSnapshot(Builder builder) {
+		this.ids = builder.ids.toArray();
+		this.firstNames = builder.firstNames.build();
+		this.lastNames = builder.lastNames.build();
+		this.emails = builder.emails.build();
+		this.seats = builder.seats.build();
+		this.dates = builder.dates.toArray();
+		this.venueCodes = new int[this.ids.length];
+		this.venueIds = encodeVenues(builder.venues, this.venueCodes);
+		this.globalAttributeTable = builder.globalAttributeTable;
+		LinkedHashMap<String, AttributeColumn> columns = new LinkedHashMap<String, AttributeColumn>();
+		for (Map.Entry<String, AttributeColumnBuilder> entry : builder.attributes.entrySet()) {
+			columns.put(entry.getKey(), entry.getValue().build(this.ids.length));
+		}
+		this.attributes = Collections.unmodifiableMap(columns);
+	}
+
+	/**
+	 * Returns the number of individuals in the snapshot.
+	 * 
+	 * @return The number of rows.
+	 */
+	public int size() {
+		return this.ids.length;
+	}
+
+	/**
+	 * Returns the row of an individual.
+	 * 
+	 * @param id
+	 *            The ID of the individual.
+	 * @return The row of the individual, or -1 if the individual is not in the snapshot.
+	 */
+	public int indexOf(long id) {
+		int row = Arrays.binarySearch(this.ids, id);
+		return row < 0 ? -1 : row;
+	}
+
+	/**
+	 * Returns the ID of the individual in a row.
+	 * 
+	 * @param row
+	 *            The row.
+	 * @return The ID of the individual.
+	 */
+	public long getId(int row) {
+		return this.ids[row];
+	}
+
+	/**
+	 * Returns the IDs of the individuals in the given rows, in the order of the rows.
+	 * 
+	 * @param rows
+	 *            The rows, as returned by one of the filters.
+	 * @return The IDs of the individuals.
+	 */
+	public long[] getIds(BitSet rows) {
+		long[] toReturn = new long[rows.cardinality()];
+		int next = 0;
+		for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+			toReturn[next++] = this.ids[row];
+		}
+		return toReturn;
+	}
+
+	/**
+	 * Returns the first name of the individual in a row.
+	 * 
+	 * @param row
+	 *            The row.
+	 * @return The first name.
+	 */
+	public String getFirstName(int row) {
+		return this.firstNames.get(row);
+	}
+
+	/**
+	 * Returns the last name of the individual in a row.
+	 * 
+	 * @param row
+	 *            The row.
+	 * @return The last name.
+	 */
+	public String getLastName(int row) {
+		return this.lastNames.get(row);
+	}
+
+	/**
+	 * Returns the email of the individual in a row.
+	 * 
+	 * @param row
+	 *            The row.
+	 * @return The email, or null if there is none.
+	 */
+	public String getEmail(int row) {
+		return this.emails.get(row);
+	}
+
+	/**
+	 * Returns the seat of the individual in a row.
+	 * 
+	 * @param row
+	 *            The row.
+	 * @return The seat, or null if there is none.
+	 */
+	public String getSeat(int row) {
+		return this.seats.get(row);
+	}
+
+	/**
+	 * Returns the date of the show attended by the individual in a row.
+	 * 
+	 * @param row
+	 *            The row.
+	 * @return The date of the show, or null if there is none.
+	 */
+	public Date getEventDate(int row) {
+		return this.dates[row] == Long.MIN_VALUE ? null : new Date(this.dates[row]);
+	}
+
+	/**
+	 * Returns the venue ID of the show attended by the individual in a row.
+	 * 
+	 * @param row
+	 *            The row.
+	 * @return The venue ID.
+	 */
+	public int getEventVenue(int row) {
+		return this.venueIds[this.venueCodes[row]];
+	}
+
+	/**
+	 * Returns the names of the attributes held by the snapshot, which are all the names in the
+	 * global attribute table of the database manager that read it.
+	 * 
+	 * @return The attribute names.
+	 */
+	public Set<String> getAttributeNames() {
+		return this.attributes.keySet();
+	}
+
+	/**
+	 * Returns the number of values the individual in a row has for an attribute.
+	 * 
+	 * @param row
+	 *            The row.
+	 * @param attributeName
+	 *            The name of the attribute.
+	 * @return The number of values.
+	 * @throws UnknownAttributeException
+	 *             If there is no attribute with the given name.
+	 */
+	public int getValueCount(int row, String attributeName) throws UnknownAttributeException {
+		AttributeColumn column = this.getColumn(attributeName);
+		return column.offsets[row + 1] - column.offsets[row];
+	}
+
+	/**
+	 * Returns the most reliable value the individual in a row has for an attribute.
+	 * 
+	 * @param row
+	 *            The row.
+	 * @param attributeName
+	 *            The name of the attribute.
+	 * @param minReliability
+	 *            The minimum reliability of the value.
+	 * @return The most reliable value, or null if the individual has no value at least as reliable
+	 *         as required.
+	 * @throws UnknownAttributeException
+	 *             If there is no attribute with the given name.
+	 */
+	public Object getValue(int row, String attributeName, double minReliability) throws UnknownAttributeException {
+		AttributeColumn column = this.getColumn(attributeName);
+		int code = column.bestCode(row, minReliability);
+		return code < 0 ? null : column.dictionary[code];
+	}
+
+	/**
+	 * Returns all the rows of the snapshot.
+	 * 
+	 * @return A set of all the rows.
+	 */
+	public BitSet all() {
+		BitSet toReturn = new BitSet(this.ids.length);
+		toReturn.set(0, this.ids.length);
+		return toReturn;
+	}
+
+	/**
+	 * Returns the rows of the individuals attending shows at a venue.
+	 * 
+	 * @param venue
+	 *            The venue ID.
+	 * @return The matching rows.
+	 */
+	public BitSet atVenue(int venue) {
+		final int code = Arrays.asList(this.venueIds).indexOf(venue);
+		return this.filter(new RowFilter() {
+			@Override
+			boolean accept(int row) {
+				return AudienceSnapshot.this.venueCodes[row] == code;
+			}
+		});
+	}
+
+	/**
+	 * Returns the rows of the individuals attending a show.
+	 * 
+	 * @param show
+	 *            The show.
+	 * @return The matching rows.
+	 */
+	public BitSet atShow(Show show) {
+		final int code = Arrays.asList(this.venueIds).indexOf(show.getVenue().getId());
+		// Shows are stored with a precision of one second.
+		final long start = Show.toSeconds(show.getDate()) * 1000;
+		return this.filter(new RowFilter() {
+			@Override
+			boolean accept(int row) {
+				return AudienceSnapshot.this.venueCodes[row] == code && AudienceSnapshot.this.dates[row] >= start && AudienceSnapshot.this.dates[row] < start + 1000;
+			}
+		});
+	}
+
+	/**
+	 * Returns the rows of the individuals with at least one value of an attribute at least as
+	 * reliable as required.
+	 * 
+	 * @param attributeName
+	 *            The name of the attribute.
+	 * @param minReliability
+	 *            The minimum reliability.
+	 * @return The matching rows.
+	 * @throws UnknownAttributeException
+	 *             If there is no attribute with the given name.
+	 */
+	public BitSet withAttribute(String attributeName, final double minReliability) throws UnknownAttributeException {
+		final AttributeColumn column = this.getColumn(attributeName);
+		return this.filter(new RowFilter() {
+			@Override
+			boolean accept(int row) {
+				return column.bestCode(row, minReliability) >= 0;
+			}
+		});
+	}
+
+	/**
+	 * Returns the rows of the individuals with at least one value of any attribute of a category at
+	 * least as reliable as required, like the requirements of an effect.
+	 * 
+	 * @param category
+	 *            The attribute category.
+	 * @param minReliability
+	 *            The minimum reliability.
+	 * @return The matching rows.
+	 */
+	public BitSet withCategory(AttributeCategories category, final double minReliability) {
+		final List<AttributeColumn> columns = new ArrayList<AttributeColumn>();
+		for (Map.Entry<String, AttributeColumn> entry : this.attributes.entrySet()) {
+			if (this.globalAttributeTable.get(entry.getKey()) == category)
+				columns.add(entry.getValue());
+		}
+		return this.filter(new RowFilter() {
+			@Override
+			boolean accept(int row) {
+				for (AttributeColumn currentColumn : columns) {
+					if (currentColumn.bestCode(row, minReliability) >= 0)
+						return true;
+				}
+				return false;
+			}
+		});
+	}
+
+	/**
+	 * Counts the given rows by their most reliable value of an attribute, for example to break an
+	 * audience down by gender. Rows without a value at least as reliable as required are not
+	 * counted.
+	 * 
+	 * @param attributeName
+	 *            The name of the attribute.
+	 * @param minReliability
+	 *            The minimum reliability of the values counted.
+	 * @param rows
+	 *            The rows to count, as returned by one of the filters.
+	 * @return The number of rows per value, in descending order of the number.
+	 * @throws UnknownAttributeException
+	 *             If there is no attribute with the given name.
+	 */
+	public Map<Object, Integer> countBy(String attributeName, final double minReliability, BitSet rows) throws UnknownAttributeException {
+		final AttributeColumn column = this.getColumn(attributeName);
+		int[] counts = this.count(rows, column.dictionary.length, new RowCounter() {
+			@Override
+			void count(int row, int[] counts) {
+				int code = column.bestCode(row, minReliability);
+				if (code >= 0)
+					counts[code]++;
+			}
+		});
+		return toMap(column.dictionary, counts);
+	}
+
+	/**
+	 * Counts the given rows by the venue of the show attended.
+	 * 
+	 * @param rows
+	 *            The rows to count, as returned by one of the filters.
+	 * @return The number of rows per venue ID, in descending order of the number.
+	 */
+	public Map<Integer, Integer> countByVenue(BitSet rows) {
+		return toMap(this.venueIds, this.count(rows, this.venueIds.length, new RowCounter() {
+			@Override
+			void count(int row, int[] counts) {
+				counts[AudienceSnapshot.this.venueCodes[row]]++;
+			}
+		}));
+	}
+
+	private AttributeColumn getColumn(String attributeName) throws UnknownAttributeException {
+		AttributeColumn column = this.attributes.get(attributeName);
+		if (column == null)
+			throw new UnknownAttributeException(String.format(Strings.UNKNOWN_ATTR_EXN, attributeName));
+		return column;
+	}
+
+	private BitSet filter(RowFilter filter) {
+		long[] words = new long[(this.ids.length + 63) / 64];
+		this.run(new FilterTask(filter, words, 0, this.ids.length));
+		return BitSet.valueOf(words);
+	}
+
+	private int[] count(final BitSet rows, final int groups, final RowCounter counter) {
+		return this.run(new CountTask(rows, groups, counter, 0, this.ids.length));
+	}
+
+	// Small snapshots are scanned by the calling thread rather than handed over to the pool.
+	private <T> T run(ForkJoinTask<T> task) {
+		if (this.ids.length <= CHUNK_ROWS)
+			return task.invoke();
+		return POOL.invoke(task);
+	}
+
+	// Fills in the code of the venue of each row and returns the venue IDs by code.
+	private static Integer[] encodeVenues(IntArray venues, int[] codes) {
+		HashMap<Integer, Integer> dictionary = new HashMap<Integer, Integer>();
+		Integer[] toReturn;
+		Integer code;
+		for (int row = 0; row < codes.length; row++) {
+			code = dictionary.get(venues.values[row]);
+			if (code == null) {
+				code = dictionary.size();
+				dictionary.put(venues.values[row], code);
+			}
+			codes[row] = code;
+		}
+		toReturn = new Integer[dictionary.size()];
+		for (Map.Entry<Integer, Integer> entry : dictionary.entrySet()) {
+			toReturn[entry.getValue()] = entry.getKey();
+		}
+		return toReturn;
+	}
+
+	// Splits a range of rows in two at a multiple of 64.
+	private static int split(int from, int to) {
+		return (from + (to - from) / 2) & ~63;
+	}
+
+	private static <K> Map<K, Integer> toMap(K[] keys, final int[] counts) {
+		List<Integer> codes = new ArrayList<Integer>();
+		LinkedHashMap<K, Integer> toReturn = new LinkedHashMap<K, Integer>();
+		for (int code = 0; code < counts.length; code++) {
+			if (counts[code] > 0)
+				codes.add(code);
+		}
+		Collections.sort(codes, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer first, Integer second) {
+				return Integer.compare(counts[second], counts[first]);
+			}
+		});
+		for (Integer code : codes) {
+			toReturn.put(keys[code], counts[code]);
+		}
+		return toReturn;
+	}
+
+	private abstract static class RowFilter {
+		abstract boolean accept(int row);
+	}
+
+	private abstract static class RowCounter {
+		abstract void count(int row, int[] counts);
+	}
+
+	// Sets the bits of the rows in a range that are accepted by a filter, in halves while the range
+	// is large. The halves never share a word.
+	private static class FilterTask extends RecursiveAction {
+		private static final long	serialVersionUID	= 1L;
+		private final RowFilter		filter;
+		private final long[]		words;
+		private final int			from;
+		private final int			to;
+
+		FilterTask(RowFilter filter, long[] words, int from, int to) {
+			this.filter = filter;
+			this.words = words;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			int middle;
+			if (this.to - this.from <= CHUNK_ROWS) {
+				for (int row = this.from; row < this.to; row++) {
+					if (this.filter.accept(row))
+						this.words[row >>> 6] |= 1L << row;
+				}
+				return;
+			}
+			middle = split(this.from, this.to);
+			invokeAll(new FilterTask(this.filter, this.words, this.from, middle), new FilterTask(this.filter, this.words, middle, this.to));
+		}
+	}
+
+	// Counts the rows of a bit set in a range, in halves while the range is large.
+	private static class CountTask extends RecursiveTask<int[]> {
+		private static final long	serialVersionUID	= 1L;
+		private final BitSet		rows;
+		private final int			groups;
+		private final RowCounter	counter;
+		private final int			from;
+		private final int			to;
+
+		CountTask(BitSet rows, int groups, RowCounter counter, int from, int to) {
+			this.rows = rows;
+			this.groups = groups;
+			this.counter = counter;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected int[] compute() {
+			int[] counts;
+			int[] otherCounts;
+			CountTask second;
+			int middle;
+			if (this.to - this.from <= CHUNK_ROWS) {
+				counts = new int[this.groups];
+				for (int row = this.rows.nextSetBit(this.from); row >= 0 && row < this.to; row = this.rows.nextSetBit(row + 1)) {
+					this.counter.count(row, counts);
+				}
+				return counts;
+			}
+			middle = split(this.from, this.to);
+			second = new CountTask(this.rows, this.groups, this.counter, middle, this.to);
+			second.fork();
+			counts = new CountTask(this.rows, this.groups, this.counter, this.from, middle).compute();
+			otherCounts = second.join();
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] += otherCounts[i];
+			}
+			return counts;
+		}
+	}
+
+	private static class StringColumn {
+		private final int[]		codes;
+		private final String[]	dictionary;
+
+		StringColumn(int[] codes, String[] dictionary) {
+			this.codes = codes;
+			this.dictionary = dictionary;
+		}
+
+		String get(int row) {
+			return this.codes[row] < 0 ? null : this.dictionary[this.codes[row]];
+		}
+	}
+
+	// The values of row r are at offsets[r] (inclusive) to offsets[r + 1] (exclusive).
+	private static class AttributeColumn {
+		private final int[]		offsets;
+		private final int[]		codes;
+		private final double[]	reliabilities;
+		private final Object[]	dictionary;
+
+		AttributeColumn(int[] offsets, int[] codes, double[] reliabilities, Object[] dictionary) {
+			this.offsets = offsets;
+			this.codes = codes;
+			this.reliabilities = reliabilities;
+			this.dictionary = dictionary;
+		}
+
+		// Returns the code of the most reliable value of a row, or -1 if there is none at least as
+		// reliable as required.
+		int bestCode(int row, double minReliability) {
+			int best = -1;
+			double bestReliability = minReliability;
+			for (int i = this.offsets[row]; i < this.offsets[row + 1]; i++) {
+				if (this.reliabilities[i] >= bestReliability && (best < 0 || this.reliabilities[i] > bestReliability)) {
+					best = this.codes[i];
+					bestReliability = this.reliabilities[i];
+				}
+			}
+			return best;
+		}
+	}
+
+	/**
+	 * Collects the rows of a snapshot as they are read from the database. The individuals must be
+	 * added in ascending order of their IDs, and before any of their attributes.
+	 */
+	static class Builder {
+		private final Hashtable<String, AttributeCategories>		globalAttributeTable;
+		private final LongArray										ids			= new LongArray();
+		private final StringColumnBuilder							firstNames	= new StringColumnBuilder();
+		private final StringColumnBuilder							lastNames	= new StringColumnBuilder();
+		private final StringColumnBuilder							emails		= new StringColumnBuilder();
+		private final StringColumnBuilder							seats		= new StringColumnBuilder();
+		private final LongArray										dates		= new LongArray();
+		private final IntArray										venues		= new IntArray();
+		private final LinkedHashMap<String, AttributeColumnBuilder>	attributes	= new LinkedHashMap<String, AttributeColumnBuilder>();
+
+		Builder(Hashtable<String, AttributeCategories> globalAttributeTable) {
+			this.globalAttributeTable = globalAttributeTable;
+			for (String currentName : globalAttributeTable.keySet()) {
+				this.attributes.put(currentName, new AttributeColumnBuilder());
+			}
+		}
+
+		void addIndividual(long id, String firstName, String lastName, String email, Date date, int venue, String seat) {
+			if (this.ids.size > 0 && id <= this.ids.values[this.ids.size - 1])
+				throw new IllegalArgumentException(String.valueOf(id));
+			this.ids.add(id);
+			this.firstNames.add(firstName);
+			this.lastNames.add(lastName);
+			this.emails.add(email);
+			this.seats.add(seat);
+			this.dates.add(date == null ? Long.MIN_VALUE : date.getTime());
+			this.venues.add(venue);
+		}
+
+		// Attributes of individuals that have not been added are ignored.
+		void addAttribute(long id, String attributeName, Object value, double reliability) {
+			int row = Arrays.binarySearch(this.ids.values, 0, this.ids.size, id);
+			if (row >= 0)
+				this.attributes.get(attributeName).add(row, value, reliability);
+		}
+
+		AudienceSnapshot build() {
+			return new AudienceSnapshot(this);
+		}
+	}
+
+	private static class StringColumnBuilder {
+		private final IntArray					codes		= new IntArray();
+		private final HashMap<String, Integer>	dictionary	= new HashMap<String, Integer>();
+
+		void add(String value) {
+			Integer code;
+			if (value == null) {
+				this.codes.add(-1);
+				return;
+			}
+			code = this.dictionary.get(value);
+			if (code == null) {
+				code = this.dictionary.size();
+				this.dictionary.put(value, code);
+			}
+			this.codes.add(code);
+		}
+
+		StringColumn build() {
+			String[] strings = new String[this.dictionary.size()];
+			for (Map.Entry<String, Integer> entry : this.dictionary.entrySet()) {
+				strings[entry.getValue()] = entry.getKey();
+			}
+			return new StringColumn(this.codes.toArray(), strings);
+		}
+	}
+
+	private static class AttributeColumnBuilder {
+		private final IntArray					rows			= new IntArray();
+		private final IntArray					codes			= new IntArray();
+		private final DoubleArray				reliabilities	= new DoubleArray();
+		private final HashMap<Object, Integer>	dictionary		= new HashMap<Object, Integer>();
+
+		void add(int row, Object value, double reliability) {
+			Integer code = this.dictionary.get(value);
+			if (code == null) {
+				code = this.dictionary.size();
+				this.dictionary.put(value, code);
+			}
+			this.rows.add(row);
+			this.codes.add(code);
+			this.reliabilities.add(reliability);
+		}
+
+		// Sorts the values by row, keeping the values of each row in the order they were added.
+		AttributeColumn build(int size) {
+			int[] offsets = new int[size + 1];
+			int[] next;
+			int[] sortedCodes = new int[this.rows.size];
+			double[] sortedReliabilities = new double[this.rows.size];
+			Object[] values = new Object[this.dictionary.size()];
+			int position;
+			for (int i = 0; i < this.rows.size; i++) {
+				offsets[this.rows.values[i] + 1]++;
+			}
+			for (int row = 0; row < size; row++) {
+				offsets[row + 1] += offsets[row];
+			}
+			next = Arrays.copyOf(offsets, size);
+			for (int i = 0; i < this.rows.size; i++) {
+				position = next[this.rows.values[i]]++;
+				sortedCodes[position] = this.codes.values[i];
+				sortedReliabilities[position] = this.reliabilities.values[i];
+			}
+			for (Map.Entry<Object, Integer> entry : this.dictionary.entrySet()) {
+				values[entry.getValue()] = entry.getKey();
+			}
+			return new AttributeColumn(offsets, sortedCodes, sortedReliabilities, values);
+		}
+	}
+
+	private static class IntArray {
+		private int[]	values	= new int[16];
+		private int		size;
+
+		void add(int value) {
+			if (this.size == this.values.length)
+				this.values = Arrays.copyOf(this.values, this.size * 2);
+			this.values[this.size++] = value;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(this.values, this.size);
+		}
+	}
+
+	private static class LongArray {
+		private long[]	values	= new long[16];
+		private int		size;
+
+		void add(long value) {
+			if (this.size == this.values.length)
+				this.values = Arrays.copyOf(this.values, this.size * 2);
+			this.values[this.size++] = value;
+		}
+
+		long[] toArray() {
+			return Arrays.copyOf(this.values, this.size);
+		}
+	}
+
+	private static class DoubleArray {
+		private double[]	values	= new double[16];
+		private int			size;
+
+		void add(double value) {
+			if (this.size == this.values.length)
+				this.values = Arrays.copyOf(this.values, this.size * 2);
+			this.values[this.size++] = value;
+		}
+	}
+}
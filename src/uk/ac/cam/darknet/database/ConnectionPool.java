@@ -0,0 +1,319 @@
+package uk.ac.cam.darknet.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import uk.ac.cam.darknet.common.LoggerFactory;
+import uk.ac.cam.darknet.common.Strings;
+
+/**
+ * A bounded pool of JDBC connections to the database. Every connection handed out by the pool is a
+ * session of its own (with auto-commit switched off) that is used by exactly one thread until it is
+ * closed. Closing it rolls back any uncommitted work and returns the underlying connection to the
+ * pool instead of disconnecting.
+ * 
+ * Idle connections are validated before they are handed out again and are disconnected once they
+ * have been idle for longer than the idle timeout.
+ * 
+ * Each connection also keeps a small cache of the statements prepared on it, so that queries that
+ * are run over and over (such as the ones generated for effect requirements) are only compiled
+ * once per connection. Closing a cached statement clears its parameters and keeps it open.
+ */
+class ConnectionPool {
+	private final String								url;
+	private final String								username;
+	private final String								password;
+	private final int									validationTimeout;
+	private final long									idleTimeout;
+	private final int									statementCacheSize;
+	private final Semaphore								permits;
+	private final LinkedBlockingDeque<IdleConnection>	idleConnections	= new LinkedBlockingDeque<IdleConnection>();
+	private final ScheduledExecutorService				evictor;
+	private volatile boolean							closed;
+
+	/**
+	 * Creates a new pool. No connections are opened until they are first requested.
+	 * 
+	 * @param url
+	 *            The JDBC URL of the database.
+	 * @param username
+	 *            The user name to connect with.
+	 * @param password
+	 *            The password to connect with.
+	 * @param size
+	 *            The maximum number of connections open at the same time.
+	 * @param validationTimeout
+	 *            The time in seconds to wait for an idle connection to be validated.
+	 * @param idleTimeout
+	 *            The time in seconds after which idle connections are disconnected.
+	 * @param statementCacheSize
+	 *            The number of prepared statements cached per connection, or 0 to disable caching.
+	 */
+	ConnectionPool(String url, String username, String password, int size, int validationTimeout, int idleTimeout, int statementCacheSize) {
+		this.url = url;
+		this.username = username;
+		this.password = password;
+		this.validationTimeout = validationTimeout;
+		this.idleTimeout = TimeUnit.SECONDS.toMillis(idleTimeout);
+		this.statementCacheSize = statementCacheSize;
+		this.permits = new Semaphore(Math.max(size, 1), true);
+		this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "ConnectionPool evictor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		long period = Math.max(this.idleTimeout / 2, 1000);
+		this.evictor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				ConnectionPool.this.evictIdleConnections();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Borrows a connection from the pool, blocking while all of them are in use. The caller must
+	 * close the connection when done with it.
+	 * 
+	 * @return A connection with auto-commit switched off.
+	 * @throws SQLException
+	 */
+	Connection getConnection() throws SQLException {
+		IdleConnection candidate;
+		Connection physical;
+		if (this.closed)
+			throw new SQLException(Strings.POOL_CLOSED_EXN);
+		try {
+			this.permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException(Strings.POOL_INTERRUPTED_EXN, e);
+		}
+		try {
+			// Prefer the most recently used connection; the others are left to time out.
+			while ((candidate = this.idleConnections.pollFirst()) != null) {
+				if (this.isValid(candidate.connection))
+					return this.wrap(candidate);
+				closeQuietly(candidate.connection);
+			}
+			physical = DriverManager.getConnection(this.url, this.username, this.password);
+			physical.setAutoCommit(false);
+			return this.wrap(new IdleConnection(physical, this.statementCacheSize));
+		} catch (SQLException | RuntimeException e) {
+			this.permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Closes the pool. Idle connections are disconnected immediately and connections still in use
+	 * are disconnected when they are closed.
+	 */
+	void close() {
+		IdleConnection idle;
+		this.closed = true;
+		this.evictor.shutdownNow();
+		while ((idle = this.idleConnections.pollFirst()) != null) {
+			closeQuietly(idle.connection);
+		}
+	}
+
+	private boolean isValid(Connection connection) {
+		try {
+			return connection.isValid(this.validationTimeout);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private void release(IdleConnection physical) {
+		try {
+			physical.connection.rollback();
+			if (this.closed) {
+				closeQuietly(physical.connection);
+			} else {
+				physical.since = System.currentTimeMillis();
+				this.idleConnections.offerFirst(physical);
+			}
+		} catch (SQLException e) {
+			// The connection is broken; do not return it to the pool.
+			LoggerFactory.getLogger().info(e.getMessage());
+			closeQuietly(physical.connection);
+		} finally {
+			this.permits.release();
+		}
+	}
+
+	private void evictIdleConnections() {
+		long now = System.currentTimeMillis();
+		Iterator<IdleConnection> iterator = this.idleConnections.descendingIterator();
+		IdleConnection idle;
+		while (iterator.hasNext()) {
+			idle = iterator.next();
+			if (now - idle.since > this.idleTimeout && this.idleConnections.removeLastOccurrence(idle))
+				closeQuietly(idle.connection);
+		}
+	}
+
+	private Connection wrap(IdleConnection physical) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, new PooledConnectionHandler(physical));
+	}
+
+	private static void closeQuietly(Connection connection) {
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			LoggerFactory.getLogger().info(e.getMessage());
+		}
+	}
+
+	private static Object forward(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	// A physical connection together with the statements cached on it. Only the thread that has
+	// borrowed the connection touches the cache.
+	private static class IdleConnection {
+		private final Connection							connection;
+		private final LinkedHashMap<String, CachedStatement>	statements;
+		private long										since;
+
+		IdleConnection(Connection connection, final int statementCacheSize) {
+			this.connection = connection;
+			this.statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+				private static final long	serialVersionUID	= 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+					if (this.size() <= statementCacheSize)
+						return false;
+					// Statements still in use are closed by their user instead.
+					eldest.getValue().evicted = true;
+					if (!eldest.getValue().inUse)
+						eldest.getValue().closeQuietly();
+					return true;
+				}
+			};
+		}
+	}
+
+	private static class CachedStatement {
+		private final PreparedStatement	statement;
+		private boolean					inUse;
+		private boolean					evicted;
+
+		CachedStatement(PreparedStatement statement) {
+			this.statement = statement;
+		}
+
+		void closeQuietly() {
+			try {
+				this.statement.close();
+			} catch (SQLException e) {
+				LoggerFactory.getLogger().info(e.getMessage());
+			}
+		}
+	}
+
+	// Forwards all calls to the physical connection, except that close() returns it to the pool and
+	// prepareStatement(String) uses the statement cache.
+	private class PooledConnectionHandler implements InvocationHandler {
+		private final IdleConnection	physical;
+		private boolean					released;
+
+		PooledConnectionHandler(IdleConnection physical) {
+			this.physical = physical;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.equals("close")) {
+				if (!this.released) {
+					this.released = true;
+					ConnectionPool.this.release(this.physical);
+				}
+				return null;
+			} else if (name.equals("isClosed")) {
+				return this.released || this.physical.connection.isClosed();
+			} else if (this.released) {
+				throw new SQLException(Strings.POOL_RELEASED_EXN);
+			} else if (name.equals("prepareStatement") && args.length == 1 && ConnectionPool.this.statementCacheSize > 0) {
+				return this.prepareCachedStatement((Connection) proxy, (String) args[0]);
+			}
+			return forward(this.physical.connection, method, args);
+		}
+
+		private PreparedStatement prepareCachedStatement(Connection proxy, String sql) throws SQLException {
+			CachedStatement cached = this.physical.statements.get(sql);
+			if (cached != null && cached.inUse) {
+				// The same statement is already open on this connection; do not share it.
+				return this.physical.connection.prepareStatement(sql);
+			}
+			if (cached == null || cached.statement.isClosed()) {
+				cached = new CachedStatement(this.physical.connection.prepareStatement(sql));
+				this.physical.statements.put(sql, cached);
+			}
+			cached.inUse = true;
+			return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class }, new CachedStatementHandler(proxy, cached));
+		}
+	}
+
+	// Forwards all calls to the cached statement, except that close() only resets it.
+	private static class CachedStatementHandler implements InvocationHandler {
+		private final Connection		connection;
+		private final CachedStatement	cached;
+		private boolean					closed;
+
+		CachedStatementHandler(Connection connection, CachedStatement cached) {
+			this.connection = connection;
+			this.cached = cached;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.equals("close")) {
+				if (!this.closed) {
+					this.closed = true;
+					this.cached.inUse = false;
+					if (this.cached.evicted) {
+						this.cached.closeQuietly();
+					} else {
+						this.cached.statement.clearParameters();
+						this.cached.statement.clearBatch();
+					}
+				}
+				return null;
+			} else if (name.equals("isClosed")) {
+				return this.closed || this.cached.statement.isClosed();
+			} else if (name.equals("getConnection")) {
+				return this.connection;
+			} else if (this.closed) {
+				throw new SQLException(Strings.STATEMENT_CLOSED_EXN);
+			}
+			return forward(this.cached.statement, method, args);
+		}
+	}
+}
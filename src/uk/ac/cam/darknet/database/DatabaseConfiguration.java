@@ -0,0 +1,106 @@
+package uk.ac.cam.darknet.database;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import uk.ac.cam.darknet.common.LoggerFactory;
+import uk.ac.cam.darknet.common.Strings;
+import uk.ac.cam.darknet.exceptions.ConfigFileNotFoundException;
+
+/**
+ * The settings read from a database configuration file such as <code>res/dbconfig.txt</code>. The
+ * file consists of <code>key=value</code> lines. Empty lines and lines starting with
+ * <code>#</code> are ignored. Settings of other parts of the system, such as the data collectors,
+ * may be kept in the same file.
+ */
+public class DatabaseConfiguration {
+	private static final String				MODE_FILE	= "file";
+	private static final String				FILE_PREFIX	= "jdbc:hsqldb:file:";
+	private final HashMap<String, String>	settings	= new HashMap<String, String>();
+
+	/**
+	 * Reads the configuration file at the given path.
+	 * 
+	 * @param pathToConfig
+	 *            The path to the file containing information about how to connect to the database
+	 *            server.
+	 * @throws ConfigFileNotFoundException
+	 * @throws IOException
+	 */
+	public DatabaseConfiguration(String pathToConfig) throws ConfigFileNotFoundException, IOException {
+		if (!new File(pathToConfig).isFile())
+			throw new ConfigFileNotFoundException(String.format(Strings.CONFIG_NOT_FOUND_EXN, pathToConfig));
+		try (BufferedReader configBR = new BufferedReader(new FileReader(pathToConfig));) {
+			String line;
+			String[] keyValue;
+			while ((line = configBR.readLine()) != null) {
+				if (line.startsWith("#") || line.equals("")) {
+					continue;
+				} else {
+					keyValue = line.split("=", 2);
+					if (keyValue.length == 2)
+						this.settings.put(keyValue[0].trim(), keyValue[1]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns whether the database runs inside the application rather than in a server. This is the
+	 * case if the mode setting is <code>file</code>.
+	 * 
+	 * @return True if the database is embedded.
+	 */
+	boolean isEmbedded() {
+		return MODE_FILE.equals(this.getString("mode", null));
+	}
+
+	/**
+	 * Returns the JDBC URL of the database.
+	 * 
+	 * @return The JDBC URL of the files given by the path setting if the database is embedded, and
+	 *         the URL of the server built from the prefix, host, port and alias settings otherwise.
+	 */
+	String getConnectionUrl() {
+		if (this.isEmbedded())
+			return FILE_PREFIX + this.getString("path", null);
+		return this.getString("prefix", null) + "//" + this.getString("host", null) + ":" + this.getString("port", null) + "/" + this.getString("alias", null);
+	}
+
+	/**
+	 * Returns the value of a setting.
+	 * 
+	 * @param key
+	 *            The name of the setting.
+	 * @param defaultValue
+	 *            The value to return if the setting is missing.
+	 * @return The value of the setting, or the default value if there is none.
+	 */
+	public String getString(String key, String defaultValue) {
+		String value = this.settings.get(key);
+		return value == null ? defaultValue : value;
+	}
+
+	/**
+	 * Returns the value of a numeric setting.
+	 * 
+	 * @param key
+	 *            The name of the setting.
+	 * @param defaultValue
+	 *            The value to return if the setting is missing or not a number.
+	 * @return The value of the setting, or the default value if there is no valid one.
+	 */
+	public int getInt(String key, int defaultValue) {
+		String value = this.settings.get(key);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			LoggerFactory.getLogger().warning(String.format(Strings.INVALID_SETTING, key, value));
+			return defaultValue;
+		}
+	}
+}
@@ -1,24 +1,22 @@
 package uk.ac.cam.darknet.database;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.regex.Pattern;
 import uk.ac.cam.darknet.common.AttributeCategories;
+import uk.ac.cam.darknet.common.AttributeReliabilityPair;
 import uk.ac.cam.darknet.common.Individual;
 import uk.ac.cam.darknet.common.IndividualRequirements;
 import uk.ac.cam.darknet.common.Show;
@@ -35,6 +33,15 @@ import uk.ac.cam.darknet.exceptions.UnknownAttributeException;
  * collection manager and effects should use implementations of this class to search for
  * individuals.
  * 
+ * Database access goes through a pool of connections configured in the database configuration
+ * file, so the methods of a single manager may be called from several threads at the same time.
+ * Each call borrows its own connection (and thus its own transaction) for as long as it runs.
+ * 
+ * The individuals of recently used shows are cached together with their attributes, so that
+ * several effects run on the same show only read it from the database once. The cache is shared by
+ * all managers of the same database, and every change to the individuals or attributes of a show
+ * made through any of them drops that show from it.
+ * 
  * @author Ibtehaj Nadeem
  */
 public class DatabaseManager {
@@ -45,30 +52,39 @@ public class DatabaseManager {
 	private static final String								GET_BY_FNAME		= "SELECT * FROM individuals WHERE fname = ?";
 	private static final String								GET_BY_LNAME		= "SELECT * FROM individuals WHERE lname = ?";
 	private static final String								GET_ALL_INDIVIDUALS	= "SELECT * FROM individuals";
+	private static final String								GET_PAGE			= "SELECT * FROM individuals WHERE id > ? ORDER BY id LIMIT ?";
+	private static final String								GET_SHOW_PAGE		= "SELECT * FROM individuals WHERE date = ? AND venue = ? AND id > ? ORDER BY id LIMIT ?";
+	private static final String								GET_PAGE_START		= "SELECT id FROM individuals WHERE id > ? ORDER BY id LIMIT 1 OFFSET ?";
+	private static final String								GET_SHOW_PAGE_START	= "SELECT id FROM individuals WHERE date = ? AND venue = ? AND id > ? ORDER BY id LIMIT 1 OFFSET ?";
+	private static final String								COUNT_INDIVIDUALS	= "SELECT COUNT(*) FROM individuals";
+	private static final String								COUNT_SHOW			= "SELECT COUNT(*) FROM individuals WHERE date = ? AND venue = ?";
 	private static final String								GET_ALL_SHOWS		= "SELECT shows.date, venues.id, venues.name FROM shows JOIN venues ON venues.id = shows.venue ORDER BY venues.id, shows.date";
 	private static final String								GET_ALL_VENUES		= "SELECT * FROM venues";
-	private static final String								CREATE_FILTER_TABLE	= "DECLARE LOCAL TEMPORARY TABLE filter AS (SELECT * FROM INDIVIDUALS WHERE date = '%1$s' AND venue = %2$d) WITH DATA";
-	private static final String								DROP_FILTER_TABLE	= "DROP TABLE IF EXISTS session.filter";
-	private static final String								CREATE_TEMP_TABLE	= "DECLARE LOCAL TEMPORARY TABLE temp%1$d AS (%2$s) WITH DATA";
-	private static final String								DROP_TEMP_TABLE		= "DROP TABLE IF EXISTS session.temp%1$d";
-	private static final String								SELECT_FILTERED		= "SELECT DISTINCT filter.* FROM filter";
-	private static final String								FILTER_JOIN			= " JOIN temp%1$d ON temp%1$d.id = filter.id";
-	private static final String								GET_ATTRIBUTE		= "SELECT attribute, reliability FROM %1$s WHERE id = ?";
+	private static final String								GET_ATTRIBUTES		= "SELECT id, attribute, reliability FROM %1$s WHERE id IN (%2$s)";
+	private static final String								GET_SHOW_ATTRIBUTES	= "SELECT %1$s.id, %1$s.attribute, %1$s.reliability FROM %1$s JOIN individuals ON individuals.id = %1$s.id WHERE individuals.date = ? AND individuals.venue = ?";
+	private static final String								GET_ATTRIBUTE_ROWS	= "SELECT id, attribute, reliability FROM %1$s";
+	private static final String								GET_SNAPSHOT		= "SELECT * FROM individuals ORDER BY id";
+	private static final String								GET_SHOW_SNAPSHOT	= "SELECT * FROM individuals WHERE date = ? AND venue = ? ORDER BY id";
+	private static final int								ID_CHUNK_SIZE		= 500;
 	private static final String								ATTRIBUTE_PATTERN	= "[a-zA-Z0-9_]+";
-	protected final Connection								connection;
+	private static final String								DEFAULT_CONFIG		= "res/dbconfig.txt";
+	private static final int								DEFAULT_POOL_SIZE	= 4;
+	private static final int								DEFAULT_VALIDATION	= 5;
+	private static final int								DEFAULT_IDLE		= 300;
+	private static final int								DEFAULT_STATEMENTS	= 32;
+	private static final int								DEFAULT_CACHE_SHOWS	= 8;
+	private static final int								DEFAULT_CACHE_TTL	= 300;
 	protected final Hashtable<String, AttributeCategories>	globalAttributeTable;
-	private long											id;
-	private String											fname;
-	private String											lname;
-	private String											email;
-	private Date											date;
-	private int												venue;
-	private String											seat;
+	final DatabaseConfiguration								configuration;
+	private final ConnectionPool							pool;
+	private final QueryPlanner								planner;
+	private final ShowCache									cache;
+	private EmbeddedDatabase								embedded;
 	private Pattern											pattern				= Pattern.compile(ATTRIBUTE_PATTERN);
 
 	/**
 	 * Creates a new <code>DatabaseManager</code> with the specified global attribute table and sets
-	 * up the connection to the database.
+	 * up the connection to the database described in <code>res/dbconfig.txt</code>.
 	 * 
 	 * @param globalAttributeTable
 	 *            The global table of attributes currently supported by the system. These attributes
@@ -80,59 +96,87 @@ public class DatabaseManager {
 	 * @throws SQLException
 	 */
 	public DatabaseManager(Hashtable<String, AttributeCategories> globalAttributeTable) throws ConfigFileNotFoundException, IOException, ClassNotFoundException, SQLException {
+		this(globalAttributeTable, DEFAULT_CONFIG);
+		// Use this line instead for absolute paths.
+		// this(globalAttributeTable, Strings.getBaseDir() + "/res/dbconfig.txt");
+	}
+
+	/**
+	 * Creates a new <code>DatabaseManager</code> with the specified global attribute table and sets
+	 * up the connection pool for the database described in the given configuration file.
+	 * 
+	 * @param globalAttributeTable
+	 *            The global table of attributes currently supported by the system. These attributes
+	 *            are used to generate the table names in the database and have to be consistent
+	 *            between successive executions of the system.
+	 * @param pathToConfig
+	 *            The path to the file containing information about how to connect to the database
+	 *            server.
+	 * @throws ConfigFileNotFoundException
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 */
+	public DatabaseManager(Hashtable<String, AttributeCategories> globalAttributeTable, String pathToConfig) throws ConfigFileNotFoundException, IOException, ClassNotFoundException, SQLException {
 		if (globalAttributeTable == null) {
 			throw new IllegalArgumentException(Strings.NULL_GLOBAL_TABLE_EXN);
 		} else {
 			this.globalAttributeTable = globalAttributeTable;
 		}
-		this.connection = this.connectToDB("res/dbconfig.txt");
-		// Use this line instead for absolute paths.
-		// connection = connectToDB(Strings.getBaseDir() + "/res/dbconfig.txt");
-		this.connection.setAutoCommit(false);
-	}
-
-	private Connection connectToDB(String pathToConfig) throws SQLException, FileNotFoundException, IOException, ClassNotFoundException {
-		String prefix = null;
-		String host = null;
-		String port = null;
-		String alias = null;
-		String username = null;
-		String password = null;
-		String connectionUrl;
-		try (BufferedReader configBR = new BufferedReader(new FileReader(pathToConfig));) {
-			String line;
-			while ((line = configBR.readLine()) != null) {
-				if (line.startsWith("#") || line.equals("")) {
-					continue;
-				} else {
-					if (line.startsWith("prefix=")) {
-						prefix = line.split("=", 2)[1];
-					} else if (line.startsWith("host=")) {
-						host = line.split("=", 2)[1];
-					} else if (line.startsWith("port=")) {
-						port = line.split("=", 2)[1];
-					} else if (line.startsWith("alias=")) {
-						alias = line.split("=", 2)[1];
-					} else if (line.startsWith("username=")) {
-						username = line.split("=", 2)[1];
-					} else if (line.startsWith("password=")) {
-						password = line.split("=", 2)[1];
-					}
-				}
-			}
+		this.configuration = new DatabaseConfiguration(pathToConfig);
+		this.pool = this.connectToDB(this.configuration);
+		this.planner = new QueryPlanner(globalAttributeTable);
+		this.cache = ShowCache.forDatabase(this.configuration.getConnectionUrl(), this.configuration.getInt("cacheshows", DEFAULT_CACHE_SHOWS), this.configuration.getInt("cachettl", DEFAULT_CACHE_TTL));
+		// Open the first connection straight away so that connection problems show up here.
+		try (Connection connection = this.getConnection();) {
+			if (this.configuration.isEmbedded())
+				this.embedded = EmbeddedDatabase.attach(this.configuration, connection);
+			connection.commit();
+		} catch (SQLException e) {
+			this.pool.close();
+			throw e;
 		}
-		connectionUrl = prefix + "//" + host + ":" + port + "/" + alias;
+	}
+
+	private ConnectionPool connectToDB(DatabaseConfiguration config) throws ClassNotFoundException {
 		Class.forName("org.hsqldb.jdbc.JDBCDriver");
-		return DriverManager.getConnection(connectionUrl, username, password);
+		return new ConnectionPool(config.getConnectionUrl(), config.getString("username", null), config.getString("password", null), config.getInt("poolsize", DEFAULT_POOL_SIZE), config.getInt("validationtimeout", DEFAULT_VALIDATION), config.getInt("idletimeout", DEFAULT_IDLE), config.getInt("statementcache", DEFAULT_STATEMENTS));
 	}
 
 	/**
-	 * Closes the underlying database connection. This object should not be reused afterwards.
+	 * Borrows a connection from the pool. Auto-commit is switched off on the returned connection.
+	 * Closing it rolls back anything that has not been committed and returns it to the pool, so it
+	 * should always be obtained in a try-with-resources statement.
 	 * 
+	 * @return A connection to the database for use by the current thread only.
 	 * @throws SQLException
 	 */
-	public synchronized void closeConnection() throws SQLException {
-		this.connection.close();
+	protected Connection getConnection() throws SQLException {
+		return this.pool.getConnection();
+	}
+
+	/**
+	 * Closes the underlying database connections. This object should not be reused afterwards. If
+	 * the database is embedded and this is the last manager using it, the database is shut down.
+	 * 
+	 * @throws SQLException
+	 */
+	public void closeConnection() throws SQLException {
+		this.pool.close();
+		if (this.embedded != null) {
+			this.embedded.release();
+			this.embedded = null;
+		}
+	}
+
+	/**
+	 * Returns the settings read from the configuration file of this manager, so that the parts of the
+	 * system using the database can keep their own settings in the same file.
+	 * 
+	 * @return The database configuration.
+	 */
+	public DatabaseConfiguration getConfiguration() {
+		return this.configuration;
 	}
 
 	/**
@@ -141,14 +185,142 @@ public class DatabaseManager {
 	 * @return A list containing all the individuals in the system.
 	 * @throws SQLException
 	 */
-	public synchronized List<Individual> getAllIndividuals() throws SQLException {
+	public List<Individual> getAllIndividuals() throws SQLException {
 		ArrayList<Individual> toReturn = new ArrayList<Individual>();
-		try (PreparedStatement stmt = this.connection.prepareStatement(GET_ALL_INDIVIDUALS);) {
+		try (Connection connection = this.getConnection(); PreparedStatement stmt = connection.prepareStatement(GET_ALL_INDIVIDUALS);) {
 			toReturn = this.getIndividualQueryResults(stmt);
 		}
 		return toReturn;
 	}
 
+	/**
+	 * Returns the number of individuals in the system.
+	 * 
+	 * @return The number of individuals in the system.
+	 * @throws SQLException
+	 */
+	public int countIndividuals() throws SQLException {
+		return this.countIndividuals(null);
+	}
+
+	/**
+	 * Returns the number of individuals that attend a particular show.
+	 * 
+	 * @param show
+	 *            The show, or null to count all the individuals in the system.
+	 * @return The number of individuals attending the show.
+	 * @throws SQLException
+	 */
+	public int countIndividuals(Show show) throws SQLException {
+		try (Connection connection = this.getConnection(); PreparedStatement stmt = connection.prepareStatement(show == null ? COUNT_INDIVIDUALS : COUNT_SHOW);) {
+			setShow(stmt, show);
+			try (ResultSet result = stmt.executeQuery();) {
+				return result.next() ? result.getInt(1) : 0;
+			}
+		}
+	}
+
+	/**
+	 * Returns a page of individuals in order of their IDs. The page starts after the given ID, so
+	 * that the individuals can be read page by page by passing the ID of the last individual of
+	 * each page. Unlike skipping a number of rows, this is equally fast for every page.
+	 * 
+	 * @param afterId
+	 *            The ID after which the page starts. <code>Long.MIN_VALUE</code> gives the first
+	 *            page.
+	 * @param limit
+	 *            The maximum number of individuals on the page.
+	 * @return The individuals with an ID greater than <code>afterId</code>, at most
+	 *         <code>limit</code> of them.
+	 * @throws SQLException
+	 */
+	public List<Individual> getIndividualsAfter(long afterId, int limit) throws SQLException {
+		return this.getIndividualsAfter(null, afterId, limit);
+	}
+
+	/**
+	 * Returns a page of the individuals attending a show, in the same way as
+	 * <code>getIndividualsAfter(long, int)</code>. The individuals of the show are found on the
+	 * index of the shows' foreign key.
+	 * 
+	 * @param show
+	 *            The show, or null for all the individuals in the system.
+	 * @param afterId
+	 *            The ID after which the page starts. <code>Long.MIN_VALUE</code> gives the first
+	 *            page.
+	 * @param limit
+	 *            The maximum number of individuals on the page.
+	 * @return The individuals attending the show with an ID greater than <code>afterId</code>, at
+	 *         most <code>limit</code> of them.
+	 * @throws SQLException
+	 */
+	public List<Individual> getIndividualsAfter(Show show, long afterId, int limit) throws SQLException {
+		int next;
+		try (Connection connection = this.getConnection(); PreparedStatement stmt = connection.prepareStatement(show == null ? GET_PAGE : GET_SHOW_PAGE);) {
+			next = setShow(stmt, show);
+			stmt.setLong(next, afterId);
+			stmt.setInt(next + 1, limit);
+			return this.getIndividualQueryResults(stmt);
+		}
+	}
+
+	/**
+	 * Finds the ID from which a page of <code>getIndividualsAfter(long, int)</code> starts when
+	 * it is a number of individuals away from a known one, for example to jump to the middle of
+	 * the list. This skips the individuals in between on the index, so it should be used once to
+	 * find a page rather than to read every page.
+	 * 
+	 * @param afterId
+	 *            The ID of a known page start.
+	 * @param skip
+	 *            The number of individuals between <code>afterId</code> and the new page.
+	 * @return The ID after which the new page starts, or -1 if there are not that many
+	 *         individuals.
+	 * @throws SQLException
+	 */
+	public long getPageStart(long afterId, int skip) throws SQLException {
+		return this.getPageStart(null, afterId, skip);
+	}
+
+	/**
+	 * Finds the start of a page of the individuals attending a show, in the same way as
+	 * <code>getPageStart(long, int)</code>.
+	 * 
+	 * @param show
+	 *            The show, or null for all the individuals in the system.
+	 * @param afterId
+	 *            The ID of a known page start.
+	 * @param skip
+	 *            The number of individuals of the show between <code>afterId</code> and the new
+	 *            page.
+	 * @return The ID after which the new page starts, or -1 if there are not that many
+	 *         individuals.
+	 * @throws SQLException
+	 */
+	public long getPageStart(Show show, long afterId, int skip) throws SQLException {
+		int next;
+		if (skip == 0)
+			return afterId;
+		try (Connection connection = this.getConnection(); PreparedStatement stmt = connection.prepareStatement(show == null ? GET_PAGE_START : GET_SHOW_PAGE_START);) {
+			next = setShow(stmt, show);
+			stmt.setLong(next, afterId);
+			stmt.setInt(next + 1, skip - 1);
+			try (ResultSet result = stmt.executeQuery();) {
+				return result.next() ? result.getLong(1) : -1;
+			}
+		}
+	}
+
+	// Sets the date and venue of the show as the first two parameters, if there is a show, and
+	// returns the index of the next parameter.
+	private static int setShow(PreparedStatement stmt, Show show) throws SQLException {
+		if (show == null)
+			return 1;
+		stmt.setTimestamp(1, dateToSQLTimestamp(show.getDate()));
+		stmt.setInt(2, show.getVenue().getId());
+		return 3;
+	}
+
 	/**
 	 * Attempts to find and return an individual by their ID.
 	 * 
@@ -157,9 +329,9 @@ public class DatabaseManager {
 	 * @return The individual with the given ID, or null if such an individual could not be found.
 	 * @throws SQLException
 	 */
-	public synchronized Individual getById(long id) throws SQLException {
+	public Individual getById(long id) throws SQLException {
 		Individual toReturn;
-		try (PreparedStatement stmt = this.connection.prepareStatement(GET_BY_ID);) {
+		try (Connection connection = this.getConnection(); PreparedStatement stmt = connection.prepareStatement(GET_BY_ID);) {
 			stmt.setLong(1, id);
 			try (ResultSet result = stmt.executeQuery();) {
 				toReturn = this.createIndividual(result);
@@ -176,9 +348,9 @@ public class DatabaseManager {
 	 * @return A list of individuals with the specified first name.
 	 * @throws SQLException
 	 */
-	public synchronized List<Individual> getByFirstName(String fname) throws SQLException {
+	public List<Individual> getByFirstName(String fname) throws SQLException {
 		ArrayList<Individual> toReturn = new ArrayList<Individual>();
-		try (PreparedStatement stmt = this.connection.prepareStatement(GET_BY_FNAME);) {
+		try (Connection connection = this.getConnection(); PreparedStatement stmt = connection.prepareStatement(GET_BY_FNAME);) {
 			stmt.setString(1, fname);
 			toReturn = this.getIndividualQueryResults(stmt);
 		}
@@ -193,9 +365,9 @@ public class DatabaseManager {
 	 * @return A list of individuals with the specified last name.
 	 * @throws SQLException
 	 */
-	public synchronized List<Individual> getByLastName(String lname) throws SQLException {
+	public List<Individual> getByLastName(String lname) throws SQLException {
 		ArrayList<Individual> toReturn = new ArrayList<Individual>();
-		try (PreparedStatement stmt = this.connection.prepareStatement(GET_BY_LNAME);) {
+		try (Connection connection = this.getConnection(); PreparedStatement stmt = connection.prepareStatement(GET_BY_LNAME);) {
 			stmt.setString(1, lname);
 			toReturn = this.getIndividualQueryResults(stmt);
 		}
@@ -210,9 +382,9 @@ public class DatabaseManager {
 	 * @return A list of individuals who have the specified email address.
 	 * @throws SQLException
 	 */
-	public synchronized List<Individual> getByEmail(String email) throws SQLException {
+	public List<Individual> getByEmail(String email) throws SQLException {
 		ArrayList<Individual> toReturn = new ArrayList<Individual>();
-		try (PreparedStatement stmt = this.connection.prepareStatement(GET_BY_EMAIL);) {
+		try (Connection connection = this.getConnection(); PreparedStatement stmt = connection.prepareStatement(GET_BY_EMAIL);) {
 			stmt.setString(1, email);
 			toReturn = this.getIndividualQueryResults(stmt);
 		}
@@ -227,9 +399,9 @@ public class DatabaseManager {
 	 * @return A list of individuals who have booked the specified seat.
 	 * @throws SQLException
 	 */
-	public synchronized List<Individual> getBySeat(String seat) throws SQLException {
+	public List<Individual> getBySeat(String seat) throws SQLException {
 		ArrayList<Individual> toReturn = new ArrayList<Individual>();
-		try (PreparedStatement stmt = this.connection.prepareStatement(GET_BY_SEAT);) {
+		try (Connection connection = this.getConnection(); PreparedStatement stmt = connection.prepareStatement(GET_BY_SEAT);) {
 			stmt.setString(1, seat);
 			toReturn = this.getIndividualQueryResults(stmt);
 		}
@@ -246,9 +418,9 @@ public class DatabaseManager {
 	 * @return A list of individuals, each of which has booked a ticket for the given show.
 	 * @throws SQLException
 	 */
-	public synchronized List<Individual> getByShow(Date eventDate, int eventVenue) throws SQLException {
+	public List<Individual> getByShow(Date eventDate, int eventVenue) throws SQLException {
 		ArrayList<Individual> toReturn = new ArrayList<Individual>();
-		try (PreparedStatement stmt = this.connection.prepareStatement(GET_BY_SHOW);) {
+		try (Connection connection = this.getConnection(); PreparedStatement stmt = connection.prepareStatement(GET_BY_SHOW);) {
 			stmt.setTimestamp(1, dateToSQLTimestamp(eventDate));
 			stmt.setInt(2, eventVenue);
 			toReturn = this.getIndividualQueryResults(stmt);
@@ -264,7 +436,7 @@ public class DatabaseManager {
 	 * @return A list of individuals, each of which has booked a ticket for the given show.
 	 * @throws SQLException
 	 */
-	public synchronized List<Individual> getByShow(Show show) throws SQLException {
+	public List<Individual> getByShow(Show show) throws SQLException {
 		return this.getByShow(show.getDate(), show.getVenue().getId());
 	}
 
@@ -274,10 +446,10 @@ public class DatabaseManager {
 	 * @return A list of all the shows in the system.
 	 * @throws SQLException
 	 */
-	public synchronized List<Show> getAllShows() throws SQLException {
+	public List<Show> getAllShows() throws SQLException {
 		ArrayList<Show> toReturn = new ArrayList<Show>();
 		Show next;
-		try (PreparedStatement stmt = this.connection.prepareStatement(GET_ALL_SHOWS);) {
+		try (Connection connection = this.getConnection(); PreparedStatement stmt = connection.prepareStatement(GET_ALL_SHOWS);) {
 			try (ResultSet resultSet = stmt.executeQuery();) {
 				while (resultSet.next()) {
 					next = new Show(resultSet.getTimestamp(1), new Venue(resultSet.getInt(2), resultSet.getString(3)));
@@ -294,10 +466,10 @@ public class DatabaseManager {
 	 * @return A list of venues in the system.
 	 * @throws SQLException
 	 */
-	public synchronized List<Venue> getAllVenues() throws SQLException {
+	public List<Venue> getAllVenues() throws SQLException {
 		ArrayList<Venue> toReturn = new ArrayList<Venue>();
 		Venue next;
-		try (PreparedStatement stmt = this.connection.prepareStatement(GET_ALL_VENUES);) {
+		try (Connection connection = this.getConnection(); PreparedStatement stmt = connection.prepareStatement(GET_ALL_VENUES);) {
 			try (ResultSet resultSet = stmt.executeQuery();) {
 				while (resultSet.next()) {
 					next = new Venue(resultSet.getInt(1), resultSet.getString(2));
@@ -308,9 +480,59 @@ public class DatabaseManager {
 		return toReturn;
 	}
 
+	/**
+	 * Reads all the individuals in the system with all their attributes into a columnar snapshot,
+	 * for effects that aggregate over the whole audience.
+	 * 
+	 * @return The snapshot of all the individuals.
+	 * @throws SQLException
+	 */
+	public AudienceSnapshot getAudienceSnapshot() throws SQLException {
+		return this.getAudienceSnapshot(null);
+	}
+
+	/**
+	 * Reads the individuals attending a show with all their attributes into a columnar snapshot, for
+	 * effects that aggregate over the whole audience. The individuals are read with one query, and
+	 * each attribute table with another; attributes of individuals stored in the meantime are
+	 * ignored.
+	 * 
+	 * @param show
+	 *            The show, or null for all the individuals in the system.
+	 * @return The snapshot of the individuals attending the show.
+	 * @throws SQLException
+	 */
+	public AudienceSnapshot getAudienceSnapshot(Show show) throws SQLException {
+		AudienceSnapshot.Builder builder = new AudienceSnapshot.Builder(this.globalAttributeTable);
+		Class<?> attributeType;
+		try (Connection connection = this.getConnection();) {
+			try (PreparedStatement stmt = connection.prepareStatement(show == null ? GET_SNAPSHOT : GET_SHOW_SNAPSHOT);) {
+				setShow(stmt, show);
+				try (ResultSet result = stmt.executeQuery();) {
+					while (result.next()) {
+						builder.addIndividual(result.getLong(1), result.getString(2), result.getString(3), result.getString(4), result.getTimestamp(5), result.getInt(6), result.getString(7));
+					}
+				}
+			}
+			for (String currentAttributeName : this.globalAttributeTable.keySet()) {
+				attributeType = this.globalAttributeTable.get(currentAttributeName).getAttributeType();
+				try (PreparedStatement stmt = connection.prepareStatement(String.format(show == null ? GET_ATTRIBUTE_ROWS : GET_SHOW_ATTRIBUTES, currentAttributeName));) {
+					setShow(stmt, show);
+					try (ResultSet result = stmt.executeQuery();) {
+						while (result.next()) {
+							builder.addAttribute(result.getLong(1), currentAttributeName, attributeType.cast(result.getObject(2, attributeType)), result.getDouble(3));
+						}
+					}
+				}
+			}
+		}
+		return builder.build();
+	}
+
 	/**
 	 * This method adds all the attributes stored about each individual to their respective
-	 * <code>Properties</code> objects.
+	 * <code>Properties</code> objects. Each attribute table is read with a handful of set-based
+	 * queries (in chunks of IDs) rather than one query per individual.
 	 * 
 	 * @param individuals
 	 *            The list of individuals for which to get attributes.
@@ -320,27 +542,80 @@ public class DatabaseManager {
 	 * @throws UnknownAttributeException
 	 */
 	public void getAllAttributes(List<Individual> individuals) throws SQLException, UnknownAttributeException, InvalidAttributeTypeException, InvalidReliabilityException {
-		Enumeration<String> attributes = this.globalAttributeTable.keys();
-		String currentAttributeName;
-		double currentReliability;
-		Object currentAttribute;
-		// First clear the attributes of the individuals to avoid duplicate entries.
-		for (Individual currentIndividual : individuals) {
-			currentIndividual.clearAttributes();
+		this.readAttributes(this.indexAndClearAttributes(individuals), this.globalAttributeTable.keySet());
+	}
+
+	/**
+	 * This method adds the named attributes stored about each individual to their respective
+	 * <code>Properties</code> objects and leaves their other attributes alone. Only the attribute
+	 * tables named are read, each with a handful of set-based queries (in chunks of IDs).
+	 * 
+	 * @param individuals
+	 *            The list of individuals for which to get attributes.
+	 * @param attributeNames
+	 *            The names of the attributes to get.
+	 * @throws SQLException
+	 * @throws InvalidReliabilityException
+	 * @throws InvalidAttributeTypeException
+	 * @throws UnknownAttributeException
+	 *             If one of the names is not in the global attribute table.
+	 */
+	public void getAttributes(List<Individual> individuals, Collection<String> attributeNames) throws SQLException, UnknownAttributeException, InvalidAttributeTypeException, InvalidReliabilityException {
+		this.readAttributes(this.indexAndRemoveAttributes(individuals, attributeNames), attributeNames);
+	}
+
+	/**
+	 * This method adds the named attributes stored about each individual to their respective
+	 * <code>Properties</code> objects and leaves their other attributes alone. All the individuals
+	 * should attend the given show. If the show is cached, the attributes are copied from the cached
+	 * copy; otherwise each of the attribute tables named is read with a single query joined on the
+	 * show. Attributes of attendees that are not in the list are ignored.
+	 * 
+	 * @param individuals
+	 *            The list of individuals for which to get attributes.
+	 * @param show
+	 *            The show that all the individuals attend.
+	 * @param attributeNames
+	 *            The names of the attributes to get.
+	 * @throws SQLException
+	 * @throws InvalidReliabilityException
+	 * @throws InvalidAttributeTypeException
+	 * @throws UnknownAttributeException
+	 *             If one of the names is not in the global attribute table.
+	 */
+	public void getAttributes(List<Individual> individuals, Show show, Collection<String> attributeNames) throws SQLException, UnknownAttributeException, InvalidAttributeTypeException, InvalidReliabilityException {
+		HashMap<Long, Individual> index = this.indexAndRemoveAttributes(individuals, attributeNames);
+		List<Individual> snapshot = this.cache.isEnabled() ? this.cache.get(show, this.globalAttributeTable.keySet()) : null;
+		Individual cached;
+		if (index.isEmpty())
+			return;
+		if (snapshot == null) {
+			this.loadShowAttributes(index, show, attributeNames);
+			return;
 		}
-		// Now go through the global attribute table attribute-by-attribute, and, for each
-		// individual, add the information in the database to the individual's properties.
-		while (attributes.hasMoreElements()) {
-			currentAttributeName = attributes.nextElement();
-			try (PreparedStatement stmt = this.connection.prepareStatement(String.format(GET_ATTRIBUTE, currentAttributeName));) {
-				for (Individual currentIndividual : individuals) {
-					stmt.setLong(1, currentIndividual.getId());
-					try (ResultSet resultSet = stmt.executeQuery();) {
-						while (resultSet.next()) {
-							currentAttribute = resultSet.getObject(1, this.globalAttributeTable.get(currentAttributeName).getAttributeType());
-							currentReliability = resultSet.getDouble(2);
-							currentIndividual.addAttribute(currentAttributeName, this.globalAttributeTable.get(currentAttributeName).getAttributeType().cast(currentAttribute), currentReliability);
+		for (Individual currentIndividual : snapshot) {
+			cached = index.get(currentIndividual.getId());
+			if (cached != null)
+				copyAttributes(currentIndividual, cached, attributeNames);
+		}
+	}
+
+	// Reads the named attribute tables for the indexed individuals, ID_CHUNK_SIZE IDs per query.
+	private void readAttributes(HashMap<Long, Individual> index, Collection<String> attributeNames) throws SQLException, UnknownAttributeException, InvalidAttributeTypeException, InvalidReliabilityException {
+		ArrayList<Long> ids = new ArrayList<Long>(index.keySet());
+		int chunkEnd;
+		if (ids.isEmpty())
+			return;
+		// Go through the attributes one by one and fetch the rows for all the individuals at once.
+		try (Connection connection = this.getConnection();) {
+			for (String currentAttributeName : attributeNames) {
+				for (int chunkStart = 0; chunkStart < ids.size(); chunkStart = chunkEnd) {
+					chunkEnd = Math.min(chunkStart + ID_CHUNK_SIZE, ids.size());
+					try (PreparedStatement stmt = connection.prepareStatement(String.format(GET_ATTRIBUTES, currentAttributeName, placeholders(chunkEnd - chunkStart)));) {
+						for (int i = chunkStart; i < chunkEnd; i++) {
+							stmt.setLong(i - chunkStart + 1, ids.get(i));
 						}
+						this.addAttributeQueryResults(stmt, currentAttributeName, index);
 					}
 				}
 			}
@@ -348,100 +623,246 @@ public class DatabaseManager {
 	}
 
 	/**
-	 * Returns a list of suitable individuals for an effect. The list will be sorted roughly by the
-	 * overall suitability, from most suitable to least suitable.
+	 * This method adds all the attributes stored about each individual to their respective
+	 * <code>Properties</code> objects. All the individuals should attend the given show, as the
+	 * attributes are taken from the cached copy of that show, which is read from the database with a
+	 * single query per attribute table if needed. Attributes of attendees that are not in the list
+	 * are ignored.
 	 * 
-	 * @param requirements
-	 *            The requirements that the effect places on the individuals.
-	 * @return A list of individuals that satisfy the given requirements, arranged in no particular
-	 *         order.
+	 * @param individuals
+	 *            The list of individuals for which to get attributes.
+	 * @param show
+	 *            The show that all the individuals attend.
 	 * @throws SQLException
-	 * @throws RequestNotSatisfiableException
 	 * @throws InvalidReliabilityException
 	 * @throws InvalidAttributeTypeException
 	 * @throws UnknownAttributeException
 	 */
-	public synchronized List<Individual> getSuitableIndividuals(IndividualRequirements requirements) throws SQLException, RequestNotSatisfiableException, UnknownAttributeException, InvalidAttributeTypeException, InvalidReliabilityException {
-		ArrayList<String> attributes = new ArrayList<String>();
-		ArrayList<Individual> toReturn;
-		Enumeration<AttributeCategories> categories = requirements.getRequiredCategories().keys();
-		AttributeCategories currentCategory;
-		double currentMinReliability;
-		int tableCounter = 0;
-		String statement = SELECT_FILTERED;
-		try (Statement stmt = this.connection.createStatement();) {
-			stmt.execute(String.format(CREATE_FILTER_TABLE, formatDate(requirements.getShow().getDate()), requirements.getShow().getVenue().getId()));
-			while (categories.hasMoreElements()) {
-				currentCategory = categories.nextElement();
-				currentMinReliability = requirements.getRequiredCategories().get(currentCategory);
-				this.filterAttributes(currentCategory, attributes);
-				if (attributes.isEmpty())
-					throw new RequestNotSatisfiableException(Strings.REQUEST_NOT_SATISFIABLE);
-				this.createTemporaryTable(attributes, currentMinReliability, tableCounter++);
-			}
-			for (int i = 0; i < tableCounter; i++) {
-				statement += String.format(FILTER_JOIN, i);
-			}
-			toReturn = this.getIndividualQueryResults(stmt, statement);
-		} finally {
-			try (Statement stmt = this.connection.createStatement();) {
-				stmt.execute(DROP_FILTER_TABLE);
-				for (int i = 0; i < tableCounter; i++) {
-					stmt.execute(String.format(DROP_TEMP_TABLE, i));
+	public void getAllAttributes(List<Individual> individuals, Show show) throws SQLException, UnknownAttributeException, InvalidAttributeTypeException, InvalidReliabilityException {
+		HashMap<Long, Individual> index = this.indexAndClearAttributes(individuals);
+		Individual cached;
+		if (index.isEmpty())
+			return;
+		if (!this.cache.isEnabled()) {
+			this.loadShowAttributes(index, show, this.globalAttributeTable.keySet());
+			return;
+		}
+		for (Individual currentIndividual : this.getShowSnapshot(show)) {
+			cached = index.get(currentIndividual.getId());
+			if (cached != null)
+				copyAttributes(currentIndividual, cached);
+		}
+	}
+
+	/**
+	 * Reads the individuals of a show and all their attributes into the cache, so that several
+	 * effects started on the show at the same time share a single snapshot of it instead of each
+	 * reading it from the database. Does nothing if the cache is disabled.
+	 * 
+	 * @param show
+	 *            The show to prefetch.
+	 * @throws SQLException
+	 * @throws InvalidReliabilityException
+	 * @throws InvalidAttributeTypeException
+	 * @throws UnknownAttributeException
+	 */
+	public void prefetchShow(Show show) throws SQLException, UnknownAttributeException, InvalidAttributeTypeException, InvalidReliabilityException {
+		if (this.cache.isEnabled())
+			this.getShowSnapshot(show);
+	}
+
+	// Reads the named attributes of the attendees of a show from the database, one query per
+	// attribute table.
+	private void loadShowAttributes(HashMap<Long, Individual> index, Show show, Collection<String> attributeNames) throws SQLException, UnknownAttributeException, InvalidAttributeTypeException, InvalidReliabilityException {
+		try (Connection connection = this.getConnection();) {
+			for (String currentAttributeName : attributeNames) {
+				try (PreparedStatement stmt = connection.prepareStatement(String.format(GET_SHOW_ATTRIBUTES, currentAttributeName));) {
+					stmt.setTimestamp(1, dateToSQLTimestamp(show.getDate()));
+					stmt.setInt(2, show.getVenue().getId());
+					this.addAttributeQueryResults(stmt, currentAttributeName, index);
 				}
 			}
 		}
-		if (toReturn.size() == 0)
-			throw new RequestNotSatisfiableException(Strings.REQUEST_NOT_SATISFIABLE);
-		this.getAllAttributes(toReturn);
-		return toReturn;
 	}
 
-	private void createTemporaryTable(ArrayList<String> attributes, double minReliability, int tableCounter) throws SQLException {
-		ArrayList<String> subQueries = new ArrayList<String>();
-		String finalSubQuery;
-		String statement;
-		for (String a : attributes) {
-			subQueries.add("(SELECT id FROM " + a + " WHERE reliability >= " + minReliability + ")");
+	// Returns the cached individuals of a show, reading them from the database if they are not
+	// cached. The returned individuals are shared and must not be modified.
+	private List<Individual> getShowSnapshot(Show show) throws SQLException, UnknownAttributeException, InvalidAttributeTypeException, InvalidReliabilityException {
+		List<Individual> snapshot = this.cache.get(show, this.globalAttributeTable.keySet());
+		long generation;
+		if (snapshot == null) {
+			generation = this.cache.getGeneration();
+			snapshot = this.getByShow(show);
+			this.loadShowAttributes(this.indexAndClearAttributes(snapshot), show, this.globalAttributeTable.keySet());
+			this.cache.put(show, this.globalAttributeTable.keySet(), snapshot, generation);
 		}
-		finalSubQuery = subQueries.get(0);
-		for (int i = 1; i < subQueries.size(); i++) {
-			finalSubQuery += " UNION " + subQueries.get(i);
+		return snapshot;
+	}
+
+	// Copies all the attributes of one individual to another. The attribute values themselves are
+	// immutable and shared.
+	private static void copyAttributes(Individual from, Individual to) throws UnknownAttributeException, InvalidAttributeTypeException, InvalidReliabilityException {
+		Enumeration<String> names = from.getProperties().keys();
+		String currentName;
+		while (names.hasMoreElements()) {
+			currentName = names.nextElement();
+			for (AttributeReliabilityPair pair : from.getAttribute(currentName)) {
+				to.addAttribute(currentName, pair.getAttribute(), pair.getReliability());
+			}
+		}
+	}
+
+	// Copies the named attributes of one individual to another.
+	private static void copyAttributes(Individual from, Individual to, Collection<String> attributeNames) throws UnknownAttributeException, InvalidAttributeTypeException, InvalidReliabilityException {
+		List<AttributeReliabilityPair> pairs;
+		for (String currentName : attributeNames) {
+			pairs = from.getAttribute(currentName);
+			if (pairs == null)
+				continue;
+			for (AttributeReliabilityPair pair : pairs) {
+				to.addAttribute(currentName, pair.getAttribute(), pair.getReliability());
+			}
 		}
-		statement = String.format(CREATE_TEMP_TABLE, tableCounter, finalSubQuery);
-		try (Statement stmt = this.connection.createStatement();) {
-			stmt.execute(statement);
+	}
+
+	/**
+	 * Drops a show from the cache of this database. Must be called after every committed change to
+	 * the individuals of a show or to their attributes.
+	 * 
+	 * @param date
+	 *            The date of the show.
+	 * @param venue
+	 *            The venue ID of the show.
+	 */
+	protected void invalidateShow(Date date, int venue) {
+		this.cache.invalidate(date, venue);
+	}
+
+	/**
+	 * Drops the shows attended by any of the given individuals from the cache of this database.
+	 * 
+	 * @param individuals
+	 *            The individuals that have been changed.
+	 */
+	protected void invalidateShows(List<Individual> individuals) {
+		this.cache.invalidate(individuals);
+	}
+
+	/**
+	 * Returns the number of times the individuals of a show have been found in the cache. The cache
+	 * is shared by all managers of the same database, and so are the counters.
+	 * 
+	 * @return The number of cache hits so far.
+	 */
+	public long getCacheHits() {
+		return this.cache.getHits();
+	}
+
+	/**
+	 * Returns the number of times the individuals of a show had to be read from the database because
+	 * they were not in the cache.
+	 * 
+	 * @return The number of cache misses so far.
+	 */
+	public long getCacheMisses() {
+		return this.cache.getMisses();
+	}
+
+	// Clears the attributes of the individuals to avoid duplicate entries and indexes them by ID.
+	private HashMap<Long, Individual> indexAndClearAttributes(List<Individual> individuals) {
+		HashMap<Long, Individual> index = new HashMap<Long, Individual>(individuals.size() * 2);
+		for (Individual currentIndividual : individuals) {
+			currentIndividual.clearAttributes();
+			index.put(currentIndividual.getId(), currentIndividual);
 		}
+		return index;
 	}
 
-	private void filterAttributes(AttributeCategories filter, ArrayList<String> attributes) {
-		attributes.clear();
-		Enumeration<String> allAttributes = this.globalAttributeTable.keys();
-		String currentAttribute;
-		while (allAttributes.hasMoreElements()) {
-			currentAttribute = allAttributes.nextElement();
-			if (this.globalAttributeTable.get(currentAttribute) == filter)
-				attributes.add(currentAttribute);
+	// Removes the named attributes of the individuals to avoid duplicate entries and indexes them by
+	// ID. The names must be in the global attribute table, as they become table names.
+	private HashMap<Long, Individual> indexAndRemoveAttributes(List<Individual> individuals, Collection<String> attributeNames) throws UnknownAttributeException {
+		HashMap<Long, Individual> index = new HashMap<Long, Individual>(individuals.size() * 2);
+		for (String currentName : attributeNames) {
+			if (!this.globalAttributeTable.containsKey(currentName))
+				throw new UnknownAttributeException(String.format(Strings.UNKNOWN_ATTR_EXN, currentName));
+		}
+		for (Individual currentIndividual : individuals) {
+			for (String currentName : attributeNames) {
+				currentIndividual.removeAttribute(currentName);
+			}
+			index.put(currentIndividual.getId(), currentIndividual);
 		}
+		return index;
 	}
 
-	private ArrayList<Individual> getIndividualQueryResults(PreparedStatement stmt) throws SQLException {
-		ArrayList<Individual> toReturn = new ArrayList<Individual>();
-		Individual next;
+	// Streams the (id, attribute, reliability) rows returned by the statement into the matching
+	// individuals.
+	private void addAttributeQueryResults(PreparedStatement stmt, String attributeName, HashMap<Long, Individual> index) throws SQLException, UnknownAttributeException, InvalidAttributeTypeException, InvalidReliabilityException {
+		Class<?> attributeType = this.globalAttributeTable.get(attributeName).getAttributeType();
+		Individual currentIndividual;
 		try (ResultSet resultSet = stmt.executeQuery();) {
-			next = this.createIndividual(resultSet);
-			while (next != null) {
-				toReturn.add(next);
-				next = this.createIndividual(resultSet);
+			while (resultSet.next()) {
+				currentIndividual = index.get(resultSet.getLong(1));
+				if (currentIndividual != null) {
+					currentIndividual.addAttribute(attributeName, attributeType.cast(resultSet.getObject(2, attributeType)), resultSet.getDouble(3));
+				}
 			}
 		}
+	}
+
+	private static String placeholders(int count) {
+		StringBuilder builder = new StringBuilder(count * 3);
+		for (int i = 0; i < count; i++) {
+			builder.append(i == 0 ? "?" : ", ?");
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Returns a list of suitable individuals for an effect. The list will be sorted roughly by the
+	 * overall suitability, from most suitable to least suitable.
+	 * 
+	 * @param requirements
+	 *            The requirements that the effect places on the individuals.
+	 * @return A list of individuals that satisfy the given requirements, arranged in no particular
+	 *         order.
+	 * @throws SQLException
+	 * @throws RequestNotSatisfiableException
+	 * @throws InvalidReliabilityException
+	 * @throws InvalidAttributeTypeException
+	 * @throws UnknownAttributeException
+	 */
+	public List<Individual> getSuitableIndividuals(IndividualRequirements requirements) throws SQLException, RequestNotSatisfiableException, UnknownAttributeException, InvalidAttributeTypeException, InvalidReliabilityException {
+		List<AttributeCategories> shape = this.planner.getShape(requirements);
+		String query = this.planner.getQuery(shape);
+		ArrayList<Individual> toReturn;
+		double currentMinReliability;
+		int parameter = 3;
+		// The query is the same for all requirements of this shape, so the statement prepared for
+		// it comes out of the statement cache of the connection.
+		try (Connection connection = this.getConnection(); PreparedStatement stmt = connection.prepareStatement(query);) {
+			stmt.setTimestamp(1, dateToSQLTimestamp(requirements.getShow().getDate()));
+			stmt.setInt(2, requirements.getShow().getVenue().getId());
+			for (AttributeCategories currentCategory : shape) {
+				currentMinReliability = requirements.getRequiredCategories().get(currentCategory);
+				for (int i = 0; i < this.planner.getAttributes(currentCategory).size(); i++) {
+					stmt.setDouble(parameter++, currentMinReliability);
+				}
+			}
+			toReturn = this.getIndividualQueryResults(stmt);
+		}
+		if (toReturn.size() == 0)
+			throw new RequestNotSatisfiableException(Strings.REQUEST_NOT_SATISFIABLE);
+		// The individuals are always selected by the query of the planner, even when the show is
+		// cached; only their attributes are copied from the cache.
+		this.getAllAttributes(toReturn, requirements.getShow());
 		return toReturn;
 	}
 
-	private ArrayList<Individual> getIndividualQueryResults(Statement stmt, String query) throws SQLException {
+	protected ArrayList<Individual> getIndividualQueryResults(PreparedStatement stmt) throws SQLException {
 		ArrayList<Individual> toReturn = new ArrayList<Individual>();
 		Individual next;
-		try (ResultSet resultSet = stmt.executeQuery(query);) {
+		try (ResultSet resultSet = stmt.executeQuery();) {
 			next = this.createIndividual(resultSet);
 			while (next != null) {
 				toReturn.add(next);
@@ -453,14 +874,7 @@ public class DatabaseManager {
 
 	private Individual createIndividual(ResultSet result) throws SQLException {
 		if (result.next()) {
-			this.id = result.getLong(1);
-			this.fname = result.getString(2);
-			this.lname = result.getString(3);
-			this.email = result.getString(4);
-			this.date = result.getTimestamp(5);
-			this.venue = result.getInt(6);
-			this.seat = result.getString(7);
-			return new Individual(this.id, this.fname, this.lname, this.email, this.date, this.venue, this.seat, this.globalAttributeTable);
+			return new Individual(result.getLong(1), result.getString(2), result.getString(3), result.getString(4), result.getTimestamp(5), result.getInt(6), result.getString(7), this.globalAttributeTable);
 		} else {
 			return null;
 		}
@@ -0,0 +1,109 @@
+package uk.ac.cam.darknet.database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import uk.ac.cam.darknet.common.LoggerFactory;
+import uk.ac.cam.darknet.common.Strings;
+
+/**
+ * An HSQLDB database running inside the application, in files on the local disk, instead of in a
+ * separate server. Queries then skip the network and the serialization of results altogether. The
+ * database is opened by the first manager connecting to it, which also tunes the file access for
+ * the CACHED tables: the data file is memory-mapped (NIO), and the numbers of rows and kilobytes
+ * of the tables kept in memory are taken from the configuration file.
+ * 
+ * The database must be shut down cleanly, so that all changes are checkpointed into the data file
+ * and the files are unlocked. This happens when the last manager using it is closed, or else when
+ * the application exits.
+ */
+class EmbeddedDatabase {
+	private static final HashMap<String, EmbeddedDatabase>	DATABASES			= new HashMap<String, EmbeddedDatabase>();
+	private static final String								SET_CACHE_ROWS		= "SET FILES CACHE ROWS %1$d";
+	private static final String								SET_CACHE_SIZE		= "SET FILES CACHE SIZE %1$d";
+	private static final String								SET_NIO				= "SET FILES NIO TRUE";
+	private static final String								SET_NIO_SIZE		= "SET FILES NIO SIZE %1$d";
+	private static final String								SHUTDOWN			= "SHUTDOWN";
+	private static final int								DEFAULT_CACHE_ROWS	= 50000;
+	private static final int								DEFAULT_CACHE_SIZE	= 10000;
+	private static final int								DEFAULT_NIO_SIZE	= 256;
+	private final String									connectionUrl;
+	private final String									username;
+	private final String									password;
+	private int												managers;
+	private boolean											open;
+
+	private EmbeddedDatabase(DatabaseConfiguration config) {
+		this.connectionUrl = config.getConnectionUrl();
+		this.username = config.getString("username", null);
+		this.password = config.getString("password", null);
+		Runtime.getRuntime().addShutdownHook(new Thread("embedded-database-shutdown") {
+			@Override
+			public void run() {
+				// Managers that are still open at exit are not waited for.
+				synchronized (EmbeddedDatabase.class) {
+					EmbeddedDatabase.this.shutdown();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Registers a manager of the embedded database described by the configuration. If the database
+	 * is not open yet, the connection given opens it, and is used to apply the cache settings of
+	 * the configuration.
+	 * 
+	 * @param config
+	 *            The configuration of the database.
+	 * @param connection
+	 *            A connection of the manager to the database.
+	 * @return The database, to be released once the manager is closed.
+	 * @throws SQLException
+	 */
+	static synchronized EmbeddedDatabase attach(DatabaseConfiguration config, Connection connection) throws SQLException {
+		EmbeddedDatabase database = DATABASES.get(config.getConnectionUrl());
+		if (database == null) {
+			database = new EmbeddedDatabase(config);
+			DATABASES.put(config.getConnectionUrl(), database);
+		}
+		if (!database.open) {
+			// These settings are stored with the database and take effect straight away.
+			try (Statement stmt = connection.createStatement();) {
+				stmt.execute(String.format(SET_CACHE_ROWS, config.getInt("datacacherows", DEFAULT_CACHE_ROWS)));
+				stmt.execute(String.format(SET_CACHE_SIZE, config.getInt("datacachesize", DEFAULT_CACHE_SIZE)));
+				stmt.execute(SET_NIO);
+				stmt.execute(String.format(SET_NIO_SIZE, config.getInt("niosize", DEFAULT_NIO_SIZE)));
+			}
+			database.open = true;
+		}
+		database.managers++;
+		return database;
+	}
+
+	/**
+	 * Unregisters a manager whose connections have all been closed, and shuts the database down if
+	 * it was the last one.
+	 */
+	void release() {
+		synchronized (EmbeddedDatabase.class) {
+			this.managers--;
+			if (this.managers == 0)
+				this.shutdown();
+		}
+	}
+
+	// Checkpoints and closes the database, unless it has been shut down already. The caller must
+	// hold the lock of the class.
+	private void shutdown() {
+		if (!this.open)
+			return;
+		try (Connection connection = DriverManager.getConnection(this.connectionUrl, this.username, this.password); Statement stmt = connection.createStatement();) {
+			stmt.execute(SHUTDOWN);
+		} catch (SQLException e) {
+			LoggerFactory.getLogger().warning(String.format(Strings.EMBEDDED_SHUTDOWN_FAILED, this.connectionUrl, e.getMessage()));
+		}
+		this.open = false;
+	}
+}
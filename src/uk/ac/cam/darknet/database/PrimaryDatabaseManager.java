@@ -1,18 +1,26 @@
 package uk.ac.cam.darknet.database;
 
 import java.io.IOException;
+import java.sql.Connection;
+import java.sql.BatchUpdateException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import uk.ac.cam.darknet.common.AttributeCategories;
 import uk.ac.cam.darknet.common.Individual;
 import uk.ac.cam.darknet.common.LoggerFactory;
+import uk.ac.cam.darknet.common.Show;
+import uk.ac.cam.darknet.common.Strings;
 import uk.ac.cam.darknet.exceptions.ConfigFileNotFoundException;
 
 /**
@@ -28,17 +36,16 @@ public class PrimaryDatabaseManager extends DatabaseManager {
 	private static final String	INSERT_INDIVIDUAL			= "INSERT INTO individuals (id, fname, lname, email, date, venue, seat) VALUES (DEFAULT, ?, ?, ?, ?, ?, ?)";
 	private static final String	INSERT_VENUE				= "INSERT INTO venues (id, name) VALUES (DEFAULT, ?)";
 	private static final String	INSERT_SHOW					= "INSERT INTO shows (date, venue) VALUES (?, ?)";
-	private static final String	GET_NEW_INDIVIDUAL_ID		= "SELECT MAX(id) FROM individuals";
-	private static final String	GET_NEW_VENUE_ID			= "SELECT MAX(id) FROM venues";
 	private static final String	DELETE_INDIVIDUAL			= "DELETE FROM individuals WHERE id = ?";
 	private static final String	UPDATE_INDIVIDUAL			= "UPDATE individuals SET fname = ?, lname = ?, email = ?, date = ?, venue = ?, seat = ? WHERE id = ?";
 	private static final String	CHECK_SHOW_EXISTS			= "SELECT COUNT(1) FROM shows WHERE date = ? AND venue = ?";
-	private String				fname;
-	private String				lname;
-	private String				email;
-	private Timestamp			date;
-	private int					venue;
-	private String				seat;
+	private static final String	GET_VENUE_SHOWS				= "SELECT date FROM shows WHERE venue = ?";
+	private static final String	CREATE_EMAIL_INDEX			= "CREATE INDEX individuals_email ON individuals (email)";
+	private static final String	CREATE_LNAME_INDEX			= "CREATE INDEX individuals_lname ON individuals (lname)";
+	private static final int	DEFAULT_BATCH_SIZE			= 500;
+	private static final int	DEFAULT_IMPORT_WORKERS		= 4;
+	private final int			batchSize;
+	private final int			importWorkers;
 
 	/**
 	 * Creates a new <code>PrimaryDatabaseManager</code> with the specified global attribute table
@@ -48,6 +55,26 @@ public class PrimaryDatabaseManager extends DatabaseManager {
 	 *            The global table of attributes currently supported by the system. These attributes
 	 *            are used to generate the table names in the database and have to be consistent
 	 *            between successive executions of the system.
+	 * @throws ConfigFileNotFoundException
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 */
+	public PrimaryDatabaseManager(Hashtable<String, AttributeCategories> globalAttributeTable) throws ConfigFileNotFoundException, IOException, ClassNotFoundException, SQLException {
+		super(globalAttributeTable);
+		this.batchSize = Math.max(this.configuration.getInt("batchsize", DEFAULT_BATCH_SIZE), 1);
+		this.importWorkers = Math.max(this.configuration.getInt("importworkers", DEFAULT_IMPORT_WORKERS), 1);
+		this.createTable();
+	}
+
+	/**
+	 * Creates a new <code>PrimaryDatabaseManager</code> with the specified global attribute table
+	 * and sets up the connection to the database described in the given configuration file.
+	 * 
+	 * @param globalAttributeTable
+	 *            The global table of attributes currently supported by the system. These attributes
+	 *            are used to generate the table names in the database and have to be consistent
+	 *            between successive executions of the system.
 	 * @param pathToConfig
 	 *            The path to the file containing information about how to connect to the database
 	 *            server.
@@ -56,77 +83,144 @@ public class PrimaryDatabaseManager extends DatabaseManager {
 	 * @throws ClassNotFoundException
 	 * @throws SQLException
 	 */
-	public PrimaryDatabaseManager(Hashtable<String, AttributeCategories> globalAttributeTable) throws ConfigFileNotFoundException, IOException, ClassNotFoundException, SQLException {
-		super(globalAttributeTable);
+	public PrimaryDatabaseManager(Hashtable<String, AttributeCategories> globalAttributeTable, String pathToConfig) throws ConfigFileNotFoundException, IOException, ClassNotFoundException, SQLException {
+		super(globalAttributeTable, pathToConfig);
+		this.batchSize = Math.max(this.configuration.getInt("batchsize", DEFAULT_BATCH_SIZE), 1);
+		this.importWorkers = Math.max(this.configuration.getInt("importworkers", DEFAULT_IMPORT_WORKERS), 1);
 		this.createTable();
 	}
 
 	private void createTable() throws SQLException {
-		try (Statement stmt = this.connection.createStatement();) {
-			try {
-				stmt.execute(CREATE_VENUES_TABLE);
-			} catch (SQLException e) {
-				// Table already exists.
-				LoggerFactory.getLogger().info(e.getMessage());
-			}
-			try {
-				stmt.execute(CREATE_SHOWS_TABLE);
-			} catch (SQLException e) {
-				// Table already exists.
-				LoggerFactory.getLogger().info(e.getMessage());
-			}
-			try {
-				stmt.execute(CREATE_INDIVIDUALS_TABLE);
+		try (Connection connection = this.getConnection();) {
+			try (Statement stmt = connection.createStatement();) {
+				try {
+					stmt.execute(CREATE_VENUES_TABLE);
+				} catch (SQLException e) {
+					// Table already exists.
+					LoggerFactory.getLogger().info(e.getMessage());
+				}
+				try {
+					stmt.execute(CREATE_SHOWS_TABLE);
+				} catch (SQLException e) {
+					// Table already exists.
+					LoggerFactory.getLogger().info(e.getMessage());
+				}
+				try {
+					stmt.execute(CREATE_INDIVIDUALS_TABLE);
+				} catch (SQLException e) {
+					// Table already exists.
+					LoggerFactory.getLogger().info(e.getMessage());
+				}
 			} catch (SQLException e) {
-				// Table already exists.
-				LoggerFactory.getLogger().info(e.getMessage());
+				connection.rollback();
+				throw e;
 			}
-		} catch (SQLException e) {
-			this.connection.rollback();
-			throw e;
+			connection.commit();
+			// Migration steps are append only. The foreign key on (date, venue) and the unique
+			// constraint (leading with fname) are already backed by indexes.
+			SchemaMigration.migrate(connection, "individuals", SchemaMigration.createIndex("individuals_email", CREATE_EMAIL_INDEX), SchemaMigration.createIndex("individuals_lname", CREATE_LNAME_INDEX));
 		}
-		this.connection.commit();
 	}
 
 	/**
 	 * Stores a list of individuals into the database. If the number of individuals is large, this
 	 * is the preferred method. Inserting individuals one after the other is less efficient.
 	 * 
+	 * The shows of all the individuals are looked up once and any missing ones are created in a
+	 * single batch. The individuals are then sent to the database in batches, the size of which is
+	 * set by the <code>batchsize</code> setting of the database configuration file.
+	 * 
 	 * <b>Note:</b> This method will discard any individuals with invalid fields. This includes
-	 * empty (or null) first and/or last names and malformed email addresses. A count of the number
-	 * of individuals inserted will be given. In case of any other serious SQL error, all changes
-	 * will be rolled back.
+	 * empty (or null) first and/or last names and malformed email addresses. Individuals that
+	 * already exist in the database are discarded too. A count of the number of individuals
+	 * inserted will be given. In case of any other serious SQL error, all changes will be rolled
+	 * back.
 	 * 
 	 * @param list
 	 *            The list of individuals to store.
 	 * @return The number of individuals successfully inserted.
 	 * @throws SQLException
 	 */
-	public synchronized int storeIndividual(List<Individual> list) throws SQLException {
-		Iterator<Individual> iterator = list.iterator();
+	public int storeIndividual(List<Individual> list) throws SQLException {
+		return this.storeIndividuals(list, null);
+	}
+
+	/**
+	 * Stores a list of individuals into the database in the same way as
+	 * <code>storeIndividual(List)</code>, and returns the IDs the database has assigned to them.
+	 * This saves callers that need the IDs of the new individuals from reading them back.
+	 * 
+	 * @param list
+	 *            The list of individuals to store.
+	 * @return The IDs of the individuals, in the order of the list. Individuals that were
+	 *         discarded or already existed in the database have an ID of -1.
+	 * @throws SQLException
+	 */
+	public long[] storeIndividualsReturningIds(List<Individual> list) throws SQLException {
+		long[] ids = new long[list.size()];
+		Arrays.fill(ids, -1);
+		this.storeIndividuals(list, ids);
+		return ids;
+	}
+
+	// Stores the individuals and, if ids is not null, sets the ID of each individual inserted at
+	// its position in the list.
+	private int storeIndividuals(List<Individual> list, long[] ids) throws SQLException {
+		ArrayList<Individual> batch = new ArrayList<Individual>(Math.min(this.batchSize, list.size()));
+		ArrayList<Integer> positions = new ArrayList<Integer>(Math.min(this.batchSize, list.size()));
+		HashMap<Integer, HashSet<Long>> failedShows;
 		Individual current;
 		int numOfIndividualsInserted = 0;
-		try (PreparedStatement stmt = this.connection.prepareStatement(INSERT_INDIVIDUAL);) {
-			while (iterator.hasNext()) {
-				current = iterator.next();
-				this.setupLocalFieldParameters(current);
-				try {
-					this.createShowIfNotExists(current.getEventDate(), current.getEventVenue());
-					this.executeIndividualUpdateStatement(stmt);
-					numOfIndividualsInserted++;
-				} catch (SQLException e) {
-					// Do not increment numOfIndividualsInserted.
-					LoggerFactory.getLogger().info(e.getMessage());
+		try (Connection connection = this.getConnection();) {
+			try (PreparedStatement stmt = ids == null ? connection.prepareStatement(INSERT_INDIVIDUAL) : connection.prepareStatement(INSERT_INDIVIDUAL, Statement.RETURN_GENERATED_KEYS);) {
+				failedShows = this.createMissingShows(connection, list);
+				for (int i = 0; i < list.size(); i++) {
+					current = list.get(i);
+					if (!isComplete(current) || containsShow(failedShows, current.getEventDate(), current.getEventVenue())) {
+						// Do not increment numOfIndividualsInserted.
+						LoggerFactory.getLogger().info(String.format(Strings.INDIVIDUAL_DISCARDED, current.getFirstName(), current.getLastName()));
+						continue;
+					}
+					batch.add(current);
+					positions.add(i);
+					if (batch.size() == this.batchSize) {
+						numOfIndividualsInserted += this.executeIndividualBatch(stmt, batch, positions, ids);
+						batch.clear();
+						positions.clear();
+					}
 				}
+				numOfIndividualsInserted += this.executeIndividualBatch(stmt, batch, positions, ids);
+			} catch (SQLException e) {
+				connection.rollback();
+				throw e;
 			}
-		} catch (SQLException e) {
-			this.connection.rollback();
-			throw e;
+			connection.commit();
 		}
-		this.connection.commit();
+		this.invalidateShows(list);
 		return numOfIndividualsInserted;
 	}
 
+	/**
+	 * Returns the number of individuals sent to the database in one batch by
+	 * <code>storeIndividual(List)</code>. Callers streaming individuals into the database should
+	 * pass them on in lists of this size.
+	 * 
+	 * @return The batch size set in the database configuration file.
+	 */
+	public int getBatchSize() {
+		return this.batchSize;
+	}
+
+	/**
+	 * Returns the number of CSV files of a season that should be parsed at the same time while
+	 * their individuals are stored.
+	 * 
+	 * @return The number of files set in the database configuration file.
+	 */
+	public int getImportWorkers() {
+		return this.importWorkers;
+	}
+
 	/**
 	 * Stores a single individual into the database.
 	 * 
@@ -140,28 +234,28 @@ public class PrimaryDatabaseManager extends DatabaseManager {
 	 *         case if an individual with exactly the same data already existed.
 	 * @throws SQLException
 	 */
-	public synchronized long storeIndividual(Individual individual) throws SQLException {
+	public long storeIndividual(Individual individual) throws SQLException {
 		long individualId = -1;
-		try (PreparedStatement stmt = this.connection.prepareStatement(INSERT_INDIVIDUAL);) {
-			this.setupLocalFieldParameters(individual);
-			try {
-				this.createShowIfNotExists(individual.getEventDate(), individual.getEventVenue());
-				this.executeIndividualUpdateStatement(stmt);
-				try (Statement getId = this.connection.createStatement()) {
-					try (ResultSet result = getId.executeQuery(GET_NEW_INDIVIDUAL_ID);) {
+		try (Connection connection = this.getConnection();) {
+			try (PreparedStatement stmt = connection.prepareStatement(INSERT_INDIVIDUAL, Statement.RETURN_GENERATED_KEYS);) {
+				try {
+					this.createShowIfNotExists(connection, individual.getEventDate(), individual.getEventVenue());
+					this.executeIndividualUpdateStatement(stmt, individual);
+					try (ResultSet result = stmt.getGeneratedKeys();) {
 						if (result.next())
 							individualId = result.getLong(1);
 					}
+				} catch (SQLException e) {
+					// Leave individualId as -1.
+					LoggerFactory.getLogger().info(e.getMessage());
 				}
 			} catch (SQLException e) {
-				// Leave individualId as -1.
-				LoggerFactory.getLogger().info(e.getMessage());
+				connection.rollback();
+				throw e;
 			}
-		} catch (SQLException e) {
-			this.connection.rollback();
-			throw e;
+			connection.commit();
 		}
-		this.connection.commit();
+		this.invalidateShow(individual.getEventDate(), individual.getEventVenue());
 		return individualId;
 	}
 
@@ -173,21 +267,26 @@ public class PrimaryDatabaseManager extends DatabaseManager {
 	 * @return A boolean indicating whether the individual was successfully removed.
 	 * @throws SQLException
 	 */
-	public synchronized boolean deleteIndividual(long id) throws SQLException {
+	public boolean deleteIndividual(long id) throws SQLException {
 		boolean individualDeleted = true;
-		try (PreparedStatement stmt = this.connection.prepareStatement(DELETE_INDIVIDUAL);) {
-			stmt.setLong(1, id);
-			try {
-				stmt.execute();
+		Individual oldData = this.getById(id);
+		try (Connection connection = this.getConnection();) {
+			try (PreparedStatement stmt = connection.prepareStatement(DELETE_INDIVIDUAL);) {
+				stmt.setLong(1, id);
+				try {
+					stmt.execute();
+				} catch (SQLException e) {
+					individualDeleted = false;
+					LoggerFactory.getLogger().info(e.getMessage());
+				}
 			} catch (SQLException e) {
-				individualDeleted = false;
-				LoggerFactory.getLogger().info(e.getMessage());
+				connection.rollback();
+				throw e;
 			}
-		} catch (SQLException e) {
-			this.connection.rollback();
-			throw e;
+			connection.commit();
 		}
-		this.connection.commit();
+		if (oldData != null)
+			this.invalidateShow(oldData.getEventDate(), oldData.getEventVenue());
 		return individualDeleted;
 	}
 
@@ -207,22 +306,28 @@ public class PrimaryDatabaseManager extends DatabaseManager {
 	 * @return A boolean indicating whether the update was successful or not.
 	 * @throws SQLException
 	 */
-	public synchronized boolean updateIndividual(long id, Individual newData) throws SQLException {
+	public boolean updateIndividual(long id, Individual newData) throws SQLException {
 		boolean individualValid = true;
-		try (PreparedStatement stmt = this.connection.prepareStatement(UPDATE_INDIVIDUAL);) {
-			stmt.setLong(7, id);
-			this.setupLocalFieldParameters(newData);
-			try {
-				this.executeIndividualUpdateStatement(stmt);
+		Individual oldData = this.getById(id);
+		try (Connection connection = this.getConnection();) {
+			try (PreparedStatement stmt = connection.prepareStatement(UPDATE_INDIVIDUAL);) {
+				stmt.setLong(7, id);
+				try {
+					this.executeIndividualUpdateStatement(stmt, newData);
+				} catch (SQLException e) {
+					individualValid = false;
+					LoggerFactory.getLogger().info(e.getMessage());
+				}
 			} catch (SQLException e) {
-				individualValid = false;
-				LoggerFactory.getLogger().info(e.getMessage());
+				connection.rollback();
+				throw e;
 			}
-		} catch (SQLException e) {
-			this.connection.rollback();
-			throw e;
+			connection.commit();
 		}
-		this.connection.commit();
+		// The individual may have moved to another show.
+		if (oldData != null)
+			this.invalidateShow(oldData.getEventDate(), oldData.getEventVenue());
+		this.invalidateShow(newData.getEventDate(), newData.getEventVenue());
 		return individualValid;
 	}
 
@@ -234,31 +339,171 @@ public class PrimaryDatabaseManager extends DatabaseManager {
 	 * @return The ID of the newly created venue, or -1 on error.
 	 * @throws SQLException
 	 */
-	public synchronized int createVenue(String name) throws SQLException {
+	public int createVenue(String name) throws SQLException {
 		int venueId = -1;
-		try (PreparedStatement stmt = this.connection.prepareStatement(INSERT_VENUE);) {
-			stmt.setString(1, name);
-			try {
-				stmt.execute();
-				try (Statement getId = this.connection.createStatement()) {
-					try (ResultSet result = getId.executeQuery(GET_NEW_VENUE_ID);) {
+		try (Connection connection = this.getConnection();) {
+			try (PreparedStatement stmt = connection.prepareStatement(INSERT_VENUE, Statement.RETURN_GENERATED_KEYS);) {
+				stmt.setString(1, name);
+				try {
+					stmt.execute();
+					try (ResultSet result = stmt.getGeneratedKeys();) {
 						if (result.next())
 							venueId = result.getInt(1);
 					}
+				} catch (SQLException e) {
+					LoggerFactory.getLogger().info(e.getMessage());
 				}
 			} catch (SQLException e) {
-				LoggerFactory.getLogger().info(e.getMessage());
+				connection.rollback();
+				throw e;
 			}
-		} catch (SQLException e) {
-			this.connection.rollback();
-			throw e;
+			connection.commit();
 		}
-		this.connection.commit();
 		return venueId;
 	}
 
-	private void createShowIfNotExists(Date date, int venue) throws SQLException {
-		try (PreparedStatement stmt = this.connection.prepareStatement(CHECK_SHOW_EXISTS)) {
+	// Sends the individuals to the database as one batch and returns the number inserted. A batch
+	// stops at the first rejected row (such as a duplicate), so the rows after it are sent again.
+	// If ids is not null, the generated ID of each row inserted is set at its position in the list.
+	private int executeIndividualBatch(PreparedStatement stmt, List<Individual> batch, List<Integer> positions, long[] ids) throws SQLException {
+		int[] updateCounts;
+		int numOfIndividualsInserted = 0;
+		int next = 0;
+		while (next < batch.size()) {
+			for (int i = next; i < batch.size(); i++) {
+				this.setupPreparedStatementParameters(stmt, batch.get(i));
+				stmt.addBatch();
+			}
+			try {
+				updateCounts = stmt.executeBatch();
+			} catch (BatchUpdateException e) {
+				LoggerFactory.getLogger().info(e.getMessage());
+				updateCounts = e.getUpdateCounts();
+				stmt.clearBatch();
+				if (updateCounts.length < batch.size() - next) {
+					// Skip the rejected row and carry on with the rest.
+					numOfIndividualsInserted += countUpdated(updateCounts);
+					if (ids != null)
+						readGeneratedIds(stmt, updateCounts, positions.subList(next, batch.size()), ids);
+					next += updateCounts.length + 1;
+					continue;
+				}
+			}
+			numOfIndividualsInserted += countUpdated(updateCounts);
+			if (ids != null)
+				readGeneratedIds(stmt, updateCounts, positions.subList(next, batch.size()), ids);
+			next = batch.size();
+		}
+		return numOfIndividualsInserted;
+	}
+
+	// The generated keys of a batch only cover the rows that were inserted, in the order they were
+	// sent.
+	private static void readGeneratedIds(PreparedStatement stmt, int[] updateCounts, List<Integer> positions, long[] ids) throws SQLException {
+		int row = 0;
+		try (ResultSet keys = stmt.getGeneratedKeys();) {
+			while (keys.next()) {
+				while (row < updateCounts.length && updateCounts[row] == Statement.EXECUTE_FAILED)
+					row++;
+				if (row == updateCounts.length)
+					break;
+				ids[positions.get(row++)] = keys.getLong(1);
+			}
+		}
+	}
+
+	// Creates the shows of the given individuals that are not in the database yet, all in one batch.
+	// Returns the shows that could not be created, as sets of times (in seconds) by venue.
+	private HashMap<Integer, HashSet<Long>> createMissingShows(Connection connection, List<Individual> list) throws SQLException {
+		HashMap<Integer, HashSet<Long>> missingShows = new HashMap<Integer, HashSet<Long>>();
+		HashMap<Integer, HashSet<Long>> failedShows = new HashMap<Integer, HashSet<Long>>();
+		ArrayList<Timestamp> dates = new ArrayList<Timestamp>();
+		ArrayList<Integer> venues = new ArrayList<Integer>();
+		HashSet<Long> venueShows;
+		int[] updateCounts;
+		for (Individual current : list) {
+			if (current.getEventDate() != null) {
+				venueShows = missingShows.get(current.getEventVenue());
+				if (venueShows == null) {
+					venueShows = new HashSet<Long>();
+					missingShows.put(current.getEventVenue(), venueShows);
+				}
+				venueShows.add(Show.toSeconds(current.getEventDate()));
+			}
+		}
+		try (PreparedStatement stmt = connection.prepareStatement(GET_VENUE_SHOWS);) {
+			for (Map.Entry<Integer, HashSet<Long>> entry : missingShows.entrySet()) {
+				stmt.setInt(1, entry.getKey());
+				try (ResultSet resultSet = stmt.executeQuery();) {
+					while (resultSet.next()) {
+						entry.getValue().remove(Show.toSeconds(resultSet.getTimestamp(1)));
+					}
+				}
+			}
+		}
+		for (Map.Entry<Integer, HashSet<Long>> entry : missingShows.entrySet()) {
+			for (Long seconds : entry.getValue()) {
+				dates.add(new Timestamp(seconds * 1000));
+				venues.add(entry.getKey());
+			}
+		}
+		if (dates.isEmpty())
+			return failedShows;
+		try (PreparedStatement stmt = connection.prepareStatement(INSERT_SHOW);) {
+			for (int i = 0; i < dates.size(); i++) {
+				stmt.setTimestamp(1, dates.get(i));
+				stmt.setInt(2, venues.get(i));
+				stmt.addBatch();
+			}
+			try {
+				stmt.executeBatch();
+			} catch (BatchUpdateException e) {
+				// Typically an unknown venue. Create the remaining shows one by one to find out which
+				// ones cannot be created.
+				LoggerFactory.getLogger().info(e.getMessage());
+				updateCounts = e.getUpdateCounts();
+				stmt.clearBatch();
+				for (int i = 0; i < dates.size(); i++) {
+					if (i < updateCounts.length && updateCounts[i] != Statement.EXECUTE_FAILED)
+						continue;
+					try {
+						this.createShow(connection, dates.get(i), venues.get(i));
+					} catch (SQLException e1) {
+						LoggerFactory.getLogger().info(e1.getMessage());
+						venueShows = failedShows.get(venues.get(i));
+						if (venueShows == null) {
+							venueShows = new HashSet<Long>();
+							failedShows.put(venues.get(i), venueShows);
+						}
+						venueShows.add(Show.toSeconds(dates.get(i)));
+					}
+				}
+			}
+		}
+		return failedShows;
+	}
+
+	private static boolean containsShow(HashMap<Integer, HashSet<Long>> shows, Date date, int venue) {
+		HashSet<Long> venueShows = shows.get(venue);
+		return venueShows != null && venueShows.contains(Show.toSeconds(date));
+	}
+
+	private static int countUpdated(int[] updateCounts) {
+		int count = 0;
+		for (int updateCount : updateCounts) {
+			if (updateCount != Statement.EXECUTE_FAILED)
+				count++;
+		}
+		return count;
+	}
+
+	// Individuals without a first name, last name or show are rejected by the database anyway.
+	private static boolean isComplete(Individual individual) {
+		return normalise(individual.getFirstName()) != null && normalise(individual.getLastName()) != null && individual.getEventDate() != null;
+	}
+
+	private void createShowIfNotExists(Connection connection, Date date, int venue) throws SQLException {
+		try (PreparedStatement stmt = connection.prepareStatement(CHECK_SHOW_EXISTS)) {
 			stmt.setTimestamp(1, dateToSQLTimestamp(date));
 			stmt.setInt(2, venue);
 			try (ResultSet resultSet = stmt.executeQuery();) {
@@ -266,59 +511,44 @@ public class PrimaryDatabaseManager extends DatabaseManager {
 					if (resultSet.getInt(1) == 1) {
 						return;
 					} else {
-						this.createShow(date, venue);
+						this.createShow(connection, date, venue);
 					}
 				}
 			}
 		}
 	}
 
-	private void createShow(Date date, int venue) throws SQLException {
-		try (PreparedStatement stmt = this.connection.prepareStatement(INSERT_SHOW);) {
+	private void createShow(Connection connection, Date date, int venue) throws SQLException {
+		try (PreparedStatement stmt = connection.prepareStatement(INSERT_SHOW);) {
 			stmt.setTimestamp(1, dateToSQLTimestamp(date));
 			stmt.setInt(2, venue);
 			stmt.execute();
 		}
 	}
 
-	private void setupPreparedStatementParameters(PreparedStatement stmt) throws SQLException {
-		stmt.setString(1, this.fname);
-		stmt.setString(2, this.lname);
-		stmt.setString(3, this.email);
-		stmt.setTimestamp(4, this.date);
-		stmt.setInt(5, this.venue);
-		stmt.setString(6, this.seat);
+	// Sets the individual's fields as the first six parameters of the statement. Blank strings are
+	// stored as nulls and email addresses in lower case.
+	private void setupPreparedStatementParameters(PreparedStatement stmt, Individual toStore) throws SQLException {
+		stmt.setString(1, normalise(toStore.getFirstName()));
+		stmt.setString(2, normalise(toStore.getLastName()));
+		stmt.setString(3, toStore.getEmail() == null ? null : normalise(toStore.getEmail().toLowerCase()));
+		stmt.setTimestamp(4, dateToSQLTimestamp(toStore.getEventDate()));
+		stmt.setInt(5, toStore.getEventVenue());
+		stmt.setString(6, normalise(toStore.getSeat()));
 	}
 
 	// This method does not catch SQL exceptions. Thus, if it is called from within a loop then all
 	// changes will be rolled back if only one statement execution fails.
-	private void executeIndividualUpdateStatement(PreparedStatement stmt) throws SQLException {
-		this.setupPreparedStatementParameters(stmt);
+	private void executeIndividualUpdateStatement(PreparedStatement stmt, Individual toStore) throws SQLException {
+		this.setupPreparedStatementParameters(stmt, toStore);
 		stmt.executeUpdate();
 	}
 
-	private void setupLocalFieldParameters(Individual toStore) {
-		if (toStore.getFirstName() == null) {
-			this.fname = null;
-		} else {
-			this.fname = toStore.getFirstName().trim().equals("") ? null : toStore.getFirstName().trim();
-		}
-		if (toStore.getLastName() == null) {
-			this.lname = null;
-		} else {
-			this.lname = toStore.getLastName().trim().equals("") ? null : toStore.getLastName().trim();
-		}
-		if (toStore.getEmail() == null) {
-			this.email = null;
-		} else {
-			this.email = toStore.getEmail().trim().equals("") ? null : toStore.getEmail().trim().toLowerCase();
-		}
-		if (toStore.getSeat() == null) {
-			this.seat = null;
+	private static String normalise(String field) {
+		if (field == null) {
+			return null;
 		} else {
-			this.seat = toStore.getSeat().trim().equals("") ? null : toStore.getSeat().trim();
+			return field.trim().equals("") ? null : field.trim();
 		}
-		this.date = dateToSQLTimestamp(toStore.getEventDate());
-		this.venue = toStore.getEventVenue();
 	}
 }
\ No newline at end of file
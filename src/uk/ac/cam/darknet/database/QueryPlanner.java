@@ -0,0 +1,117 @@
+package uk.ac.cam.darknet.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import uk.ac.cam.darknet.common.AttributeCategories;
+import uk.ac.cam.darknet.common.IndividualRequirements;
+import uk.ac.cam.darknet.common.Strings;
+import uk.ac.cam.darknet.exceptions.RequestNotSatisfiableException;
+
+/**
+ * Turns the requirements of an effect into a single parameterized query over the individuals of a
+ * show. Every required category becomes one <code>EXISTS</code> condition per attribute table of
+ * that category, combined with <code>OR</code>, so the database can answer the request without
+ * any temporary tables.
+ * 
+ * Requirements with the same set of categories (the same shape) share the same query text, which
+ * is generated once and cached. Since the text is identical, the statement prepared for it is
+ * reused by the statement cache of each pooled connection.
+ */
+class QueryPlanner {
+	private static final String											SELECT_SHOW			= "SELECT * FROM individuals WHERE date = ? AND venue = ?";
+	private static final String											EXISTS_ATTRIBUTE	= "EXISTS (SELECT 1 FROM %1$s WHERE %1$s.id = individuals.id AND %1$s.reliability >= ?)";
+	private final Hashtable<String, AttributeCategories>				globalAttributeTable;
+	private final ConcurrentHashMap<List<AttributeCategories>, String>	queries				= new ConcurrentHashMap<List<AttributeCategories>, String>();
+	private final ConcurrentHashMap<AttributeCategories, List<String>>	attributes			= new ConcurrentHashMap<AttributeCategories, List<String>>();
+
+	/**
+	 * Creates a new planner for the attributes in the given global attribute table.
+	 * 
+	 * @param globalAttributeTable
+	 *            The global table of attributes currently supported by the system.
+	 */
+	QueryPlanner(Hashtable<String, AttributeCategories> globalAttributeTable) {
+		this.globalAttributeTable = globalAttributeTable;
+	}
+
+	/**
+	 * Returns the shape of the given requirements, that is the required categories in a fixed
+	 * order. The parameters of the query are bound in this order.
+	 * 
+	 * @param requirements
+	 *            The requirements of an effect.
+	 * @return The required categories, ordered by their declaration.
+	 */
+	List<AttributeCategories> getShape(IndividualRequirements requirements) {
+		List<AttributeCategories> shape = new ArrayList<AttributeCategories>(requirements.getRequiredCategories().keySet());
+		Collections.sort(shape);
+		return shape;
+	}
+
+	/**
+	 * Returns the query selecting the individuals of a show that satisfy requirements of the given
+	 * shape. The first two parameters are the date and the venue of the show, followed by the
+	 * minimum reliability of each category repeated once for each of its attributes.
+	 * 
+	 * @param shape
+	 *            The shape of the requirements, as returned by <code>getShape</code>.
+	 * @return The query text.
+	 * @throws RequestNotSatisfiableException
+	 *             If there is no attribute for one of the categories.
+	 */
+	String getQuery(List<AttributeCategories> shape) throws RequestNotSatisfiableException {
+		String query = this.queries.get(shape);
+		if (query == null) {
+			query = this.buildQuery(shape);
+			this.queries.putIfAbsent(shape, query);
+		}
+		return query;
+	}
+
+	/**
+	 * Returns the names of the attributes of the given category.
+	 * 
+	 * @param category
+	 *            The category.
+	 * @return The names of the attribute tables of the category, in the order used by the queries.
+	 */
+	List<String> getAttributes(AttributeCategories category) {
+		List<String> names = this.attributes.get(category);
+		if (names == null) {
+			names = new ArrayList<String>();
+			Enumeration<String> allAttributes = this.globalAttributeTable.keys();
+			String currentAttribute;
+			while (allAttributes.hasMoreElements()) {
+				currentAttribute = allAttributes.nextElement();
+				if (this.globalAttributeTable.get(currentAttribute) == category)
+					names.add(currentAttribute);
+			}
+			Collections.sort(names);
+			names = Collections.unmodifiableList(names);
+			this.attributes.putIfAbsent(category, names);
+		}
+		return names;
+	}
+
+	private String buildQuery(List<AttributeCategories> shape) throws RequestNotSatisfiableException {
+		StringBuilder query = new StringBuilder(SELECT_SHOW);
+		List<String> names;
+		for (AttributeCategories category : shape) {
+			names = this.getAttributes(category);
+			if (names.isEmpty())
+				throw new RequestNotSatisfiableException(Strings.REQUEST_NOT_SATISFIABLE);
+			query.append(" AND (");
+			for (int i = 0; i < names.size(); i++) {
+				if (i > 0)
+					query.append(" OR ");
+				query.append(String.format(EXISTS_ATTRIBUTE, names.get(i)));
+			}
+			query.append(")");
+		}
+		return query.toString();
+	}
+}
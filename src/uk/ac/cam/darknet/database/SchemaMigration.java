@@ -0,0 +1,213 @@
+package uk.ac.cam.darknet.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+import uk.ac.cam.darknet.common.LoggerFactory;
+import uk.ac.cam.darknet.common.Strings;
+
+/**
+ * Brings parts of the database schema up to date at startup. Each part of the schema (a
+ * <i>component</i>, such as the individuals table or one attribute table) has a list of migration
+ * steps, and the number of steps already applied to it is recorded in the
+ * <code>schema_version</code> table. Only the steps that have not been applied yet are run, so
+ * existing databases are upgraded in place.
+ * 
+ * Steps must only ever be appended to a list, never changed or reordered, as databases that have
+ * already applied them will not run them again.
+ * 
+ * HSQLDB commits every DDL statement on its own, so a step and the new version of its component
+ * cannot be committed together. Each step therefore checks whether it has already been applied,
+ * by a crashed run or by another instance of the system starting at the same time, and is skipped
+ * if it has. Steps that cannot be checked must be safe to run twice.
+ */
+class SchemaMigration {
+	private static final String	CREATE_VERSION_TABLE	= "CREATE TABLE schema_version (component VARCHAR(128) PRIMARY KEY, version INTEGER NOT NULL)";
+	private static final String	GET_VERSION				= "SELECT version FROM schema_version WHERE component = ?";
+	private static final String	INSERT_VERSION			= "INSERT INTO schema_version (component, version) VALUES (?, ?)";
+	private static final String	UPDATE_VERSION			= "UPDATE schema_version SET version = ? WHERE component = ? AND version = ?";
+	private static final String	TABLE_EXISTS			= "SELECT 1 FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = CURRENT_SCHEMA AND TABLE_NAME = ?";
+	private static final String	COLUMN_EXISTS			= "SELECT 1 FROM INFORMATION_SCHEMA.COLUMNS WHERE TABLE_SCHEMA = CURRENT_SCHEMA AND TABLE_NAME = ? AND COLUMN_NAME = ?";
+	private static final String	INDEX_EXISTS			= "SELECT 1 FROM INFORMATION_SCHEMA.SYSTEM_INDEXINFO WHERE TABLE_SCHEM = CURRENT_SCHEMA AND INDEX_NAME = ?";
+
+	/**
+	 * Applies the migration steps of a component that have not been applied yet, committing after
+	 * each step. If another instance of the system migrates the same component at the same time,
+	 * each step is still applied only once.
+	 * 
+	 * @param connection
+	 *            The connection to run the steps on.
+	 * @param component
+	 *            The name of the part of the schema the steps belong to.
+	 * @param steps
+	 *            All the migration steps of the component, oldest first.
+	 * @throws SQLException
+	 *             If a step fails.
+	 */
+	static void migrate(Connection connection, String component, Step... steps) throws SQLException {
+		int version;
+		createVersionTable(connection);
+		version = getVersion(connection, component);
+		while (version < steps.length) {
+			try {
+				if (!steps[version].isApplied(connection))
+					steps[version].apply(connection);
+				if (setVersion(connection, component, version, version + 1)) {
+					connection.commit();
+					LoggerFactory.getLogger().info(String.format(Strings.SCHEMA_MIGRATED, component, version + 1));
+				} else {
+					connection.rollback();
+				}
+			} catch (SQLException e) {
+				connection.rollback();
+				// Fine if someone else has applied the step in the meantime, even if they have not
+				// recorded it yet. The next pass then only records the new version.
+				if (getVersion(connection, component) == version && !steps[version].isApplied(connection))
+					throw e;
+			}
+			version = getVersion(connection, component);
+		}
+	}
+
+	/**
+	 * Returns a step creating a table, skipped if the table exists.
+	 * 
+	 * @param table
+	 *            The name of the table.
+	 * @param statement
+	 *            The statement creating the table.
+	 * @return The migration step.
+	 */
+	static Step createTable(String table, String statement) {
+		return new StatementStep(statement, TABLE_EXISTS, table);
+	}
+
+	/**
+	 * Returns a step adding a column to a table, skipped if the table has the column.
+	 * 
+	 * @param table
+	 *            The name of the table.
+	 * @param column
+	 *            The name of the column.
+	 * @param statement
+	 *            The statement adding the column.
+	 * @return The migration step.
+	 */
+	static Step addColumn(String table, String column, String statement) {
+		return new StatementStep(statement, COLUMN_EXISTS, table, column);
+	}
+
+	/**
+	 * Returns a step creating an index, skipped if an index of that name exists.
+	 * 
+	 * @param index
+	 *            The name of the index.
+	 * @param statement
+	 *            The statement creating the index.
+	 * @return The migration step.
+	 */
+	static Step createIndex(String index, String statement) {
+		return new StatementStep(statement, INDEX_EXISTS, index);
+	}
+
+	private static void createVersionTable(Connection connection) throws SQLException {
+		try (Statement stmt = connection.createStatement();) {
+			stmt.execute(CREATE_VERSION_TABLE);
+		} catch (SQLException e) {
+			// Table already exists.
+			LoggerFactory.getLogger().info(e.getMessage());
+		}
+		connection.commit();
+	}
+
+	private static int getVersion(Connection connection, String component) throws SQLException {
+		try (PreparedStatement stmt = connection.prepareStatement(GET_VERSION);) {
+			stmt.setString(1, component);
+			try (ResultSet resultSet = stmt.executeQuery();) {
+				return resultSet.next() ? resultSet.getInt(1) : 0;
+			}
+		}
+	}
+
+	// Returns false if the version is no longer the expected one.
+	private static boolean setVersion(Connection connection, String component, int expected, int version) throws SQLException {
+		if (expected == 0) {
+			try (PreparedStatement stmt = connection.prepareStatement(INSERT_VERSION);) {
+				stmt.setString(1, component);
+				stmt.setInt(2, version);
+				return stmt.executeUpdate() == 1;
+			}
+		} else {
+			try (PreparedStatement stmt = connection.prepareStatement(UPDATE_VERSION);) {
+				stmt.setInt(1, version);
+				stmt.setString(2, component);
+				stmt.setInt(3, expected);
+				return stmt.executeUpdate() == 1;
+			}
+		}
+	}
+
+	/**
+	 * One migration step of a component.
+	 */
+	abstract static class Step {
+		/**
+		 * Returns whether the step has already been applied. Steps that cannot tell always run, so
+		 * they must be safe to run twice.
+		 * 
+		 * @param connection
+		 *            The connection to check the schema on.
+		 * @return True if the step can be skipped.
+		 * @throws SQLException
+		 */
+		boolean isApplied(Connection connection) throws SQLException {
+			return false;
+		}
+
+		/**
+		 * Applies the step without committing. Changes to data are committed together with the new
+		 * version of the component.
+		 * 
+		 * @param connection
+		 *            The connection to apply the step on.
+		 * @throws SQLException
+		 */
+		abstract void apply(Connection connection) throws SQLException;
+	}
+
+	// A DDL statement, skipped if the catalog already has the object it creates. Unquoted names are
+	// stored in upper case.
+	private static class StatementStep extends Step {
+		private final String	statement;
+		private final String	check;
+		private final String[]	names;
+
+		StatementStep(String statement, String check, String... names) {
+			this.statement = statement;
+			this.check = check;
+			this.names = names;
+		}
+
+		@Override
+		boolean isApplied(Connection connection) throws SQLException {
+			try (PreparedStatement stmt = connection.prepareStatement(this.check);) {
+				for (int i = 0; i < this.names.length; i++) {
+					stmt.setString(i + 1, this.names[i].toUpperCase(Locale.ROOT));
+				}
+				try (ResultSet resultSet = stmt.executeQuery();) {
+					return resultSet.next();
+				}
+			}
+		}
+
+		@Override
+		void apply(Connection connection) throws SQLException {
+			try (Statement stmt = connection.createStatement();) {
+				stmt.execute(this.statement);
+			}
+		}
+	}
+}
@@ -1,29 +1,63 @@
 package uk.ac.cam.darknet.database;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Hashtable;
-import java.util.Iterator;
 import java.util.List;
 import uk.ac.cam.darknet.common.AttributeCategories;
 import uk.ac.cam.darknet.common.AttributeReliabilityPair;
 import uk.ac.cam.darknet.common.Individual;
 import uk.ac.cam.darknet.common.LoggerFactory;
+import uk.ac.cam.darknet.common.Show;
 import uk.ac.cam.darknet.common.Strings;
 import uk.ac.cam.darknet.exceptions.ConfigFileNotFoundException;
 import uk.ac.cam.darknet.exceptions.InvalidAttributeNameException;
+import uk.ac.cam.darknet.exceptions.InvalidAttributeTypeException;
+import uk.ac.cam.darknet.exceptions.InvalidReliabilityException;
+import uk.ac.cam.darknet.exceptions.UnknownAttributeException;
 
 /**
  * A secondary database manager is used to provide database access to the secondary data collectors.
  * 
+ * It also keeps a log of when each collector last collected data on each individual, so that
+ * collection can be run again on a growing database and only look up the individuals that are new
+ * or whose data has become stale.
+ * 
  * @author Ibtehaj Nadeem
  */
 public class SecondaryDatabaseManager extends DatabaseManager {
-	private static final String	CREATE_SECONDARY_TABLE	= "CREATE CACHED TABLE %1$s (id BIGINT NOT NULL, attribute OTHER NOT NULL, reliability DOUBLE PRECISION NOT NULL, FOREIGN KEY (id) REFERENCES individuals(id) ON DELETE CASCADE, CHECK (reliability >= 0 AND reliability <= 1))";
-	private static final String	INSERT_ATTRIBUTE		= "INSERT INTO %1$s (id, attribute, reliability) VALUES (?, ?, ?)";
+	private static final String	CREATE_SECONDARY_TABLE		= "CREATE CACHED TABLE %1$s (id BIGINT NOT NULL, attribute OTHER NOT NULL, reliability DOUBLE PRECISION NOT NULL, FOREIGN KEY (id) REFERENCES individuals(id) ON DELETE CASCADE, CHECK (reliability >= 0 AND reliability <= 1))";
+	private static final String	CREATE_ID_INDEX				= "CREATE INDEX %1$s_id_reliability ON %1$s (id, reliability)";
+	private static final String	ADD_KEY_COLUMN				= "ALTER TABLE %1$s ADD COLUMN attribute_key CHAR(40)";
+	private static final String	CREATE_KEY_INDEX			= "CREATE UNIQUE INDEX %1$s_id_key ON %1$s (id, attribute_key)";
+	private static final String	MERGE_ATTRIBUTE				= "MERGE INTO %1$s USING (VALUES (CAST(? AS BIGINT), CAST(? AS CHAR(40)), CAST(? AS OTHER), CAST(? AS DOUBLE PRECISION))) AS new (id, attribute_key, attribute, reliability) ON %1$s.id = new.id AND %1$s.attribute_key = new.attribute_key WHEN MATCHED THEN UPDATE SET %1$s.attribute = new.attribute, %1$s.reliability = new.reliability WHEN NOT MATCHED THEN INSERT (id, attribute_key, attribute, reliability) VALUES (new.id, new.attribute_key, new.attribute, new.reliability)";
+	private static final String	MERGE_ATTRIBUTES			= "MERGE INTO %1$s USING (VALUES %2$s) AS new (id, attribute_key, attribute, reliability) ON %1$s.id = new.id AND %1$s.attribute_key = new.attribute_key WHEN MATCHED THEN UPDATE SET %1$s.attribute = new.attribute, %1$s.reliability = new.reliability WHEN NOT MATCHED THEN INSERT (id, attribute_key, attribute, reliability) VALUES (new.id, new.attribute_key, new.attribute, new.reliability)";
+	private static final String	GET_UNKEYED_ATTRIBUTES		= "SELECT id, attribute, reliability FROM %1$s WHERE attribute_key IS NULL";
+	private static final String	DELETE_UNKEYED_ATTRIBUTES	= "DELETE FROM %1$s WHERE attribute_key IS NULL";
+	private static final String	CREATE_COLLECTION_LOG		= "CREATE CACHED TABLE collection_log (collector VARCHAR(128) NOT NULL, id BIGINT NOT NULL, collected TIMESTAMP NOT NULL, PRIMARY KEY (collector, id), FOREIGN KEY (id) REFERENCES individuals(id) ON DELETE CASCADE)";
+	private static final String	MERGE_COLLECTION_LOG		= "MERGE INTO collection_log USING (VALUES (CAST(? AS VARCHAR(128)), CAST(? AS BIGINT), CAST(? AS TIMESTAMP))) AS new (collector, id, collected) ON collection_log.collector = new.collector AND collection_log.id = new.id WHEN MATCHED THEN UPDATE SET collection_log.collected = new.collected WHEN NOT MATCHED THEN INSERT (collector, id, collected) VALUES (new.collector, new.id, new.collected)";
+	private static final String	GET_UNCOLLECTED				= "SELECT individuals.* FROM individuals LEFT JOIN collection_log ON collection_log.id = individuals.id AND collection_log.collector = ? WHERE (collection_log.collected IS NULL OR collection_log.collected < ?)";
+	private static final String	GET_UNCOLLECTED_BY_SHOW		= GET_UNCOLLECTED + " AND individuals.date = ? AND individuals.venue = ?";
+	private static final String	MERGE_VALUES_ROW			= "(CAST(? AS BIGINT), CAST(? AS CHAR(40)), CAST(? AS OTHER), CAST(? AS DOUBLE PRECISION))";
+	private static final String	KEY_ALGORITHM				= "SHA-1";
+	private static final int	DEFAULT_BATCH_SIZE			= 500;
+	private static final int	DEFAULT_MERGE_ROWS			= 50;
+	private final int			batchSize;
+	private final int			rowsPerStatement;
 
 	/**
 	 * Creates a new <code>SecondaryDatabaseManager</code> with the specified global attribute table
@@ -33,6 +67,27 @@ public class SecondaryDatabaseManager extends DatabaseManager {
 	 *            The global table of attributes currently supported by the system. These attributes
 	 *            are used to generate the table names in the database and have to be consistent
 	 *            between successive executions of the system.
+	 * @throws ConfigFileNotFoundException
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 * @throws InvalidAttributeNameException
+	 */
+	public SecondaryDatabaseManager(Hashtable<String, AttributeCategories> globalAttributeTable) throws ConfigFileNotFoundException, IOException, ClassNotFoundException, SQLException, InvalidAttributeNameException {
+		super(globalAttributeTable);
+		this.batchSize = Math.max(this.configuration.getInt("batchsize", DEFAULT_BATCH_SIZE), 1);
+		this.rowsPerStatement = Math.max(this.configuration.getInt("mergerows", DEFAULT_MERGE_ROWS), 1);
+		this.createTables();
+	}
+
+	/**
+	 * Creates a new <code>SecondaryDatabaseManager</code> with the specified global attribute table
+	 * and sets up the connection to the database described in the given configuration file.
+	 * 
+	 * @param globalAttributeTable
+	 *            The global table of attributes currently supported by the system. These attributes
+	 *            are used to generate the table names in the database and have to be consistent
+	 *            between successive executions of the system.
 	 * @param pathToConfig
 	 *            The path to the file containing information about how to connect to the database
 	 *            server.
@@ -42,73 +97,337 @@ public class SecondaryDatabaseManager extends DatabaseManager {
 	 * @throws SQLException
 	 * @throws InvalidAttributeNameException
 	 */
-	public SecondaryDatabaseManager(Hashtable<String, AttributeCategories> globalAttributeTable) throws ConfigFileNotFoundException, IOException, ClassNotFoundException, SQLException, InvalidAttributeNameException {
-		super(globalAttributeTable);
+	public SecondaryDatabaseManager(Hashtable<String, AttributeCategories> globalAttributeTable, String pathToConfig) throws ConfigFileNotFoundException, IOException, ClassNotFoundException, SQLException, InvalidAttributeNameException {
+		super(globalAttributeTable, pathToConfig);
+		this.batchSize = Math.max(this.configuration.getInt("batchsize", DEFAULT_BATCH_SIZE), 1);
+		this.rowsPerStatement = Math.max(this.configuration.getInt("mergerows", DEFAULT_MERGE_ROWS), 1);
 		this.createTables();
 	}
 
 	private void createTables() throws SQLException, InvalidAttributeNameException {
 		Enumeration<String> attributeNames = this.globalAttributeTable.keys();
 		String currentAttributeName;
-		while (attributeNames.hasMoreElements()) {
-			currentAttributeName = attributeNames.nextElement();
-			if (this.isAttributeNameValid(currentAttributeName)) {
-				try (Statement stmt = this.connection.createStatement();) {
-					stmt.execute(String.format(CREATE_SECONDARY_TABLE, currentAttributeName));
-				} catch (SQLException e) {
-					// Table already exists.
-					LoggerFactory.getLogger().info(e.getMessage());
+		try (Connection connection = this.getConnection();) {
+			while (attributeNames.hasMoreElements()) {
+				currentAttributeName = attributeNames.nextElement();
+				if (this.isAttributeNameValid(currentAttributeName)) {
+					try (Statement stmt = connection.createStatement();) {
+						stmt.execute(String.format(CREATE_SECONDARY_TABLE, currentAttributeName));
+					} catch (SQLException e) {
+						// Table already exists.
+						LoggerFactory.getLogger().info(e.getMessage());
+					}
+				} else {
+					connection.rollback();
+					throw new InvalidAttributeNameException(String.format(Strings.INVALID_ATTRIBUTE_NAME_EXN, currentAttributeName));
+				}
+			}
+			connection.commit();
+			attributeNames = this.globalAttributeTable.keys();
+			while (attributeNames.hasMoreElements()) {
+				currentAttributeName = attributeNames.nextElement();
+				// Migration steps are append only.
+				SchemaMigration.migrate(connection, currentAttributeName, SchemaMigration.createIndex(currentAttributeName + "_id_reliability", String.format(CREATE_ID_INDEX, currentAttributeName)), SchemaMigration.addColumn(currentAttributeName, "attribute_key", String.format(ADD_KEY_COLUMN, currentAttributeName)), SchemaMigration.createIndex(currentAttributeName + "_id_key", String.format(CREATE_KEY_INDEX, currentAttributeName)), this.keyAttributesStep(currentAttributeName));
+			}
+			SchemaMigration.migrate(connection, "collection_log", SchemaMigration.createTable("collection_log", CREATE_COLLECTION_LOG));
+		}
+	}
+
+	// Returns the migration step giving the attributes stored before attributes had keys a key. New
+	// attributes always have one, so the step only needs to run once. Running it again is harmless,
+	// as it finds nothing to key.
+	private SchemaMigration.Step keyAttributesStep(final String attributeName) {
+		return new SchemaMigration.Step() {
+			@Override
+			void apply(Connection connection) throws SQLException {
+				SecondaryDatabaseManager.this.keyAttributes(connection, attributeName);
+			}
+		};
+	}
+
+	// Gives the attributes without a key a key, dropping the duplicates among them. Attribute rows
+	// cannot be told apart in SQL, so all the rows without a key are read, deleted and merged back.
+	// The changes are committed together with the new version of the attribute table.
+	private void keyAttributes(Connection connection, String attributeName) throws SQLException {
+		ArrayList<Individual> unkeyed = new ArrayList<Individual>();
+		HashMap<Long, Individual> index = new HashMap<Long, Individual>();
+		Individual currentIndividual;
+		long currentId;
+		try (Statement stmt = connection.createStatement(); ResultSet resultSet = stmt.executeQuery(String.format(GET_UNKEYED_ATTRIBUTES, attributeName));) {
+			while (resultSet.next()) {
+				currentId = resultSet.getLong(1);
+				currentIndividual = index.get(currentId);
+				if (currentIndividual == null) {
+					currentIndividual = new Individual(currentId, null, null, null, null, 0, null, this.globalAttributeTable);
+					index.put(currentId, currentIndividual);
+					unkeyed.add(currentIndividual);
 				}
-			} else {
-				this.connection.rollback();
-				throw new InvalidAttributeNameException(String.format(Strings.INVALID_ATTRIBUTE_NAME_EXN, currentAttributeName));
+				currentIndividual.addAttribute(attributeName, resultSet.getObject(2), resultSet.getDouble(3));
 			}
+		} catch (UnknownAttributeException | InvalidAttributeTypeException | InvalidReliabilityException e) {
+			throw new SQLException(e);
 		}
-		this.connection.commit();
+		if (unkeyed.isEmpty())
+			return;
+		try (Statement stmt = connection.createStatement();) {
+			stmt.executeUpdate(String.format(DELETE_UNKEYED_ATTRIBUTES, attributeName));
+			this.mergeRows(connection, attributeName, getRows(unkeyed, attributeName));
+		}
+		LoggerFactory.getLogger().info(String.format(Strings.ATTRIBUTES_KEYED, attributeName, unkeyed.size()));
 	}
 
 	/**
-	 * Stores the attributes of a list of individuals in the database. The changes are committed
-	 * atomically. If there is an error, the changes are rolled back.
+	 * Stores the attributes of a list of individuals in the database. An attribute that is already
+	 * stored for an individual is not stored again; only its reliability is updated. Collectors can
+	 * therefore store what they have found again without creating duplicates.
+	 * 
+	 * The attributes are sent to the database in batches, the size of which is set by the
+	 * <code>batchsize</code> setting of the database configuration file, and several attributes are
+	 * merged by each statement of a batch, as set by the <code>mergerows</code> setting. An
+	 * attribute rejected by the database (for example because its individual has been deleted in
+	 * the meantime) is logged and skipped, and the rest are stored. The changes are committed
+	 * atomically. If there is any other error, the changes are rolled back.
 	 * 
 	 * @param individuals
 	 *            The list of individuals with <code>Properties</code> objects containing the
 	 *            attributes to be stored.
+	 * @return The number of attributes stored, not counting those that have been rejected.
 	 * @throws SQLException
 	 */
-	public synchronized void storeAttributes(List<Individual> individuals) throws SQLException {
+	public int storeAttributes(List<Individual> individuals) throws SQLException {
 		Enumeration<String> attributeNames = this.globalAttributeTable.keys();
-		Iterator<Individual> iterator;
 		String currentAttributeName;
-		Individual currentIndividual;
-		List<AttributeReliabilityPair> currentAttrList;
+		int stored = 0;
 		// Note that the time spent executing this method is dominated by SQL. Iterate
 		// over attribute names first rather than individuals to exploit prepared statements.
-		while (attributeNames.hasMoreElements()) {
-			currentAttributeName = attributeNames.nextElement();
-			try (PreparedStatement stmt = this.connection.prepareStatement(String.format(INSERT_ATTRIBUTE, currentAttributeName));) {
-				iterator = individuals.iterator();
-				while (iterator.hasNext()) {
-					currentIndividual = iterator.next();
-					if (currentIndividual.containsAttribute(currentAttributeName)) {
-						stmt.setLong(1, currentIndividual.getId());
-						currentAttrList = currentIndividual.getAttribute(currentAttributeName);
-						for (AttributeReliabilityPair currentAttrRel : currentAttrList) {
-							stmt.setObject(2, currentAttrRel.getAttribute());
-							stmt.setDouble(3, currentAttrRel.getReliability());
-							try {
-								stmt.execute();
-							} catch (SQLException e) {
-								LoggerFactory.getLogger().info(e.getMessage());
-							}
+		try (Connection connection = this.getConnection();) {
+			try {
+				while (attributeNames.hasMoreElements()) {
+					currentAttributeName = attributeNames.nextElement();
+					stored += this.mergeRows(connection, currentAttributeName, getRows(individuals, currentAttributeName));
+				}
+				connection.commit();
+			} catch (SQLException e) {
+				connection.rollback();
+				throw e;
+			}
+		}
+		this.invalidateShows(individuals);
+		return stored;
+	}
+
+	// Returns the values of one attribute of the individuals, without duplicates.
+	private static List<AttributeRow> getRows(List<Individual> individuals, String attributeName) {
+		LinkedHashMap<String, AttributeRow> rows = new LinkedHashMap<String, AttributeRow>();
+		AttributeRow row;
+		for (Individual currentIndividual : individuals) {
+			if (!currentIndividual.containsAttribute(attributeName))
+				continue;
+			for (AttributeReliabilityPair currentAttrRel : currentIndividual.getAttribute(attributeName)) {
+				row = new AttributeRow(currentIndividual.getId(), currentAttrRel);
+				rows.put(row.id + row.key, row);
+			}
+		}
+		return new ArrayList<AttributeRow>(rows.values());
+	}
+
+	// Merges the rows into the table of the attribute and returns the number of rows merged. Whole
+	// groups of rows are merged by multi-row statements; the remaining rows, and the rows of any
+	// group that is rejected, are merged one by one so that only the offending rows are skipped.
+	private int mergeRows(Connection connection, String attributeName, List<AttributeRow> rows) throws SQLException {
+		int groups = this.rowsPerStatement > 1 ? rows.size() / this.rowsPerStatement : 0;
+		int groupsPerBatch = Math.max(this.batchSize / this.rowsPerStatement, 1);
+		ArrayList<AttributeRow> single = new ArrayList<AttributeRow>(rows.subList(groups * this.rowsPerStatement, rows.size()));
+		int[] updateCounts;
+		int merged = 0;
+		int next = 0;
+		int batchEnd;
+		if (groups > 0) {
+			try (PreparedStatement stmt = connection.prepareStatement(String.format(MERGE_ATTRIBUTES, attributeName, valuesRows(this.rowsPerStatement)));) {
+				while (next < groups) {
+					batchEnd = Math.min(next + groupsPerBatch, groups);
+					for (int i = next; i < batchEnd; i++) {
+						for (int j = 0; j < this.rowsPerStatement; j++) {
+							rows.get(i * this.rowsPerStatement + j).setParameters(stmt, j * 4);
 						}
+						stmt.addBatch();
 					}
+					try {
+						updateCounts = stmt.executeBatch();
+					} catch (BatchUpdateException e) {
+						// The rows of a rejected statement are merged one by one, so only the bad
+						// rows among them are lost.
+						updateCounts = e.getUpdateCounts();
+						stmt.clearBatch();
+						for (int rejected : getRejectedStatements(updateCounts, batchEnd - next)) {
+							single.addAll(rows.subList((next + rejected) * this.rowsPerStatement, (next + rejected + 1) * this.rowsPerStatement));
+						}
+						batchEnd = Math.min(next + updateCounts.length + 1, batchEnd);
+					}
+					next = batchEnd;
+					for (int updateCount : updateCounts) {
+						if (updateCount != Statement.EXECUTE_FAILED)
+							merged += updateCount;
+					}
+				}
+			}
+		}
+		if (!single.isEmpty()) {
+			try (PreparedStatement stmt = connection.prepareStatement(String.format(MERGE_ATTRIBUTE, attributeName));) {
+				merged += this.mergeSingleRows(stmt, attributeName, single);
+			}
+		}
+		return merged;
+	}
+
+	// Merges the rows one per statement, in batches. Rejected rows are logged and skipped.
+	private int mergeSingleRows(PreparedStatement stmt, String attributeName, List<AttributeRow> rows) throws SQLException {
+		int[] updateCounts;
+		int merged = 0;
+		int next = 0;
+		int batchEnd;
+		while (next < rows.size()) {
+			batchEnd = Math.min(next + this.batchSize, rows.size());
+			for (int i = next; i < batchEnd; i++) {
+				rows.get(i).setParameters(stmt, 0);
+				stmt.addBatch();
+			}
+			try {
+				updateCounts = stmt.executeBatch();
+			} catch (BatchUpdateException e) {
+				updateCounts = e.getUpdateCounts();
+				stmt.clearBatch();
+				for (int rejected : getRejectedStatements(updateCounts, batchEnd - next)) {
+					LoggerFactory.getLogger().warning(String.format(Strings.ATTRIBUTE_REJECTED, attributeName, rows.get(next + rejected).id, e.getMessage()));
+				}
+				batchEnd = Math.min(next + updateCounts.length + 1, batchEnd);
+			}
+			next = batchEnd;
+			for (int updateCount : updateCounts) {
+				if (updateCount != Statement.EXECUTE_FAILED)
+					merged += updateCount;
+			}
+		}
+		return merged;
+	}
+
+	// Returns the positions of the statements of a failed batch that the database rejected. Like
+	// HSQLDB, a driver may stop at the first rejected statement, which then follows the last update
+	// count, and the statements after it have to be sent again. Other drivers run the whole batch
+	// and mark every rejected statement as failed.
+	private static List<Integer> getRejectedStatements(int[] updateCounts, int sent) {
+		List<Integer> rejected = new ArrayList<Integer>();
+		for (int i = 0; i < updateCounts.length; i++) {
+			if (updateCounts[i] == Statement.EXECUTE_FAILED)
+				rejected.add(i);
+		}
+		if (updateCounts.length < sent)
+			rejected.add(updateCounts.length);
+		return rejected;
+	}
+
+	private static String valuesRows(int count) {
+		StringBuilder values = new StringBuilder(MERGE_VALUES_ROW);
+		for (int i = 1; i < count; i++) {
+			values.append(", ").append(MERGE_VALUES_ROW);
+		}
+		return values.toString();
+	}
+
+	// HSQLDB considers any two OTHER values equal, so attributes are told apart by a hash of their
+	// value instead. Attributes are strings or numbers, so equal values have equal string forms.
+	private static String attributeKey(Object attribute) {
+		MessageDigest digest;
+		StringBuilder key = new StringBuilder(40);
+		try {
+			digest = MessageDigest.getInstance(KEY_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		for (byte b : digest.digest((attribute.getClass().getName() + ":" + attribute).getBytes(StandardCharsets.UTF_8))) {
+			key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Returns the individuals a collector has never collected data on or last collected data on
+	 * before the given time, so that a collector run again only looks up what is new or stale.
+	 * 
+	 * @param collectorId
+	 *            The ID of the collector.
+	 * @param show
+	 *            The show whose individuals should be returned, or null for all individuals.
+	 * @param collectedBefore
+	 *            Individuals collected at or after this time are left out.
+	 * @return The individuals, without their attributes.
+	 * @throws SQLException
+	 */
+	public List<Individual> getIndividualsToCollect(String collectorId, Show show, Date collectedBefore) throws SQLException {
+		try (Connection connection = this.getConnection(); PreparedStatement stmt = connection.prepareStatement(show == null ? GET_UNCOLLECTED : GET_UNCOLLECTED_BY_SHOW);) {
+			stmt.setString(1, collectorId);
+			stmt.setTimestamp(2, dateToSQLTimestamp(collectedBefore));
+			if (show != null) {
+				stmt.setTimestamp(3, dateToSQLTimestamp(show.getDate()));
+				stmt.setInt(4, show.getVenue().getId());
+			}
+			return this.getIndividualQueryResults(stmt);
+		}
+	}
+
+	/**
+	 * Records that a collector has just collected data on the given individuals. They are not
+	 * returned by {@link #getIndividualsToCollect(String, Show, Date)} until the record is older
+	 * than the time given to it.
+	 * 
+	 * @param collectorId
+	 *            The ID of the collector.
+	 * @param individuals
+	 *            The individuals the collector has looked up.
+	 * @throws SQLException
+	 */
+	public void markCollected(String collectorId, List<Individual> individuals) throws SQLException {
+		Timestamp now = new Timestamp(System.currentTimeMillis());
+		// The database rejects an empty batch.
+		if (individuals.isEmpty())
+			return;
+		try (Connection connection = this.getConnection(); PreparedStatement stmt = connection.prepareStatement(MERGE_COLLECTION_LOG);) {
+			try {
+				for (Individual currentIndividual : individuals) {
+					stmt.setString(1, collectorId);
+					stmt.setLong(2, currentIndividual.getId());
+					stmt.setTimestamp(3, now);
+					stmt.addBatch();
 				}
+				stmt.executeBatch();
+				connection.commit();
 			} catch (SQLException e) {
-				this.connection.rollback();
+				connection.rollback();
 				throw e;
 			}
 		}
-		this.connection.commit();
+	}
+
+	// One value of an attribute of an individual, as stored in the table of the attribute.
+	private static class AttributeRow {
+		private final long		id;
+		private final String	key;
+		private final Object	attribute;
+		private final double	reliability;
+
+		AttributeRow(long id, AttributeReliabilityPair pair) {
+			this.id = id;
+			this.key = attributeKey(pair.getAttribute());
+			this.attribute = pair.getAttribute();
+			this.reliability = pair.getReliability();
+		}
+
+		// Sets the parameters of one row of a merge statement, after the given number of parameters.
+		void setParameters(PreparedStatement stmt, int offset) throws SQLException {
+			stmt.setLong(offset + 1, this.id);
+			stmt.setString(offset + 2, this.key);
+			stmt.setObject(offset + 3, this.attribute);
+			stmt.setDouble(offset + 4, this.reliability);
+		}
 	}
 }
\ No newline at end of file
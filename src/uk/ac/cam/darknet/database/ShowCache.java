@@ -0,0 +1,213 @@
+package uk.ac.cam.darknet.database;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import uk.ac.cam.darknet.common.Individual;
+import uk.ac.cam.darknet.common.Show;
+
+/**
+ * A read-through cache of the individuals of recently used shows, together with all their
+ * attributes. There is one cache per database, shared by all the database managers connected to
+ * it, so that changes made through one manager invalidate what the others have cached.
+ * 
+ * The cache holds at most a given number of shows and evicts the least recently used one first.
+ * Shows are also reloaded once they have been cached for longer than the time to live. The cached
+ * individuals must never be handed out or modified; callers copy them instead.
+ */
+class ShowCache {
+	private static final ConcurrentHashMap<String, ShowCache>	CACHES	= new ConcurrentHashMap<String, ShowCache>();
+	private final int											maxShows;
+	private final long											timeToLive;
+	private final LinkedHashMap<Key, CachedShow>				entries;
+	private final AtomicLong									hits	= new AtomicLong();
+	private final AtomicLong									misses	= new AtomicLong();
+	private long												generation;
+
+	private ShowCache(final int maxShows, int timeToLive) {
+		this.maxShows = maxShows;
+		this.timeToLive = TimeUnit.SECONDS.toMillis(timeToLive);
+		this.entries = new LinkedHashMap<Key, CachedShow>(16, 0.75f, true) {
+			private static final long	serialVersionUID	= 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, CachedShow> eldest) {
+				return this.size() > maxShows;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cache of the given database, creating it with the given settings if there is none
+	 * yet.
+	 * 
+	 * @param connectionUrl
+	 *            The JDBC URL of the database.
+	 * @param maxShows
+	 *            The maximum number of shows to cache, or 0 to disable the cache.
+	 * @param timeToLive
+	 *            The time in seconds after which a cached show is reloaded.
+	 * @return The cache shared by all managers of the database.
+	 */
+	static ShowCache forDatabase(String connectionUrl, int maxShows, int timeToLive) {
+		ShowCache cache = CACHES.get(connectionUrl);
+		if (cache == null) {
+			CACHES.putIfAbsent(connectionUrl, new ShowCache(maxShows, timeToLive));
+			cache = CACHES.get(connectionUrl);
+		}
+		return cache;
+	}
+
+	/**
+	 * Returns whether the cache holds anything at all.
+	 * 
+	 * @return False if the cache has been disabled in the configuration file.
+	 */
+	boolean isEnabled() {
+		return this.maxShows > 0;
+	}
+
+	/**
+	 * Looks up the individuals of a show. Counts as a hit or a miss.
+	 * 
+	 * @param show
+	 *            The show.
+	 * @param attributeNames
+	 *            The names of the attributes loaded for the individuals.
+	 * @return The cached individuals, which must not be modified, or null if the show is not
+	 *         cached.
+	 */
+	synchronized List<Individual> get(Show show, Set<String> attributeNames) {
+		Key key = new Key(show.getDate(), show.getVenue().getId(), attributeNames);
+		CachedShow entry = this.entries.get(key);
+		if (entry != null && System.currentTimeMillis() - entry.loaded > this.timeToLive) {
+			this.entries.remove(key);
+			entry = null;
+		}
+		if (entry == null) {
+			this.misses.incrementAndGet();
+			return null;
+		}
+		this.hits.incrementAndGet();
+		return entry.individuals;
+	}
+
+	/**
+	 * Returns the current generation of the cache. It changes whenever a show is invalidated and
+	 * must be read before loading a show from the database.
+	 * 
+	 * @return The current generation.
+	 */
+	synchronized long getGeneration() {
+		return this.generation;
+	}
+
+	/**
+	 * Caches the individuals of a show, unless a show has been invalidated since the given
+	 * generation, in which case the individuals may already be out of date.
+	 * 
+	 * @param show
+	 *            The show.
+	 * @param attributeNames
+	 *            The names of the attributes loaded for the individuals.
+	 * @param individuals
+	 *            The individuals of the show with all their attributes.
+	 * @param loadedGeneration
+	 *            The generation read before the individuals were loaded.
+	 */
+	synchronized void put(Show show, Set<String> attributeNames, List<Individual> individuals, long loadedGeneration) {
+		if (this.isEnabled() && loadedGeneration == this.generation)
+			this.entries.put(new Key(show.getDate(), show.getVenue().getId(), attributeNames), new CachedShow(individuals));
+	}
+
+	/**
+	 * Drops a show from the cache, whatever attributes were loaded for it.
+	 * 
+	 * @param date
+	 *            The date of the show.
+	 * @param venue
+	 *            The venue ID of the show.
+	 */
+	synchronized void invalidate(Date date, int venue) {
+		Iterator<Key> keys = this.entries.keySet().iterator();
+		Key current;
+		this.generation++;
+		while (keys.hasNext()) {
+			current = keys.next();
+			if (date != null && current.venue == venue && current.seconds == Show.toSeconds(date))
+				keys.remove();
+		}
+	}
+
+	/**
+	 * Drops all the shows attended by any of the given individuals from the cache.
+	 * 
+	 * @param individuals
+	 *            The individuals.
+	 */
+	synchronized void invalidate(List<Individual> individuals) {
+		Iterator<Key> keys = this.entries.keySet().iterator();
+		Key current;
+		this.generation++;
+		while (keys.hasNext()) {
+			current = keys.next();
+			for (Individual currentIndividual : individuals) {
+				if (currentIndividual.getEventDate() != null && current.venue == currentIndividual.getEventVenue() && current.seconds == Show.toSeconds(currentIndividual.getEventDate())) {
+					keys.remove();
+					break;
+				}
+			}
+		}
+	}
+
+	long getHits() {
+		return this.hits.get();
+	}
+
+	long getMisses() {
+		return this.misses.get();
+	}
+
+	private static class Key {
+		private final long			seconds;
+		private final int			venue;
+		private final Set<String>	attributeNames;
+
+		Key(Date date, int venue, Set<String> attributeNames) {
+			this.seconds = Show.toSeconds(date);
+			this.venue = venue;
+			this.attributeNames = Collections.unmodifiableSet(new HashSet<String>(attributeNames));
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key))
+				return false;
+			Key otherKey = (Key) other;
+			return this.seconds == otherKey.seconds && this.venue == otherKey.venue && this.attributeNames.equals(otherKey.attributeNames);
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (this.seconds ^ (this.seconds >>> 32)) * 31 + this.venue;
+		}
+	}
+
+	private static class CachedShow {
+		private final List<Individual>	individuals;
+		private final long				loaded;
+
+		CachedShow(List<Individual> individuals) {
+			this.individuals = individuals;
+			this.loaded = System.currentTimeMillis();
+		}
+	}
+}
@@ -1,12 +1,23 @@
 package uk.ac.cam.darknet.frontend;
 
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+
 import uk.ac.cam.darknet.common.Individual;
+import uk.ac.cam.darknet.common.Show;
+import uk.ac.cam.darknet.database.DatabaseManager;
+import uk.ac.cam.darknet.exceptions.InvalidAttributeTypeException;
+import uk.ac.cam.darknet.exceptions.InvalidReliabilityException;
+import uk.ac.cam.darknet.exceptions.UnknownAttributeException;
 
 /**
- * This class queries the database via a database manager to find the most suitable individuals for
- * an effect. All the data requested is added to the respective individual's <code>Properties</code>
- * object.
+ * This class queries the database via a database manager to find the data an effect needs. All the
+ * data requested is added to the respective individual's <code>Properties</code> object.
+ * 
+ * Only the attribute tables an effect asks for are read, and those are read for a whole list of
+ * individuals at once with a few set-based queries rather than one query per individual.
  * 
  * This class contains overloaded methods suitable for working either with one individual at a time,
  * or with a list of individuals.
@@ -15,16 +26,31 @@ import uk.ac.cam.darknet.common.Individual;
  * 
  */
 public class DataProvider {
-	// TODO: Need to add methods for each global attribute type.
+	private final DatabaseManager dm;
+
+	/**
+	 * Creates a data provider reading from the given database.
+	 * 
+	 * @param dm
+	 *            The database manager to read the data with.
+	 */
+	public DataProvider(final DatabaseManager dm) {
+		this.dm = dm;
+	}
+
 	/**
 	 * Add all the data held in the database associated with the given individual. This includes
 	 * data from each secondary data collector.
 	 * 
 	 * @param individual
 	 *            The individual to look up.
+	 * @throws SQLException
+	 * @throws UnknownAttributeException
+	 * @throws InvalidAttributeTypeException
+	 * @throws InvalidReliabilityException
 	 */
-	public void getAllData(final Individual individual) {
-		// TODO
+	public void getAllData(final Individual individual) throws SQLException, UnknownAttributeException, InvalidAttributeTypeException, InvalidReliabilityException {
+		this.getAllData(Collections.singletonList(individual));
 	}
 
 	/**
@@ -33,9 +59,13 @@ public class DataProvider {
 	 * 
 	 * @param individuals
 	 *            The individuals to look up.
+	 * @throws SQLException
+	 * @throws UnknownAttributeException
+	 * @throws InvalidAttributeTypeException
+	 * @throws InvalidReliabilityException
 	 */
-	public void getAllData(final List<Individual> individuals) {
-		// TODO
+	public void getAllData(final List<Individual> individuals) throws SQLException, UnknownAttributeException, InvalidAttributeTypeException, InvalidReliabilityException {
+		this.dm.getAllAttributes(individuals);
 	}
 
 	/**
@@ -45,9 +75,14 @@ public class DataProvider {
 	 *            The individual to look up.
 	 * @param attributeName
 	 *            The name of the attribute to add to the properties.
+	 * @throws SQLException
+	 * @throws UnknownAttributeException
+	 *             If there is no attribute with the given name.
+	 * @throws InvalidAttributeTypeException
+	 * @throws InvalidReliabilityException
 	 */
-	public void getSpecificAttribute(final Individual individual, String attributeName) {
-		// TODO
+	public void getSpecificAttribute(final Individual individual, String attributeName) throws SQLException, UnknownAttributeException, InvalidAttributeTypeException, InvalidReliabilityException {
+		this.getAttributes(Collections.singletonList(individual), attributeName);
 	}
 
 	/**
@@ -57,8 +92,53 @@ public class DataProvider {
 	 *            The individuals to look up.
 	 * @param attributeName
 	 *            The name of the attribute to add to the properties.
+	 * @throws SQLException
+	 * @throws UnknownAttributeException
+	 *             If there is no attribute with the given name.
+	 * @throws InvalidAttributeTypeException
+	 * @throws InvalidReliabilityException
+	 */
+	public void getSpecificAttribute(final List<Individual> individuals, String attributeName) throws SQLException, UnknownAttributeException, InvalidAttributeTypeException, InvalidReliabilityException {
+		this.getAttributes(individuals, attributeName);
+	}
+
+	/**
+	 * Add the given attributes to each individual. Each attribute table is read once for all the
+	 * individuals, in chunks of IDs, and the other tables are not read at all.
+	 * 
+	 * @param individuals
+	 *            The individuals to look up.
+	 * @param attributeNames
+	 *            The names of the attributes to add to the properties.
+	 * @throws SQLException
+	 * @throws UnknownAttributeException
+	 *             If there is no attribute with one of the given names.
+	 * @throws InvalidAttributeTypeException
+	 * @throws InvalidReliabilityException
+	 */
+	public void getAttributes(final List<Individual> individuals, String... attributeNames) throws SQLException, UnknownAttributeException, InvalidAttributeTypeException, InvalidReliabilityException {
+		this.dm.getAttributes(individuals, Arrays.asList(attributeNames));
+	}
+
+	/**
+	 * Returns the individuals attending a show with the given attributes added. Each attribute
+	 * table is read with a single query for the whole show, unless the show is cached by the
+	 * database manager.
+	 * 
+	 * @param show
+	 *            The show whose audience to look up.
+	 * @param attributeNames
+	 *            The names of the attributes to add to the properties.
+	 * @return The individuals attending the show.
+	 * @throws SQLException
+	 * @throws UnknownAttributeException
+	 *             If there is no attribute with one of the given names.
+	 * @throws InvalidAttributeTypeException
+	 * @throws InvalidReliabilityException
 	 */
-	public void getSpecificAttribute(final List<Individual> individuals, String attributeName) {
-		// TODO
+	public List<Individual> getShowData(final Show show, String... attributeNames) throws SQLException, UnknownAttributeException, InvalidAttributeTypeException, InvalidReliabilityException {
+		List<Individual> individuals = this.dm.getByShow(show);
+		this.dm.getAttributes(individuals, show, Arrays.asList(attributeNames));
+		return individuals;
 	}
 }
@@ -1,6 +1,10 @@
 package uk.ac.cam.darknet.frontend;
 
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import uk.ac.cam.darknet.common.Show;
 import uk.ac.cam.darknet.database.DatabaseManager;
@@ -16,6 +20,24 @@ import uk.ac.cam.darknet.database.DatabaseManager;
  */
 public abstract class Effect {
 
+	// Threads shared by all effects for the parts of their work that run in
+	// parallel. Several effects run at the same time, so a pool per effect
+	// would start a thread per processor for each of them.
+	static final int WORKER_THREADS = Runtime.getRuntime()
+			.availableProcessors();
+	static final ExecutorService WORKERS = Executors.newFixedThreadPool(
+			WORKER_THREADS, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "effect-worker-"
+							+ this.count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
 	DatabaseManager dm;
 
 	/**
@@ -0,0 +1,189 @@
+package uk.ac.cam.darknet.frontend;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes an RGB PNG image strip by strip, so that the whole image never has to
+ * be held in memory. The strips are compressed independently by
+ * {@link #compress(BufferedImage)}, which may be called from several threads
+ * at once, and are then written in order from top to bottom.
+ *
+ * Each strip is compressed into raw deflate blocks ending on a byte boundary,
+ * so the compressed strips can simply be concatenated into the single zlib
+ * stream a PNG file requires. Only the checksum of the stream has to be
+ * computed as the strips are written.
+ */
+public class IncrementalPngWriter implements Closeable {
+	private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', 0x0D,
+			0x0A, 0x1A, 0x0A };
+	// zlib header for a deflate stream with a 32K window
+	private static final byte[] ZLIB_HEADER = { 0x78, (byte) 0x9C };
+	// An empty, final, stored deflate block
+	private static final byte[] FINAL_BLOCK = { 0x01, 0x00, 0x00, (byte) 0xFF,
+			(byte) 0xFF };
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// PNG filter type subtracting the byte of the pixel to the left
+	private static final int FILTER_SUB = 1;
+	private final DataOutputStream out;
+	private final int width;
+	private final int height;
+	private final Adler32 checksum = new Adler32();
+	private int rowsWritten;
+
+	/**
+	 * The filtered rows of a strip, together with their compressed form.
+	 */
+	public static class Strip {
+		private final byte[] filtered;
+		private final byte[] compressed;
+		private final int width;
+		private final int rows;
+
+		private Strip(byte[] filtered, byte[] compressed, int width, int rows) {
+			this.filtered = filtered;
+			this.compressed = compressed;
+			this.width = width;
+			this.rows = rows;
+		}
+	}
+
+	/**
+	 * Starts a new PNG image by writing its header to the given stream.
+	 *
+	 * @param out
+	 *            The stream to write the image to. It is not closed by this
+	 *            writer.
+	 * @param width
+	 *            The width of the image in pixels.
+	 * @param height
+	 *            The height of the image in pixels.
+	 * @throws IOException
+	 *             If the header cannot be written.
+	 */
+	public IncrementalPngWriter(OutputStream out, int width, int height)
+			throws IOException {
+		ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+		DataOutputStream headerData = new DataOutputStream(header);
+		this.out = new DataOutputStream(out);
+		this.width = width;
+		this.height = height;
+		headerData.writeInt(width);
+		headerData.writeInt(height);
+		// 8 bits per sample, truecolour, deflate, adaptive filtering, no
+		// interlacing
+		headerData.write(new byte[] { 8, 2, 0, 0, 0 });
+		this.out.write(SIGNATURE);
+		this.writeChunk("IHDR", header.toByteArray());
+		this.writeChunk("IDAT", ZLIB_HEADER);
+	}
+
+	/**
+	 * Filters and compresses the rows of a strip of the image. This does not
+	 * depend on any other strip and may be called from any thread.
+	 *
+	 * @param image
+	 *            The strip, as wide as the whole image.
+	 * @return The compressed strip, to be passed to {@link #write(Strip)}.
+	 */
+	public static Strip compress(BufferedImage image) {
+		int width = image.getWidth();
+		int rows = image.getHeight();
+		int rowLength = 1 + width * 3;
+		byte[] filtered = new byte[rowLength * rows];
+		int[] pixels = new int[width];
+		int offset, previous, current;
+		for (int y = 0; y < rows; y++) {
+			image.getRGB(0, y, width, 1, pixels, 0, width);
+			offset = y * rowLength;
+			filtered[offset++] = FILTER_SUB;
+			previous = 0;
+			for (int x = 0; x < width; x++) {
+				current = pixels[x];
+				filtered[offset++] = (byte) ((current >> 16) - (previous >> 16));
+				filtered[offset++] = (byte) ((current >> 8) - (previous >> 8));
+				filtered[offset++] = (byte) (current - previous);
+				previous = current;
+			}
+		}
+		return new Strip(filtered, deflate(filtered), width, rows);
+	}
+
+	/**
+	 * Writes the next strip of the image.
+	 *
+	 * @param strip
+	 *            The strip directly below the last one written.
+	 * @throws IOException
+	 *             If the strip cannot be written.
+	 */
+	public void write(Strip strip) throws IOException {
+		if (strip.width != this.width || this.rowsWritten + strip.rows > this.height)
+			throw new IllegalArgumentException("Strip does not fit the image");
+		this.checksum.update(strip.filtered);
+		this.writeChunk("IDAT", strip.compressed);
+		this.rowsWritten += strip.rows;
+	}
+
+	/**
+	 * Ends the compressed data and writes the end of the image. The underlying
+	 * stream is flushed but not closed.
+	 *
+	 * @throws IOException
+	 *             If not all the rows of the image have been written or the end
+	 *             cannot be written.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.rowsWritten != this.height)
+			throw new IOException("Only " + this.rowsWritten + " of "
+					+ this.height + " rows have been written");
+		ByteArrayOutputStream end = new ByteArrayOutputStream(9);
+		DataOutputStream endData = new DataOutputStream(end);
+		endData.write(FINAL_BLOCK);
+		endData.writeInt((int) this.checksum.getValue());
+		this.writeChunk("IDAT", end.toByteArray());
+		this.writeChunk("IEND", new byte[0]);
+		this.out.flush();
+	}
+
+	private void writeChunk(String type, byte[] data) throws IOException {
+		byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(data);
+		this.out.writeInt(data.length);
+		this.out.write(typeBytes);
+		this.out.write(data);
+		this.out.writeInt((int) crc.getValue());
+	}
+
+	// Compresses the data into raw deflate blocks, flushed so that they end on
+	// a byte boundary and can be followed by the blocks of the next strip.
+	private static byte[] deflate(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(
+				data.length / 2);
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int length;
+		try {
+			deflater.setInput(data);
+			do {
+				length = deflater.deflate(buffer, 0, buffer.length,
+						Deflater.SYNC_FLUSH);
+				compressed.write(buffer, 0, length);
+			} while (length == buffer.length);
+		} finally {
+			deflater.end();
+		}
+		return compressed.toByteArray();
+	}
+}
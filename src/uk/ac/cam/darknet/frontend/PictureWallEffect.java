@@ -2,22 +2,24 @@ package uk.ac.cam.darknet.frontend;
 
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.sql.SQLException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Hashtable;
-import java.util.LinkedList;
 import java.util.List;
-
-import javax.imageio.ImageIO;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import uk.ac.cam.darknet.common.AttributeCategories;
 import uk.ac.cam.darknet.common.AttributeReliabilityPair;
 import uk.ac.cam.darknet.common.Individual;
-import uk.ac.cam.darknet.common.IndividualRequirements;
 import uk.ac.cam.darknet.common.Show;
 import uk.ac.cam.darknet.database.DatabaseManager;
 import uk.ac.cam.darknet.database.SecondaryDatabaseManager;
@@ -25,7 +27,6 @@ import uk.ac.cam.darknet.exceptions.ConfigFileNotFoundException;
 import uk.ac.cam.darknet.exceptions.InvalidAttributeNameException;
 import uk.ac.cam.darknet.exceptions.InvalidAttributeTypeException;
 import uk.ac.cam.darknet.exceptions.InvalidReliabilityException;
-import uk.ac.cam.darknet.exceptions.RequestNotSatisfiableException;
 import uk.ac.cam.darknet.exceptions.UnknownAttributeException;
 import uk.ac.cam.darknet.storage.ImageStorage;
 
@@ -33,6 +34,12 @@ import uk.ac.cam.darknet.storage.ImageStorage;
  * An effect for generating a wall of pictures of all the people in the theatre
  * (i.e. all individuals in the database for the given performance).
  * 
+ * The photos are laid out in a roughly square grid of cells of a fixed size.
+ * The wall is rendered one row of cells at a time, on the pool of one thread
+ * per processor shared by all effects, and each row is written to the PNG file
+ * as soon as the rows above it have been, so only a few rows of photos are in
+ * memory at once.
+ * 
  * Setup method should take in a String array with 2 arguments: the "pathname"
  * of the directory the picture should be stored in and the "filename" (without
  * extension) the picture should be stores as
@@ -42,9 +49,12 @@ import uk.ac.cam.darknet.storage.ImageStorage;
  */
 public class PictureWallEffect extends Effect {
 
+	// The size in pixels of the square cell each photo is scaled down to
+	private static final int CELL_SIZE = 200;
+	// The attribute holding the IDs of the photos of an individual
+	private static final String PHOTO_ATTRIBUTE = "fb_photo";
 	private String pathname;
 	private String filename;
-	private int colSize = 5;
 
 	@Override
 	public List<String> getSetupArgDescriptions() {
@@ -72,64 +82,46 @@ public class PictureWallEffect extends Effect {
 
 	@Override
 	public void execute(Show show) {
-		IndividualRequirements req = new IndividualRequirements(show);
 		try {
-			// create strict requirements for this effect
-			req.addRequirement(AttributeCategories.PHOTO, 0.0);
-			// get all individuals from the specified show with specified
-			// requirements
-			List<Individual> individuals = this.dm.getSuitableIndividuals(req);
-			ImageStorage imgStore = new ImageStorage();
-
-			List<String> photoids = new LinkedList<String>();
+			// only the photos are needed, so only their table is read
+			List<Individual> individuals = new DataProvider(this.dm)
+					.getShowData(show, PHOTO_ATTRIBUTE);
+			List<String> photoids = new ArrayList<String>();
 			// for each individual get all photo ids in the database
 			for (int i = 0; i < individuals.size(); i++) {
 				List<AttributeReliabilityPair> pairs = individuals.get(i)
-						.getProperties().get("fb_photo");
+						.getAttribute(PHOTO_ATTRIBUTE);
+				if (pairs == null) {
+					continue;
+				}
 				for (int j = 0; j < pairs.size(); j++) {
 					photoids.add((String) pairs.get(j).getAttribute());
 				}
 			}
+			if (photoids.isEmpty()) {
+				System.err.println("No photos to put on the wall");
+				return;
+			}
 
 			// randomize photos
 			Collections.shuffle(photoids);
 
-			// get images from image storage
-			BufferedImage[] photos = new BufferedImage[photoids.size()];
-			for (int i = 0; i < photos.length; i++) {
-				photos[i] = (BufferedImage) imgStore.retreiveImage(photoids
-						.get(i));
-			}
-
-			BufferedImage image;
-			if (photos.length > 5) {
-				// assemble photos into columns of colSize
-				int numcols = photos.length / this.colSize;
-				BufferedImage[] colPhotos = new BufferedImage[numcols];
-				for (int i = 0; i < numcols; i++) {
-					colPhotos[i] = this.concatenateByHeight(Arrays.copyOfRange(
-							photos, this.colSize * i, this.colSize * i + this.colSize));
-				}
-				// merge columns into a single photo
-				image = this.concatenateByWidth(colPhotos);
-			} else {
-				image = this.concatenateByWidth(photos);
-			}
-
-			// save image
-			ImageIO.write(image, "png", new File(this.pathname + this.filename + ".png"));
+			// render the wall row by row and save it
+			this.renderWall(photoids, new File(this.pathname + this.filename
+					+ ".png"));
 		} catch (InvalidReliabilityException e) {
 			System.err.println("Invalid Reliability of Photo");
 			return;
 		} catch (SQLException e) {
 			System.err.println("SQL Error");
 			return;
-		} catch (RequestNotSatisfiableException e) {
-			System.err.println("DatabaseManager cannot satisfy Request");
-			return;
 		} catch (IOException e) {
 			System.err.println("Cannot write image");
 			return;
+		} catch (InterruptedException e) {
+			System.err.println("Interrupted while rendering the wall");
+			Thread.currentThread().interrupt();
+			return;
 		} catch (UnknownAttributeException e) {
 			e.printStackTrace();
 			return;
@@ -141,55 +133,78 @@ public class PictureWallEffect extends Effect {
 	}
 
 	/**
-	 * Method that takes in a list of images and returns an image of all the
-	 * photos concatenated by width
+	 * Renders the rows of the wall in parallel and writes them to the file in
+	 * order. At most two rows per thread are rendered ahead of the row being
+	 * written.
 	 */
-	private BufferedImage concatenateByWidth(BufferedImage[] photos) {
-		int widthTotal = 0;
-		int height = 0;
-		for (int i = 0; i < photos.length; i++) {
-			widthTotal += photos[i].getWidth();
-			int h = photos[i].getHeight();
-			if (h > height) {
-				height = h;
+	private void renderWall(final List<String> photoids, File file)
+			throws IOException, InterruptedException {
+		final int columns = (int) Math.ceil(Math.sqrt(photoids.size()));
+		final int rows = (photoids.size() + columns - 1) / columns;
+		final ImageStorage imgStore = new ImageStorage();
+		ArrayDeque<Future<IncrementalPngWriter.Strip>> rendering = new ArrayDeque<Future<IncrementalPngWriter.Strip>>();
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(
+				file));
+				IncrementalPngWriter png = new IncrementalPngWriter(out, columns
+						* CELL_SIZE, rows * CELL_SIZE)) {
+			for (int row = 0; row < rows; row++) {
+				if (rendering.size() == 2 * WORKER_THREADS) {
+					png.write(rendering.remove().get());
+				}
+				final int currentRow = row;
+				rendering.add(WORKERS
+						.submit(new Callable<IncrementalPngWriter.Strip>() {
+							@Override
+							public IncrementalPngWriter.Strip call() {
+								return IncrementalPngWriter
+										.compress(PictureWallEffect.this
+												.renderRow(imgStore, photoids,
+														currentRow, columns));
+							}
+						}));
+			}
+			while (!rendering.isEmpty()) {
+				png.write(rendering.remove().get());
+			}
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		} finally {
+			// The workers are shared, so only the rows of this wall are
+			// stopped
+			for (Future<IncrementalPngWriter.Strip> strip : rendering) {
+				strip.cancel(true);
 			}
 		}
-		int widthCurr = 0;
-		BufferedImage image = new BufferedImage(widthTotal, height,
-				BufferedImage.TYPE_INT_RGB);
-		for (int i = 0; i < photos.length; i++) {
-			Graphics2D g2d = image.createGraphics();
-			g2d.drawImage(photos[i], widthCurr, 0, null);
-			widthCurr += photos[i].getWidth();
-			g2d.dispose();
-		}
-		return image;
 	}
 
 	/**
-	 * Method that takes in a list of images and returns an image of all the
-	 * photos concatenated by height
+	 * Renders one row of cells of the wall. Each photo is loaded scaled down to
+	 * the size of a cell and centred in it.
 	 */
-	private BufferedImage concatenateByHeight(BufferedImage[] photos) {
-		int heightTotal = 0;
-		int width = 0;
-		for (int i = 0; i < photos.length; i++) {
-			heightTotal += photos[i].getHeight();
-			int w = photos[i].getWidth();
-			if (w > width) {
-				width = w;
-			}
-		}
-		int heightCurr = 0;
-		BufferedImage image = new BufferedImage(width, heightTotal,
+	private BufferedImage renderRow(ImageStorage imgStore,
+			List<String> photoids, int row, int columns) {
+		BufferedImage strip = new BufferedImage(columns * CELL_SIZE, CELL_SIZE,
 				BufferedImage.TYPE_INT_RGB);
-		for (int i = 0; i < photos.length; i++) {
-			Graphics2D g2d = image.createGraphics();
-			g2d.drawImage(photos[i], 0, heightCurr, null);
-			heightCurr += photos[i].getHeight();
-			g2d.dispose();
+		Graphics2D g2d = strip.createGraphics();
+		BufferedImage photo;
+		int index;
+		for (int column = 0; column < columns; column++) {
+			index = row * columns + column;
+			if (index >= photoids.size()) {
+				break;
+			}
+			try {
+				photo = imgStore.retrieveImage(photoids.get(index), CELL_SIZE);
+			} catch (IOException e) {
+				System.err.println("Cannot read photo " + photoids.get(index));
+				continue;
+			}
+			g2d.drawImage(photo, column * CELL_SIZE
+					+ (CELL_SIZE - photo.getWidth()) / 2,
+					(CELL_SIZE - photo.getHeight()) / 2, null);
 		}
-		return image;
+		g2d.dispose();
+		return strip;
 	}
 
 	/**
@@ -6,10 +6,14 @@ import java.io.IOException;
 import java.sql.SQLException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import uk.ac.cam.darknet.common.AttributeReliabilityPair;
 import uk.ac.cam.darknet.common.Individual;
@@ -36,10 +40,17 @@ import com.itextpdf.text.pdf.PdfWriter;
 /**
  * An effect for generating a report for each individual.
  * 
+ * The section about each individual, including loading and scaling their
+ * photo, is laid out on the pool of one thread per processor shared by all
+ * effects. The sections are added to the document in the order of the
+ * audience as they become ready.
+ * 
  * @author Farah Patel
  * 
  */
 public class ReportEffect extends Effect {
+	// The size in pixels photos are retrieved at and shown in the report
+	private static final int PHOTO_SIZE = 250;
 	private String pathname;
 	private String filename;
 
@@ -66,11 +77,9 @@ public class ReportEffect extends Effect {
 		ArrayList<Individual> individuals;
 		// create requirements object with only a show as a requirement
 		IndividualRequirements requirements = new IndividualRequirements(show);
-		Enumeration<String> attributes;
-		ImageStorage imgStore = new ImageStorage();
-		String currentAttribute;
+		final ImageStorage imgStore = new ImageStorage();
 		Document doc = new Document();
-		String data;
+		ArrayDeque<Future<PdfPTable>> building = new ArrayDeque<Future<PdfPTable>>();
 		try {
 			// get all individuals attending the correct show
 			individuals = (ArrayList<Individual>) this.dm
@@ -88,88 +97,22 @@ public class ReportEffect extends Effect {
 					+ df.format(showDate), FontFactory.getFont(
 					FontFactory.COURIER, 25)));
 			doc.newPage();
-			// iterate through audience
-			for (Individual i : individuals) {
-				// display primary information
-				PdfPTable table = new PdfPTable(3);
-				table.setWidths(new int[] { 1, 1, 1 });
-				PdfPCell cell;
-				cell = new PdfPCell(new Phrase(i.getFirstName() + " "
-						+ i.getLastName(), FontFactory.getFont(
-						FontFactory.COURIER, 18)));
-				cell.setColspan(3);
-				cell.setRowspan(2);
-				table.addCell(cell);
-				table.addCell("Email");
-				data = i.getEmail();
-				if (data == null || data == "") {
-					data = "No Current Data";
-				}
-				cell = new PdfPCell(new Phrase(data));
-				cell.setColspan(2);
-				table.addCell(cell);
-				table.addCell("Seat");
-				data = i.getSeat();
-				if (data == null || data == "") {
-					data = "No Current Data";
+			// build the tables of the audience in parallel and add them to the
+			// document in order, keeping a few tables per thread ready
+			for (final Individual i : individuals) {
+				if (building.size() == 2 * WORKER_THREADS) {
+					doc.add(building.remove().get());
+					doc.newPage();
 				}
-				cell = new PdfPCell(new Phrase(data));
-				cell.setColspan(2);
-				table.addCell(cell);
-				attributes = i.getProperties().keys();
-				cell = new PdfPCell(new Phrase("Secondary Data"));
-				cell.setColspan(3);
-				table.addCell(cell);
-				// add Secondary information by iterating through all attributes
-				// and printing them
-				table.addCell("Attribute");
-				table.addCell("Value");
-				table.addCell("Reliability");
-				while (attributes.hasMoreElements()) {
-					currentAttribute = attributes.nextElement();
-					table.addCell(currentAttribute);
-					List<AttributeReliabilityPair> arp = i
-							.getAttribute(currentAttribute);
-					AttributeReliabilityPair a = arp.get(0);
-					// in the case of photos also display a recent photo
-					if (arp.size() > 0 && currentAttribute.contains("photo")) {
-						data = "We have " + arp.size()
-								+ " photos stored currently";
-						if (arp.isEmpty()) {
-							data = "No Current Data";
-						}
-						table.addCell(data);
-						table.addCell("N/A");
-						try {
-							table.addCell("Most Recent Photo");
-							Image img;
-							img = Image.getInstance(imgStore
-									.retreiveImage((String) a.getAttribute()),
-									null);
-							img.scaleToFit(250, 250);
-							table.addCell(img);
-							table.addCell(Double.toString(a.getReliability()));
-						} catch (IOException e) {
-							System.err.println("Failed to retrieve Image");
-							e.printStackTrace();
-						}
-					} else {
-						// print out attribute value and reliability
-						data = a.getAttribute().toString();
-						if (data == null || data == "") {
-							data = "No Current Data";
-						}
-						table.addCell(data);
-						data = Double.toString(a.getReliability());
-						if (data == null || data == "") {
-							data = "N/A";
-						}
-						table.addCell(data);
+				building.add(WORKERS.submit(new Callable<PdfPTable>() {
+					@Override
+					public PdfPTable call() throws DocumentException {
+						return ReportEffect.this.buildTable(i, imgStore);
 					}
-				}
-
-				// add the table to the PDF
-				doc.add(table);
+				}));
+			}
+			while (!building.isEmpty()) {
+				doc.add(building.remove().get());
 				doc.newPage();
 			}
 		} catch (FileNotFoundException e) {
@@ -195,11 +138,114 @@ public class ReportEffect extends Effect {
 		} catch (DocumentException e) {
 			System.err.println("Error creating document to make PDF");
 			return;
+		} catch (ExecutionException e) {
+			System.err.println("Error creating document to make PDF");
+			e.getCause().printStackTrace();
+			return;
+		} catch (InterruptedException e) {
+			System.err.println("Interrupted while creating the report");
+			Thread.currentThread().interrupt();
+			return;
 		} finally {
+			// The workers are shared, so only the tables of this report are
+			// stopped
+			for (Future<PdfPTable> table : building) {
+				table.cancel(true);
+			}
 			doc.close();
 		}
 	}
 
+	/**
+	 * Lays out the section of the report about one individual, including their
+	 * most recent photo. This does not touch the document and may run on any
+	 * thread.
+	 */
+	private PdfPTable buildTable(Individual i, ImageStorage imgStore)
+			throws DocumentException {
+		Enumeration<String> attributes;
+		String currentAttribute;
+		String data;
+		// display primary information
+		PdfPTable table = new PdfPTable(3);
+		table.setWidths(new int[] { 1, 1, 1 });
+		PdfPCell cell;
+		cell = new PdfPCell(new Phrase(i.getFirstName() + " "
+				+ i.getLastName(), FontFactory.getFont(
+				FontFactory.COURIER, 18)));
+		cell.setColspan(3);
+		cell.setRowspan(2);
+		table.addCell(cell);
+		table.addCell("Email");
+		data = i.getEmail();
+		if (data == null || data == "") {
+			data = "No Current Data";
+		}
+		cell = new PdfPCell(new Phrase(data));
+		cell.setColspan(2);
+		table.addCell(cell);
+		table.addCell("Seat");
+		data = i.getSeat();
+		if (data == null || data == "") {
+			data = "No Current Data";
+		}
+		cell = new PdfPCell(new Phrase(data));
+		cell.setColspan(2);
+		table.addCell(cell);
+		attributes = i.getProperties().keys();
+		cell = new PdfPCell(new Phrase("Secondary Data"));
+		cell.setColspan(3);
+		table.addCell(cell);
+		// add Secondary information by iterating through all attributes
+		// and printing them
+		table.addCell("Attribute");
+		table.addCell("Value");
+		table.addCell("Reliability");
+		while (attributes.hasMoreElements()) {
+			currentAttribute = attributes.nextElement();
+			table.addCell(currentAttribute);
+			List<AttributeReliabilityPair> arp = i
+					.getAttribute(currentAttribute);
+			AttributeReliabilityPair a = arp.get(0);
+			// in the case of photos also display a recent photo
+			if (arp.size() > 0 && currentAttribute.contains("photo")) {
+				data = "We have " + arp.size()
+						+ " photos stored currently";
+				if (arp.isEmpty()) {
+					data = "No Current Data";
+				}
+				table.addCell(data);
+				table.addCell("N/A");
+				try {
+					table.addCell("Most Recent Photo");
+					Image img;
+					img = Image.getInstance(imgStore.retrieveImage(
+							(String) a.getAttribute(), PHOTO_SIZE),
+							null);
+					img.scaleToFit(PHOTO_SIZE, PHOTO_SIZE);
+					table.addCell(img);
+					table.addCell(Double.toString(a.getReliability()));
+				} catch (IOException e) {
+					System.err.println("Failed to retrieve Image");
+					e.printStackTrace();
+				}
+			} else {
+				// print out attribute value and reliability
+				data = a.getAttribute().toString();
+				if (data == null || data == "") {
+					data = "No Current Data";
+				}
+				table.addCell(data);
+				data = Double.toString(a.getReliability());
+				if (data == null || data == "") {
+					data = "N/A";
+				}
+				table.addCell(data);
+			}
+		}
+		return table;
+	}
+
 	@Override
 	public void setup(String[] args) {
 		this.pathname = args[0];
@@ -0,0 +1,151 @@
+package uk.ac.cam.darknet.gui;
+
+import java.io.File;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.JProgressBar;
+import javax.swing.SwingWorker;
+
+import uk.ac.cam.darknet.backend.ImportProgressListener;
+import uk.ac.cam.darknet.backend.SeasonImport;
+import uk.ac.cam.darknet.backend.SeasonImportReport;
+import uk.ac.cam.darknet.backend.SpektrixCSVParser;
+import uk.ac.cam.darknet.common.Individual;
+import uk.ac.cam.darknet.common.Show;
+import uk.ac.cam.darknet.database.PrimaryDatabaseManager;
+
+/**
+ * A SwingWorker task that streams a CSV file into the database. The progress
+ * of the import is shown on the given progress bar and the GUI listener is
+ * notified when the import has finished, so that the GUI stays responsive
+ * while large files are imported. Given a directory or a glob instead of a
+ * file, the task imports all the files matching it as a season.
+ * 
+ * The individuals inserted are counted by show, so that the GUI can add rows
+ * for them without reading the whole database again. The individuals
+ * themselves are not kept, so the memory used does not grow with the file.
+ */
+public class CSVImportTask extends SwingWorker<Integer, Integer> implements
+		ImportProgressListener {
+	private final String csvFileURL;
+	private final int venueID;
+	private final PrimaryDatabaseManager pdbm;
+	private final JProgressBar progressBar;
+	private final DataCollectorGUIListener guiListener;
+	// The number of individuals inserted at each show, by the second of its
+	// date, in the order the shows were first seen in
+	private final Map<Long, Integer> storedCounts = new LinkedHashMap<>();
+	private volatile SeasonImportReport seasonReport;
+
+	/**
+	 * Initialize the task with the file to import and the GUI elements that
+	 * take care of the progress.
+	 * 
+	 * @param csvFileURL The path to the CSV file to import, or a directory or
+	 *            glob matching the files of a season.
+	 * @param venueID The ID of the venue of the shows in the file.
+	 * @param pdbm The database manager used to store the individuals.
+	 * @param progressBar The progress bar showing the progress of the import.
+	 * @param guiListener The GUI listener that is notified when the import is
+	 *            done.
+	 */
+	public CSVImportTask(final String csvFileURL, final int venueID,
+			final PrimaryDatabaseManager pdbm, final JProgressBar progressBar,
+			final DataCollectorGUIListener guiListener) {
+		this.csvFileURL = csvFileURL;
+		this.venueID = venueID;
+		this.pdbm = pdbm;
+		this.progressBar = progressBar;
+		this.guiListener = guiListener;
+	}
+
+	@Override
+	protected Integer doInBackground() throws Exception {
+		if (new File(this.csvFileURL).isFile()) {
+			return new SpektrixCSVParser().importCSV(this.csvFileURL,
+					this.venueID, this.pdbm, this);
+		}
+		// The files of a season parsed at once, as set in the database
+		// configuration file but no more than there are processors
+		int workers = Math.min(this.pdbm.getImportWorkers(), Runtime
+				.getRuntime().availableProcessors());
+		this.seasonReport = new SeasonImport(
+				SeasonImport.findFiles(this.csvFileURL), this.venueID, workers)
+				.run(this.pdbm, this);
+		return this.seasonReport.getIndividualsStored();
+	}
+
+	/**
+	 * Returns the report of the import if several files were imported.
+	 * 
+	 * @return The report, or null if a single file was imported or the import
+	 *         has not finished.
+	 */
+	public SeasonImportReport getSeasonReport() {
+		return this.seasonReport;
+	}
+
+	/**
+	 * Returns the ID of the venue of the shows imported.
+	 * 
+	 * @return The ID of the venue.
+	 */
+	public int getVenueID() {
+		return this.venueID;
+	}
+
+	/**
+	 * Returns the number of individuals inserted into the database so far at
+	 * each show of the venue, in the order the shows were read from the file.
+	 * 
+	 * @return A copy of the counts, by the date of the show.
+	 */
+	public Map<Date, Integer> getStoredCounts() {
+		final Map<Date, Integer> counts = new LinkedHashMap<>();
+		synchronized (this.storedCounts) {
+			for (final Map.Entry<Long, Integer> e : this.storedCounts
+					.entrySet()) {
+				counts.put(new Date(e.getKey() * 1000), e.getValue());
+			}
+		}
+		return counts;
+	}
+
+	@Override
+	public void individualsStored(final List<Individual> individuals) {
+		// Called from the thread writing to the database
+		Long second;
+		Integer count;
+		synchronized (this.storedCounts) {
+			for (final Individual i : individuals) {
+				second = Show.toSeconds(i.getEventDate());
+				count = this.storedCounts.get(second);
+				this.storedCounts.put(second, count == null ? 1 : count + 1);
+			}
+		}
+	}
+
+	@Override
+	public void importProgress(final int rowsRead,
+			final int individualsStored, final long bytesRead,
+			final long totalBytes) {
+		// Called from the thread writing to the database
+		if (totalBytes > 0) {
+			this.publish((int) (100 * Math.min(bytesRead, totalBytes) / totalBytes));
+		}
+	}
+
+	@Override
+	protected void process(final List<Integer> chunks) {
+		// Only the latest progress is of interest
+		this.progressBar.setValue(chunks.get(chunks.size() - 1));
+	}
+
+	@Override
+	protected void done() {
+		this.guiListener.notifyImportDone(this);
+	}
+}
@@ -1,46 +1,117 @@
 package uk.ac.cam.darknet.gui;
 
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+import javax.swing.JProgressBar;
 import javax.swing.SwingWorker;
 
+import uk.ac.cam.darknet.backend.CollectorListener;
+import uk.ac.cam.darknet.backend.CollectorMetrics;
+import uk.ac.cam.darknet.backend.CollectorScheduler;
 import uk.ac.cam.darknet.backend.SecondaryDataCollector;
+import uk.ac.cam.darknet.common.Individual;
+import uk.ac.cam.darknet.common.LoggerFactory;
+import uk.ac.cam.darknet.database.SecondaryDatabaseManager;
 
 /**
- * A SwingWorker task that runs a Secondary Data Collector. It is used to notify
- * the GUI that the given collector has finished executing its task so that the
+ * A SwingWorker task that runs Secondary Data Collectors on a scheduler and
+ * waits until all of them have ended. Every collector that ends advances the
+ * progress bar, and the GUI is notified once all of them are done, so that the
  * GUI can display nice progress bar but still be responsive.
  * 
+ * When a collector ends, the individuals whose data it has stored are recorded
+ * as collected, so that the next collection skips them until their data
+ * becomes stale. The individuals it could not look up are collected again.
+ * 
  * @author Augustin Zidek
  * 
  */
-public class CollectorTask extends SwingWorker<Void, Void> {
-	private final SecondaryDataCollector collector;
+public class CollectorTask extends SwingWorker<List<CollectorMetrics>, CollectorMetrics>
+		implements CollectorListener {
+	private final List<SecondaryDataCollector> collectors;
+	private final Map<String, SecondaryDataCollector> collectorsById = new HashMap<>();
+	private final CollectorScheduler scheduler;
+	private final SecondaryDatabaseManager sdbm;
+	private final JProgressBar progressBar;
 	private final DataCollectorGUIListener guiListener;
 
 	/**
-	 * Initialize the task with the collector to be run and the GUI Listener
+	 * Initialize the task with the collectors to be run and the GUI Listener
 	 * that takes care of the progress.
 	 * 
-	 * @param collector The collector to be run in this worker.
-	 * @param guiListener The GUI listener that is notified when the collector
-	 *            is done with its work.
+	 * @param collectors The collectors to be run in this worker, already set
+	 *            up.
+	 * @param scheduler The scheduler running the collectors.
+	 * @param sdbm The database manager recording which individuals have been
+	 *            collected.
+	 * @param progressBar The progress bar showing the number of collectors
+	 *            that have ended.
+	 * @param guiListener The GUI listener that is notified when the collectors
+	 *            are done with their work.
 	 */
-	public CollectorTask(final SecondaryDataCollector collector,
+	public CollectorTask(
+			final List<SecondaryDataCollector> collectors,
+			final CollectorScheduler scheduler,
+			final SecondaryDatabaseManager sdbm, final JProgressBar progressBar,
 			final DataCollectorGUIListener guiListener) {
-		this.collector = collector;
+		this.collectors = new ArrayList<>(collectors);
+		for (final SecondaryDataCollector c : collectors) {
+			this.collectorsById.put(c.getCollectorId(), c);
+		}
+		this.scheduler = scheduler;
+		this.sdbm = sdbm;
+		this.progressBar = progressBar;
 		this.guiListener = guiListener;
 	}
 
 	@Override
-	protected Void doInBackground() throws Exception {
-		// Start the collector in a new thread
-		final Thread collectorThread = new Thread(this.collector);
-		collectorThread.run();
+	protected List<CollectorMetrics> doInBackground() throws Exception {
+		this.scheduler.start(this.collectors, this);
+		this.scheduler.await();
+		return this.scheduler.getMetrics();
+	}
 
-		return null;
+	/**
+	 * Cancels all the collectors. The task ends once the running collectors
+	 * have stopped.
+	 */
+	public void cancelCollectors() {
+		this.scheduler.cancel();
+	}
+
+	@Override
+	public void collectorFinished(final CollectorMetrics metrics) {
+		// Called from the thread that ran the collector. Even a collector that
+		// failed or was stopped may have stored the data of some individuals.
+		final List<Individual> collected = this.collectorsById.get(
+				metrics.getCollectorId()).getIndividualsCollected();
+		if (!collected.isEmpty()) {
+			try {
+				this.sdbm.markCollected(metrics.getCollectorId(), collected);
+			}
+			catch (final SQLException e) {
+				LoggerFactory.getLogger().log(Level.WARNING,
+						"Could not record the individuals collected by "
+								+ metrics.getCollectorId(), e);
+			}
+		}
+		this.publish(metrics);
+	}
+
+	@Override
+	protected void process(final List<CollectorMetrics> chunks) {
+		this.progressBar.setIndeterminate(false);
+		this.progressBar.setValue(this.progressBar.getValue() + chunks.size());
+		this.progressBar.setString(chunks.get(chunks.size() - 1).toString());
 	}
 
 	@Override
 	protected void done() {
-		this.guiListener.notifyCollectorDone();
+		this.guiListener.notifyCollectorDone(this);
 	}
 }
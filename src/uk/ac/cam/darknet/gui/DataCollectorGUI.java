@@ -125,12 +125,11 @@ public class DataCollectorGUI extends PrimaryDataCollector {
 					"Database error", JOptionPane.ERROR_MESSAGE);
 		}
 		else {
-			// Get all the individuals that are already in the DB
-			final List<Individual> individualsInDB = this.getDBContent();
 			// Populate the comboboxes
 			this.updateComboBoxes();
-			// Display them in the table
-			this.table.displayIndividuals(individualsInDB, this.venues);
+			// Show the individuals already in the DB, read as the table is
+			// scrolled
+			this.table.showAllIndividuals();
 		}
 		// Populate the table with collectors that have been found in the system
 		this.populateCollectorsTable();
@@ -161,6 +160,7 @@ public class DataCollectorGUI extends PrimaryDataCollector {
 		}
 		try {
 			this.venues = this.pdbm.getAllVenues();
+			this.table.setVenues(this.venues);
 		}
 		catch (SQLException e) {
 			JOptionPane.showMessageDialog(this.frame, Strings.GUI_DB_VEN_ERR,
@@ -581,7 +581,7 @@ public class DataCollectorGUI extends PrimaryDataCollector {
 				184, 207, 229)), "Available collectors", TitledBorder.LEADING,
 				TitledBorder.TOP, null, null));
 
-		this.btnCollectData = new JButton("Collect selected data");
+		this.btnCollectData = new JButton(Strings.GUI_COLLECT_LABEL);
 		this.btnCollectData.addActionListener(this.listener);
 
 		this.btnDone = new JButton("Exit");
@@ -700,7 +700,7 @@ public class DataCollectorGUI extends PrimaryDataCollector {
 		final JScrollPane scrollPane = new JScrollPane();
 
 		// The table of individuals
-		this.table = new IndividualTable();
+		this.table = new IndividualTable(this.pdbm);
 		scrollPane.setViewportView(this.table);
 
 		this.comboShowsFilter = new JComboBox<String>();
@@ -815,22 +815,6 @@ public class DataCollectorGUI extends PrimaryDataCollector {
 		return this.shows.get(this.comboShowsCollec.getSelectedIndex() - 1);
 	}
 
-	/**
-	 * Get the list of all individuals that are already in the database.
-	 * 
-	 * @return The list of all individuals already in the database.
-	 */
-	private List<Individual> getDBContent() {
-		try {
-			return this.pdbm.getAllIndividuals();
-		}
-		catch (SQLException e) {
-			JOptionPane.showMessageDialog(this.frame, Strings.GUI_DB_READ_ERR,
-					"Database error", JOptionPane.ERROR_MESSAGE);
-			return null;
-		}
-	}
-
 	/**
 	 * Save the given individual in the db. Show error dialog if error.
 	 * 
@@ -2,7 +2,6 @@ package uk.ac.cam.darknet.gui;
 
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.sql.SQLException;
 import java.text.ParseException;
@@ -10,6 +9,9 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.JComboBox;
 import javax.swing.JFileChooser;
@@ -17,8 +19,12 @@ import javax.swing.JOptionPane;
 import javax.swing.filechooser.FileFilter;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
+import uk.ac.cam.darknet.backend.CollectionSettings;
+import uk.ac.cam.darknet.backend.CollectorMetrics;
+import uk.ac.cam.darknet.backend.CollectorScheduler;
+import uk.ac.cam.darknet.backend.FileImportResult;
+import uk.ac.cam.darknet.backend.SeasonImportReport;
 import uk.ac.cam.darknet.backend.SecondaryDataCollector;
-import uk.ac.cam.darknet.backend.SpektrixCSVParser;
 import uk.ac.cam.darknet.common.Individual;
 import uk.ac.cam.darknet.common.Show;
 import uk.ac.cam.darknet.common.Strings;
@@ -33,7 +39,7 @@ import uk.ac.cam.darknet.database.SecondaryDatabaseManager;
  */
 public class DataCollectorGUIListener implements ActionListener {
 	private final DataCollectorGUI gui;
-	private int collectorsStillRunning;
+	private CollectorTask collectorTask;
 
 	/**
 	 * @param gui The gui that this listener should be listening to, so that the
@@ -97,6 +103,8 @@ public class DataCollectorGUIListener implements ActionListener {
 		final FileFilter filter = new FileNameExtensionFilter("CSV file",
 				"csv", "gui.txt");
 		fc.setFileFilter(filter);
+		// A directory imports all the CSV files of a season
+		fc.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
 
 		// Return value from the file chooser (tells if a file was selected)
 		int returnVal = fc.showOpenDialog(this.gui.panelMain);
@@ -120,40 +128,67 @@ public class DataCollectorGUIListener implements ActionListener {
 		}
 		// Get the path to the csv file
 		final String csvFileURL = this.gui.txtFldCSVFilePath.getText();
-		// Load the list of individuals from the csv file
-		final List<Individual> csvIndividuals;
-		final SpektrixCSVParser csvParser = new SpektrixCSVParser();
-		try {
-			csvIndividuals = csvParser.loadfromCSV(csvFileURL, venue.getId());
-		}
-		catch (IOException | SQLException | ParseException e) {
-			JOptionPane.showMessageDialog(this.gui.frame, Strings.GUI_CSV_ADD_ERR,
-					"CSV file import error", JOptionPane.ERROR_MESSAGE);
-			return;
-		}
 
-		// Add the individuals to the database
+		// Stream the individuals from the csv file into the database in the
+		// background, showing the progress in the progress bar
+		this.gui.btnLoadAudience.setEnabled(false);
+		this.gui.progressBar.setIndeterminate(false);
+		this.gui.progressBar.setValue(0);
+		this.gui.progressBar.setString(null);
+		final CSVImportTask task = new CSVImportTask(csvFileURL, venue.getId(),
+				this.gui.pdbm, this.gui.progressBar, this);
+		task.execute();
+	}
+
+	/**
+	 * This method is called by the done() method of the CSVImportTask to
+	 * notify that the import has finished. It reports the outcome to the user
+	 * and refreshes the table.
+	 */
+	void notifyImportDone(final CSVImportTask task) {
+		this.gui.btnLoadAudience.setEnabled(true);
 		final int audienceCount;
 		try {
-			audienceCount = this.gui.pdbm.storeIndividual(csvIndividuals);
+			audienceCount = task.get();
 		}
-		catch (SQLException e) {
+		catch (InterruptedException | ExecutionException e) {
+			this.gui.progressBar.setValue(0);
+			// Database errors are reported separately from unreadable files
+			if (e.getCause() instanceof SQLException) {
+				JOptionPane.showMessageDialog(this.gui.frame,
+						Strings.GUI_DB_CSV_ADD_ERR, "Database error",
+						JOptionPane.ERROR_MESSAGE);
+			}
+			else {
+				JOptionPane.showMessageDialog(this.gui.frame,
+						Strings.GUI_CSV_ADD_ERR, "CSV file import error",
+						JOptionPane.ERROR_MESSAGE);
+			}
 			return;
 		}
-		// Show confirmation dialog
-		JOptionPane.showMessageDialog(this.gui.frame, audienceCount
-				+ " audience members added to the database.");
+		this.gui.progressBar.setValue(100);
+		this.gui.progressBar.setString("Import done");
 
-		// Clear the gui.table and show all individuals. This is used because
-		// user ID's can't be determined prior to adding them to the DB.
-		this.gui.table.clearTable();
-		try {
-			this.gui.table.displayIndividuals(this.gui.pdbm.getAllIndividuals(),
-					this.gui.venues);
+		// Show confirmation dialog, with the files of a season that failed
+		final StringBuilder message = new StringBuilder(audienceCount
+				+ " audience members added to the database.");
+		final SeasonImportReport report = task.getSeasonReport();
+		if (report != null) {
+			message.append("\n").append(report);
+			if (!report.getFailedFiles().isEmpty()) {
+				message.append("\n\n").append(Strings.GUI_CSV_FILES_FAILED);
+				for (final FileImportResult file : report.getFailedFiles()) {
+					message.append("\n").append(file);
+				}
+			}
 		}
-		catch (SQLException e) {
-			JOptionPane.showMessageDialog(this.gui.frame, Strings.GUI_DB_READ_ERR,
-					"Database error", JOptionPane.ERROR_MESSAGE);
+		JOptionPane.showMessageDialog(this.gui.frame, message.toString());
+
+		// Append rows for the new individuals, which are read from the DB
+		for (final Map.Entry<Date, Integer> e : task.getStoredCounts()
+				.entrySet()) {
+			this.gui.table.appendIndividuals(task.getVenueID(), e.getKey(),
+					e.getValue());
 		}
 
 		// Jump to the last added individual
@@ -216,13 +251,8 @@ public class DataCollectorGUIListener implements ActionListener {
 		}
 
 		// Update the gui.table
-		try {
-			this.gui.table.displayIndividual(this.gui.pdbm.getById(ID), this.gui.venues);
-		}
-		catch (SQLException e) {
-			JOptionPane.showMessageDialog(this.gui.frame, Strings.GUI_DB_CONN_ERR,
-					"Database error", JOptionPane.ERROR_MESSAGE);
-		}
+		this.gui.table.appendIndividual(new Individual(ID, firstName, lastName,
+				email, eventDate, venue.getId(), seat, null));
 		// Jump to the added line
 		this.gui.table.scrollRectToVisible(this.gui.table.getCellRect(
 				this.gui.table.getRowCount() - 1, 0, true));
@@ -241,15 +271,7 @@ public class DataCollectorGUIListener implements ActionListener {
 	 * Handle refresh of the gui.table - i.e. reload its contents from the DB.
 	 */
 	private void handleRefresh() {
-		this.gui.table.clearTable();
-		try {
-			this.gui.table.displayIndividuals(this.gui.pdbm.getAllIndividuals(),
-					this.gui.venues);
-		}
-		catch (SQLException e1) {
-			JOptionPane.showMessageDialog(this.gui.frame, Strings.GUI_DB_READ_ERR,
-					"Database error", JOptionPane.ERROR_MESSAGE);
-		}
+		this.gui.table.refresh();
 		// Update shows comboboxes
 		this.gui.updateShowsCBs();
 	}
@@ -258,6 +280,14 @@ public class DataCollectorGUIListener implements ActionListener {
 	 * Handle collection of data - execute all collectors in separate threads.
 	 */
 	private void handleDataCollection() {
+		// Collection running, the button cancels it
+		if (this.collectorTask != null) {
+			this.collectorTask.cancelCollectors();
+			this.gui.btnCollectData.setEnabled(false);
+			this.gui.progressBar.setString(Strings.GUI_COLL_CANCELLING);
+			return;
+		}
+
 		// Get the selected show. If null, call collect on all data
 		final Show show = this.gui.getSelectedShow();
 		// Get the indexes of the checked collectors
@@ -275,27 +305,27 @@ public class DataCollectorGUIListener implements ActionListener {
 			return;
 		}
 
-		// Set the amount of running collectors to zero
-		this.collectorsStillRunning = 0;
-
-		// Notify user that collection has started
-		this.gui.progressBar.setIndeterminate(true);
-		this.gui.progressBar.setString("Collecting data");
-
-		// Go through all collectors and invoke their run() methods
+		// Create and set up all collectors before any of them is started. Each
+		// collector only gets the individuals that it has not collected data on
+		// within the age set in the database configuration file.
+		final CollectionSettings settings = new CollectionSettings(
+				this.gui.sdbm.getConfiguration());
+		final Date staleBefore = new Date(System.currentTimeMillis()
+				- TimeUnit.DAYS.toMillis(settings.getMaxAgeDays()));
+		final List<SecondaryDataCollector> collectors = new ArrayList<>();
 		for (final Class<?> collClass : checkedColl) {
 			final SecondaryDataCollector collector;
+			final List<Individual> targets;
 			try {
 				collector = (SecondaryDataCollector) collClass.getConstructor(
 						SecondaryDatabaseManager.class).newInstance(this.gui.sdbm);
-				// No show selected - collect data on everyone
-				if (show == null) {
-					collector.setup(this.gui.pdbm.getAllIndividuals());
-				}
-				// Collect data only for the given show
-				else {
-					collector.setup(this.gui.pdbm.getByShow(show));
+				// If no show is selected, collect data on everyone
+				targets = this.gui.sdbm.getIndividualsToCollect(
+						collector.getCollectorId(), show, staleBefore);
+				if (targets.isEmpty()) {
+					continue;
 				}
+				collector.setup(targets);
 			}
 			catch (InstantiationException | IllegalAccessException
 					| SQLException | IllegalArgumentException
@@ -304,48 +334,66 @@ public class DataCollectorGUIListener implements ActionListener {
 				JOptionPane.showMessageDialog(this.gui.frame,
 						Strings.GUI_COLL_ERROR, "Error loading collectors",
 						JOptionPane.ERROR_MESSAGE);
-				
-				// Stop the progress bar
-				this.gui.progressBar.setIndeterminate(false);
 				return;
 			}
+			collectors.add(collector);
+		}
 
-			// Start a new thread executing the collector
-			this.startCollectorThread(collector);
+		// Everyone is up to date
+		if (collectors.isEmpty()) {
+			JOptionPane.showMessageDialog(this.gui.frame,
+					Strings.GUI_COLL_UP_TO_DATE, "Nothing to collect",
+					JOptionPane.INFORMATION_MESSAGE);
+			return;
 		}
-	}
 
-	/**
-	 * Starts a new thread running the given collector and increases the count
-	 * of running collectors.
-	 */
-	synchronized private void startCollectorThread(
-			final SecondaryDataCollector collector) {
-		// Increase the count of running collectors
-		this.collectorsStillRunning++;
-		// Run the collector
-		final CollectorTask task = new CollectorTask(collector, this);
-		task.execute();
+		// Notify user that collection has started
+		this.gui.progressBar.setMaximum(collectors.size());
+		this.gui.progressBar.setValue(0);
+		this.gui.progressBar.setIndeterminate(true);
+		this.gui.progressBar.setString("Collecting data");
+		this.gui.btnCollectData.setText(Strings.GUI_CANCEL_COLL_LABEL);
+
+		// Run the collectors on a pool of workers in the background, with the
+		// number of workers and the timeout set in the database configuration
+		// file
+		this.collectorTask = new CollectorTask(collectors,
+				new CollectorScheduler(settings.getWorkers(),
+						settings.getTimeoutMinutes(), TimeUnit.MINUTES),
+				this.gui.sdbm, this.gui.progressBar, this);
+		this.collectorTask.execute();
 	}
 
 	/**
-	 * This method is called by the done() method of the CollectorTasks to
-	 * notify that they have finished their execution. This knows what is the
-	 * amount of running collectors and if the count reaches zero, it updates
-	 * the progress bar to 100%.
+	 * This method is called by the done() method of the CollectorTask to
+	 * notify that all the collectors have ended. It stops the progress bar and
+	 * tells the user how each of the collectors did.
 	 */
-	synchronized void notifyCollectorDone() {
-		// Decrease the amount of running collectors
-		this.collectorsStillRunning--;
-		if (this.collectorsStillRunning == 0) {
-			// Everything done, stop the progress bar and set to 100%
-			this.gui.progressBar.setIndeterminate(false);
-			this.gui.progressBar.setValue(100);
-
-			// Notify the user that the collection is done
-			JOptionPane.showMessageDialog(this.gui.frame, Strings.GUI_COLL_DONE);
-			this.gui.progressBar.setString("Collection done");
+	void notifyCollectorDone(final CollectorTask task) {
+		this.collectorTask = null;
+		this.gui.btnCollectData.setText(Strings.GUI_COLLECT_LABEL);
+		this.gui.btnCollectData.setEnabled(true);
+		this.gui.progressBar.setIndeterminate(false);
+		this.gui.progressBar.setValue(this.gui.progressBar.getMaximum());
+
+		final List<CollectorMetrics> metrics;
+		try {
+			metrics = task.get();
+		}
+		catch (InterruptedException | ExecutionException e) {
+			JOptionPane.showMessageDialog(this.gui.frame,
+					Strings.GUI_COLLECTORS_ERR, "Error executing collectors",
+					JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+
+		// Notify the user that the collection is done
+		final StringBuilder message = new StringBuilder(Strings.GUI_COLL_DONE);
+		for (final CollectorMetrics m : metrics) {
+			message.append("\n").append(m);
 		}
+		this.gui.progressBar.setString("Collection done");
+		JOptionPane.showMessageDialog(this.gui.frame, message.toString());
 	}
 
 	/**
@@ -355,23 +403,12 @@ public class DataCollectorGUIListener implements ActionListener {
 		final int selectedIndex = comboBox.getSelectedIndex();
 		// Don't filter selected
 		if (selectedIndex <= 0) {
-			this.handleRefresh();
-			return;
-		}
-		// Get the show that is selected
-		final Show selectedShow = this.gui.shows.get(selectedIndex - 1);
-		// Get all individuals that are attending this show
-		final List<Individual> filteredIndividuals;
-		try {
-			filteredIndividuals = this.gui.pdbm.getByShow(selectedShow);
-		}
-		catch (final SQLException e) {
-			JOptionPane.showMessageDialog(this.gui.frame, Strings.GUI_COLL_DONE);
+			this.gui.table.showAllIndividuals();
 			return;
 		}
-		// Refresh the gui.table view
-		this.gui.table.clearTable();
-		this.gui.table.displayIndividuals(filteredIndividuals, this.gui.venues);
+		// Show the individuals attending the selected show; they are read
+		// page by page in the background
+		this.gui.table.showShow(this.gui.shows.get(selectedIndex - 1));
 	}
 
 	/**
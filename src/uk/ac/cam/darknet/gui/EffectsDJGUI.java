@@ -14,8 +14,11 @@ import java.lang.reflect.InvocationTargetException;
 import java.sql.SQLException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
@@ -220,6 +223,41 @@ public class EffectsDJGUI {
 		this.btnRunEffects.addActionListener(new RunEffectsListener());
 	}
 
+	/**
+	 * Called by the effects task when all the effects have finished executing.
+	 * Tells the user which effects have failed, or how long each of them took.
+	 * 
+	 * @param task The task that has finished.
+	 */
+	void notifyEffectsDone(final EffectsTask task) {
+		this.btnRunEffects.setEnabled(true);
+		try {
+			task.get();
+		}
+		catch (InterruptedException | ExecutionException e) {
+			JOptionPane.showMessageDialog(this.frmEffectsDj,
+					Strings.GUI_EFFECTS_ERR, "Error executing effects",
+					JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		if (!task.getFailures().isEmpty()) {
+			JOptionPane.showMessageDialog(this.frmEffectsDj,
+					Strings.GUI_EFFECTS_FAILED + task.getFailures(),
+					"Error executing effects", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		final StringBuilder message = new StringBuilder(
+				Strings.GUI_EFFECTS_DONE);
+		message.append("\n").append(Strings.GUI_EFFECTS_TIMES);
+		for (final Map.Entry<String, Long> timing : task.getTimings()
+				.entrySet()) {
+			message.append("\n").append(timing.getKey()).append(": ")
+					.append(timing.getValue()).append(" ms");
+		}
+		this.progressBar.setString(null);
+		JOptionPane.showMessageDialog(this.frmEffectsDj, message.toString());
+	}
+
 	private Show getSelectedShow() {
 		// All shows selected
 		if (this.comboShows.getSelectedIndex() == 0) {
@@ -296,14 +334,8 @@ public class EffectsDJGUI {
 				selectedEffects.add(EffectsDJGUI.this.effectClasses.get(row));
 			}
 
-			// Get the amount of effects that are going to be executed
-			final int effectCount = selectedEffects.size();
-			EffectsDJGUI.this.progressBar.setMaximum(effectCount);
-			EffectsDJGUI.this.progressBar.setValue(0);
-			EffectsDJGUI.this.progressBar.setStringPainted(true);
-
-			int progress = 0;
-			// Go through all collectors and invoke their run() methods
+			// Instantiate and set up all the effects before any of them runs
+			final List<Effect> effects = new ArrayList<>();
 			for (final Class<?> effectClass : selectedEffects) {
 				try {
 					// Get the effect
@@ -327,31 +359,35 @@ public class EffectsDJGUI {
 
 					// Set up the effect
 					effect.setup(arguments);
-
-					// Handle all shows
-					if (show == null) {
-						for (final Show s : EffectsDJGUI.this.pdbm.getAllShows()) {
-							effect.execute(s);
-						}
-					}
-					// Handle single show only
-					else {
-						effect.execute(show);
-					}
+					effects.add(effect);
 				}
 				catch (InstantiationException | IllegalAccessException
-						| SQLException | IllegalArgumentException
-						| InvocationTargetException | NoSuchMethodException
-						| SecurityException exn) {
+						| IllegalArgumentException | InvocationTargetException
+						| NoSuchMethodException | SecurityException exn) {
 					JOptionPane.showMessageDialog(EffectsDJGUI.this.frmEffectsDj,
 							Strings.GUI_EFFECTS_ERR, "Error loading effects",
 							JOptionPane.ERROR_MESSAGE);
 				}
-				EffectsDJGUI.this.progressBar.setValue(++progress);
 			}
+			if (effects.isEmpty()) {
+				return;
+			}
+
+			// Handle all shows or the single show selected
+			final List<Show> selectedShows = show == null ? EffectsDJGUI.this.shows
+					: Collections.singletonList(show);
+
+			// Every effect on every show advances the progress bar by one
+			EffectsDJGUI.this.progressBar.setMaximum(effects.size()
+					* selectedShows.size());
+			EffectsDJGUI.this.progressBar.setValue(0);
+			EffectsDJGUI.this.progressBar.setStringPainted(true);
+			EffectsDJGUI.this.progressBar.setString(null);
 
-			JOptionPane.showMessageDialog(EffectsDJGUI.this.frmEffectsDj,
-					Strings.GUI_EFFECTS_DONE);
+			// Run the effects in the background and keep the GUI responsive
+			EffectsDJGUI.this.btnRunEffects.setEnabled(false);
+			new EffectsTask(effects, selectedShows, EffectsDJGUI.this.sdbm,
+					EffectsDJGUI.this.progressBar, EffectsDJGUI.this).execute();
 		}
 	}
 }
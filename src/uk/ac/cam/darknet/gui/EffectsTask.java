@@ -0,0 +1,185 @@
+package uk.ac.cam.darknet.gui;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.JProgressBar;
+import javax.swing.SwingWorker;
+
+import uk.ac.cam.darknet.common.LoggerFactory;
+import uk.ac.cam.darknet.common.Show;
+import uk.ac.cam.darknet.database.DatabaseManager;
+import uk.ac.cam.darknet.frontend.Effect;
+
+/**
+ * A SwingWorker task that executes a number of effects, which have already
+ * been set up, on one or more shows. The shows are handled one after another,
+ * while the effects on a show run in parallel on a pool of threads. Before the
+ * effects are started on a show, its individuals and their attributes are read
+ * into the cache of the database manager once, so that all the effects share
+ * that snapshot instead of each reading the show from the database.
+ * 
+ * Every finished effect advances the progress bar, which shows the time it
+ * took, and the GUI is notified once all the effects are done.
+ */
+public class EffectsTask extends SwingWorker<Void, EffectsTask.EffectRun> {
+	private final List<Effect> effects;
+	private final List<Show> shows;
+	private final DatabaseManager dm;
+	private final JProgressBar progressBar;
+	private final EffectsDJGUI gui;
+	private final Map<String, Long> timings = new LinkedHashMap<>();
+	private final List<String> failures = new ArrayList<>();
+	private final Logger logger = LoggerFactory.getLogger();
+
+	/**
+	 * The outcome of running one effect on one show.
+	 */
+	static class EffectRun {
+		private final String effectName;
+		private final long millis;
+		private final RuntimeException error;
+
+		private EffectRun(final String effectName, final long millis,
+				final RuntimeException error) {
+			this.effectName = effectName;
+			this.millis = millis;
+			this.error = error;
+		}
+	}
+
+	/**
+	 * Initialize the task with the effects to execute and the GUI elements
+	 * that take care of the progress.
+	 * 
+	 * @param effects The effects to execute. Their setup methods must have
+	 *            been called already.
+	 * @param shows The shows to execute the effects on.
+	 * @param dm The database manager the effects read the shows from.
+	 * @param progressBar The progress bar showing the number of effects
+	 *            finished.
+	 * @param gui The GUI that is notified when all the effects are done.
+	 */
+	public EffectsTask(final List<Effect> effects, final List<Show> shows,
+			final DatabaseManager dm, final JProgressBar progressBar,
+			final EffectsDJGUI gui) {
+		this.effects = effects;
+		this.shows = shows;
+		this.dm = dm;
+		this.progressBar = progressBar;
+		this.gui = gui;
+		for (final Effect effect : effects) {
+			this.timings.put(effect.getClass().getSimpleName(), 0L);
+		}
+	}
+
+	@Override
+	protected Void doInBackground() throws Exception {
+		final ExecutorService pool = Executors.newFixedThreadPool(Math.max(1,
+				Math.min(this.effects.size(), Runtime.getRuntime()
+						.availableProcessors())));
+		final CompletionService<EffectRun> runs = new ExecutorCompletionService<>(
+				pool);
+		try {
+			for (final Show show : this.shows) {
+				if (this.isCancelled()) {
+					break;
+				}
+				try {
+					this.dm.prefetchShow(show);
+				}
+				catch (final Exception e) {
+					// The effects will try to read the show themselves
+					this.logger.log(Level.WARNING, "Could not prefetch the show "
+							+ show.getVenue().getName() + " at " + show.getDate(),
+							e);
+				}
+				for (final Effect effect : this.effects) {
+					runs.submit(new Callable<EffectRun>() {
+						@Override
+						public EffectRun call() {
+							return EffectsTask.this.execute(effect, show);
+						}
+					});
+				}
+				// Each effect runs on the show only once, so the effects on the
+				// next show start after all of them have finished with this one
+				for (int i = 0; i < this.effects.size(); i++) {
+					this.publish(runs.take().get());
+				}
+			}
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		return null;
+	}
+
+	@Override
+	protected void process(final List<EffectRun> chunks) {
+		EffectRun last = null;
+		for (final EffectRun run : chunks) {
+			this.timings.put(run.effectName, this.timings.get(run.effectName)
+					+ run.millis);
+			if (run.error != null && !this.failures.contains(run.effectName)) {
+				this.failures.add(run.effectName);
+			}
+			last = run;
+		}
+		this.progressBar.setValue(this.progressBar.getValue() + chunks.size());
+		this.progressBar.setString(last.effectName + " done in " + last.millis
+				+ " ms");
+	}
+
+	@Override
+	protected void done() {
+		this.gui.notifyEffectsDone(this);
+	}
+
+	/**
+	 * Returns the total time each effect has taken on all the shows. Must only
+	 * be called from the event dispatch thread.
+	 * 
+	 * @return The time in milliseconds, keyed by the name of the effect.
+	 */
+	Map<String, Long> getTimings() {
+		return this.timings;
+	}
+
+	/**
+	 * Returns the names of the effects that have failed on at least one show.
+	 * Must only be called from the event dispatch thread.
+	 * 
+	 * @return The names of the failed effects.
+	 */
+	List<String> getFailures() {
+		return this.failures;
+	}
+
+	private EffectRun execute(final Effect effect, final Show show) {
+		final String name = effect.getClass().getSimpleName();
+		final long start = System.nanoTime();
+		RuntimeException error = null;
+		try {
+			effect.execute(show);
+		}
+		catch (final RuntimeException e) {
+			error = e;
+			this.logger.log(Level.SEVERE, name + " failed on the show "
+					+ show.getVenue().getName() + " at " + show.getDate(), e);
+		}
+		final long millis = (System.nanoTime() - start) / 1000000;
+		this.logger.info(name + " took " + millis + " ms on the show "
+				+ show.getVenue().getName() + " at " + show.getDate());
+		return new EffectRun(name, millis, error);
+	}
+}
@@ -1,29 +1,28 @@
 package uk.ac.cam.darknet.gui;
 
-import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.List;
 
 import javax.swing.JTable;
 import javax.swing.ListSelectionModel;
-import javax.swing.table.DefaultTableModel;
 
 import uk.ac.cam.darknet.common.Individual;
-import uk.ac.cam.darknet.common.Strings;
+import uk.ac.cam.darknet.common.Show;
 import uk.ac.cam.darknet.common.Venue;
+import uk.ac.cam.darknet.database.DatabaseManager;
 
 /**
- * A Swing table extending JTable to store individuals. Provides methods such as
- * addIndividual(), which add the given individual to the table and display it.
+ * A Swing table extending JTable to show individuals. The individuals are read
+ * from the database as the table is scrolled, so that it stays responsive
+ * however many individuals there are, and the audience of a show is filtered
+ * by the database; see {@link IndividualTableModel}.
  * 
  * @author Augustin Zidek
  * 
  */
 public class IndividualTable extends JTable {
 	private static final long serialVersionUID = 1L;
-	// Names of the columns in the table
-	private static final String[] columns = { "ID", "First name", "Last name",
-			"Email", "Venue", "Show date", "Seat" };
-	final static DefaultTableModel model = new DefaultTableModel();
+	private final IndividualTableModel model;
 
 	/**
 	 * Make all cells un-editable.
@@ -37,13 +36,18 @@ public class IndividualTable extends JTable {
 	 * Creates a new empty table with the column names set to the primary fields
 	 * of the Individual, i.e. id, firstName, lastName, email, eventDate, seat.
 	 * 
+	 * @param dbm The database manager the individuals are read with, or null
+	 *            if there is no database.
 	 */
-	public IndividualTable() {
+	public IndividualTable(final DatabaseManager dbm) {
+		this(new IndividualTableModel(dbm));
+	}
+
+	private IndividualTable(final IndividualTableModel model) {
 		super(model);
-		// Set the columns
-		model.setColumnIdentifiers(columns);
-		// Create auto sorted for each column
-		this.setAutoCreateRowSorter(true);
+		this.model = model;
+		// No row sorter: sorting would read every individual. The rows are
+		// ordered by ID.
 		// Set the column widths: ID
 		this.getColumnModel().getColumn(0).setMaxWidth(60);
 		// Set the column widths: Seat
@@ -53,85 +57,69 @@ public class IndividualTable extends JTable {
 	}
 
 	/**
-	 * Displays the primary data of the given individuals in the table, one
-	 * individual per row.
-	 * 
-	 * @param individuals The list of individuals.
-	 * @param venues The list of venues so that individual can be dispalyed
-	 *            nicely
+	 * Shows all the individuals in the database, replacing the rows shown so
+	 * far.
 	 */
-	public void displayIndividuals(final List<Individual> individuals,
-			final List<Venue> venues) {
-		// Go through all individuals, get their fields and display
-		for (final Individual i : individuals) {
-			this.displayIndividual(i, venues);
-		}
+	public void showAllIndividuals() {
+		this.model.show(null);
 	}
 
 	/**
-	 * Displays the primary data of the given individual in the table. If there
-	 * are any data in the table this row is appended.
+	 * Shows the individuals attending the given show, replacing the rows shown
+	 * so far. Recently viewed shows are shown straight away, others once their
+	 * first rows have been read in the background.
 	 * 
-	 * @param i The individual to be included in the table.
-	 * @param venues The list of venues so that individual can be dispalyed
-	 *            nicely
+	 * @param show The show whose audience to show.
 	 */
-	public void displayIndividual(final Individual i, final List<Venue> venues) {
-		final long ID = i.getId();
-		final String firstName = i.getFirstName();
-		final String lastName = i.getLastName();
-		final String email = i.getEmail();
-		final String eventDate;
-		final int venueID = i.getEventVenue();
-		final String venueName = this.getVenueName(venueID, venues);
+	public void showShow(final Show show) {
+		this.model.show(show);
+	}
 
-		// Handle cases with no date specified
-		if (i.getEventDate() != null) {
-			final SimpleDateFormat sdf = new SimpleDateFormat(
-					Strings.GUI_DATE_FORMAT);
-			eventDate = sdf.format(i.getEventDate());
-		}
-		else {
-			eventDate = "";
-		}
-		final String seat = i.getSeat();
+	/**
+	 * Reads all the individuals in the database again and shows them.
+	 */
+	public void refresh() {
+		this.model.refresh();
+	}
 
-		// Add row to the table
-		model.addRow(new Object[] { ID, firstName, lastName, email, venueName,
-				eventDate, seat });
+	/**
+	 * Appends rows for individuals that have just been stored in the database.
+	 * 
+	 * @param venue The ID of the venue of the show the individuals attend.
+	 * @param date The date of the show.
+	 * @param count The number of new individuals at the show.
+	 */
+	public void appendIndividuals(final int venue, final Date date,
+			final int count) {
+		this.model.appendIndividuals(venue, date, count);
 	}
 
 	/**
-	 * Clears all the rows in the table.
+	 * Appends a row for an individual that has just been stored in the
+	 * database.
+	 * 
+	 * @param i The new individual, with its ID.
 	 */
-	public void clearTable() {
-		model.setRowCount(0);
+	public void appendIndividual(final Individual i) {
+		this.model.appendIndividuals(i.getEventVenue(), i.getEventDate(), 1);
 	}
 
 	/**
-	 * Returns ID of individual that is on the selected row.
+	 * Sets the venues so that individuals can be displayed nicely.
 	 * 
-	 * @return The ID of the individual on the currently selected row. If no row
-	 *         selected, returns -1.
+	 * @param venues The list of all venues.
 	 */
-	public long getSelectedIndividualID() {
-		final int selectedRow = this.getSelectedRow();
-		// No row selected
-		if (selectedRow == -1) {
-			return -1;
-		}
-		return (Long) this.getValueAt(this.getSelectedRow(), 0);
+	public void setVenues(final List<Venue> venues) {
+		this.model.setVenues(venues);
 	}
 
 	/**
-	 * Returns name of the venue with the givemn ID.
+	 * Returns ID of individual that is on the selected row.
+	 * 
+	 * @return The ID of the individual on the currently selected row. If no row
+	 *         selected, or the row has not been read yet, returns -1.
 	 */
-	private String getVenueName(final int venueID, final List<Venue> venues) {
-		for (final Venue v : venues) {
-			if (v.getId() == venueID) {
-				return v.getName();
-			}
-		}
-		return null;
+	public long getSelectedIndividualID() {
+		return this.model.getIndividualId(this.getSelectedRow());
 	}
 }
@@ -0,0 +1,410 @@
+package uk.ac.cam.darknet.gui;
+
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+
+import javax.swing.SwingWorker;
+import javax.swing.table.AbstractTableModel;
+
+import uk.ac.cam.darknet.common.Individual;
+import uk.ac.cam.darknet.common.LoggerFactory;
+import uk.ac.cam.darknet.common.Show;
+import uk.ac.cam.darknet.common.Strings;
+import uk.ac.cam.darknet.common.Venue;
+import uk.ac.cam.darknet.database.DatabaseManager;
+
+/**
+ * A table model showing the individuals in the database, or those attending a
+ * show, without loading all of them. Rows are read from the database a page at
+ * a time, in order of ID, when the table first asks for them, and only the
+ * most recently used pages are kept. Pages are read in the background, along
+ * with the page after them, and their rows stay empty until they have arrived.
+ * 
+ * A page is read from the ID of the last individual on the page before it, so
+ * that every page is read equally fast. The start of a page reached by
+ * jumping, such as by dragging the scroll bar, is looked up once and then
+ * remembered.
+ * 
+ * When another show is chosen, its individuals are counted and its first
+ * pages read in the background before the table switches to it. The last few
+ * shows viewed are kept with their pages, so switching back to one of them is
+ * immediate.
+ */
+public class IndividualTableModel extends AbstractTableModel {
+	private static final long serialVersionUID = 1L;
+	// Names of the columns in the table
+	private static final String[] columns = { "ID", "First name", "Last name",
+			"Email", "Venue", "Show date", "Seat" };
+	private static final int PAGE_SIZE = 100;
+	private static final int CACHED_PAGES = 20;
+	private static final int PREFETCHED_PAGES = 2;
+	private static final int RECENT_VIEWS = 5;
+	private final DatabaseManager dbm;
+	// The views of the shows viewed most recently, the current one first
+	private final ArrayDeque<View> recentViews = new ArrayDeque<>();
+	private final Map<Integer, String> venueNames = new HashMap<>();
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat(
+			Strings.GUI_DATE_FORMAT);
+	private View view;
+	// Changes whenever another show is chosen, so that late views are not
+	// shown
+	private int request;
+
+	/**
+	 * Creates an empty model.
+	 * 
+	 * @param dbm The database manager the individuals are read with, or null
+	 *            if there is no database.
+	 */
+	public IndividualTableModel(final DatabaseManager dbm) {
+		this.dbm = dbm;
+	}
+
+	/**
+	 * Shows the individuals attending the given show. If the show has been
+	 * viewed recently it is shown straight away, otherwise it is shown once
+	 * its first pages have been read in the background.
+	 * 
+	 * @param show The show, or null for all the individuals in the database.
+	 */
+	public void show(final Show show) {
+		this.request++;
+		final Iterator<View> views = this.recentViews.iterator();
+		View recent;
+		while (views.hasNext()) {
+			recent = views.next();
+			if (recent.isOf(show)) {
+				views.remove();
+				this.setView(recent);
+				return;
+			}
+		}
+		if (this.dbm != null) {
+			new ViewLoader(show, this.request).execute();
+		}
+	}
+
+	/**
+	 * Forgets the shows viewed so far and reads all the individuals again.
+	 */
+	public void refresh() {
+		this.recentViews.clear();
+		this.show(null);
+	}
+
+	/**
+	 * Adds rows for individuals that have just been stored in the database to
+	 * the end of the table, if they attend the show being viewed. As new
+	 * individuals get the highest IDs, they come last when read from the
+	 * database, too. Only the number of new individuals is needed, as their
+	 * rows are read from the database when they are shown.
+	 * 
+	 * @param venue The ID of the venue of the show the individuals attend.
+	 * @param date The date of the show.
+	 * @param count The number of new individuals.
+	 */
+	public void appendIndividuals(final int venue, final Date date,
+			final int count) {
+		if (this.view == null) {
+			return;
+		}
+		// Other shows viewed may have changed as well
+		this.recentViews.clear();
+		this.recentViews.add(this.view);
+		if (count > 0 && this.view.includes(venue, date)) {
+			this.view.append(count);
+			this.fireTableRowsInserted(this.view.rowCount - count,
+					this.view.rowCount - 1);
+		}
+	}
+
+	/**
+	 * Sets the venues whose names are shown in the venue column.
+	 * 
+	 * @param venues All the venues.
+	 */
+	public void setVenues(final List<Venue> venues) {
+		this.venueNames.clear();
+		for (final Venue v : venues) {
+			this.venueNames.put(v.getId(), v.getName());
+		}
+		if (this.getRowCount() > 0) {
+			this.fireTableRowsUpdated(0, this.getRowCount() - 1);
+		}
+	}
+
+	/**
+	 * Returns the ID of the individual on the given row.
+	 * 
+	 * @param row The row.
+	 * @return The ID, or -1 if the row has not been read yet.
+	 */
+	public long getIndividualId(final int row) {
+		final Individual i = this.getIndividual(row);
+		return i == null ? -1 : i.getId();
+	}
+
+	@Override
+	public int getRowCount() {
+		return this.view == null ? 0 : this.view.rowCount;
+	}
+
+	@Override
+	public int getColumnCount() {
+		return columns.length;
+	}
+
+	@Override
+	public String getColumnName(final int column) {
+		return columns[column];
+	}
+
+	@Override
+	public Class<?> getColumnClass(final int column) {
+		return column == 0 ? Long.class : String.class;
+	}
+
+	@Override
+	public Object getValueAt(final int row, final int column) {
+		final Individual i = this.getIndividual(row);
+		if (i == null) {
+			return null;
+		}
+		switch (column) {
+		case 0:
+			return i.getId();
+		case 1:
+			return i.getFirstName();
+		case 2:
+			return i.getLastName();
+		case 3:
+			return i.getEmail();
+		case 4:
+			return this.venueNames.get(i.getEventVenue());
+		case 5:
+			// Handle cases with no date specified
+			return i.getEventDate() == null ? "" : this.dateFormat.format(i
+					.getEventDate());
+		default:
+			return i.getSeat();
+		}
+	}
+
+	private void setView(final View newView) {
+		this.view = newView;
+		this.recentViews.addFirst(newView);
+		while (this.recentViews.size() > RECENT_VIEWS) {
+			this.recentViews.removeLast();
+		}
+		this.fireTableDataChanged();
+	}
+
+	// Returns the individual on the row, or null if its page is still being
+	// read.
+	private Individual getIndividual(final int row) {
+		if (row < 0 || row >= this.getRowCount()) {
+			return null;
+		}
+		final int page = row / PAGE_SIZE;
+		final List<Individual> individuals = this.view.pages.get(page);
+		if (individuals == null) {
+			this.load(this.view, page);
+			// Read ahead, as the table is most likely scrolled on
+			if ((page + 1) * PAGE_SIZE < this.view.rowCount
+					&& !this.view.pages.containsKey(page + 1)) {
+				this.load(this.view, page + 1);
+			}
+			return null;
+		}
+		return row % PAGE_SIZE < individuals.size() ? individuals.get(row
+				% PAGE_SIZE) : null;
+	}
+
+	private void load(final View pageView, final int page) {
+		if (pageView.loading.add(page)) {
+			new PageLoader(pageView, page).execute();
+		}
+	}
+
+	/**
+	 * The individuals attending a show, or all of them, as far as they have
+	 * been read. Views are only used on the event dispatch thread once they
+	 * have been loaded.
+	 */
+	private static class View {
+		private final Show show;
+		private int rowCount;
+		// The most recently used pages, by page number
+		private final Map<Integer, List<Individual>> pages = new LinkedHashMap<Integer, List<Individual>>(
+				CACHED_PAGES, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					final Map.Entry<Integer, List<Individual>> eldest) {
+				return this.size() > CACHED_PAGES;
+			}
+		};
+		// The ID after which each known page starts, by page number
+		private final TreeMap<Integer, Long> pageStarts = new TreeMap<>();
+		private final Set<Integer> loading = new HashSet<>();
+
+		View(final Show show, final int rowCount) {
+			this.show = show;
+			this.rowCount = rowCount;
+			this.pageStarts.put(0, Long.MIN_VALUE);
+		}
+
+		boolean isOf(final Show other) {
+			if (this.show == null || other == null) {
+				return this.show == other;
+			}
+			return this.show.getVenue().getId() == other.getVenue().getId()
+					&& Show.toSeconds(this.show.getDate()) == Show
+							.toSeconds(other.getDate());
+		}
+
+		boolean includes(final int venue, final Date date) {
+			return this.show == null
+					|| (this.show.getVenue().getId() == venue && date != null
+							&& Show.toSeconds(this.show.getDate()) == Show
+									.toSeconds(date));
+		}
+
+		void pageLoaded(final int page, final long start,
+				final List<Individual> individuals) {
+			this.loading.remove(page);
+			if (!individuals.isEmpty()) {
+				this.pageStarts.put(page, start);
+			}
+			if (individuals.size() == PAGE_SIZE) {
+				this.pageStarts.put(page + 1, individuals.get(PAGE_SIZE - 1)
+						.getId());
+			}
+			this.pages.put(page, individuals);
+		}
+
+		void append(final int count) {
+			// The last page may have been short; it is read again
+			this.pages.remove((this.rowCount - 1) / PAGE_SIZE);
+			this.pageStarts.tailMap(this.rowCount / PAGE_SIZE + 1).clear();
+			this.rowCount += count;
+		}
+	}
+
+	/**
+	 * Counts the individuals of a show and reads its first pages in the
+	 * background, then shows it unless another show has been chosen since.
+	 */
+	private class ViewLoader extends SwingWorker<View, Void> {
+		private final Show show;
+		private final int request;
+
+		ViewLoader(final Show show, final int request) {
+			this.show = show;
+			this.request = request;
+		}
+
+		@Override
+		protected View doInBackground() throws SQLException {
+			final DatabaseManager dbm = IndividualTableModel.this.dbm;
+			final View loaded = new View(this.show,
+					dbm.countIndividuals(this.show));
+			List<Individual> individuals;
+			long start = Long.MIN_VALUE;
+			for (int page = 0; page < PREFETCHED_PAGES
+					&& page * PAGE_SIZE < loaded.rowCount; page++) {
+				individuals = dbm.getIndividualsAfter(this.show, start,
+						PAGE_SIZE);
+				loaded.pageLoaded(page, start, individuals);
+				if (individuals.size() < PAGE_SIZE) {
+					break;
+				}
+				start = individuals.get(PAGE_SIZE - 1).getId();
+			}
+			return loaded;
+		}
+
+		@Override
+		protected void done() {
+			final IndividualTableModel model = IndividualTableModel.this;
+			try {
+				if (this.request == model.request) {
+					model.setView(this.get());
+				}
+			}
+			catch (InterruptedException | ExecutionException e) {
+				LoggerFactory.getLogger().log(Level.WARNING,
+						"Could not read the individuals", e);
+			}
+		}
+	}
+
+	/**
+	 * Reads a page of a view in the background, starting from the nearest
+	 * page before it whose start is known.
+	 */
+	private class PageLoader extends SwingWorker<List<Individual>, Void> {
+		private final View pageView;
+		private final int page;
+		private final int knownPage;
+		private final long knownStart;
+		private long start;
+
+		PageLoader(final View pageView, final int page) {
+			final Map.Entry<Integer, Long> known = pageView.pageStarts
+					.floorEntry(page);
+			this.pageView = pageView;
+			this.page = page;
+			this.knownPage = known.getKey();
+			this.knownStart = known.getValue();
+		}
+
+		@Override
+		protected List<Individual> doInBackground() throws SQLException {
+			final DatabaseManager dbm = IndividualTableModel.this.dbm;
+			this.start = dbm.getPageStart(this.pageView.show, this.knownStart,
+					(this.page - this.knownPage) * PAGE_SIZE);
+			if (this.start == -1) {
+				return Collections.emptyList();
+			}
+			return dbm.getIndividualsAfter(this.pageView.show, this.start,
+					PAGE_SIZE);
+		}
+
+		@Override
+		protected void done() {
+			final IndividualTableModel model = IndividualTableModel.this;
+			List<Individual> individuals;
+			try {
+				individuals = this.get();
+			}
+			catch (InterruptedException | ExecutionException e) {
+				// Leave the rows empty until the page is dropped
+				LoggerFactory.getLogger().log(Level.WARNING,
+						"Could not read page " + this.page + " of individuals", e);
+				individuals = Collections.emptyList();
+			}
+			this.pageView.pageLoaded(this.page, this.start, individuals);
+			final int firstRow = this.page * PAGE_SIZE;
+			final int lastRow = Math.min(firstRow + PAGE_SIZE,
+					this.pageView.rowCount) - 1;
+			if (this.pageView == model.view && firstRow <= lastRow) {
+				model.fireTableRowsUpdated(firstRow, lastRow);
+			}
+		}
+	}
+}
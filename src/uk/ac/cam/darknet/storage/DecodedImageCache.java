@@ -0,0 +1,108 @@
+package uk.ac.cam.darknet.storage;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least recently used cache of decoded images, bounded by the number of
+ * bytes their pixels take up in memory. It is shared by all image storages, so
+ * that effects running one after another do not decode the same files again.
+ *
+ * The cached images are shared by everyone who retrieves them and must not be
+ * modified. The class is thread-safe.
+ */
+class DecodedImageCache {
+	private final LinkedHashMap<String, BufferedImage> images = new LinkedHashMap<String, BufferedImage>(
+			16, 0.75f, true);
+	private long capacity;
+	private long size;
+	private long hits;
+	private long misses;
+
+	/**
+	 * Creates a new cache holding at most the given number of bytes of pixel
+	 * data.
+	 *
+	 * @param capacity The capacity of the cache in bytes.
+	 */
+	DecodedImageCache(final long capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns the image cached under the given key and marks it as recently
+	 * used.
+	 *
+	 * @param key The key of the image.
+	 * @return The image, or null if it is not cached.
+	 */
+	synchronized BufferedImage get(final String key) {
+		final BufferedImage image = this.images.get(key);
+		if (image == null) {
+			this.misses++;
+		}
+		else {
+			this.hits++;
+		}
+		return image;
+	}
+
+	/**
+	 * Caches an image, evicting the least recently used images until it fits.
+	 * Images larger than the whole cache are not cached.
+	 *
+	 * @param key The key of the image.
+	 * @param image The decoded image.
+	 */
+	synchronized void put(final String key, final BufferedImage image) {
+		final long bytes = sizeOf(image);
+		if (bytes > this.capacity) {
+			return;
+		}
+		final BufferedImage previous = this.images.put(key, image);
+		if (previous != null) {
+			this.size -= sizeOf(previous);
+		}
+		this.size += bytes;
+		this.evict();
+	}
+
+	/**
+	 * Changes the capacity of the cache, evicting images if it shrinks.
+	 *
+	 * @param capacity The new capacity in bytes. 0 disables the cache.
+	 */
+	synchronized void setCapacity(final long capacity) {
+		this.capacity = capacity;
+		this.evict();
+	}
+
+	synchronized long getHits() {
+		return this.hits;
+	}
+
+	synchronized long getMisses() {
+		return this.misses;
+	}
+
+	private void evict() {
+		final Iterator<Map.Entry<String, BufferedImage>> eldest = this.images
+				.entrySet().iterator();
+		while (this.size > this.capacity && eldest.hasNext()) {
+			this.size -= sizeOf(eldest.next().getValue());
+			eldest.remove();
+		}
+	}
+
+	/**
+	 * Returns the number of bytes taken up by the pixels of an image.
+	 */
+	private static long sizeOf(final BufferedImage image) {
+		final DataBuffer buffer = image.getRaster().getDataBuffer();
+		return (long) buffer.getSize() * buffer.getNumBanks()
+				* DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+	}
+}
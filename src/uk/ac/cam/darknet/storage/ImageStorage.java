@@ -1,10 +1,24 @@
 package uk.ac.cam.darknet.storage;
 
+import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.UUID;
 
 import javax.imageio.ImageIO;
@@ -15,8 +29,18 @@ import javax.imageio.ImageIO;
  * the storage. The images are stored in one folder with the unique ID being
  * their name.
  * 
- * The UUID is generated using java.util.UUID. For convenience, all images are
- * stored as jpg files.
+ * Images downloaded from an URL are streamed to disk as they are, without
+ * being decoded. Their ID is the SHA-1 hash of their content followed by their
+ * format, which is determined from the first bytes of the file, so an image
+ * that has already been stored is not stored again. Images in a format other
+ * than jpg, png or gif are converted into jpg files. Older images are named by
+ * a random UUID generated using java.util.UUID and can still be retrieved.
+ * 
+ * Images can also be retrieved scaled down to fit a given size. Such
+ * thumbnails are generated on first request and kept in the
+ * <code>thumbnails/</code> folder of the storage. Decoded images and
+ * thumbnails are kept in memory in a least recently used cache shared by all
+ * image storages, bounded by the number of bytes of their pixels.
  * 
  * The class is thread-safe.
  * 
@@ -26,6 +50,16 @@ import javax.imageio.ImageIO;
 public class ImageStorage {
 	// The path to the folder which stores all the images
 	private final String storagePath;
+	// Size of the buffer used to stream images to disk
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// Hash function naming the images by their content
+	private static final String HASH_ALGORITHM = "SHA-1";
+	// Folder of the storage containing the thumbnails, one folder per size
+	private static final String THUMBNAIL_FOLDER = "thumbnails/";
+	// Default capacity of the decoded image cache in bytes
+	private static final long DEFAULT_CACHE_CAPACITY = 64L * 1024 * 1024;
+	private static final DecodedImageCache cache = new DecodedImageCache(
+			DEFAULT_CACHE_CAPACITY);
 
 	/**
 	 * Creates a new image storage located at the given path.
@@ -46,23 +80,35 @@ public class ImageStorage {
 	}
 
 	/**
-	 * Parse the URL and determine the format of the image.
+	 * Determine the format of the image from its first bytes (its magic
+	 * number). Returns null if the format is not jpg, png or gif.
 	 */
-	private String determineFormat(final URL imageURL) {
-		final String url = imageURL.toString();
-		if (url.endsWith(".jpg")) {
+	private String determineFormat(final ByteBuffer header) {
+		if (startsWith(header, 0xFF, 0xD8, 0xFF)) {
 			return "jpg";
 		}
-		else if (url.endsWith(".png")) {
+		else if (startsWith(header, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
 			return "png";
 		}
-		else if (url.endsWith(".gif")) {
+		else if (startsWith(header, 'G', 'I', 'F', '8')) {
 			return "gif";
 		}
-		// Default: Pretend it's jpg
 		else {
-			return "jpg";
+			return null;
+		}
+	}
+
+	private static boolean startsWith(final ByteBuffer header,
+			final int... magic) {
+		if (header.limit() < magic.length) {
+			return false;
+		}
+		for (int i = 0; i < magic.length; i++) {
+			if ((header.get(i) & 0xFF) != magic[i]) {
+				return false;
+			}
 		}
+		return true;
 	}
 
 	/**
@@ -73,9 +119,11 @@ public class ImageStorage {
 	}
 
 	/**
-	 * Retrieves image from the given URL, generates a unique name for it,
-	 * converts it into a jpg and saves it in the storage. The image can be
-	 * retrieved from the storage using the <code>retrieveImage()</code> method.
+	 * Retrieves image from the given URL and streams it into the storage
+	 * without decoding it. The image is named by the hash of its content, so if
+	 * the same image has already been stored, it is not stored again and the
+	 * existing identifier is returned. The image can be retrieved from the
+	 * storage using the <code>retrieveImage()</code> method.
 	 * 
 	 * @param imageURL The URL where the image is.
 	 * @return The unique identifier of the image
@@ -83,10 +131,62 @@ public class ImageStorage {
 	 *             error saving it into the storage.
 	 */
 	public String saveImage(final URL imageURL) throws IOException {
-		// Read the image from the given URL, throws IOException if error
-		final BufferedImage image = ImageIO.read(imageURL);
-		// Get the format of the image (jpg/png/gif otherwise jpg)
-		final String format = this.determineFormat(imageURL);
+		final Path storage = Paths.get(this.storagePath);
+		Files.createDirectories(storage);
+		// Download into a temporary file first, so that other threads never
+		// see an image that has only been written partially
+		final Path download = Files.createTempFile(storage, "download", ".tmp");
+		try {
+			final MessageDigest digest = newDigest();
+			final ByteBuffer header = ByteBuffer.allocate(8);
+			try (InputStream in = imageURL.openStream();
+					ReadableByteChannel source = Channels.newChannel(in);
+					FileChannel target = FileChannel.open(download,
+							StandardOpenOption.WRITE)) {
+				final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+				while (source.read(buffer) != -1) {
+					buffer.flip();
+					// Keep the first bytes to determine the format
+					while (header.hasRemaining() && buffer.hasRemaining()) {
+						header.put(buffer.get());
+					}
+					buffer.rewind();
+					digest.update(buffer);
+					buffer.rewind();
+					while (buffer.hasRemaining()) {
+						target.write(buffer);
+					}
+					buffer.clear();
+				}
+			}
+			header.flip();
+			final String format = this.determineFormat(header);
+			if (format == null) {
+				return this.saveReencoded(download.toFile());
+			}
+			final String imageId = toHex(digest.digest()) + "-" + format;
+			final Path imageFile = storage.resolve(imageId + "." + format);
+			if (!Files.exists(imageFile)) {
+				Files.move(download, imageFile,
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+			return imageId;
+		}
+		finally {
+			Files.deleteIfExists(download);
+		}
+	}
+
+	/**
+	 * Decodes an image in a format that is not stored as it is and saves it as
+	 * a jpg file with a random UUID.
+	 */
+	private String saveReencoded(final File source) throws IOException {
+		final BufferedImage image = ImageIO.read(source);
+		if (image == null) {
+			throw new IOException("Unsupported image format: " + source);
+		}
+		final String format = "jpg";
 		// Generate unique name for the image and append also the format
 		final String imageUUID = UUID.randomUUID().toString() + "-" + format;
 		// Create the new file that will contain the image
@@ -97,8 +197,27 @@ public class ImageStorage {
 		return imageUUID;
 	}
 
+	private static MessageDigest newDigest() throws IOException {
+		try {
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		}
+		catch (final NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static String toHex(final byte[] bytes) {
+		final StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (final byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
 	/**
-	 * Retrieves an image with the given UUID from the storage
+	 * Retrieves an image with the given UUID from the storage. The returned
+	 * image may be shared with other callers and must not be modified.
 	 * 
 	 * @param UUID The UUID of the image
 	 * @return The Image with such UUID, throws exception otherwise.
@@ -107,14 +226,144 @@ public class ImageStorage {
 	 *             the path of the storage might be corrupted).
 	 */
 	public Image retreiveImage(final String UUID) throws IOException {
-		// Determine the format
-		final String format = this.getFormatFromUUID(UUID);
-		// Get the image file
-		System.out.println(this.storagePath + UUID + "." + format);
-		final File imageFile = new File(this.storagePath + UUID + "." + format);
-		// Load the image from the file
+		final String key = this.storagePath + UUID;
+		BufferedImage image = cache.get(key);
+		if (image == null) {
+			// Determine the format
+			final String format = this.getFormatFromUUID(UUID);
+			// Get the image file
+			final File imageFile = new File(this.storagePath + UUID + "."
+					+ format);
+			// Load the image from the file
+			image = read(imageFile);
+			cache.put(key, image);
+		}
+		return image;
+	}
+
+	/**
+	 * Retrieves an image with the given UUID from the storage, scaled down to
+	 * fit into a square of the given size while keeping its aspect ratio.
+	 * Images that already fit are returned as they are. The thumbnail is stored
+	 * when first requested, so the original only has to be decoded once for
+	 * every size. The returned image may be shared with other callers and must
+	 * not be modified.
+	 * 
+	 * @param UUID The UUID of the image
+	 * @param size The maximum width and height of the image in pixels.
+	 * @return The image scaled to the given size.
+	 * @throws IOException If the file with such UUID doesn't exist or there has
+	 *             been some other error while reading from the storage.
+	 */
+	public BufferedImage retrieveImage(final String UUID, final int size)
+			throws IOException {
+		final String key = this.storagePath + UUID + "@" + size;
+		BufferedImage thumbnail = cache.get(key);
+		if (thumbnail != null) {
+			return thumbnail;
+		}
+		final String format = this.getFormatFromUUID(UUID).equals("jpg") ? "jpg"
+				: "png";
+		final File thumbnailFile = new File(this.storagePath + THUMBNAIL_FOLDER
+				+ size + "/" + UUID + "." + format);
+		if (thumbnailFile.exists()) {
+			thumbnail = read(thumbnailFile);
+		}
+		else {
+			final BufferedImage image = (BufferedImage) this
+					.retreiveImage(UUID);
+			if (image.getWidth() <= size && image.getHeight() <= size) {
+				return image;
+			}
+			thumbnail = scale(image, size, format.equals("png"));
+			this.writeThumbnail(thumbnail, format, thumbnailFile);
+		}
+		cache.put(key, thumbnail);
+		return thumbnail;
+	}
+
+	/**
+	 * Sets the number of bytes of pixel data that all image storages keep in
+	 * memory. The default is 64 MB.
+	 * 
+	 * @param bytes The capacity of the cache. 0 disables the cache.
+	 */
+	public static void setCacheCapacity(final long bytes) {
+		cache.setCapacity(bytes);
+	}
+
+	/**
+	 * Returns the number of images found in the memory cache so far.
+	 * 
+	 * @return The number of cache hits.
+	 */
+	public static long getCacheHits() {
+		return cache.getHits();
+	}
+
+	/**
+	 * Returns the number of images that had to be read from disk so far.
+	 * 
+	 * @return The number of cache misses.
+	 */
+	public static long getCacheMisses() {
+		return cache.getMisses();
+	}
+
+	private static BufferedImage read(final File imageFile) throws IOException {
 		final BufferedImage image = ImageIO.read(imageFile);
+		if (image == null) {
+			throw new IOException("Unsupported image format: " + imageFile);
+		}
+		return image;
+	}
 
+	/**
+	 * Scales an image down to fit into a square of the given size. The image is
+	 * halved repeatedly before the last step, which keeps bilinear
+	 * interpolation from dropping detail.
+	 */
+	private static BufferedImage scale(BufferedImage image, final int size,
+			final boolean alpha) {
+		final double factor = Math.min((double) size / image.getWidth(),
+				(double) size / image.getHeight());
+		final int width = Math.max(1, (int) Math.round(image.getWidth() * factor));
+		final int height = Math.max(1,
+				(int) Math.round(image.getHeight() * factor));
+		int currentWidth = image.getWidth();
+		int currentHeight = image.getHeight();
+		do {
+			currentWidth = Math.max(width, currentWidth / 2);
+			currentHeight = Math.max(height, currentHeight / 2);
+			final BufferedImage step = new BufferedImage(currentWidth,
+					currentHeight, alpha ? BufferedImage.TYPE_INT_ARGB
+							: BufferedImage.TYPE_INT_RGB);
+			final Graphics2D g2d = step.createGraphics();
+			g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+					RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g2d.drawImage(image, 0, 0, currentWidth, currentHeight, null);
+			g2d.dispose();
+			image = step;
+		} while (currentWidth != width || currentHeight != height);
 		return image;
 	}
+
+	/**
+	 * Writes a thumbnail to a temporary file first, so that other threads never
+	 * read a thumbnail that has only been written partially.
+	 */
+	private void writeThumbnail(final BufferedImage thumbnail,
+			final String format, final File thumbnailFile) throws IOException {
+		final Path folder = thumbnailFile.getParentFile().toPath();
+		Files.createDirectories(folder);
+		final Path temporary = Files.createTempFile(folder, "thumbnail", ".tmp");
+		try {
+			ImageIO.write(thumbnail, format, temporary.toFile());
+			Files.move(temporary, thumbnailFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
 }
@@ -0,0 +1,161 @@
+package uk.ac.cam.darknet.tests;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.List;
+
+import uk.ac.cam.darknet.common.AttributeCategories;
+import uk.ac.cam.darknet.common.Individual;
+import uk.ac.cam.darknet.common.Show;
+import uk.ac.cam.darknet.common.Venue;
+import uk.ac.cam.darknet.database.DatabaseManager;
+import uk.ac.cam.darknet.database.PrimaryDatabaseManager;
+import uk.ac.cam.darknet.database.SecondaryDatabaseManager;
+import uk.ac.cam.darknet.exceptions.ConfigFileNotFoundException;
+import uk.ac.cam.darknet.exceptions.InvalidAttributeTypeException;
+import uk.ac.cam.darknet.exceptions.InvalidReliabilityException;
+import uk.ac.cam.darknet.exceptions.UnknownAttributeException;
+
+/**
+ * Compares the old way of loading attributes (one query per individual per attribute table) with
+ * the set-based loaders of the database manager on a synthetic show of 10,000 individuals. It runs
+ * against the database configured in <code>res/dbconfig.txt</code> and removes the synthetic show
+ * again when done.
+ */
+public class AttributeLoadingBenchmark {
+	private static final int	INDIVIDUALS	= 10000;
+	private static final int	RUNS		= 3;
+
+	/**
+	 * @param args
+	 *            The arguments are ignored.
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Hashtable<String, AttributeCategories> globalAttributeTable = new Hashtable<String, AttributeCategories>();
+		globalAttributeTable.put("fb_photo", AttributeCategories.PHOTO);
+		globalAttributeTable.put("fb_gender", AttributeCategories.GENDER);
+		globalAttributeTable.put("fb_locale", AttributeCategories.LOCALE);
+		globalAttributeTable.put("fb_birthday", AttributeCategories.BIRTHDAY);
+		globalAttributeTable.put("fb_relationshipStatus", AttributeCategories.RELATIONSHIP_STATUS);
+		PrimaryDatabaseManager pdbm = new PrimaryDatabaseManager(globalAttributeTable);
+		SecondaryDatabaseManager sdbm = new SecondaryDatabaseManager(globalAttributeTable);
+		LegacyDatabaseManager legacy = new LegacyDatabaseManager(globalAttributeTable);
+		String venueName = "Benchmark " + System.currentTimeMillis();
+		int venueId = pdbm.createVenue(venueName);
+		// Shows are stored with a precision of one second.
+		Show show = new Show(new Date(Show.toSeconds(new Date()) * 1000), new Venue(venueId, venueName));
+		try {
+			List<Individual> individuals = createShow(pdbm, sdbm, show, globalAttributeTable);
+			System.out.println("Loading attributes for " + individuals.size() + " individuals.");
+			for (int run = 1; run <= RUNS; run++) {
+				long start = System.nanoTime();
+				legacy.getAllAttributesOneByOne(individuals);
+				long legacyTime = System.nanoTime() - start;
+				int legacyCount = countAttributes(individuals);
+				start = System.nanoTime();
+				sdbm.getAllAttributes(individuals);
+				long byIdTime = System.nanoTime() - start;
+				int byIdCount = countAttributes(individuals);
+				start = System.nanoTime();
+				sdbm.getAllAttributes(individuals, show);
+				long byShowTime = System.nanoTime() - start;
+				int byShowCount = countAttributes(individuals);
+				System.out.println("Run " + run + ": one-by-one " + legacyTime / 1000000 + " ms (" + legacyCount + " attributes), by ID " + byIdTime / 1000000 + " ms (" + byIdCount + " attributes), by show " + byShowTime / 1000000 + " ms (" + byShowCount + " attributes)");
+			}
+		} finally {
+			legacy.deleteVenue(venueId);
+			legacy.closeConnection();
+			pdbm.closeConnection();
+			sdbm.closeConnection();
+		}
+	}
+
+	private static List<Individual> createShow(PrimaryDatabaseManager pdbm, SecondaryDatabaseManager sdbm, Show show, Hashtable<String, AttributeCategories> globalAttributeTable) throws SQLException, UnknownAttributeException, InvalidAttributeTypeException, InvalidReliabilityException {
+		List<Individual> individuals = new ArrayList<Individual>();
+		for (int i = 0; i < INDIVIDUALS; i++) {
+			individuals.add(Individual.getNewIndividual("First" + i, "Last" + i, "benchmark" + i + "@example.org", show.getDate(), show.getVenue().getId(), Integer.toString(i), globalAttributeTable));
+		}
+		pdbm.storeIndividual(individuals);
+		individuals = pdbm.getByShow(show);
+		for (int i = 0; i < individuals.size(); i++) {
+			Individual current = individuals.get(i);
+			current.addAttribute("fb_gender", i % 2 == 0 ? "female" : "male", 0.8);
+			current.addAttribute("fb_locale", "en_GB", 1.0);
+			if (i % 2 == 0) {
+				current.addAttribute("fb_photo", "benchmark" + i + "a-jpg", 0.8);
+				current.addAttribute("fb_photo", "benchmark" + i + "b-jpg", 0.8);
+			}
+		}
+		sdbm.storeAttributes(individuals);
+		return individuals;
+	}
+
+	private static int countAttributes(List<Individual> individuals) {
+		int count = 0;
+		Enumeration<String> keys;
+		for (Individual current : individuals) {
+			keys = current.getProperties().keys();
+			while (keys.hasMoreElements()) {
+				count += current.getAttribute(keys.nextElement()).size();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Database manager that still loads attributes the way <code>getAllAttributes</code> used to.
+	 */
+	private static class LegacyDatabaseManager extends DatabaseManager {
+		private static final String	GET_ATTRIBUTE		= "SELECT attribute, reliability FROM %1$s WHERE id = ?";
+		private static final String	DELETE_INDIVIDUALS	= "DELETE FROM individuals WHERE venue = ?";
+		private static final String	DELETE_SHOWS		= "DELETE FROM shows WHERE venue = ?";
+		private static final String	DELETE_VENUE		= "DELETE FROM venues WHERE id = ?";
+
+		LegacyDatabaseManager(Hashtable<String, AttributeCategories> globalAttributeTable) throws ConfigFileNotFoundException, IOException, ClassNotFoundException, SQLException {
+			super(globalAttributeTable);
+		}
+
+		void getAllAttributesOneByOne(List<Individual> individuals) throws SQLException, UnknownAttributeException, InvalidAttributeTypeException, InvalidReliabilityException {
+			Enumeration<String> attributes = this.globalAttributeTable.keys();
+			String currentAttributeName;
+			Class<?> currentType;
+			for (Individual currentIndividual : individuals) {
+				currentIndividual.clearAttributes();
+			}
+			while (attributes.hasMoreElements()) {
+				currentAttributeName = attributes.nextElement();
+				currentType = this.globalAttributeTable.get(currentAttributeName).getAttributeType();
+				try (Connection connection = this.getConnection(); PreparedStatement stmt = connection.prepareStatement(String.format(GET_ATTRIBUTE, currentAttributeName));) {
+					for (Individual currentIndividual : individuals) {
+						stmt.setLong(1, currentIndividual.getId());
+						try (ResultSet resultSet = stmt.executeQuery();) {
+							while (resultSet.next()) {
+								currentIndividual.addAttribute(currentAttributeName, currentType.cast(resultSet.getObject(1, currentType)), resultSet.getDouble(2));
+							}
+						}
+					}
+				}
+			}
+		}
+
+		void deleteVenue(int venueId) throws SQLException {
+			try (Connection connection = this.getConnection();) {
+				for (String statement : new String[] { DELETE_INDIVIDUALS, DELETE_SHOWS, DELETE_VENUE }) {
+					try (PreparedStatement stmt = connection.prepareStatement(statement);) {
+						stmt.setInt(1, venueId);
+						stmt.execute();
+					}
+				}
+				connection.commit();
+			}
+		}
+	}
+}
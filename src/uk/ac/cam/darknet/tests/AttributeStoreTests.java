@@ -0,0 +1,113 @@
+package uk.ac.cam.darknet.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Hashtable;
+import java.util.List;
+
+import org.junit.Test;
+
+import uk.ac.cam.darknet.common.AttributeCategories;
+import uk.ac.cam.darknet.common.AttributeReliabilityPair;
+import uk.ac.cam.darknet.common.Individual;
+import uk.ac.cam.darknet.database.PrimaryDatabaseManager;
+import uk.ac.cam.darknet.database.SecondaryDatabaseManager;
+
+/**
+ * Tests storing attributes against an in-memory database, with batches and multi-row statements
+ * small enough that every path of the merge is taken.
+ */
+public class AttributeStoreTests {
+	private static final int	AUDIENCE	= 10;
+	private static final int	DELETED		= 4;
+	private static final Date	DATE		= new GregorianCalendar(2013, 2, 7, 19, 30).getTime();
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testStoringAgainUpdatesReliability() throws Exception {
+		Hashtable<String, AttributeCategories> globalAttributeTable = createGlobalAttributeTable();
+		String config = TestDatabase.createConfig("batchsize=4", "mergerows=3");
+		PrimaryDatabaseManager pdbm = new PrimaryDatabaseManager(globalAttributeTable, config);
+		SecondaryDatabaseManager sdbm = new SecondaryDatabaseManager(globalAttributeTable, config);
+		try {
+			List<Individual> individuals = storeIndividuals(pdbm, globalAttributeTable);
+			assertEquals(AUDIENCE, sdbm.storeAttributes(withGender(individuals, globalAttributeTable, 0.5, false)));
+			assertEquals(2 * AUDIENCE, sdbm.storeAttributes(withGender(individuals, globalAttributeTable, 0.8, true)));
+
+			sdbm.getAllAttributes(individuals);
+			List<AttributeReliabilityPair> genders;
+			for (Individual current : individuals) {
+				genders = current.getAttribute("fb_gender");
+				assertEquals(2, genders.size());
+				for (AttributeReliabilityPair pair : genders) {
+					assertEquals(0.8, pair.getReliability(), 0);
+				}
+			}
+		} finally {
+			pdbm.closeConnection();
+			sdbm.closeConnection();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testRejectedAttributesAreSkipped() throws Exception {
+		Hashtable<String, AttributeCategories> globalAttributeTable = createGlobalAttributeTable();
+		for (String config : new String[] { TestDatabase.createConfig("batchsize=4", "mergerows=3"), TestDatabase.createConfig("batchsize=4", "mergerows=1") }) {
+			PrimaryDatabaseManager pdbm = new PrimaryDatabaseManager(globalAttributeTable, config);
+			SecondaryDatabaseManager sdbm = new SecondaryDatabaseManager(globalAttributeTable, config);
+			try {
+				List<Individual> individuals = storeIndividuals(pdbm, globalAttributeTable);
+				// The attributes of a deleted individual are rejected by the foreign key.
+				assertTrue(pdbm.deleteIndividual(individuals.get(DELETED).getId()));
+				assertEquals(AUDIENCE - 1, sdbm.storeAttributes(withGender(individuals, globalAttributeTable, 0.5, false)));
+
+				individuals.remove(DELETED);
+				sdbm.getAllAttributes(individuals);
+				for (Individual current : individuals) {
+					assertEquals(1, current.getAttribute("fb_gender").size());
+				}
+			} finally {
+				pdbm.closeConnection();
+				sdbm.closeConnection();
+			}
+		}
+	}
+
+	private static Hashtable<String, AttributeCategories> createGlobalAttributeTable() {
+		Hashtable<String, AttributeCategories> globalAttributeTable = new Hashtable<String, AttributeCategories>();
+		globalAttributeTable.put("fb_gender", AttributeCategories.GENDER);
+		return globalAttributeTable;
+	}
+
+	private static List<Individual> storeIndividuals(PrimaryDatabaseManager pdbm, Hashtable<String, AttributeCategories> globalAttributeTable) throws Exception {
+		int venue = pdbm.createVenue("Test");
+		List<Individual> individuals = new ArrayList<Individual>();
+		for (int i = 0; i < AUDIENCE; i++) {
+			individuals.add(Individual.getNewIndividual("First" + i, "Last" + i, "first" + i + "@example.org", DATE, venue, "A" + i, globalAttributeTable));
+		}
+		long[] ids = pdbm.storeIndividualsReturningIds(individuals);
+		List<Individual> stored = new ArrayList<Individual>();
+		for (int i = 0; i < AUDIENCE; i++) {
+			stored.add(new Individual(ids[i], "First" + i, "Last" + i, "first" + i + "@example.org", DATE, venue, "A" + i, globalAttributeTable));
+		}
+		return stored;
+	}
+
+	// Copies the individuals with a gender of the given reliability, and optionally a second one.
+	private static List<Individual> withGender(List<Individual> individuals, Hashtable<String, AttributeCategories> globalAttributeTable, double reliability, boolean both) throws Exception {
+		List<Individual> copies = new ArrayList<Individual>();
+		Individual copy;
+		for (Individual current : individuals) {
+			copy = new Individual(current.getId(), current.getFirstName(), current.getLastName(), current.getEmail(), current.getEventDate(), current.getEventVenue(), current.getSeat(), globalAttributeTable);
+			copy.addAttribute("fb_gender", "female", reliability);
+			if (both)
+				copy.addAttribute("fb_gender", "male", reliability);
+			copies.add(copy);
+		}
+		return copies;
+	}
+}
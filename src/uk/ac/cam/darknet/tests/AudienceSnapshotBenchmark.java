@@ -0,0 +1,99 @@
+package uk.ac.cam.darknet.tests;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.cam.darknet.common.AttributeCategories;
+import uk.ac.cam.darknet.common.AttributeReliabilityPair;
+import uk.ac.cam.darknet.common.Individual;
+import uk.ac.cam.darknet.database.AudienceSnapshot;
+import uk.ac.cam.darknet.database.DatabaseManager;
+
+/**
+ * Compares a gender breakdown of all the individuals in the database, computed over a list of
+ * individuals with their attributes, with the same breakdown computed over an audience snapshot,
+ * together with a few other filters and group-bys of the snapshot. It runs against the database
+ * configured in <code>res/dbconfig.txt</code> and does not change it.
+ */
+public class AudienceSnapshotBenchmark {
+	private static final double	RELIABILITY	= 0.5;
+	private static final int	RUNS		= 200;
+
+	/**
+	 * @param args
+	 *            The arguments are ignored.
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Hashtable<String, AttributeCategories> globalAttributeTable = new Hashtable<String, AttributeCategories>();
+		globalAttributeTable.put("fb_photo", AttributeCategories.PHOTO);
+		globalAttributeTable.put("fb_gender", AttributeCategories.GENDER);
+		globalAttributeTable.put("fb_locale", AttributeCategories.LOCALE);
+		DatabaseManager dbm = new DatabaseManager(globalAttributeTable);
+		try {
+			long start = System.nanoTime();
+			List<Individual> individuals = dbm.getAllIndividuals();
+			dbm.getAllAttributes(individuals);
+			System.out.println(String.format("Read %d individuals in %d ms.", individuals.size(), (System.nanoTime() - start) / 1000000));
+			start = System.nanoTime();
+			AudienceSnapshot snapshot = dbm.getAudienceSnapshot();
+			System.out.println(String.format("Read a snapshot of %d individuals in %d ms.", snapshot.size(), (System.nanoTime() - start) / 1000000));
+
+			Map<Object, Integer> listGenders = null;
+			Map<Object, Integer> snapshotGenders = null;
+			BitSet withPhoto = null;
+			Map<Integer, Integer> venues = null;
+			long listTime = Long.MAX_VALUE;
+			long snapshotTime = Long.MAX_VALUE;
+			long filterTime = Long.MAX_VALUE;
+			long venueTime = Long.MAX_VALUE;
+			for (int run = 0; run < RUNS; run++) {
+				start = System.nanoTime();
+				listGenders = countGenders(individuals);
+				listTime = Math.min(listTime, System.nanoTime() - start);
+				start = System.nanoTime();
+				snapshotGenders = snapshot.countBy("fb_gender", RELIABILITY, snapshot.all());
+				snapshotTime = Math.min(snapshotTime, System.nanoTime() - start);
+				start = System.nanoTime();
+				withPhoto = snapshot.withCategory(AttributeCategories.PHOTO, RELIABILITY);
+				withPhoto.and(snapshot.withAttribute("fb_gender", RELIABILITY));
+				filterTime = Math.min(filterTime, System.nanoTime() - start);
+				start = System.nanoTime();
+				venues = snapshot.countByVenue(withPhoto);
+				venueTime = Math.min(venueTime, System.nanoTime() - start);
+			}
+			System.out.println(String.format("Genders over the list: %s in %.2f ms.", listGenders, listTime / 1e6));
+			System.out.println(String.format("Genders over the snapshot: %s in %.2f ms.", snapshotGenders, snapshotTime / 1e6));
+			System.out.println(String.format("%d individuals with a photo and a gender found in %.2f ms.", withPhoto.cardinality(), filterTime / 1e6));
+			System.out.println(String.format("Counted them at %d venues in %.2f ms.", venues.size(), venueTime / 1e6));
+		} finally {
+			dbm.closeConnection();
+		}
+	}
+
+	// Counts the individuals by their most reliable gender, as an effect would without a snapshot.
+	private static Map<Object, Integer> countGenders(List<Individual> individuals) {
+		HashMap<Object, Integer> toReturn = new HashMap<Object, Integer>();
+		List<AttributeReliabilityPair> pairs;
+		AttributeReliabilityPair best;
+		Integer count;
+		for (Individual current : individuals) {
+			pairs = current.getAttribute("fb_gender");
+			if (pairs == null)
+				continue;
+			best = null;
+			for (AttributeReliabilityPair pair : pairs) {
+				if (pair.getReliability() >= RELIABILITY && (best == null || pair.getReliability() > best.getReliability()))
+					best = pair;
+			}
+			if (best != null) {
+				count = toReturn.get(best.getAttribute());
+				toReturn.put(best.getAttribute(), count == null ? 1 : count + 1);
+			}
+		}
+		return toReturn;
+	}
+}
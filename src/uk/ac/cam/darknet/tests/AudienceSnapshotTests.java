@@ -0,0 +1,176 @@
+package uk.ac.cam.darknet.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.cam.darknet.common.AttributeCategories;
+import uk.ac.cam.darknet.common.Individual;
+import uk.ac.cam.darknet.common.Show;
+import uk.ac.cam.darknet.common.Venue;
+import uk.ac.cam.darknet.database.AudienceSnapshot;
+import uk.ac.cam.darknet.database.PrimaryDatabaseManager;
+import uk.ac.cam.darknet.database.SecondaryDatabaseManager;
+import uk.ac.cam.darknet.exceptions.UnknownAttributeException;
+
+/**
+ * Tests the filters and group-bys of audience snapshots read from an in-memory database. Ten
+ * individuals attend three shows at two venues: six the first show at the first venue, two the
+ * second show there and two the show at the second venue. All but the last have a gender, female
+ * for the even ones and male for the odd ones, and the first also has a less reliable male gender.
+ * Three have a locale and one has an unreliable photo.
+ */
+public class AudienceSnapshotTests {
+	private static final Date								FIRST_DATE				= new GregorianCalendar(2013, 2, 7, 19, 30).getTime();
+	private static final Date								SECOND_DATE				= new GregorianCalendar(2013, 2, 8, 19, 30).getTime();
+	private final Hashtable<String, AttributeCategories>	globalAttributeTable	= new Hashtable<String, AttributeCategories>();
+	private PrimaryDatabaseManager							pdbm;
+	private SecondaryDatabaseManager						sdbm;
+	private Venue											main;
+	private Venue											studio;
+	private long[]											ids;
+
+	@SuppressWarnings("javadoc")
+	@Before
+	public void setUp() throws Exception {
+		this.globalAttributeTable.put("fb_gender", AttributeCategories.GENDER);
+		this.globalAttributeTable.put("fb_locale", AttributeCategories.LOCALE);
+		this.globalAttributeTable.put("fb_photo", AttributeCategories.PHOTO);
+		String config = TestDatabase.createConfig();
+		this.pdbm = new PrimaryDatabaseManager(this.globalAttributeTable, config);
+		this.sdbm = new SecondaryDatabaseManager(this.globalAttributeTable, config);
+		this.main = new Venue(this.pdbm.createVenue("Main"), "Main");
+		this.studio = new Venue(this.pdbm.createVenue("Studio"), "Studio");
+		List<Individual> individuals = new ArrayList<Individual>();
+		for (int i = 0; i < 10; i++) {
+			individuals.add(Individual.getNewIndividual("First" + i, "Last" + i, "first" + i + "@example.org", i < 6 || i >= 8 ? FIRST_DATE : SECOND_DATE, i < 8 ? this.main.getId() : this.studio.getId(), "A" + i, this.globalAttributeTable));
+		}
+		this.ids = this.pdbm.storeIndividualsReturningIds(individuals);
+		List<Individual> withAttributes = new ArrayList<Individual>();
+		Individual current;
+		for (int i = 0; i < 10; i++) {
+			current = new Individual(this.ids[i], "First" + i, "Last" + i, "first" + i + "@example.org", individuals.get(i).getEventDate(), individuals.get(i).getEventVenue(), "A" + i, this.globalAttributeTable);
+			if (i < 9)
+				current.addAttribute("fb_gender", i % 2 == 0 ? "female" : "male", i % 2 == 0 ? 0.8 : 0.4);
+			if (i == 0)
+				current.addAttribute("fb_gender", "male", 0.3);
+			if (i == 0 || i == 1 || i == 8)
+				current.addAttribute("fb_locale", "en_GB", 1.0);
+			if (i == 2)
+				current.addAttribute("fb_photo", "2.jpg", 0.2);
+			withAttributes.add(current);
+		}
+		this.sdbm.storeAttributes(withAttributes);
+	}
+
+	@SuppressWarnings("javadoc")
+	@After
+	public void tearDown() throws Exception {
+		this.pdbm.closeConnection();
+		this.sdbm.closeConnection();
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testRowsAndValues() throws Exception {
+		AudienceSnapshot snapshot = this.pdbm.getAudienceSnapshot();
+		assertEquals(10, snapshot.size());
+		for (int i = 0; i < 10; i++) {
+			assertEquals(i, snapshot.indexOf(this.ids[i]));
+			assertEquals("First" + i, snapshot.getFirstName(i));
+			assertEquals("A" + i, snapshot.getSeat(i));
+		}
+		assertEquals(2, snapshot.getValueCount(0, "fb_gender"));
+		assertEquals("female", snapshot.getValue(0, "fb_gender", 0.0));
+		assertEquals("male", snapshot.getValue(1, "fb_gender", 0.0));
+		assertNull(snapshot.getValue(1, "fb_gender", 0.5));
+		assertEquals(0, snapshot.getValueCount(9, "fb_gender"));
+		assertNull(snapshot.getValue(9, "fb_gender", 0.0));
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testVenueAndShowFilters() throws Exception {
+		AudienceSnapshot snapshot = this.pdbm.getAudienceSnapshot();
+		assertEquals(this.rows(snapshot, 0, 1, 2, 3, 4, 5, 6, 7), snapshot.atVenue(this.main.getId()));
+		assertEquals(this.rows(snapshot, 8, 9), snapshot.atVenue(this.studio.getId()));
+		assertEquals(new BitSet(), snapshot.atVenue(-1));
+		assertEquals(this.rows(snapshot, 0, 1, 2, 3, 4, 5), snapshot.atShow(new Show(FIRST_DATE, this.main)));
+		assertEquals(this.rows(snapshot, 6, 7), snapshot.atShow(new Show(SECOND_DATE, this.main)));
+		assertEquals(new BitSet(), snapshot.atShow(new Show(SECOND_DATE, this.studio)));
+		assertEquals(10, snapshot.all().cardinality());
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testAttributeFilters() throws Exception {
+		AudienceSnapshot snapshot = this.pdbm.getAudienceSnapshot();
+		assertEquals(this.rows(snapshot, 0, 1, 2, 3, 4, 5, 6, 7, 8), snapshot.withAttribute("fb_gender", 0.0));
+		assertEquals(this.rows(snapshot, 0, 2, 4, 6, 8), snapshot.withAttribute("fb_gender", 0.5));
+		assertEquals(this.rows(snapshot, 0, 1, 8), snapshot.withCategory(AttributeCategories.LOCALE, 1.0));
+		assertEquals(this.rows(snapshot, 2), snapshot.withCategory(AttributeCategories.PHOTO, 0.1));
+		assertEquals(new BitSet(), snapshot.withCategory(AttributeCategories.PHOTO, 0.5));
+		assertEquals(new BitSet(), snapshot.withCategory(AttributeCategories.AGE, 0.0));
+		// Filters combine as bit sets.
+		BitSet rows = snapshot.atVenue(this.main.getId());
+		rows.and(snapshot.withAttribute("fb_gender", 0.5));
+		assertEquals(this.rows(snapshot, 0, 2, 4, 6), rows);
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testGroupBys() throws Exception {
+		AudienceSnapshot snapshot = this.pdbm.getAudienceSnapshot();
+		Map<Object, Integer> genders = new LinkedHashMap<Object, Integer>();
+		genders.put("female", 5);
+		genders.put("male", 4);
+		assertEquals(genders, snapshot.countBy("fb_gender", 0.0, snapshot.all()));
+		assertEquals(new ArrayList<Object>(genders.keySet()), new ArrayList<Object>(snapshot.countBy("fb_gender", 0.0, snapshot.all()).keySet()));
+		genders.remove("male");
+		assertEquals(genders, snapshot.countBy("fb_gender", 0.5, snapshot.all()));
+		Map<Integer, Integer> venues = snapshot.countByVenue(snapshot.withAttribute("fb_locale", 0.0));
+		assertEquals(2, venues.size());
+		assertEquals(Integer.valueOf(2), venues.get(this.main.getId()));
+		assertEquals(Integer.valueOf(1), venues.get(this.studio.getId()));
+		assertEquals(Integer.valueOf(this.main.getId()), venues.keySet().iterator().next());
+		assertTrue(snapshot.countByVenue(new BitSet()).isEmpty());
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testSnapshotOfShow() throws Exception {
+		AudienceSnapshot snapshot = this.pdbm.getAudienceSnapshot(new Show(FIRST_DATE, this.studio));
+		assertEquals(2, snapshot.size());
+		assertEquals(this.ids[8], snapshot.getId(0));
+		assertEquals(this.ids[9], snapshot.getId(1));
+		assertEquals(this.rows(snapshot, 8), snapshot.withAttribute("fb_locale", 0.0));
+		assertEquals(this.rows(snapshot, 8), snapshot.withAttribute("fb_gender", 0.0));
+		assertEquals(new BitSet(), snapshot.atVenue(this.main.getId()));
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test(expected = UnknownAttributeException.class)
+	public void testUnknownAttribute() throws Exception {
+		this.pdbm.getAudienceSnapshot().withAttribute("tw_handle", 0.0);
+	}
+
+	// Returns the rows of the snapshot holding the individuals with the given numbers.
+	private BitSet rows(AudienceSnapshot snapshot, int... individuals) {
+		BitSet toReturn = new BitSet();
+		for (int i : individuals) {
+			toReturn.set(snapshot.indexOf(this.ids[i]));
+		}
+		return toReturn;
+	}
+}
@@ -0,0 +1,107 @@
+package uk.ac.cam.darknet.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import uk.ac.cam.darknet.backend.SpektrixCSVParser;
+import uk.ac.cam.darknet.common.AttributeCategories;
+import uk.ac.cam.darknet.common.Individual;
+import uk.ac.cam.darknet.database.PrimaryDatabaseManager;
+import uk.ac.cam.darknet.exceptions.ConfigFileNotFoundException;
+
+/**
+ * Tests streaming a CSV file into an in-memory database.
+ */
+public class CSVImportTests {
+	private static final int	ROWS	= 10;
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testImportStoresEveryRow() throws Exception {
+		Hashtable<String, AttributeCategories> globalAttributeTable = new Hashtable<String, AttributeCategories>();
+		File file = writeFile(-1);
+		SlowDatabaseManager pdbm = new SlowDatabaseManager(globalAttributeTable, TestDatabase.createConfig("batchsize=3"));
+		try {
+			int venue = pdbm.createVenue("Test");
+			assertEquals(ROWS, new SpektrixCSVParser().importCSV(file.getPath(), venue, pdbm, null));
+			assertEquals(ROWS, pdbm.countIndividuals());
+		} finally {
+			pdbm.closeConnection();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testFailedImportWaitsForWriter() throws Exception {
+		Hashtable<String, AttributeCategories> globalAttributeTable = new Hashtable<String, AttributeCategories>();
+		File file = writeFile(ROWS - 2);
+		SlowDatabaseManager pdbm = new SlowDatabaseManager(globalAttributeTable, TestDatabase.createConfig("batchsize=3"));
+		try {
+			int venue = pdbm.createVenue("Test");
+			try {
+				new SpektrixCSVParser().importCSV(file.getPath(), venue, pdbm, null);
+				fail("The file has a malformed date.");
+			} catch (ParseException e) {
+				// Expected.
+			}
+			// Nothing may be written to the database once the import has failed.
+			assertEquals(0, pdbm.storing.get());
+			int stored = pdbm.countIndividuals();
+			Thread.sleep(2 * SlowDatabaseManager.DELAY);
+			assertEquals(stored, pdbm.countIndividuals());
+		} finally {
+			pdbm.closeConnection();
+		}
+	}
+
+	// Writes a file of a performance, with a malformed date on the given row if it is not negative.
+	private static File writeFile(int broken) throws IOException {
+		File file = File.createTempFile("performance", ".csv");
+		file.deleteOnExit();
+		try (PrintWriter writer = new PrintWriter(file);) {
+			writer.println("Customer Id,First Name,Last Name,Email Address,Event Name,Event Date/Time,Seat,Price,Ticket Type,Date Confirmed,Sales Channel");
+			for (int row = 0; row < ROWS; row++) {
+				writer.println(String.format("%d,First%d,Last%d,first%d@example.org,Test,%s,A%d,10.00,Full Price,01/02/2013 10:00:00,Web", row, row, row, row, row == broken ? "tomorrow" : "07/03/2013 19:30:00", row));
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * Database manager that takes its time to store each batch, and counts the batches it is
+	 * storing.
+	 */
+	private static class SlowDatabaseManager extends PrimaryDatabaseManager {
+		static final long			DELAY		= 200;
+		final AtomicInteger			storing	= new AtomicInteger();
+
+		SlowDatabaseManager(Hashtable<String, AttributeCategories> globalAttributeTable, String config) throws ConfigFileNotFoundException, IOException, ClassNotFoundException, SQLException {
+			super(globalAttributeTable, config);
+		}
+
+		@Override
+		public int storeIndividual(List<Individual> list) throws SQLException {
+			this.storing.incrementAndGet();
+			try {
+				Thread.sleep(DELAY);
+			} catch (InterruptedException e) {
+				// The import has been stopped; the batch is stored all the same.
+			}
+			try {
+				return super.storeIndividual(list);
+			} finally {
+				this.storing.decrementAndGet();
+			}
+		}
+	}
+}
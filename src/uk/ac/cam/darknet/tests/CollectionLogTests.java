@@ -0,0 +1,171 @@
+package uk.ac.cam.darknet.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Hashtable;
+import java.util.List;
+
+import org.junit.Test;
+
+import uk.ac.cam.darknet.common.AttributeCategories;
+import uk.ac.cam.darknet.common.Individual;
+import uk.ac.cam.darknet.common.Show;
+import uk.ac.cam.darknet.common.Venue;
+import uk.ac.cam.darknet.database.PrimaryDatabaseManager;
+import uk.ac.cam.darknet.database.SecondaryDatabaseManager;
+import uk.ac.cam.darknet.exceptions.ConfigFileNotFoundException;
+import uk.ac.cam.darknet.exceptions.InvalidAttributeNameException;
+
+/**
+ * Tests the log of the individuals each collector has collected data on against in-memory
+ * databases, with two shows of three individuals.
+ */
+public class CollectionLogTests {
+	private static final Date	FIRST_DATE	= new GregorianCalendar(2013, 2, 7, 19, 30).getTime();
+	private static final Date	SECOND_DATE	= new GregorianCalendar(2013, 2, 8, 19, 30).getTime();
+	private static final int	AUDIENCE	= 3;
+	private static final long	DAY			= 24 * 60 * 60 * 1000L;
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testNothingCollected() throws Exception {
+		LogDatabaseManager sdbm = createDatabase();
+		try {
+			Show first = new Show(FIRST_DATE, sdbm.venue);
+			assertEquals(2 * AUDIENCE, sdbm.getIndividualsToCollect("fb", null, new Date()).size());
+			List<Individual> individuals = sdbm.getIndividualsToCollect("fb", first, new Date());
+			assertEquals(firstNames(0, AUDIENCE), firstNames(individuals));
+			assertFalse(individuals.get(0).getProperties().keys().hasMoreElements());
+			assertEquals(0, sdbm.countLog());
+		} finally {
+			sdbm.closeConnection();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testCollectedIndividualsAreLeftOut() throws Exception {
+		LogDatabaseManager sdbm = createDatabase();
+		try {
+			Show first = new Show(FIRST_DATE, sdbm.venue);
+			List<Individual> individuals = sdbm.getIndividualsToCollect("fb", first, new Date());
+			Date beforeMark = new Date(System.currentTimeMillis() - 1000);
+			sdbm.markCollected("fb", individuals.subList(0, 2));
+			// Collected since the time given, so left out.
+			assertEquals(Arrays.asList("First2"), firstNames(sdbm.getIndividualsToCollect("fb", first, beforeMark)));
+			assertEquals(Arrays.asList("First2", "First3", "First4", "First5"), firstNames(sdbm.getIndividualsToCollect("fb", null, beforeMark)));
+			// Collected before the time given, so stale.
+			assertEquals(firstNames(0, AUDIENCE), firstNames(sdbm.getIndividualsToCollect("fb", first, new Date(System.currentTimeMillis() + DAY))));
+			// Other collectors have not collected anything.
+			assertEquals(2 * AUDIENCE, sdbm.getIndividualsToCollect("tw", null, beforeMark).size());
+			assertEquals(2, sdbm.countLog());
+		} finally {
+			sdbm.closeConnection();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testMarkingAgainUpdatesTheTime() throws Exception {
+		LogDatabaseManager sdbm = createDatabase();
+		try {
+			List<Individual> individuals = sdbm.getIndividualsToCollect("fb", null, new Date());
+			Date beforeMark = new Date(System.currentTimeMillis() - 1000);
+			sdbm.markCollected("fb", individuals.subList(0, 4));
+			sdbm.markCollected("tw", individuals.subList(0, 1));
+			Thread.sleep(50);
+			Date between = new Date();
+			Thread.sleep(50);
+			// The first two are marked again, the next two are not, and two are marked for the
+			// first time.
+			List<Individual> again = new ArrayList<Individual>(individuals.subList(0, 2));
+			again.addAll(individuals.subList(4, 6));
+			sdbm.markCollected("fb", again);
+			assertEquals(2 * AUDIENCE + 1, sdbm.countLog());
+			assertEquals(Arrays.asList("First2", "First3"), firstNames(sdbm.getIndividualsToCollect("fb", null, between)));
+			// The log of the other collector is left alone.
+			assertEquals(2 * AUDIENCE - 1, sdbm.getIndividualsToCollect("tw", null, beforeMark).size());
+		} finally {
+			sdbm.closeConnection();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testMarkingNobody() throws Exception {
+		LogDatabaseManager sdbm = createDatabase();
+		try {
+			sdbm.markCollected("fb", Collections.<Individual> emptyList());
+			assertEquals(0, sdbm.countLog());
+		} finally {
+			sdbm.closeConnection();
+		}
+	}
+
+	// Stores the audience of the two shows, in order of their first names, and opens a secondary
+	// database manager on the database.
+	private static LogDatabaseManager createDatabase() throws Exception {
+		Hashtable<String, AttributeCategories> globalAttributeTable = new Hashtable<String, AttributeCategories>();
+		globalAttributeTable.put("fb_gender", AttributeCategories.GENDER);
+		String config = TestDatabase.createConfig();
+		PrimaryDatabaseManager pdbm = new PrimaryDatabaseManager(globalAttributeTable, config);
+		int venue;
+		try {
+			venue = pdbm.createVenue("Main");
+			List<Individual> individuals = new ArrayList<Individual>();
+			for (int i = 0; i < 2 * AUDIENCE; i++) {
+				individuals.add(Individual.getNewIndividual("First" + i, "Last" + i, "first" + i + "@example.org", i < AUDIENCE ? FIRST_DATE : SECOND_DATE, venue, "A" + i, globalAttributeTable));
+			}
+			pdbm.storeIndividual(individuals);
+		} finally {
+			pdbm.closeConnection();
+		}
+		return new LogDatabaseManager(globalAttributeTable, config, new Venue(venue, "Main"));
+	}
+
+	private static List<String> firstNames(int from, int to) {
+		List<String> names = new ArrayList<String>();
+		for (int i = from; i < to; i++) {
+			names.add("First" + i);
+		}
+		return names;
+	}
+
+	private static List<String> firstNames(List<Individual> individuals) {
+		List<String> names = new ArrayList<String>();
+		for (Individual current : individuals) {
+			names.add(current.getFirstName());
+		}
+		Collections.sort(names);
+		return names;
+	}
+
+	/**
+	 * Secondary database manager that counts the rows of the collection log.
+	 */
+	private static class LogDatabaseManager extends SecondaryDatabaseManager {
+		final Venue	venue;
+
+		LogDatabaseManager(Hashtable<String, AttributeCategories> globalAttributeTable, String config, Venue venue) throws ConfigFileNotFoundException, IOException, ClassNotFoundException, SQLException, InvalidAttributeNameException {
+			super(globalAttributeTable, config);
+			this.venue = venue;
+		}
+
+		int countLog() throws SQLException {
+			try (Connection connection = this.getConnection(); Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM collection_log");) {
+				rs.next();
+				return rs.getInt(1);
+			}
+		}
+	}
+}
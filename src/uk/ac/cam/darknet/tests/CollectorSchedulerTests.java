@@ -0,0 +1,186 @@
+package uk.ac.cam.darknet.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import uk.ac.cam.darknet.backend.CollectorListener;
+import uk.ac.cam.darknet.backend.CollectorMetrics;
+import uk.ac.cam.darknet.backend.CollectorScheduler;
+import uk.ac.cam.darknet.backend.FacebookDataCollector;
+import uk.ac.cam.darknet.backend.SecondaryDataCollector;
+import uk.ac.cam.darknet.common.Individual;
+
+/**
+ * Tests running collectors on a scheduler with collectors that only sleep, so that their timing is
+ * under the control of the tests.
+ */
+public class CollectorSchedulerTests {
+	// Long enough for any collector that is not interrupted to hold up the tests.
+	private static final long	FOREVER	= 60000;
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testAllCollectorsComplete() throws InterruptedException {
+		CollectorScheduler scheduler = new CollectorScheduler(2, 0, TimeUnit.SECONDS);
+		final List<String> notified = Collections.synchronizedList(new ArrayList<String>());
+		List<SleepingCollector> collectors = Arrays.asList(new SleepingCollector("a", 10), new SleepingCollector("b", 10), new SleepingCollector("c", 10));
+		scheduler.start(new ArrayList<SecondaryDataCollector>(collectors), new CollectorListener() {
+			@Override
+			public void collectorFinished(CollectorMetrics metrics) {
+				notified.add(metrics.getCollectorId());
+			}
+		});
+		assertTrue(scheduler.await(10, TimeUnit.SECONDS));
+		Map<String, CollectorMetrics> metrics = byId(scheduler.getMetrics());
+		assertEquals(3, notified.size());
+		assertEquals(3, metrics.size());
+		for (SleepingCollector collector : collectors) {
+			assertEquals(CollectorMetrics.Outcome.COMPLETED, metrics.get(collector.getCollectorId()).getOutcome());
+			assertEquals(1, metrics.get(collector.getCollectorId()).getItemsCollected());
+			assertFalse(collector.interrupted);
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testSlowCollectorTimesOut() throws InterruptedException {
+		CollectorScheduler scheduler = new CollectorScheduler(2, 200, TimeUnit.MILLISECONDS);
+		SleepingCollector slow = new SleepingCollector("slow", FOREVER);
+		SleepingCollector fast = new SleepingCollector("fast", 10);
+		scheduler.start(Arrays.<SecondaryDataCollector> asList(slow, fast), null);
+		assertTrue(scheduler.await(10, TimeUnit.SECONDS));
+		Map<String, CollectorMetrics> metrics = byId(scheduler.getMetrics());
+		assertEquals(CollectorMetrics.Outcome.TIMED_OUT, metrics.get("slow").getOutcome());
+		assertTrue(slow.interrupted);
+		assertTrue(metrics.get("slow").getRuntimeMillis() >= 200);
+		assertEquals(CollectorMetrics.Outcome.COMPLETED, metrics.get("fast").getOutcome());
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testCancelStopsRunningAndSkipsWaitingCollectors() throws InterruptedException {
+		CollectorScheduler scheduler = new CollectorScheduler(1, 0, TimeUnit.SECONDS);
+		SleepingCollector running = new SleepingCollector("running", FOREVER);
+		SleepingCollector waiting = new SleepingCollector("waiting", FOREVER);
+		scheduler.start(Arrays.<SecondaryDataCollector> asList(running, waiting), null);
+		assertTrue(running.started.await(10, TimeUnit.SECONDS));
+		scheduler.cancel();
+		assertTrue(scheduler.await(10, TimeUnit.SECONDS));
+		Map<String, CollectorMetrics> metrics = byId(scheduler.getMetrics());
+		assertEquals(CollectorMetrics.Outcome.CANCELLED, metrics.get("running").getOutcome());
+		assertTrue(running.interrupted);
+		assertEquals(CollectorMetrics.Outcome.CANCELLED, metrics.get("waiting").getOutcome());
+		assertEquals(1, waiting.started.getCount());
+		// Cancelling again changes nothing.
+		scheduler.cancel();
+		assertEquals(2, scheduler.getMetrics().size());
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testFailedCollectorDoesNotStopOthers() throws InterruptedException {
+		CollectorScheduler scheduler = new CollectorScheduler(1, 0, TimeUnit.SECONDS);
+		SleepingCollector failing = new SleepingCollector("failing", -1);
+		SleepingCollector next = new SleepingCollector("next", 10);
+		scheduler.start(Arrays.<SecondaryDataCollector> asList(failing, next), null);
+		assertTrue(scheduler.await(10, TimeUnit.SECONDS));
+		Map<String, CollectorMetrics> metrics = byId(scheduler.getMetrics());
+		assertEquals(CollectorMetrics.Outcome.FAILED, metrics.get("failing").getOutcome());
+		assertTrue(metrics.get("failing").getError() instanceof IllegalStateException);
+		assertEquals(CollectorMetrics.Outcome.COMPLETED, metrics.get("next").getOutcome());
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testCollectorNotSetUpFails() throws InterruptedException {
+		CollectorScheduler scheduler = new CollectorScheduler(1, 0, TimeUnit.SECONDS);
+		FacebookDataCollector collector = new FacebookDataCollector(null);
+		scheduler.start(Arrays.<SecondaryDataCollector> asList(collector), null);
+		assertTrue(scheduler.await(10, TimeUnit.SECONDS));
+		CollectorMetrics metrics = scheduler.getMetrics().get(0);
+		assertEquals(CollectorMetrics.Outcome.FAILED, metrics.getOutcome());
+		assertTrue(metrics.getError() instanceof IllegalStateException);
+		assertTrue(collector.getIndividualsCollected().isEmpty());
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testNoCollectors() throws InterruptedException {
+		CollectorScheduler scheduler = new CollectorScheduler(1, 0, TimeUnit.SECONDS);
+		scheduler.start(Collections.<SecondaryDataCollector> emptyList(), null);
+		assertTrue(scheduler.await(1, TimeUnit.SECONDS));
+		assertEquals(0, scheduler.getMetrics().size());
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test(expected = IllegalStateException.class)
+	public void testStartTwice() {
+		CollectorScheduler scheduler = new CollectorScheduler(1, 0, TimeUnit.SECONDS);
+		scheduler.start(Collections.<SecondaryDataCollector> emptyList(), null);
+		scheduler.start(Collections.<SecondaryDataCollector> emptyList(), null);
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test(expected = IllegalStateException.class)
+	public void testAwaitBeforeStart() throws InterruptedException {
+		new CollectorScheduler(1, 0, TimeUnit.SECONDS).await();
+	}
+
+	private static Map<String, CollectorMetrics> byId(List<CollectorMetrics> metrics) {
+		Map<String, CollectorMetrics> byId = new HashMap<String, CollectorMetrics>();
+		for (CollectorMetrics current : metrics) {
+			assertNull(byId.put(current.getCollectorId(), current));
+		}
+		return byId;
+	}
+
+	/**
+	 * Collector that sleeps for a given time and collects one item, or fails straight away if the
+	 * time is negative. It stops when it is interrupted.
+	 */
+	private static class SleepingCollector extends SecondaryDataCollector {
+		private final String		id;
+		private final long			millis;
+		final CountDownLatch		started	= new CountDownLatch(1);
+		volatile boolean			interrupted;
+
+		SleepingCollector(String id, long millis) {
+			super(null);
+			this.id = id;
+			this.millis = millis;
+		}
+
+		@Override
+		public String getCollectorId() {
+			return this.id;
+		}
+
+		@Override
+		public void setup(List<Individual> individuals) {
+			// Nothing to look up.
+		}
+
+		@Override
+		public void run() {
+			this.started.countDown();
+			if (this.millis < 0)
+				throw new IllegalStateException("Collector failed");
+			try {
+				Thread.sleep(this.millis);
+				this.addItemsCollected(1);
+			} catch (InterruptedException e) {
+				this.interrupted = true;
+			}
+		}
+	}
+}
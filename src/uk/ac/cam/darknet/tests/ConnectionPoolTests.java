@@ -0,0 +1,151 @@
+package uk.ac.cam.darknet.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Hashtable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import uk.ac.cam.darknet.common.AttributeCategories;
+import uk.ac.cam.darknet.database.DatabaseManager;
+import uk.ac.cam.darknet.exceptions.ConfigFileNotFoundException;
+
+/**
+ * Tests the pool of connections of the database managers against in-memory databases. Each
+ * connection of HSQLDB is a session with an ID of its own, which tells whether a connection has
+ * been reused.
+ */
+public class ConnectionPoolTests {
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testClosedConnectionIsReused() throws Exception {
+		PoolDatabaseManager dbm = new PoolDatabaseManager(TestDatabase.createConfig("poolsize=2"));
+		try {
+			long session;
+			try (Connection connection = dbm.borrow();) {
+				session = getSessionId(connection);
+			}
+			try (Connection connection = dbm.borrow();) {
+				assertEquals(session, getSessionId(connection));
+			}
+		} finally {
+			dbm.closeConnection();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testClosingRollsBack() throws Exception {
+		PoolDatabaseManager dbm = new PoolDatabaseManager(TestDatabase.createConfig("poolsize=1"));
+		try {
+			try (Connection connection = dbm.borrow(); Statement stmt = connection.createStatement();) {
+				stmt.execute("CREATE TABLE pool_test (id INTEGER)");
+				connection.commit();
+				stmt.execute("INSERT INTO pool_test VALUES (1)");
+			}
+			try (Connection connection = dbm.borrow(); Statement stmt = connection.createStatement(); ResultSet resultSet = stmt.executeQuery("SELECT COUNT(*) FROM pool_test");) {
+				resultSet.next();
+				assertEquals(0, resultSet.getInt(1));
+			}
+		} finally {
+			dbm.closeConnection();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test(expected = SQLException.class)
+	public void testClosedConnectionCannotBeUsed() throws Exception {
+		PoolDatabaseManager dbm = new PoolDatabaseManager(TestDatabase.createConfig());
+		try {
+			Connection connection = dbm.borrow();
+			connection.close();
+			assertTrue(connection.isClosed());
+			connection.createStatement();
+		} finally {
+			dbm.closeConnection();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testBorrowWaitsForReturn() throws Exception {
+		final PoolDatabaseManager dbm = new PoolDatabaseManager(TestDatabase.createConfig("poolsize=1"));
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<Long> waiting;
+			long session;
+			try (Connection connection = dbm.borrow();) {
+				session = getSessionId(connection);
+				waiting = executor.submit(new Callable<Long>() {
+					@Override
+					public Long call() throws SQLException {
+						try (Connection other = dbm.borrow();) {
+							return getSessionId(other);
+						}
+					}
+				});
+				try {
+					waiting.get(500, TimeUnit.MILLISECONDS);
+					fail("The only connection of the pool is in use.");
+				} catch (TimeoutException e) {
+					// Expected.
+				}
+			}
+			assertEquals(session, (long) waiting.get(5, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+			dbm.closeConnection();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testIdleConnectionIsEvicted() throws Exception {
+		PoolDatabaseManager dbm = new PoolDatabaseManager(TestDatabase.createConfig("idletimeout=1"));
+		try {
+			long session;
+			try (Connection connection = dbm.borrow();) {
+				session = getSessionId(connection);
+			}
+			// The pool looks for idle connections every second at most.
+			Thread.sleep(3000);
+			try (Connection connection = dbm.borrow();) {
+				assertNotEquals(session, getSessionId(connection));
+			}
+		} finally {
+			dbm.closeConnection();
+		}
+	}
+
+	private static long getSessionId(Connection connection) throws SQLException {
+		try (Statement stmt = connection.createStatement(); ResultSet resultSet = stmt.executeQuery("SELECT SESSION_ID() FROM (VALUES (0))");) {
+			resultSet.next();
+			return resultSet.getLong(1);
+		}
+	}
+
+	/**
+	 * Database manager that hands out the connections of its pool.
+	 */
+	private static class PoolDatabaseManager extends DatabaseManager {
+		PoolDatabaseManager(String config) throws ConfigFileNotFoundException, IOException, ClassNotFoundException, SQLException {
+			super(new Hashtable<String, AttributeCategories>(), config);
+		}
+
+		Connection borrow() throws SQLException {
+			return this.getConnection();
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package uk.ac.cam.darknet.tests;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.List;
+
+import uk.ac.cam.darknet.common.AttributeCategories;
+import uk.ac.cam.darknet.common.Individual;
+import uk.ac.cam.darknet.common.Show;
+import uk.ac.cam.darknet.common.Venue;
+import uk.ac.cam.darknet.database.DatabaseManager;
+import uk.ac.cam.darknet.database.PrimaryDatabaseManager;
+import uk.ac.cam.darknet.database.SecondaryDatabaseManager;
+import uk.ac.cam.darknet.exceptions.ConfigFileNotFoundException;
+
+/**
+ * Compares the database server configured in <code>res/dbconfig.txt</code> (or in the file given
+ * as the first argument) with an embedded database in a temporary directory. For each, it imports
+ * a synthetic show of 10,000 individuals with their attributes, and then times the queries an
+ * effect makes: reading the audience of the show with some of their attributes, and reading a
+ * snapshot of the show. The synthetic show is removed from the server again when done. For a fair
+ * comparison, the server should keep its database in files as well, on the same machine.
+ */
+public class EmbeddedDatabaseBenchmark {
+	private static final int		INDIVIDUALS	= 10000;
+	private static final int		ROUNDS		= 3;
+	private static final int		WARMUP		= 3;
+	private static final int		RUNS		= 10;
+	private static final String[]	ATTRIBUTES	= { "fb_photo", "fb_gender" };
+
+	/**
+	 * @param args
+	 *            The path to the configuration file of the server, if not the default one.
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Hashtable<String, AttributeCategories> globalAttributeTable = new Hashtable<String, AttributeCategories>();
+		globalAttributeTable.put("fb_photo", AttributeCategories.PHOTO);
+		globalAttributeTable.put("fb_gender", AttributeCategories.GENDER);
+		globalAttributeTable.put("fb_locale", AttributeCategories.LOCALE);
+		File directory = File.createTempFile("darknet", "");
+		directory.delete();
+		directory.mkdir();
+		File embeddedConfig = new File(directory, "dbconfig.txt");
+		try (FileWriter writer = new FileWriter(embeddedConfig);) {
+			writer.write("mode=file\npath=" + new File(directory, "darknetdb").getPath() + "\nusername=SA\npassword=\ncacheshows=0\n");
+		}
+		try {
+			// The first rounds mostly measure how long the code takes to warm up.
+			for (int round = 1; round <= ROUNDS; round++) {
+				run("Round " + round + ", embedded", embeddedConfig.getPath(), globalAttributeTable);
+				run("Round " + round + ", server", args.length > 0 ? args[0] : "res/dbconfig.txt", globalAttributeTable);
+			}
+		} finally {
+			for (File current : directory.listFiles()) {
+				current.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	private static void run(String name, String pathToConfig, Hashtable<String, AttributeCategories> globalAttributeTable) throws Exception {
+		PrimaryDatabaseManager pdbm = new PrimaryDatabaseManager(globalAttributeTable, pathToConfig);
+		SecondaryDatabaseManager sdbm = new SecondaryDatabaseManager(globalAttributeTable, pathToConfig);
+		CleanupDatabaseManager cleanup = new CleanupDatabaseManager(globalAttributeTable, pathToConfig);
+		String venueName = "Benchmark " + System.currentTimeMillis();
+		int venueId = pdbm.createVenue(venueName);
+		// Shows are stored with a precision of one second.
+		Show show = new Show(new Date(Show.toSeconds(new Date()) * 1000), new Venue(venueId, venueName));
+		try {
+			long start = System.nanoTime();
+			createShow(pdbm, sdbm, show, globalAttributeTable);
+			long importTime = System.nanoTime() - start;
+			long audienceTime = Long.MAX_VALUE;
+			long snapshotTime = Long.MAX_VALUE;
+			int audience = 0;
+			for (int run = 0; run < WARMUP + RUNS; run++) {
+				start = System.nanoTime();
+				List<Individual> individuals = sdbm.getByShow(show);
+				sdbm.getAttributes(individuals, Arrays.asList(ATTRIBUTES));
+				audience = individuals.size();
+				if (run >= WARMUP)
+					audienceTime = Math.min(audienceTime, System.nanoTime() - start);
+				start = System.nanoTime();
+				sdbm.getAudienceSnapshot(show);
+				if (run >= WARMUP)
+					snapshotTime = Math.min(snapshotTime, System.nanoTime() - start);
+			}
+			System.out.println(String.format("%s: imported %d individuals in %d ms, read them with %d attributes in %d ms, read a snapshot in %d ms.", name, audience, importTime / 1000000, ATTRIBUTES.length, audienceTime / 1000000, snapshotTime / 1000000));
+		} finally {
+			cleanup.deleteVenue(venueId);
+			cleanup.closeConnection();
+			pdbm.closeConnection();
+			sdbm.closeConnection();
+		}
+	}
+
+	private static void createShow(PrimaryDatabaseManager pdbm, SecondaryDatabaseManager sdbm, Show show, Hashtable<String, AttributeCategories> globalAttributeTable) throws Exception {
+		List<Individual> individuals = new ArrayList<Individual>();
+		for (int i = 0; i < INDIVIDUALS; i++) {
+			individuals.add(Individual.getNewIndividual("First" + i, "Last" + i, "benchmark" + i + "@example.org", show.getDate(), show.getVenue().getId(), Integer.toString(i), globalAttributeTable));
+		}
+		pdbm.storeIndividual(individuals);
+		individuals = pdbm.getByShow(show);
+		for (int i = 0; i < individuals.size(); i++) {
+			Individual current = individuals.get(i);
+			current.addAttribute("fb_gender", i % 2 == 0 ? "female" : "male", 0.8);
+			current.addAttribute("fb_locale", "en_GB", 1.0);
+			if (i % 2 == 0)
+				current.addAttribute("fb_photo", "benchmark" + i + "-jpg", 0.8);
+		}
+		sdbm.storeAttributes(individuals);
+	}
+
+	/**
+	 * Database manager that removes the synthetic show again.
+	 */
+	private static class CleanupDatabaseManager extends DatabaseManager {
+		private static final String	DELETE_INDIVIDUALS	= "DELETE FROM individuals WHERE venue = ?";
+		private static final String	DELETE_SHOWS		= "DELETE FROM shows WHERE venue = ?";
+		private static final String	DELETE_VENUE		= "DELETE FROM venues WHERE id = ?";
+
+		CleanupDatabaseManager(Hashtable<String, AttributeCategories> globalAttributeTable, String pathToConfig) throws ConfigFileNotFoundException, IOException, ClassNotFoundException, SQLException {
+			super(globalAttributeTable, pathToConfig);
+		}
+
+		void deleteVenue(int venueId) throws SQLException {
+			try (Connection connection = this.getConnection();) {
+				for (String statement : new String[] { DELETE_INDIVIDUALS, DELETE_SHOWS, DELETE_VENUE }) {
+					try (PreparedStatement stmt = connection.prepareStatement(statement);) {
+						stmt.setInt(1, venueId);
+						stmt.execute();
+					}
+				}
+				connection.commit();
+			}
+		}
+	}
+}
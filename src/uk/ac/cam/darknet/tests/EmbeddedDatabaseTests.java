@@ -0,0 +1,125 @@
+package uk.ac.cam.darknet.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Hashtable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.cam.darknet.common.AttributeCategories;
+import uk.ac.cam.darknet.common.Individual;
+import uk.ac.cam.darknet.database.PrimaryDatabaseManager;
+
+/**
+ * Tests opening and closing an embedded database in a temporary directory by several managers. The
+ * database holds a lock file while it is open, which is removed when it is shut down.
+ */
+public class EmbeddedDatabaseTests {
+	private static final Date								DATE					= new GregorianCalendar(2013, 2, 7, 19, 30).getTime();
+	private final Hashtable<String, AttributeCategories>	globalAttributeTable	= new Hashtable<String, AttributeCategories>();
+	private File											directory;
+	private File											lock;
+	private String											config;
+
+	@SuppressWarnings("javadoc")
+	@Before
+	public void setUp() throws IOException {
+		this.directory = Files.createTempDirectory("darknet").toFile();
+		File database = new File(this.directory, "darknetdb");
+		this.lock = new File(this.directory, "darknetdb.lck");
+		File configFile = new File(this.directory, "dbconfig.txt");
+		try (FileWriter writer = new FileWriter(configFile);) {
+			writer.write("mode=file\npath=" + database.getPath() + "\nusername=SA\npassword=\n");
+		}
+		this.config = configFile.getPath();
+	}
+
+	@SuppressWarnings("javadoc")
+	@After
+	public void tearDown() {
+		for (File current : this.directory.listFiles()) {
+			delete(current);
+		}
+		this.directory.delete();
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testShutDownByTheLastManager() throws Exception {
+		PrimaryDatabaseManager first = new PrimaryDatabaseManager(this.globalAttributeTable, this.config);
+		PrimaryDatabaseManager second = new PrimaryDatabaseManager(this.globalAttributeTable, this.config);
+		try {
+			assertTrue(this.lock.exists());
+			int venue = first.createVenue("Main");
+			first.storeIndividual(Arrays.asList(Individual.getNewIndividual("First0", "Last0", "", DATE, venue, "A0", this.globalAttributeTable)));
+			first.closeConnection();
+			// The second manager still uses the database.
+			assertTrue(this.lock.exists());
+			assertEquals(1, second.countIndividuals());
+			second.storeIndividual(Arrays.asList(Individual.getNewIndividual("First1", "Last1", "", DATE, venue, "A1", this.globalAttributeTable)));
+		} finally {
+			first.closeConnection();
+			second.closeConnection();
+		}
+		assertFalse(this.lock.exists());
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testClosingTwiceReleasesOnce() throws Exception {
+		PrimaryDatabaseManager first = new PrimaryDatabaseManager(this.globalAttributeTable, this.config);
+		PrimaryDatabaseManager second = new PrimaryDatabaseManager(this.globalAttributeTable, this.config);
+		try {
+			first.closeConnection();
+			first.closeConnection();
+			assertTrue(this.lock.exists());
+			assertEquals(0, second.countIndividuals());
+		} finally {
+			second.closeConnection();
+		}
+		assertFalse(this.lock.exists());
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testReopenedAfterShutdown() throws Exception {
+		PrimaryDatabaseManager pdbm = new PrimaryDatabaseManager(this.globalAttributeTable, this.config);
+		try {
+			int venue = pdbm.createVenue("Main");
+			pdbm.storeIndividual(Arrays.asList(Individual.getNewIndividual("First0", "Last0", "", DATE, venue, "A0", this.globalAttributeTable)));
+		} finally {
+			pdbm.closeConnection();
+		}
+		assertFalse(this.lock.exists());
+		// The changes have been written to the files, and the database opens again.
+		for (int i = 0; i < 2; i++) {
+			pdbm = new PrimaryDatabaseManager(this.globalAttributeTable, this.config);
+			try {
+				assertTrue(this.lock.exists());
+				assertEquals(1, pdbm.countIndividuals());
+				assertEquals("First0", pdbm.getAllIndividuals().get(0).getFirstName());
+			} finally {
+				pdbm.closeConnection();
+			}
+			assertFalse(this.lock.exists());
+		}
+	}
+
+	private static void delete(File file) {
+		if (file.isDirectory()) {
+			for (File current : file.listFiles()) {
+				delete(current);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,303 @@
+package uk.ac.cam.darknet.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import uk.ac.cam.darknet.backend.FacebookDataCollector;
+import uk.ac.cam.darknet.common.AttributeCategories;
+import uk.ac.cam.darknet.common.Individual;
+import uk.ac.cam.darknet.database.PrimaryDatabaseManager;
+import uk.ac.cam.darknet.database.SecondaryDatabaseManager;
+
+import com.restfb.Connection;
+import com.restfb.DefaultFacebookClient;
+import com.restfb.Parameter;
+import com.restfb.batch.BatchRequest;
+import com.restfb.batch.BatchResponse;
+import com.restfb.exception.FacebookException;
+import com.restfb.exception.FacebookNetworkException;
+import com.restfb.exception.FacebookOAuthException;
+
+/**
+ * Tests the Facebook data collector against a fake Graph API that knows a number of friends with
+ * numbered names, six of whom are targets stored in an in-memory database. The friends have no
+ * photos, so nothing is downloaded.
+ */
+public class FacebookCollectorTests {
+	private static final Date	DATE		= new GregorianCalendar(2013, 2, 7, 19, 30).getTime();
+	private static final int	TARGETS		= 6;
+	private static final int	FRIENDS		= 120;
+	private static final String	FAST		= "facebookrequests=10000";
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testFriendsAreLookedUpInBatches() throws Exception {
+		SecondaryDatabaseManager sdbm = createDatabase("facebookthreads=2", FAST);
+		try {
+			FakeClient client = new FakeClient(FRIENDS, 0, null);
+			// The batch responses for two friends fail, so they are looked up one by one.
+			client.failingInBatch.addAll(Arrays.asList("3", "70"));
+			FakeCollector collector = new FakeCollector(sdbm, client);
+			List<Individual> targets = sdbm.getAllIndividuals();
+			collector.setup(targets, "token");
+			collector.run();
+			List<Integer> batchSizes = new ArrayList<Integer>(client.batchSizes);
+			Collections.sort(batchSizes);
+			assertEquals(Arrays.asList(20, 50, 50), batchSizes);
+			assertEquals(Arrays.asList("3", "70"), sorted(client.singleLookups));
+			// The pool size is read from the configuration file.
+			assertTrue(client.maxConcurrentBatches.get() <= 2);
+			assertEquals(TARGETS, collector.getItemsCollected());
+			assertEquals(TARGETS, collector.getIndividualsCollected().size());
+			assertStoredGenders(sdbm, TARGETS);
+		} finally {
+			sdbm.closeConnection();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testFirstFriendWins() throws Exception {
+		SecondaryDatabaseManager sdbm = createDatabase(FAST);
+		try {
+			// Friends 0 and 100 are both called First0 Last0.
+			FakeClient client = new FakeClient(FRIENDS, 0, null);
+			client.aliases.put("100", "0");
+			FakeCollector collector = new FakeCollector(sdbm, client);
+			collector.setup(sdbm.getAllIndividuals(), "token");
+			collector.run();
+			assertEquals(TARGETS, collector.getItemsCollected());
+			assertStoredGenders(sdbm, TARGETS);
+		} finally {
+			sdbm.closeConnection();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testTransientErrorIsRetried() throws Exception {
+		SecondaryDatabaseManager sdbm = createDatabase(FAST);
+		try {
+			FakeClient client = new FakeClient(FRIENDS, 1, new FacebookNetworkException("Connection reset", (Throwable) null));
+			FakeCollector collector = new FakeCollector(sdbm, client);
+			collector.setup(sdbm.getAllIndividuals(), "token");
+			collector.run();
+			assertEquals(2, client.friendListRequests.get());
+			assertEquals(TARGETS, collector.getIndividualsCollected().size());
+		} finally {
+			sdbm.closeConnection();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testRetriesGiveUp() throws Exception {
+		SecondaryDatabaseManager sdbm = createDatabase(FAST);
+		try {
+			FakeClient client = new FakeClient(FRIENDS, Integer.MAX_VALUE, new FacebookNetworkException("Connection reset", (Throwable) null));
+			FakeCollector collector = new FakeCollector(sdbm, client);
+			collector.setup(sdbm.getAllIndividuals(), "token");
+			try {
+				collector.run();
+				fail("The friends could not be fetched.");
+			} catch (FacebookNetworkException e) {
+				// Expected after the last attempt.
+			}
+			assertEquals(3, client.friendListRequests.get());
+			assertTrue(collector.getIndividualsCollected().isEmpty());
+		} finally {
+			sdbm.closeConnection();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testInvalidTokenIsNotRetried() throws Exception {
+		SecondaryDatabaseManager sdbm = createDatabase(FAST);
+		try {
+			FakeClient client = new FakeClient(FRIENDS, Integer.MAX_VALUE, new FacebookOAuthException("OAuthException", "Invalid OAuth access token.", 190, null, 400));
+			FakeCollector collector = new FakeCollector(sdbm, client);
+			collector.setup(sdbm.getAllIndividuals(), "token");
+			try {
+				collector.run();
+				fail("The token is invalid.");
+			} catch (FacebookOAuthException e) {
+				// Expected at once.
+			}
+			assertEquals(1, client.friendListRequests.get());
+			assertTrue(collector.getIndividualsCollected().isEmpty());
+		} finally {
+			sdbm.closeConnection();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testRequestsArePaced() throws Exception {
+		SecondaryDatabaseManager sdbm = createDatabase("facebookthreads=4", "facebookrequests=100");
+		try {
+			FakeClient client = new FakeClient(FRIENDS, 0, null);
+			FakeCollector collector = new FakeCollector(sdbm, client);
+			collector.setup(sdbm.getAllIndividuals(), "token");
+			long start = System.nanoTime();
+			collector.run();
+			long millis = (System.nanoTime() - start) / 1000000;
+			// The friend list and the first two batches take 101 permits, which have to be paid for
+			// before the last batch is sent.
+			assertTrue("Took " + millis + " ms", millis >= 900);
+			assertEquals(TARGETS, collector.getItemsCollected());
+		} finally {
+			sdbm.closeConnection();
+		}
+	}
+
+	// Stores the targets and opens a secondary database manager with the given settings on them.
+	private static SecondaryDatabaseManager createDatabase(String... settings) throws Exception {
+		String config = TestDatabase.createConfig(settings);
+		FacebookDataCollector prototype = new FacebookDataCollector(null);
+		Hashtable<String, AttributeCategories> globalAttributeTable = prototype.getAttributeTable();
+		PrimaryDatabaseManager pdbm = new PrimaryDatabaseManager(globalAttributeTable, config);
+		try {
+			int venue = pdbm.createVenue("Main");
+			List<Individual> individuals = new ArrayList<Individual>();
+			for (int i = 0; i < TARGETS; i++) {
+				individuals.add(Individual.getNewIndividual("First" + i, "Last" + i, "", DATE, venue, "A" + i, globalAttributeTable));
+			}
+			pdbm.storeIndividual(individuals);
+		} finally {
+			pdbm.closeConnection();
+		}
+		return new SecondaryDatabaseManager(globalAttributeTable, config);
+	}
+
+	private static void assertStoredGenders(SecondaryDatabaseManager sdbm, int expected) throws Exception {
+		List<Individual> individuals = sdbm.getAllIndividuals();
+		sdbm.getAttributes(individuals, Arrays.asList("fb_gender"));
+		int found = 0;
+		for (Individual current : individuals) {
+			if (current.containsAttribute("fb_gender")) {
+				assertEquals(1, current.getAttribute("fb_gender").size());
+				assertEquals("female", current.getAttribute("fb_gender").get(0).getAttribute());
+				found++;
+			}
+		}
+		assertEquals(expected, found);
+	}
+
+	private static List<String> sorted(List<String> strings) {
+		List<String> sorted = new ArrayList<String>(strings);
+		Collections.sort(sorted);
+		return sorted;
+	}
+
+	/**
+	 * Collector that uses the fake Graph API.
+	 */
+	private static class FakeCollector extends FacebookDataCollector {
+		private final FakeClient	client;
+
+		FakeCollector(SecondaryDatabaseManager sdbm, FakeClient client) {
+			super(sdbm);
+			this.client = client;
+		}
+
+		@Override
+		protected DefaultFacebookClient createClient(String userToken) {
+			return this.client;
+		}
+	}
+
+	/**
+	 * Graph API with friends called FirstN LastN, where N is the ID of the friend unless it is an
+	 * alias of another ID. Requests for the list of friends fail a number of times before they
+	 * succeed.
+	 */
+	private static class FakeClient extends DefaultFacebookClient {
+		final int						friends;
+		final int						failures;
+		final FacebookException			error;
+		final Set<String>				failingInBatch			= Collections.synchronizedSet(new HashSet<String>());
+		final Hashtable<String, String>	aliases					= new Hashtable<String, String>();
+		final List<Integer>				batchSizes				= Collections.synchronizedList(new ArrayList<Integer>());
+		final List<String>				singleLookups			= Collections.synchronizedList(new ArrayList<String>());
+		final AtomicInteger				friendListRequests		= new AtomicInteger();
+		final AtomicInteger				concurrentBatches		= new AtomicInteger();
+		final AtomicInteger				maxConcurrentBatches	= new AtomicInteger();
+
+		FakeClient(int friends, int failures, FacebookException error) {
+			super("token");
+			this.friends = friends;
+			this.failures = failures;
+			this.error = error;
+		}
+
+		@Override
+		public <T> Connection<T> fetchConnection(String connection, Class<T> connectionType, Parameter... parameters) {
+			StringBuilder json = new StringBuilder("{\"data\":[");
+			if (connection.equals("me/friends")) {
+				if (this.friendListRequests.incrementAndGet() <= this.failures)
+					throw this.error;
+				for (int i = 0; i < this.friends; i++) {
+					json.append(i == 0 ? "" : ",").append("{\"id\":\"").append(i).append("\",\"name\":\"").append(this.name(String.valueOf(i))).append("\"}");
+				}
+			}
+			// Nobody has any photos.
+			return new Connection<T>(this, json.append("]}").toString(), connectionType);
+		}
+
+		@Override
+		public <T> T fetchObject(String object, Class<T> objectType, Parameter... parameters) {
+			this.singleLookups.add(object);
+			return this.getJsonMapper().toJavaObject(this.user(object), objectType);
+		}
+
+		@Override
+		public List<BatchResponse> executeBatch(List<BatchRequest> batchRequests) {
+			int concurrent = this.concurrentBatches.incrementAndGet();
+			int max;
+			while ((max = this.maxConcurrentBatches.get()) < concurrent && !this.maxConcurrentBatches.compareAndSet(max, concurrent))
+				;
+			try {
+				this.batchSizes.add(batchRequests.size());
+				Thread.sleep(20);
+				List<BatchResponse> responses = new ArrayList<BatchResponse>();
+				String id;
+				for (BatchRequest request : batchRequests) {
+					id = request.getRelativeUrl().replaceAll("^/|\\?.*$", "");
+					if (this.failingInBatch.contains(id)) {
+						responses.add(new BatchResponse(500, null, "{}"));
+					} else {
+						responses.add(new BatchResponse(200, null, this.user(id)));
+					}
+				}
+				return responses;
+			} catch (InterruptedException e) {
+				throw new FacebookNetworkException("Interrupted", e);
+			} finally {
+				this.concurrentBatches.decrementAndGet();
+			}
+		}
+
+		private String name(String id) {
+			String number = this.aliases.containsKey(id) ? this.aliases.get(id) : id;
+			return "First" + number + " Last" + number;
+		}
+
+		private String user(String id) {
+			String[] name = this.name(id).split(" ");
+			return "{\"id\":\"" + id + "\",\"first_name\":\"" + name[0] + "\",\"last_name\":\"" + name[1] + "\",\"gender\":\"female\"}";
+		}
+	}
+}
@@ -0,0 +1,267 @@
+package uk.ac.cam.darknet.tests;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.UUID;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import uk.ac.cam.darknet.storage.ImageStorage;
+
+/**
+ * Tests saving images into and retrieving them from image storages in temporary folders. The
+ * images are written to temporary files first and saved from their file URLs. The cache of decoded
+ * images is shared by all storages, so the tests of the cache only count the hits and misses of
+ * their own images, and restore its default capacity.
+ */
+public class ImageStorageTests {
+	private static final long	DEFAULT_CACHE_CAPACITY	= 64L * 1024 * 1024;
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testImagesAreNamedByTheirContent() throws Exception {
+		File folder = createFolder();
+		File source = writeImage(200, 100, "png");
+		String id = new ImageStorage(folder.getPath() + "/").saveImage(toURL(source));
+		byte[] content = Files.readAllBytes(source.toPath());
+		assertEquals(sha1(content) + "-png", id);
+		assertArrayEquals(content, Files.readAllBytes(new File(folder, id + ".png").toPath()));
+		// Nothing else is left in the folder.
+		assertEquals(Arrays.asList(id + ".png"), Arrays.asList(folder.list()));
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testDuplicatesAreStoredOnce() throws Exception {
+		File folder = createFolder();
+		ImageStorage storage = new ImageStorage(folder.getPath() + "/");
+		File source = writeImage(200, 100, "jpg");
+		File copy = File.createTempFile("copy", ".jpg");
+		copy.deleteOnExit();
+		Files.copy(source.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		String id = storage.saveImage(toURL(source));
+		assertEquals(id, storage.saveImage(toURL(copy)));
+		assertEquals(id, storage.saveImage(toURL(source)));
+		assertEquals(1, folder.list().length);
+		// A different image gets a different name.
+		assertNotEquals(id, storage.saveImage(toURL(writeImage(201, 100, "jpg"))));
+		assertEquals(2, folder.list().length);
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testFormatIsDeterminedFromTheContent() throws Exception {
+		File folder = createFolder();
+		ImageStorage storage = new ImageStorage(folder.getPath() + "/");
+		for (String format : new String[] { "jpg", "png", "gif" }) {
+			// The name of the file says nothing about its format.
+			File source = writeImage(20, 10, format);
+			File renamed = File.createTempFile("image", ".dat");
+			renamed.deleteOnExit();
+			Files.copy(source.toPath(), renamed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			String id = storage.saveImage(toURL(renamed));
+			assertTrue(id, id.endsWith("-" + format));
+			assertTrue(new File(folder, id + "." + format).exists());
+			assertEquals(20, ((BufferedImage) storage.retreiveImage(id)).getWidth());
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testOtherFormatsAreReencoded() throws Exception {
+		File folder = createFolder();
+		ImageStorage storage = new ImageStorage(folder.getPath() + "/");
+		String id = storage.saveImage(toURL(writeImage(30, 20, "bmp")));
+		assertTrue(id, id.endsWith("-jpg"));
+		byte[] content = Files.readAllBytes(new File(folder, id + ".jpg").toPath());
+		assertEquals(0xFF, content[0] & 0xFF);
+		assertEquals(0xD8, content[1] & 0xFF);
+		BufferedImage image = (BufferedImage) storage.retreiveImage(id);
+		assertEquals(30, image.getWidth());
+		assertEquals(20, image.getHeight());
+		assertEquals(1, folder.list().length);
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testUnsupportedDataIsRejected() throws Exception {
+		File folder = createFolder();
+		File source = File.createTempFile("image", ".dat");
+		source.deleteOnExit();
+		Files.write(source.toPath(), "not an image".getBytes("UTF-8"));
+		try {
+			new ImageStorage(folder.getPath() + "/").saveImage(toURL(source));
+			fail("The data is not an image.");
+		} catch (IOException e) {
+			// Expected, and the download is not left behind.
+			assertEquals(0, folder.list().length);
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testLegacyImagesCanBeRetrieved() throws Exception {
+		File folder = createFolder();
+		// Images used to be named by a random UUID followed by their format.
+		String id = UUID.randomUUID().toString() + "-png";
+		ImageIO.write(createImage(40, 30), "png", new File(folder, id + ".png"));
+		BufferedImage image = (BufferedImage) new ImageStorage(folder.getPath() + "/").retreiveImage(id);
+		assertEquals(40, image.getWidth());
+		assertEquals(30, image.getHeight());
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testLeastRecentlyUsedImagesAreEvicted() throws Exception {
+		File folder = createFolder();
+		ImageStorage storage = new ImageStorage(folder.getPath() + "/");
+		String a = storage.saveImage(toURL(writeImage(100, 100, "png")));
+		String b = storage.saveImage(toURL(writeImage(100, 101, "png")));
+		String c = storage.saveImage(toURL(writeImage(100, 102, "png")));
+		long bytes = sizeOf((BufferedImage) storage.retreiveImage(c));
+		try {
+			// Empty the cache, then leave room for two of the images, but not for three.
+			ImageStorage.setCacheCapacity(0);
+			ImageStorage.setCacheCapacity(bytes * 5 / 2);
+			long hits = ImageStorage.getCacheHits();
+			long misses = ImageStorage.getCacheMisses();
+			storage.retreiveImage(a);
+			storage.retreiveImage(b);
+			// A is evicted to make room for C.
+			storage.retreiveImage(c);
+			assertEquals(misses + 3, ImageStorage.getCacheMisses());
+			storage.retreiveImage(b);
+			assertEquals(hits + 1, ImageStorage.getCacheHits());
+			// C is evicted to make room for A again, as B has been used since C was stored.
+			storage.retreiveImage(a);
+			storage.retreiveImage(b);
+			assertEquals(hits + 2, ImageStorage.getCacheHits());
+			storage.retreiveImage(c);
+			assertEquals(misses + 3 + 2, ImageStorage.getCacheMisses());
+		} finally {
+			ImageStorage.setCacheCapacity(DEFAULT_CACHE_CAPACITY);
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testNoCache() throws Exception {
+		File folder = createFolder();
+		ImageStorage storage = new ImageStorage(folder.getPath() + "/");
+		String id = storage.saveImage(toURL(writeImage(100, 100, "png")));
+		storage.retreiveImage(id);
+		try {
+			// Setting the capacity to 0 empties the cache and keeps it empty.
+			ImageStorage.setCacheCapacity(0);
+			long hits = ImageStorage.getCacheHits();
+			long misses = ImageStorage.getCacheMisses();
+			storage.retreiveImage(id);
+			storage.retreiveImage(id);
+			assertEquals(hits, ImageStorage.getCacheHits());
+			assertEquals(misses + 2, ImageStorage.getCacheMisses());
+		} finally {
+			ImageStorage.setCacheCapacity(DEFAULT_CACHE_CAPACITY);
+		}
+		storage.retreiveImage(id);
+		long hits = ImageStorage.getCacheHits();
+		storage.retreiveImage(id);
+		assertEquals(hits + 1, ImageStorage.getCacheHits());
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testThumbnailsAreStoredAndReused() throws Exception {
+		File folder = createFolder();
+		ImageStorage storage = new ImageStorage(folder.getPath() + "/");
+		String wide = storage.saveImage(toURL(writeImage(200, 100, "png")));
+		String tall = storage.saveImage(toURL(writeImage(100, 200, "jpg")));
+		BufferedImage thumbnail = storage.retrieveImage(wide, 50);
+		assertEquals(50, thumbnail.getWidth());
+		assertEquals(25, thumbnail.getHeight());
+		assertTrue(new File(folder, "thumbnails/50/" + wide + ".png").exists());
+		assertSame(thumbnail, storage.retrieveImage(wide, 50));
+		thumbnail = storage.retrieveImage(tall, 50);
+		assertEquals(25, thumbnail.getWidth());
+		assertEquals(50, thumbnail.getHeight());
+		assertTrue(new File(folder, "thumbnails/50/" + tall + ".jpg").exists());
+
+		// Once the thumbnail has been stored, the original is not needed any more.
+		try {
+			ImageStorage.setCacheCapacity(0);
+		} finally {
+			ImageStorage.setCacheCapacity(DEFAULT_CACHE_CAPACITY);
+		}
+		assertTrue(new File(folder, wide + ".png").delete());
+		thumbnail = storage.retrieveImage(wide, 50);
+		assertEquals(50, thumbnail.getWidth());
+		assertEquals(25, thumbnail.getHeight());
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testSmallImagesAreNotScaled() throws Exception {
+		File folder = createFolder();
+		ImageStorage storage = new ImageStorage(folder.getPath() + "/");
+		String id = storage.saveImage(toURL(writeImage(200, 100, "png")));
+		BufferedImage image = storage.retrieveImage(id, 200);
+		assertSame(storage.retreiveImage(id), image);
+		assertEquals(200, image.getWidth());
+		assertFalse(new File(folder, "thumbnails").exists());
+	}
+
+	// The number of bytes the pixels of an image take up, as counted by the cache.
+	private static long sizeOf(BufferedImage image) {
+		DataBuffer buffer = image.getRaster().getDataBuffer();
+		return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+	}
+
+	private static File createFolder() throws IOException {
+		File folder = Files.createTempDirectory("storage").toFile();
+		folder.deleteOnExit();
+		return folder;
+	}
+
+	// An image with a gradient, so that images of different sizes differ.
+	private static BufferedImage createImage(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2d = image.createGraphics();
+		for (int x = 0; x < width; x++) {
+			g2d.setColor(new Color(x * 255 / width, 128, 255 - x * 255 / width));
+			g2d.drawLine(x, 0, x, height - 1);
+		}
+		g2d.dispose();
+		return image;
+	}
+
+	private static File writeImage(int width, int height, String format) throws IOException {
+		File file = File.createTempFile("image", "." + format);
+		file.deleteOnExit();
+		assertTrue(ImageIO.write(createImage(width, height), format, file));
+		return file;
+	}
+
+	private static URL toURL(File file) throws IOException {
+		return file.toURI().toURL();
+	}
+
+	private static String sha1(byte[] content) throws Exception {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : MessageDigest.getInstance("SHA-1").digest(content)) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+}
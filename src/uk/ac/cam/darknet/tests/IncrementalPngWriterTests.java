@@ -0,0 +1,136 @@
+package uk.ac.cam.darknet.tests;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import uk.ac.cam.darknet.frontend.IncrementalPngWriter;
+
+/**
+ * Tests writing PNG images strip by strip. The images written are read back with
+ * <code>ImageIO</code> and compared pixel by pixel with the original.
+ */
+public class IncrementalPngWriterTests {
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testStripsOfDifferentHeights() throws IOException {
+		BufferedImage image = createImage(37, 23, new Random(1));
+		assertSameImage(image, readPng(writePng(image, 5, 5, 5, 8)));
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testSingleStrip() throws IOException {
+		BufferedImage image = createImage(1, 1, new Random(2));
+		assertSameImage(image, readPng(writePng(image, 1)));
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testStripLargerThanBuffer() throws IOException {
+		// Noise hardly compresses, so each strip takes several buffers to deflate.
+		BufferedImage image = createImage(400, 300, new Random(3));
+		assertSameImage(image, readPng(writePng(image, 100, 100, 100)));
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testStripsCompressedInParallel() throws Exception {
+		final BufferedImage image = createImage(64, 64, new Random(4));
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Future<IncrementalPngWriter.Strip>> strips = new ArrayList<Future<IncrementalPngWriter.Strip>>();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			for (int y = 0; y < image.getHeight(); y += 8) {
+				final int top = y;
+				strips.add(executor.submit(new Callable<IncrementalPngWriter.Strip>() {
+					@Override
+					public IncrementalPngWriter.Strip call() {
+						return IncrementalPngWriter.compress(image.getSubimage(0, top, image.getWidth(), 8));
+					}
+				}));
+			}
+			try (IncrementalPngWriter png = new IncrementalPngWriter(out, image.getWidth(), image.getHeight());) {
+				for (Future<IncrementalPngWriter.Strip> strip : strips) {
+					png.write(strip.get());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertArrayEquals(writePng(image, 8, 8, 8, 8, 8, 8, 8, 8), out.toByteArray());
+		assertSameImage(image, readPng(out.toByteArray()));
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test(expected = IOException.class)
+	public void testCloseBeforeLastStrip() throws IOException {
+		BufferedImage image = createImage(10, 10, new Random(5));
+		try (IncrementalPngWriter png = new IncrementalPngWriter(new ByteArrayOutputStream(), 10, 20);) {
+			png.write(IncrementalPngWriter.compress(image));
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test(expected = IllegalArgumentException.class)
+	public void testStripOfWrongWidth() throws IOException {
+		BufferedImage image = createImage(10, 10, new Random(6));
+		IncrementalPngWriter png = new IncrementalPngWriter(new ByteArrayOutputStream(), 20, 10);
+		png.write(IncrementalPngWriter.compress(image));
+	}
+
+	// Creates an image of random pixels, with a few rows of a single colour that compress well.
+	private static BufferedImage createImage(int width, int height, Random random) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				image.setRGB(x, y, y % 4 == 3 ? 0xFF8000 : random.nextInt(0x1000000));
+			}
+		}
+		return image;
+	}
+
+	// Writes the image in strips of the given heights.
+	private static byte[] writePng(BufferedImage image, int... heights) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int top = 0;
+		try (IncrementalPngWriter png = new IncrementalPngWriter(out, image.getWidth(), image.getHeight());) {
+			for (int height : heights) {
+				png.write(IncrementalPngWriter.compress(image.getSubimage(0, top, image.getWidth(), height)));
+				top += height;
+			}
+		}
+		return out.toByteArray();
+	}
+
+	private static BufferedImage readPng(byte[] png) throws IOException {
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+		assertNotNull(image);
+		return image;
+	}
+
+	private static void assertSameImage(BufferedImage expected, BufferedImage actual) {
+		assertEquals(expected.getWidth(), actual.getWidth());
+		assertEquals(expected.getHeight(), actual.getHeight());
+		for (int y = 0; y < expected.getHeight(); y++) {
+			for (int x = 0; x < expected.getWidth(); x++) {
+				assertEquals("Pixel " + x + ", " + y, expected.getRGB(x, y), actual.getRGB(x, y));
+			}
+		}
+	}
+}
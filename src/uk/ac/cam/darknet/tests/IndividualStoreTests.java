@@ -0,0 +1,88 @@
+package uk.ac.cam.darknet.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+
+import org.junit.Test;
+
+import uk.ac.cam.darknet.common.AttributeCategories;
+import uk.ac.cam.darknet.common.Individual;
+import uk.ac.cam.darknet.database.PrimaryDatabaseManager;
+
+/**
+ * Tests storing lists of individuals in batches against in-memory databases, when some of the
+ * individuals are rejected by the database or discarded before they are sent.
+ */
+public class IndividualStoreTests {
+	private static final Date	DATE	= new GregorianCalendar(2013, 2, 7, 19, 30).getTime();
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testIdsOfBatchesWithRejectedIndividuals() throws Exception {
+		Hashtable<String, AttributeCategories> globalAttributeTable = new Hashtable<String, AttributeCategories>();
+		PrimaryDatabaseManager pdbm = new PrimaryDatabaseManager(globalAttributeTable, TestDatabase.createConfig("batchsize=3"));
+		try {
+			int venue = pdbm.createVenue("Test");
+			pdbm.storeIndividual(Arrays.asList(createIndividual(1, venue, globalAttributeTable), createIndividual(5, venue, globalAttributeTable), createIndividual(6, venue, globalAttributeTable)));
+			List<Individual> individuals = new ArrayList<Individual>();
+			for (int i = 0; i < 12; i++) {
+				individuals.add(createIndividual(i, venue, globalAttributeTable));
+			}
+			// The same individual twice in one batch, and one without a first name.
+			individuals.set(3, createIndividual(2, venue, globalAttributeTable));
+			individuals.set(9, Individual.getNewIndividual("", "Last9", null, DATE, venue, "A9", globalAttributeTable));
+			// 1, 3, 5 and 6 are rejected by the database, 9 is never sent.
+			List<Integer> rejected = Arrays.asList(1, 3, 5, 6, 9);
+
+			long[] ids = pdbm.storeIndividualsReturningIds(individuals);
+			assertEquals(individuals.size(), ids.length);
+			HashSet<Long> distinct = new HashSet<Long>();
+			Individual stored;
+			for (int i = 0; i < ids.length; i++) {
+				if (rejected.contains(i)) {
+					assertEquals("Individual " + i, -1, ids[i]);
+				} else {
+					assertTrue(distinct.add(ids[i]));
+					stored = pdbm.getById(ids[i]);
+					assertEquals(individuals.get(i).getFirstName(), stored.getFirstName());
+					assertEquals(individuals.get(i).getSeat(), stored.getSeat());
+				}
+			}
+			assertEquals(3 + individuals.size() - rejected.size(), pdbm.countIndividuals());
+		} finally {
+			pdbm.closeConnection();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testCountOfBatchesWithRejectedIndividuals() throws Exception {
+		Hashtable<String, AttributeCategories> globalAttributeTable = new Hashtable<String, AttributeCategories>();
+		PrimaryDatabaseManager pdbm = new PrimaryDatabaseManager(globalAttributeTable, TestDatabase.createConfig("batchsize=3"));
+		try {
+			int venue = pdbm.createVenue("Test");
+			List<Individual> individuals = new ArrayList<Individual>();
+			for (int i = 0; i < 7; i++) {
+				individuals.add(createIndividual(i, venue, globalAttributeTable));
+			}
+			assertEquals(7, pdbm.storeIndividual(individuals));
+			// Storing them again stores nothing, but adds the one new individual.
+			individuals.add(createIndividual(7, venue, globalAttributeTable));
+			assertEquals(1, pdbm.storeIndividual(individuals));
+			assertEquals(8, pdbm.countIndividuals());
+		} finally {
+			pdbm.closeConnection();
+		}
+	}
+
+	private static Individual createIndividual(int i, int venue, Hashtable<String, AttributeCategories> globalAttributeTable) {
+		return Individual.getNewIndividual("First" + i, "Last" + i, "first" + i + "@example.org", DATE, venue, "A" + i, globalAttributeTable);
+	}
+}
@@ -0,0 +1,208 @@
+package uk.ac.cam.darknet.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Hashtable;
+import java.util.List;
+
+import org.junit.Test;
+
+import uk.ac.cam.darknet.common.AttributeCategories;
+import uk.ac.cam.darknet.common.Individual;
+import uk.ac.cam.darknet.common.Show;
+import uk.ac.cam.darknet.database.PrimaryDatabaseManager;
+
+/**
+ * Tests reading individuals page by page in order of their IDs against in-memory databases. The
+ * individuals attend two shows in turn, and some of them are deleted again, so that there are gaps
+ * in their IDs.
+ */
+public class PagingTests {
+	private static final Date	FIRST_DATE	= new GregorianCalendar(2013, 2, 7, 19, 30).getTime();
+	private static final Date	SECOND_DATE	= new GregorianCalendar(2013, 2, 8, 19, 30).getTime();
+	private static final int	STORED		= 20;
+	private static final int[]	DELETED		= { 0, 3, 4, 10, 19 };
+	private static final int	REMAINING	= STORED - DELETED.length;
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testPages() throws Exception {
+		PrimaryDatabaseManager pdbm = new PrimaryDatabaseManager(new Hashtable<String, AttributeCategories>(), TestDatabase.createConfig());
+		try {
+			long[] ids = store(pdbm);
+			List<Long> read = new ArrayList<Long>();
+			List<Integer> sizes = new ArrayList<Integer>();
+			long afterId = Long.MIN_VALUE;
+			List<Individual> page;
+			do {
+				page = pdbm.getIndividualsAfter(afterId, 4);
+				sizes.add(page.size());
+				for (Individual current : page) {
+					read.add(current.getId());
+					afterId = current.getId();
+				}
+			} while (!page.isEmpty());
+			// Every page is full but the last, and the page after the last individual is empty.
+			assertEquals(Arrays.asList(4, 4, 4, 3, 0), sizes);
+			assertEquals(toList(ids), read);
+		} finally {
+			pdbm.closeConnection();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testPagesStartInGaps() throws Exception {
+		PrimaryDatabaseManager pdbm = new PrimaryDatabaseManager(new Hashtable<String, AttributeCategories>(), TestDatabase.createConfig());
+		try {
+			long[] ids = store(pdbm);
+			// A page may start after an ID that is not there any more.
+			for (int i = 1; i < ids.length; i++) {
+				if (ids[i] - ids[i - 1] > 1)
+					assertEquals(ids[i], pdbm.getIndividualsAfter(ids[i] - 1, 1).get(0).getId());
+			}
+			assertEquals(ids[0], pdbm.getIndividualsAfter(ids[0] - 1, 1).get(0).getId());
+			assertTrue(pdbm.getIndividualsAfter(ids[REMAINING - 1], 4).isEmpty());
+			assertTrue(pdbm.getIndividualsAfter(Long.MAX_VALUE, 4).isEmpty());
+		} finally {
+			pdbm.closeConnection();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testPageStart() throws Exception {
+		PrimaryDatabaseManager pdbm = new PrimaryDatabaseManager(new Hashtable<String, AttributeCategories>(), TestDatabase.createConfig());
+		try {
+			long[] ids = store(pdbm);
+			// Skipping nobody stays where it is, without asking the database.
+			assertEquals(Long.MIN_VALUE, pdbm.getPageStart(Long.MIN_VALUE, 0));
+			assertEquals(ids[5], pdbm.getPageStart(ids[5], 0));
+			// Skipping k individuals gives the ID of the k-th one, after which the new page starts.
+			for (int skip = 1; skip <= REMAINING; skip++) {
+				assertEquals("Skipping " + skip, ids[skip - 1], pdbm.getPageStart(Long.MIN_VALUE, skip));
+			}
+			assertEquals(ids[9], pdbm.getPageStart(ids[4], 5));
+			// The page found is the one reached by reading the pages before it.
+			long afterId = pdbm.getPageStart(Long.MIN_VALUE, 8);
+			List<Individual> page = pdbm.getIndividualsAfter(afterId, 4);
+			assertEquals(ids[8], page.get(0).getId());
+			assertEquals(ids[11], page.get(3).getId());
+			// Jumping past the end.
+			assertEquals(-1, pdbm.getPageStart(Long.MIN_VALUE, REMAINING + 1));
+			assertEquals(-1, pdbm.getPageStart(ids[10], REMAINING));
+			assertEquals(-1, pdbm.getPageStart(ids[REMAINING - 1], 1));
+		} finally {
+			pdbm.closeConnection();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testShowPages() throws Exception {
+		PrimaryDatabaseManager pdbm = new PrimaryDatabaseManager(new Hashtable<String, AttributeCategories>(), TestDatabase.createConfig());
+		try {
+			store(pdbm);
+			Show first = new Show(FIRST_DATE, pdbm.getAllVenues().get(0));
+			Show second = new Show(SECOND_DATE, first.getVenue());
+			List<Long> firstIds = attending(pdbm, first);
+			List<Long> secondIds = attending(pdbm, second);
+			assertEquals(REMAINING, firstIds.size() + secondIds.size());
+			assertEquals(firstIds.size(), pdbm.countIndividuals(first));
+			assertEquals(secondIds.size(), pdbm.countIndividuals(second));
+			assertEquals(REMAINING, pdbm.countIndividuals(null));
+			for (List<Long> ids : Arrays.asList(firstIds, secondIds)) {
+				Show show = ids == firstIds ? first : second;
+				// Pages only hold individuals of the show, however far apart their IDs are.
+				List<Long> read = new ArrayList<Long>();
+				long afterId = Long.MIN_VALUE;
+				List<Individual> page;
+				do {
+					page = pdbm.getIndividualsAfter(show, afterId, 3);
+					assertTrue(page.size() <= 3);
+					for (Individual current : page) {
+						assertEquals(Show.toSeconds(show.getDate()), Show.toSeconds(current.getEventDate()));
+						read.add(current.getId());
+						afterId = current.getId();
+					}
+				} while (page.size() == 3);
+				assertEquals(ids, read);
+				// Only the individuals of the show are skipped.
+				assertEquals(Long.MIN_VALUE, pdbm.getPageStart(show, Long.MIN_VALUE, 0));
+				for (int skip = 1; skip <= ids.size(); skip++) {
+					assertEquals("Skipping " + skip, (long) ids.get(skip - 1), pdbm.getPageStart(show, Long.MIN_VALUE, skip));
+				}
+				assertEquals((long) ids.get(4), pdbm.getPageStart(show, ids.get(1), 3));
+				assertEquals(-1, pdbm.getPageStart(show, Long.MIN_VALUE, ids.size() + 1));
+				assertEquals(-1, pdbm.getPageStart(show, ids.get(ids.size() - 1), 1));
+			}
+		} finally {
+			pdbm.closeConnection();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testShowWithoutAudience() throws Exception {
+		PrimaryDatabaseManager pdbm = new PrimaryDatabaseManager(new Hashtable<String, AttributeCategories>(), TestDatabase.createConfig());
+		try {
+			store(pdbm);
+			Show empty = new Show(new GregorianCalendar(2013, 2, 9, 19, 30).getTime(), pdbm.getAllVenues().get(0));
+			assertEquals(0, pdbm.countIndividuals(empty));
+			assertTrue(pdbm.getIndividualsAfter(empty, Long.MIN_VALUE, 3).isEmpty());
+			assertEquals(Long.MIN_VALUE, pdbm.getPageStart(empty, Long.MIN_VALUE, 0));
+			assertEquals(-1, pdbm.getPageStart(empty, Long.MIN_VALUE, 1));
+		} finally {
+			pdbm.closeConnection();
+		}
+	}
+
+	// Stores the individuals, attending the two shows in turn, deletes some of them and returns the
+	// IDs of the others in order.
+	private static long[] store(PrimaryDatabaseManager pdbm) throws Exception {
+		Hashtable<String, AttributeCategories> globalAttributeTable = new Hashtable<String, AttributeCategories>();
+		int venue = pdbm.createVenue("Main");
+		List<Individual> individuals = new ArrayList<Individual>();
+		for (int i = 0; i < STORED; i++) {
+			individuals.add(Individual.getNewIndividual("First" + i, "Last" + i, "first" + i + "@example.org", i % 2 == 0 ? FIRST_DATE : SECOND_DATE, venue, "A" + i, globalAttributeTable));
+		}
+		long[] stored = pdbm.storeIndividualsReturningIds(individuals);
+		for (int i : DELETED) {
+			assertTrue(pdbm.deleteIndividual(stored[i]));
+		}
+		long[] ids = new long[REMAINING];
+		int next = 0;
+		for (int i = 0; i < STORED; i++) {
+			if (Arrays.binarySearch(DELETED, i) < 0)
+				ids[next++] = stored[i];
+		}
+		for (int i = 1; i < REMAINING; i++) {
+			assertTrue(ids[i] > ids[i - 1]);
+		}
+		assertEquals(REMAINING, pdbm.countIndividuals());
+		return ids;
+	}
+
+	// The IDs of the audience of a show in order, as found without paging.
+	private static List<Long> attending(PrimaryDatabaseManager pdbm, Show show) throws Exception {
+		List<Long> ids = new ArrayList<Long>();
+		for (Individual current : pdbm.getByShow(show)) {
+			ids.add(current.getId());
+		}
+		Collections.sort(ids);
+		return ids;
+	}
+
+	private static List<Long> toList(long[] ids) {
+		List<Long> list = new ArrayList<Long>();
+		for (long id : ids) {
+			list.add(id);
+		}
+		return list;
+	}
+}
@@ -0,0 +1,84 @@
+package uk.ac.cam.darknet.tests;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.List;
+
+import uk.ac.cam.darknet.common.AttributeCategories;
+import uk.ac.cam.darknet.common.AttributeReliabilityPair;
+import uk.ac.cam.darknet.common.Individual;
+
+/**
+ * Measures the heap taken by 200,000 individuals loaded for a report with seven attributes each,
+ * and the time taken to add and read the attributes. The heap is measured as the growth of the used
+ * heap after a full garbage collection, so run it with a fixed heap (e.g. <code>-Xms1g
+ * -Xmx1g</code>) for stable figures. It does not need a database.
+ */
+public class PropertiesFootprintBenchmark {
+	private static final int	INDIVIDUALS	= 200000;
+	private static final int	PHOTOS		= 3;
+	private static final int	RUNS		= 5;
+
+	/**
+	 * @param args
+	 *            The arguments are ignored.
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Hashtable<String, AttributeCategories> globalAttributeTable = new Hashtable<String, AttributeCategories>();
+		globalAttributeTable.put("fb_photo", AttributeCategories.PHOTO);
+		globalAttributeTable.put("fb_gender", AttributeCategories.GENDER);
+		globalAttributeTable.put("fb_locale", AttributeCategories.LOCALE);
+		globalAttributeTable.put("fb_birthday", AttributeCategories.BIRTHDAY);
+		globalAttributeTable.put("fb_relationshipStatus", AttributeCategories.RELATIONSHIP_STATUS);
+		Date date = new Date();
+		// The values are shared, so that only the cost of storing them is measured.
+		String photo = "images/photo.jpg";
+		String gender = "female";
+		String locale = "en_GB";
+		String birthday = "01/01/1990";
+		String relationshipStatus = "Single";
+
+		for (int run = 1; run <= RUNS; run++) {
+			long before = usedHeap();
+			long start = System.nanoTime();
+			List<Individual> individuals = createIndividuals(globalAttributeTable, date);
+			for (Individual current : individuals) {
+				for (int i = 0; i < PHOTOS; i++)
+					current.addAttribute("fb_photo", photo, 0.8);
+				current.addAttribute("fb_gender", gender, 0.8);
+				current.addAttribute("fb_locale", locale, 1.0);
+				current.addAttribute("fb_birthday", birthday, 0.8);
+				current.addAttribute("fb_relationshipStatus", relationshipStatus, 0.8);
+			}
+			long filled = System.nanoTime();
+			double reliabilities = 0;
+			for (Individual current : individuals) {
+				for (AttributeReliabilityPair pair : current.getAttribute("fb_photo"))
+					reliabilities += pair.getReliability();
+				reliabilities += current.getAttribute("fb_gender").get(0).getReliability();
+			}
+			long read = System.nanoTime();
+			long bytes = usedHeap() - before;
+			System.out.println(String.format("Run %d: %d bytes per individual, attributes added in %d ms, read in %d ms (%.0f).", run, bytes / individuals.size(), (filled - start) / 1000000, (read - filled) / 1000000, reliabilities));
+			individuals = null;
+		}
+	}
+
+	private static List<Individual> createIndividuals(Hashtable<String, AttributeCategories> globalAttributeTable, Date date) {
+		List<Individual> individuals = new ArrayList<Individual>(INDIVIDUALS);
+		for (int i = 0; i < INDIVIDUALS; i++)
+			individuals.add(new Individual(i, "First", "Last", "first.last@example.com", date, 1, "A1", globalAttributeTable));
+		return individuals;
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
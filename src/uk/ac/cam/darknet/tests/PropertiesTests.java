@@ -0,0 +1,122 @@
+package uk.ac.cam.darknet.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.List;
+
+import org.junit.Test;
+
+import uk.ac.cam.darknet.common.AttributeCategories;
+import uk.ac.cam.darknet.common.AttributeReliabilityPair;
+import uk.ac.cam.darknet.common.Properties;
+import uk.ac.cam.darknet.exceptions.InvalidAttributeTypeException;
+import uk.ac.cam.darknet.exceptions.UnknownAttributeException;
+
+/**
+ * Tests the order in which the attributes of an individual are returned, in particular after some
+ * of them have been removed and the remaining ones moved up.
+ */
+public class PropertiesTests {
+	private static final Hashtable<String, AttributeCategories>	globalAttributeTable	= new Hashtable<String, AttributeCategories>();
+
+	static {
+		globalAttributeTable.put("fb_photo", AttributeCategories.PHOTO);
+		globalAttributeTable.put("fb_gender", AttributeCategories.GENDER);
+		globalAttributeTable.put("fb_locale", AttributeCategories.LOCALE);
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testOrderOfAddition() throws Exception {
+		Properties properties = new Properties(globalAttributeTable);
+		properties.put("fb_gender", "female", 0.8);
+		properties.put("fb_photo", "1.jpg", 0.8);
+		properties.put("fb_locale", "en_GB", 1.0);
+		properties.put("fb_photo", "2.jpg", 0.5);
+		assertEquals(Arrays.asList("fb_gender", "fb_photo", "fb_locale"), keys(properties));
+		assertEquals(Arrays.asList(Arrays.asList("female"), Arrays.asList("1.jpg", "2.jpg"), Arrays.asList("en_GB")), values(properties));
+		assertEquals(0.5, properties.get("fb_photo").get(1).getReliability(), 0.0);
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testOrderAfterRemove() throws Exception {
+		Properties properties = new Properties(globalAttributeTable);
+		properties.put("fb_photo", "1.jpg", 0.8);
+		properties.put("fb_gender", "female", 0.8);
+		properties.put("fb_photo", "2.jpg", 0.5);
+		properties.put("fb_locale", "en_GB", 1.0);
+		properties.put("fb_photo", "3.jpg", 0.3);
+		properties.remove("fb_photo");
+		assertFalse(properties.containsAttribute("fb_photo"));
+		assertNull(properties.get("fb_photo"));
+		assertEquals(Arrays.asList("fb_gender", "fb_locale"), keys(properties));
+		assertEquals(Arrays.asList(Arrays.asList("female"), Arrays.asList("en_GB")), values(properties));
+		assertEquals(1.0, properties.get("fb_locale").get(0).getReliability(), 0.0);
+		// Attributes added after the removal come last.
+		properties.put("fb_photo", "4.jpg", 0.8);
+		properties.put("fb_gender", "male", 0.2);
+		assertEquals(Arrays.asList("fb_gender", "fb_locale", "fb_photo"), keys(properties));
+		assertEquals(Arrays.asList(Arrays.asList("female", "male"), Arrays.asList("en_GB"), Arrays.asList("4.jpg")), values(properties));
+		// Removing what is not there changes nothing.
+		properties.remove("fb_photo");
+		properties.remove("fb_photo");
+		assertEquals(Arrays.asList("fb_gender", "fb_locale"), keys(properties));
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testManyAttributesAndClear() throws Exception {
+		Properties properties = new Properties(globalAttributeTable);
+		List<String> photos = new ArrayList<String>();
+		for (int i = 0; i < 20; i++) {
+			photos.add(i + ".jpg");
+			properties.put("fb_photo", i + ".jpg", 0.8);
+			if (i == 10)
+				properties.put("fb_locale", "en_GB", 1.0);
+		}
+		assertEquals(Arrays.asList(photos, Arrays.asList("en_GB")), values(properties));
+		properties.remove("fb_locale");
+		assertEquals(Arrays.asList(photos), values(properties));
+		properties.clear();
+		assertFalse(properties.elements().hasMoreElements());
+		assertFalse(properties.keys().hasMoreElements());
+		properties.put("fb_gender", "female", 0.8);
+		assertEquals(Arrays.asList("fb_gender"), keys(properties));
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test(expected = UnknownAttributeException.class)
+	public void testUnknownAttribute() throws Exception {
+		new Properties(globalAttributeTable).put("tw_handle", "@someone", 0.5);
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test(expected = InvalidAttributeTypeException.class)
+	public void testWrongType() throws Exception {
+		new Properties(globalAttributeTable).put("fb_gender", Integer.valueOf(1), 0.5);
+	}
+
+	private static List<String> keys(Properties properties) {
+		return Collections.list(properties.keys());
+	}
+
+	private static List<List<Object>> values(Properties properties) {
+		List<List<Object>> values = new ArrayList<List<Object>>();
+		Enumeration<List<AttributeReliabilityPair>> elements = properties.elements();
+		List<Object> current;
+		while (elements.hasMoreElements()) {
+			current = new ArrayList<Object>();
+			for (AttributeReliabilityPair pair : elements.nextElement()) {
+				current.add(pair.getAttribute());
+			}
+			values.add(current);
+		}
+		return values;
+	}
+}
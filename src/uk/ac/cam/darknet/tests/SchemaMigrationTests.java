@@ -0,0 +1,209 @@
+package uk.ac.cam.darknet.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import uk.ac.cam.darknet.common.AttributeCategories;
+import uk.ac.cam.darknet.common.Individual;
+import uk.ac.cam.darknet.database.DatabaseManager;
+import uk.ac.cam.darknet.database.PrimaryDatabaseManager;
+import uk.ac.cam.darknet.database.SecondaryDatabaseManager;
+import uk.ac.cam.darknet.exceptions.ConfigFileNotFoundException;
+
+/**
+ * Tests the versioning of the database schema against in-memory databases. The managers must start
+ * on a new database, on an up to date one, after a crash between a step and its new version, and
+ * when several of them start at the same time. Attributes stored before they had keys are keyed by
+ * a migration step, only once.
+ */
+public class SchemaMigrationTests {
+	private static final int	THREADS	= 4;
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testNewDatabaseIsMigratedOnce() throws Exception {
+		Hashtable<String, AttributeCategories> globalAttributeTable = createGlobalAttributeTable();
+		String config = TestDatabase.createConfig();
+		startManagers(globalAttributeTable, config);
+		SchemaDatabaseManager schema = new SchemaDatabaseManager(globalAttributeTable, config);
+		try {
+			assertVersions(schema);
+			// An up to date database is left alone.
+			startManagers(globalAttributeTable, config);
+			assertVersions(schema);
+		} finally {
+			schema.closeConnection();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testStepsAppliedBeforeACrashAreSkipped() throws Exception {
+		Hashtable<String, AttributeCategories> globalAttributeTable = createGlobalAttributeTable();
+		String config = TestDatabase.createConfig();
+		startManagers(globalAttributeTable, config);
+		SchemaDatabaseManager schema = new SchemaDatabaseManager(globalAttributeTable, config);
+		try {
+			// As if each run had stopped after the DDL of a step, before recording its version.
+			schema.execute("DELETE FROM schema_version WHERE component = 'individuals'");
+			schema.execute("UPDATE schema_version SET version = 1 WHERE component = 'fb_gender'");
+			schema.execute("DELETE FROM schema_version WHERE component = 'collection_log'");
+			startManagers(globalAttributeTable, config);
+			assertVersions(schema);
+		} finally {
+			schema.closeConnection();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testAttributesWithoutKeyAreKeyedOnce() throws Exception {
+		Hashtable<String, AttributeCategories> globalAttributeTable = createGlobalAttributeTable();
+		String config = TestDatabase.createConfig();
+		startManagers(globalAttributeTable, config);
+		PrimaryDatabaseManager pdbm = new PrimaryDatabaseManager(globalAttributeTable, config);
+		SchemaDatabaseManager schema = new SchemaDatabaseManager(globalAttributeTable, config);
+		try {
+			int venue = pdbm.createVenue("Test");
+			long id = pdbm.storeIndividual(Individual.getNewIndividual("First", "Last", "first@example.org", new GregorianCalendar(2013, 2, 7, 19, 30).getTime(), venue, "A1", globalAttributeTable));
+			// Rows stored before attributes had keys, twice the same attribute among them.
+			schema.insertWithoutKey("fb_gender", id, "female", 0.5);
+			schema.insertWithoutKey("fb_gender", id, "female", 0.7);
+			schema.insertWithoutKey("fb_gender", id, "male", 0.2);
+			schema.execute("UPDATE schema_version SET version = 3 WHERE component = 'fb_gender'");
+			startManagers(globalAttributeTable, config);
+			assertVersions(schema);
+			assertEquals(0, schema.count("SELECT COUNT(*) FROM fb_gender WHERE attribute_key IS NULL"));
+			assertEquals(2, schema.count("SELECT COUNT(*) FROM fb_gender"));
+
+			// Once the table is up to date, it is no longer scanned for rows without a key.
+			schema.insertWithoutKey("fb_gender", id, "female", 0.9);
+			startManagers(globalAttributeTable, config);
+			assertEquals(1, schema.count("SELECT COUNT(*) FROM fb_gender WHERE attribute_key IS NULL"));
+		} finally {
+			pdbm.closeConnection();
+			schema.closeConnection();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testConcurrentStartsOnNewDatabase() throws Exception {
+		final Hashtable<String, AttributeCategories> globalAttributeTable = createGlobalAttributeTable();
+		final String config = TestDatabase.createConfig();
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+		// The tables themselves are not versioned, so they are created first.
+		new PrimaryDatabaseManager(globalAttributeTable, config).closeConnection();
+		SchemaDatabaseManager schema = new SchemaDatabaseManager(globalAttributeTable, config);
+		try {
+			schema.execute("DELETE FROM schema_version");
+			schema.execute("DROP INDEX individuals_email");
+			schema.execute("DROP INDEX individuals_lname");
+			List<Thread> threads = new ArrayList<Thread>();
+			for (int i = 0; i < THREADS; i++) {
+				threads.add(new Thread() {
+					@Override
+					public void run() {
+						try {
+							start.await();
+							startManagers(globalAttributeTable, config);
+						} catch (Exception e) {
+							errors.add(e);
+						}
+					}
+				});
+			}
+			for (Thread thread : threads) {
+				thread.start();
+			}
+			start.countDown();
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			assertEquals(Collections.<Exception> emptyList(), errors);
+			assertVersions(schema);
+		} finally {
+			schema.closeConnection();
+		}
+	}
+
+	private static Hashtable<String, AttributeCategories> createGlobalAttributeTable() {
+		Hashtable<String, AttributeCategories> globalAttributeTable = new Hashtable<String, AttributeCategories>();
+		globalAttributeTable.put("fb_gender", AttributeCategories.GENDER);
+		return globalAttributeTable;
+	}
+
+	private static void startManagers(Hashtable<String, AttributeCategories> globalAttributeTable, String config) throws Exception {
+		new PrimaryDatabaseManager(globalAttributeTable, config).closeConnection();
+		new SecondaryDatabaseManager(globalAttributeTable, config).closeConnection();
+	}
+
+	private static void assertVersions(SchemaDatabaseManager schema) throws SQLException {
+		assertEquals(2, schema.getVersion("individuals"));
+		assertEquals(4, schema.getVersion("fb_gender"));
+		assertEquals(1, schema.getVersion("collection_log"));
+	}
+
+	/**
+	 * Database manager that reads and changes the schema directly.
+	 */
+	private static class SchemaDatabaseManager extends DatabaseManager {
+		private static final String	GET_VERSION			= "SELECT version FROM schema_version WHERE component = ?";
+		private static final String	INSERT_WITHOUT_KEY	= "INSERT INTO %1$s (id, attribute, reliability) VALUES (?, ?, ?)";
+
+		SchemaDatabaseManager(Hashtable<String, AttributeCategories> globalAttributeTable, String config) throws ConfigFileNotFoundException, IOException, ClassNotFoundException, SQLException {
+			super(globalAttributeTable, config);
+		}
+
+		int getVersion(String component) throws SQLException {
+			try (Connection connection = this.getConnection(); PreparedStatement stmt = connection.prepareStatement(GET_VERSION);) {
+				stmt.setString(1, component);
+				try (ResultSet resultSet = stmt.executeQuery();) {
+					return resultSet.next() ? resultSet.getInt(1) : 0;
+				} finally {
+					connection.commit();
+				}
+			}
+		}
+
+		int count(String query) throws SQLException {
+			try (Connection connection = this.getConnection(); Statement stmt = connection.createStatement(); ResultSet resultSet = stmt.executeQuery(query);) {
+				resultSet.next();
+				connection.commit();
+				return resultSet.getInt(1);
+			}
+		}
+
+		void insertWithoutKey(String attributeName, long id, Object attribute, double reliability) throws SQLException {
+			try (Connection connection = this.getConnection(); PreparedStatement stmt = connection.prepareStatement(String.format(INSERT_WITHOUT_KEY, attributeName));) {
+				stmt.setLong(1, id);
+				stmt.setObject(2, attribute);
+				stmt.setDouble(3, reliability);
+				stmt.executeUpdate();
+				connection.commit();
+			}
+		}
+
+		void execute(String statement) throws SQLException {
+			try (Connection connection = this.getConnection(); Statement stmt = connection.createStatement();) {
+				stmt.execute(statement);
+				connection.commit();
+			}
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package uk.ac.cam.darknet.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Hashtable;
+import java.util.List;
+
+import uk.ac.cam.darknet.backend.FileImportResult;
+import uk.ac.cam.darknet.backend.SeasonImport;
+import uk.ac.cam.darknet.backend.SeasonImportReport;
+import uk.ac.cam.darknet.backend.SpektrixCSVParser;
+import uk.ac.cam.darknet.common.AttributeCategories;
+import uk.ac.cam.darknet.database.DatabaseManager;
+import uk.ac.cam.darknet.database.PrimaryDatabaseManager;
+import uk.ac.cam.darknet.exceptions.ConfigFileNotFoundException;
+
+/**
+ * Compares importing a synthetic season of Spektrix CSV files one file after the other, as the GUI
+ * used to, with a season import parsing one file at a time and parsing several files at once. The
+ * season has one file per performance, one of which has a malformed date halfway through, and is
+ * imported at a new venue each time. It runs against the database configured in
+ * <code>res/dbconfig.txt</code> and removes the venues again when done.
+ */
+public class SeasonImportBenchmark {
+	private static final int	PERFORMANCES	= 60;
+	private static final int	ROWS			= 1000;
+	private static final int	BROKEN			= 7;
+	private static final int	WORKERS			= 4;
+	private static final int	ROUNDS			= 3;
+
+	/**
+	 * @param args
+	 *            The arguments are ignored.
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Hashtable<String, AttributeCategories> globalAttributeTable = new Hashtable<String, AttributeCategories>();
+		File directory = File.createTempFile("season", "");
+		directory.delete();
+		directory.mkdir();
+		PrimaryDatabaseManager pdbm = new PrimaryDatabaseManager(globalAttributeTable);
+		CleanupDatabaseManager cleanup = new CleanupDatabaseManager(globalAttributeTable);
+		try {
+			for (int performance = 0; performance < PERFORMANCES; performance++) {
+				writeFile(directory, performance);
+			}
+			List<File> files = SeasonImport.findFiles(directory.getPath());
+
+			// The first rounds mostly measure how long the code takes to warm up.
+			for (int round = 1; round <= ROUNDS; round++) {
+				int venue = pdbm.createVenue("Benchmark " + System.currentTimeMillis());
+				long start = System.nanoTime();
+				int rows = 0;
+				int stored = 0;
+				int failed = 0;
+				for (File file : files) {
+					try {
+						stored += new SpektrixCSVParser().importCSV(file.getPath(), venue, pdbm, null);
+						rows += ROWS;
+					} catch (Exception e) {
+						failed++;
+					}
+				}
+				long elapsed = Math.max((System.nanoTime() - start) / 1000000, 1);
+				cleanup.deleteVenue(venue);
+				System.out.println(String.format("Round %d, one file after the other: %d files, about %d rows, %d individuals stored in %d ms (%d rows/s), %d files failed.", round, files.size(), rows, stored, elapsed, rows * 1000L / elapsed, failed));
+
+				for (int workers : new int[] { 1, WORKERS }) {
+					venue = pdbm.createVenue("Benchmark " + System.currentTimeMillis());
+					SeasonImportReport report = new SeasonImport(files, venue, workers).run(pdbm, null);
+					cleanup.deleteVenue(venue);
+					System.out.println(String.format("Round %d, season import with %d workers: %s.", round, workers, report));
+					for (FileImportResult result : report.getFailedFiles()) {
+						System.out.println("  " + result);
+					}
+				}
+			}
+		} finally {
+			cleanup.closeConnection();
+			pdbm.closeConnection();
+			for (File current : directory.listFiles()) {
+				current.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	// Writes the file of a performance, with a row with a malformed date in the broken file.
+	private static void writeFile(File directory, int performance) throws IOException {
+		String date = String.format("%02d/%02d/2013 19:30:00", 1 + performance % 28, 1 + performance / 28);
+		try (PrintWriter writer = new PrintWriter(new File(directory, String.format("performance-%03d.csv", performance)));) {
+			writer.println("Customer Id,First Name,Last Name,Email Address,Event Name,Event Date/Time,Seat,Price,Ticket Type,Date Confirmed,Sales Channel");
+			for (int row = 0; row < ROWS; row++) {
+				writer.println(String.format("%d,First%d,Last%d,season%d.%d@example.org,Benchmark,%s,%c%d,10.00,Full Price,%s,Web", row, row, performance, performance, row, performance == BROKEN && row == ROWS / 2 ? "tomorrow" : date, 'A' + row / 40, row % 40, date));
+			}
+		}
+	}
+
+	/**
+	 * Database manager that removes the synthetic season again.
+	 */
+	private static class CleanupDatabaseManager extends DatabaseManager {
+		private static final String	DELETE_INDIVIDUALS	= "DELETE FROM individuals WHERE venue = ?";
+		private static final String	DELETE_SHOWS		= "DELETE FROM shows WHERE venue = ?";
+		private static final String	DELETE_VENUE		= "DELETE FROM venues WHERE id = ?";
+
+		CleanupDatabaseManager(Hashtable<String, AttributeCategories> globalAttributeTable) throws ConfigFileNotFoundException, IOException, ClassNotFoundException, SQLException {
+			super(globalAttributeTable);
+		}
+
+		void deleteVenue(int venueId) throws SQLException {
+			try (Connection connection = this.getConnection();) {
+				for (String statement : new String[] { DELETE_INDIVIDUALS, DELETE_SHOWS, DELETE_VENUE }) {
+					try (PreparedStatement stmt = connection.prepareStatement(statement);) {
+						stmt.setInt(1, venueId);
+						stmt.execute();
+					}
+				}
+				connection.commit();
+			}
+		}
+	}
+}
@@ -0,0 +1,186 @@
+package uk.ac.cam.darknet.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+
+import org.junit.Test;
+
+import uk.ac.cam.darknet.backend.FileImportResult;
+import uk.ac.cam.darknet.backend.ImportProgressListener;
+import uk.ac.cam.darknet.backend.SeasonImport;
+import uk.ac.cam.darknet.backend.SeasonImportReport;
+import uk.ac.cam.darknet.common.AttributeCategories;
+import uk.ac.cam.darknet.common.Individual;
+import uk.ac.cam.darknet.database.PrimaryDatabaseManager;
+
+/**
+ * Tests importing a season of CSV files, one per performance, into an in-memory database with
+ * several workers. The files are small and the batches smaller still, so that batches span files
+ * and the workers parse files ahead of the database.
+ */
+public class SeasonImportTests {
+	private static final int	PERFORMANCES	= 5;
+	private static final int	ROWS			= 10;
+	private static final int	BROKEN			= 2;
+	private static final int	BROKEN_ROW		= 6;
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testFilesAreImportedInOrder() throws Exception {
+		Hashtable<String, AttributeCategories> globalAttributeTable = new Hashtable<String, AttributeCategories>();
+		List<File> files = writeSeason(-1);
+		PrimaryDatabaseManager pdbm = new PrimaryDatabaseManager(globalAttributeTable, TestDatabase.createConfig("batchsize=4"));
+		try {
+			int venue = pdbm.createVenue("Test");
+			RecordingListener listener = new RecordingListener();
+			SeasonImportReport report = new SeasonImport(files, venue, 3).run(pdbm, listener);
+			assertEquals(PERFORMANCES * ROWS, report.getRowsRead());
+			assertEquals(PERFORMANCES * ROWS, report.getIndividualsStored());
+			assertTrue(report.getFailedFiles().isEmpty());
+			assertEquals(PERFORMANCES * ROWS, pdbm.countIndividuals());
+			assertEquals(expectedNames(-1), listener.names);
+			assertEquals(PERFORMANCES * ROWS, listener.lastStored);
+		} finally {
+			pdbm.closeConnection();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testBrokenFileDoesNotStopTheImport() throws Exception {
+		Hashtable<String, AttributeCategories> globalAttributeTable = new Hashtable<String, AttributeCategories>();
+		List<File> files = writeSeason(BROKEN);
+		PrimaryDatabaseManager pdbm = new PrimaryDatabaseManager(globalAttributeTable, TestDatabase.createConfig("batchsize=4"));
+		try {
+			int venue = pdbm.createVenue("Test");
+			RecordingListener listener = new RecordingListener();
+			SeasonImportReport report = new SeasonImport(files, venue, 3).run(pdbm, listener);
+			List<FileImportResult> results = report.getFiles();
+			assertEquals(PERFORMANCES, results.size());
+			for (int performance = 0; performance < PERFORMANCES; performance++) {
+				FileImportResult result = results.get(performance);
+				int rows = performance == BROKEN ? BROKEN_ROW : ROWS;
+				assertEquals(files.get(performance), result.getFile());
+				assertEquals(rows, result.getRowsRead());
+				assertEquals(rows, result.getIndividualsStored());
+				assertEquals(performance == BROKEN, result.isFailed());
+			}
+			assertEquals(Arrays.asList(results.get(BROKEN)), report.getFailedFiles());
+			assertTrue(results.get(BROKEN).getError() instanceof ParseException);
+			// The rows before the error are imported, in their place among the other files.
+			assertEquals(expectedNames(BROKEN), listener.names);
+			assertEquals((PERFORMANCES - 1) * ROWS + BROKEN_ROW, report.getIndividualsStored());
+			assertEquals(report.getIndividualsStored(), pdbm.countIndividuals());
+		} finally {
+			pdbm.closeConnection();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testImportingAgainStoresNothing() throws Exception {
+		Hashtable<String, AttributeCategories> globalAttributeTable = new Hashtable<String, AttributeCategories>();
+		List<File> files = writeSeason(BROKEN);
+		PrimaryDatabaseManager pdbm = new PrimaryDatabaseManager(globalAttributeTable, TestDatabase.createConfig("batchsize=4"));
+		try {
+			int venue = pdbm.createVenue("Test");
+			int stored = new SeasonImport(files, venue, 2).run(pdbm, null).getIndividualsStored();
+			RecordingListener listener = new RecordingListener();
+			SeasonImportReport report = new SeasonImport(files, venue, 2).run(pdbm, listener);
+			assertEquals(stored, report.getRowsRead());
+			assertEquals(0, report.getIndividualsStored());
+			for (FileImportResult result : report.getFiles()) {
+				assertEquals(0, result.getIndividualsStored());
+			}
+			assertTrue(listener.names.isEmpty());
+			assertEquals(stored, pdbm.countIndividuals());
+		} finally {
+			pdbm.closeConnection();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testFindFiles() throws Exception {
+		List<File> files = writeSeason(-1);
+		File directory = files.get(0).getParentFile();
+		assertEquals(files, SeasonImport.findFiles(directory.getPath()));
+		assertEquals(files.subList(1, 3), SeasonImport.findFiles(new File(directory, "2013-03-0[23].csv").getPath()));
+		assertEquals(files.subList(4, 5), SeasonImport.findFiles(files.get(4).getPath()));
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test(expected = IOException.class)
+	public void testFindNoFiles() throws Exception {
+		File directory = writeSeason(-1).get(0).getParentFile();
+		SeasonImport.findFiles(new File(directory, "*.txt").getPath());
+	}
+
+	// Writes a file per performance into a new directory, in reverse order so that the order of the
+	// files found does not depend on the order they were written in. The given performance has a
+	// malformed date on a row halfway through.
+	private static List<File> writeSeason(int broken) throws IOException {
+		File directory = File.createTempFile("season", "");
+		directory.delete();
+		directory.mkdir();
+		directory.deleteOnExit();
+		List<File> files = new ArrayList<File>();
+		File file;
+		for (int performance = PERFORMANCES - 1; performance >= 0; performance--) {
+			file = new File(directory, String.format("2013-03-%02d.csv", performance + 1));
+			file.deleteOnExit();
+			try (PrintWriter writer = new PrintWriter(file);) {
+				writer.println("Customer Id,First Name,Last Name,Email Address,Event Name,Event Date/Time,Seat,Price,Ticket Type,Date Confirmed,Sales Channel");
+				for (int row = 0; row < ROWS; row++) {
+					writer.println(String.format("%d,First%d,Last%d,first%d@example.org,Test,%s,A%d,10.00,Full Price,01/02/2013 10:00:00,Web", row, performance * ROWS + row, row, row, performance == broken && row == BROKEN_ROW ? "tomorrow" : String.format("%02d/03/2013 19:30:00", performance + 1), row));
+				}
+			}
+			files.add(file);
+		}
+		Collections.reverse(files);
+		return files;
+	}
+
+	// The first names of the individuals of the season in the order of the files and rows.
+	private static List<String> expectedNames(int broken) {
+		List<String> names = new ArrayList<String>();
+		for (int performance = 0; performance < PERFORMANCES; performance++) {
+			for (int row = 0; row < (performance == broken ? BROKEN_ROW : ROWS); row++) {
+				names.add("First" + (performance * ROWS + row));
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Listener that records the first names of the individuals stored, in the order they are
+	 * stored in.
+	 */
+	private static class RecordingListener implements ImportProgressListener {
+		final List<String>	names	= new ArrayList<String>();
+		int					lastStored;
+
+		@Override
+		public void importProgress(int rowsRead, int individualsStored, long bytesRead, long totalBytes) {
+			assertTrue(individualsStored >= this.lastStored);
+			assertTrue(bytesRead <= totalBytes);
+			this.lastStored = individualsStored;
+		}
+
+		@Override
+		public void individualsStored(List<Individual> individuals) {
+			for (Individual current : individuals) {
+				this.names.add(current.getFirstName());
+			}
+		}
+	}
+}
@@ -0,0 +1,290 @@
+package uk.ac.cam.darknet.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Hashtable;
+import java.util.List;
+
+import org.junit.Test;
+
+import uk.ac.cam.darknet.common.AttributeCategories;
+import uk.ac.cam.darknet.common.AttributeReliabilityPair;
+import uk.ac.cam.darknet.common.Individual;
+import uk.ac.cam.darknet.common.IndividualRequirements;
+import uk.ac.cam.darknet.common.Show;
+import uk.ac.cam.darknet.common.Venue;
+import uk.ac.cam.darknet.database.DatabaseManager;
+import uk.ac.cam.darknet.database.PrimaryDatabaseManager;
+import uk.ac.cam.darknet.database.SecondaryDatabaseManager;
+import uk.ac.cam.darknet.exceptions.ConfigFileNotFoundException;
+import uk.ac.cam.darknet.exceptions.InvalidReliabilityException;
+import uk.ac.cam.darknet.exceptions.RequestNotSatisfiableException;
+
+/**
+ * Tests the cache of shows against in-memory databases: the suitable individuals and the attributes
+ * read for a show must not depend on whether the show is cached, and a show changed while it is
+ * being read must not be cached.
+ */
+public class ShowCacheTests {
+	private static final int	AUDIENCE	= 30;
+	private static final Date	DATE		= new GregorianCalendar(2013, 2, 7, 19, 30).getTime();
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testSameIndividualsWithAndWithoutCache() throws Exception {
+		Hashtable<String, AttributeCategories> globalAttributeTable = createGlobalAttributeTable();
+		String uncachedConfig = TestDatabase.createConfig("cacheshows=0");
+		String cachedConfig = TestDatabase.createConfig("cacheshows=8");
+		Show uncachedShow = fillDatabase(uncachedConfig, globalAttributeTable);
+		Show cachedShow = fillDatabase(cachedConfig, globalAttributeTable);
+		DatabaseManager uncached = new DatabaseManager(globalAttributeTable, uncachedConfig);
+		DatabaseManager cached = new DatabaseManager(globalAttributeTable, cachedConfig);
+		try {
+			IndividualRequirements uncachedRequirements = createRequirements(uncachedShow);
+			IndividualRequirements cachedRequirements = createRequirements(cachedShow);
+			List<String> expected = describe(uncached.getSuitableIndividuals(uncachedRequirements));
+			// Every second individual has a reliable gender, every third of them an unreliable
+			// birthday.
+			assertEquals(AUDIENCE / 2 - AUDIENCE / 6, expected.size());
+
+			long misses = cached.getCacheMisses();
+			assertEquals(expected, describe(cached.getSuitableIndividuals(cachedRequirements)));
+			assertEquals(misses + 1, cached.getCacheMisses());
+			long hits = cached.getCacheHits();
+			assertEquals(expected, describe(cached.getSuitableIndividuals(cachedRequirements)));
+			assertEquals(hits + 1, cached.getCacheHits());
+		} finally {
+			uncached.closeConnection();
+			cached.closeConnection();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testUnsatisfiableWithAndWithoutCache() throws Exception {
+		Hashtable<String, AttributeCategories> globalAttributeTable = createGlobalAttributeTable();
+		for (String config : new String[] { TestDatabase.createConfig("cacheshows=0"), TestDatabase.createConfig("cacheshows=8") }) {
+			Show show = fillDatabase(config, globalAttributeTable);
+			DatabaseManager dbm = new DatabaseManager(globalAttributeTable, config);
+			try {
+				dbm.prefetchShow(show);
+				IndividualRequirements requirements = new IndividualRequirements(show);
+				requirements.addRequirement(AttributeCategories.BIRTHDAY, 0.95);
+				dbm.getSuitableIndividuals(requirements);
+				fail("No individual has a birthday this reliable.");
+			} catch (RequestNotSatisfiableException e) {
+				// Expected, whether or not the show is cached.
+			} finally {
+				dbm.closeConnection();
+			}
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testShowChangedWhileReadIsNotCached() throws Exception {
+		Hashtable<String, AttributeCategories> globalAttributeTable = createGlobalAttributeTable();
+		String config = TestDatabase.createConfig("cacheshows=8");
+		Show show = fillDatabase(config, globalAttributeTable);
+		SecondaryDatabaseManager sdbm = new SecondaryDatabaseManager(globalAttributeTable, config);
+		ChangingDatabaseManager dbm = new ChangingDatabaseManager(globalAttributeTable, config, sdbm);
+		try {
+			List<Individual> audience = dbm.getByShow(show);
+			Collections.sort(audience, ById.INSTANCE);
+			Individual changed = new Individual(audience.get(1).getId(), "First1", "Last1", "first1@example.org", show.getDate(), show.getVenue().getId(), "A1", globalAttributeTable);
+			changed.addAttribute("fb_gender", "male", 0.9);
+			dbm.changeDuringNextRead(changed);
+
+			long misses = dbm.getCacheMisses();
+			dbm.prefetchShow(show);
+			assertEquals(misses + 1, dbm.getCacheMisses());
+			// The show has been invalidated while it was read, so it must be read again.
+			dbm.prefetchShow(show);
+			assertEquals(misses + 2, dbm.getCacheMisses());
+			long hits = dbm.getCacheHits();
+			dbm.prefetchShow(show);
+			assertEquals(hits + 1, dbm.getCacheHits());
+
+			List<Individual> individuals = dbm.getByShow(show);
+			dbm.getAllAttributes(individuals, show);
+			for (Individual current : individuals) {
+				if (current.getId() == changed.getId()) {
+					assertEquals("male", current.getAttribute("fb_gender").get(0).getAttribute());
+				}
+			}
+		} finally {
+			dbm.closeConnection();
+			sdbm.closeConnection();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testOnlyNamedAttributesAreReplaced() throws Exception {
+		Hashtable<String, AttributeCategories> globalAttributeTable = createGlobalAttributeTable();
+		String[] configs = { TestDatabase.createConfig("cacheshows=0"), TestDatabase.createConfig("cacheshows=8") };
+		for (int cached = 0; cached < configs.length; cached++) {
+			Show show = fillDatabase(configs[cached], globalAttributeTable);
+			DatabaseManager dbm = new DatabaseManager(globalAttributeTable, configs[cached]);
+			try {
+				dbm.prefetchShow(show);
+				List<Individual> audience = dbm.getByShow(show);
+				Collections.sort(audience, ById.INSTANCE);
+				// Only half the audience is asked about, and each of them already has attributes of
+				// both kinds.
+				List<Individual> individuals = audience.subList(0, AUDIENCE / 2);
+				for (Individual current : individuals) {
+					current.addAttribute("fb_gender", "unknown", 0.1);
+					current.addAttribute("fb_birthday", "31/12/1999", 0.1);
+				}
+				long hits = dbm.getCacheHits();
+				dbm.getAttributes(individuals, show, Arrays.asList("fb_gender"));
+				assertEquals(hits + cached, dbm.getCacheHits());
+				assertNamedAttributesReplaced(individuals);
+				// Attendees that were not asked about are left alone.
+				for (Individual current : audience.subList(AUDIENCE / 2, AUDIENCE)) {
+					assertFalse(current.getProperties().keys().hasMoreElements());
+				}
+				// Changing the individuals does not change the cached copy of the show.
+				for (Individual current : individuals) {
+					current.addAttribute("fb_gender", "unknown", 0.1);
+				}
+				dbm.getAttributes(individuals, show, Arrays.asList("fb_gender"));
+				assertEquals(hits + 2 * cached, dbm.getCacheHits());
+				assertNamedAttributesReplaced(individuals);
+			} finally {
+				dbm.closeConnection();
+			}
+		}
+	}
+
+	private static Hashtable<String, AttributeCategories> createGlobalAttributeTable() {
+		Hashtable<String, AttributeCategories> globalAttributeTable = new Hashtable<String, AttributeCategories>();
+		globalAttributeTable.put("fb_gender", AttributeCategories.GENDER);
+		globalAttributeTable.put("fb_birthday", AttributeCategories.BIRTHDAY);
+		return globalAttributeTable;
+	}
+
+	private static IndividualRequirements createRequirements(Show show) throws InvalidReliabilityException {
+		IndividualRequirements requirements = new IndividualRequirements(show);
+		requirements.addRequirement(AttributeCategories.GENDER, 0.5);
+		requirements.addRequirement(AttributeCategories.BIRTHDAY, 0.5);
+		return requirements;
+	}
+
+	// Stores a show in which every second individual has a gender, and the birthday of every third
+	// individual is unreliable.
+	private static Show fillDatabase(String config, Hashtable<String, AttributeCategories> globalAttributeTable) throws Exception {
+		PrimaryDatabaseManager pdbm = new PrimaryDatabaseManager(globalAttributeTable, config);
+		SecondaryDatabaseManager sdbm = new SecondaryDatabaseManager(globalAttributeTable, config);
+		try {
+			int venue = pdbm.createVenue("Test");
+			List<Individual> individuals = new ArrayList<Individual>();
+			for (int i = 0; i < AUDIENCE; i++) {
+				individuals.add(Individual.getNewIndividual("First" + i, "Last" + i, "first" + i + "@example.org", DATE, venue, "A" + i, globalAttributeTable));
+			}
+			long[] ids = pdbm.storeIndividualsReturningIds(individuals);
+			List<Individual> withAttributes = new ArrayList<Individual>();
+			Individual current;
+			for (int i = 0; i < AUDIENCE; i++) {
+				current = new Individual(ids[i], "First" + i, "Last" + i, "first" + i + "@example.org", DATE, venue, "A" + i, globalAttributeTable);
+				if (i % 2 == 0)
+					current.addAttribute("fb_gender", i % 4 == 0 ? "female" : "male", 0.9);
+				current.addAttribute("fb_birthday", "01/0" + (1 + i % 9) + "/1990", i % 3 == 0 ? 0.3 : 0.8);
+				withAttributes.add(current);
+			}
+			sdbm.storeAttributes(withAttributes);
+			return new Show(DATE, new Venue(venue, "Test"));
+		} finally {
+			pdbm.closeConnection();
+			sdbm.closeConnection();
+		}
+	}
+
+	// Checks that the individuals have the genders stored by fillDatabase, and still have the
+	// birthday given to them before.
+	private static void assertNamedAttributesReplaced(List<Individual> individuals) {
+		int i;
+		for (Individual current : individuals) {
+			i = Integer.parseInt(current.getFirstName().substring("First".length()));
+			if (i % 2 == 0) {
+				assertEquals(1, current.getAttribute("fb_gender").size());
+				assertEquals(i % 4 == 0 ? "female" : "male", current.getAttribute("fb_gender").get(0).getAttribute());
+			} else {
+				assertFalse(current.containsAttribute("fb_gender"));
+			}
+			assertEquals(1, current.getAttribute("fb_birthday").size());
+			assertEquals("31/12/1999", current.getAttribute("fb_birthday").get(0).getAttribute());
+		}
+	}
+
+	// Describes the individuals and their attributes, ordered by ID.
+	private static List<String> describe(List<Individual> individuals) {
+		List<Individual> sorted = new ArrayList<Individual>(individuals);
+		Collections.sort(sorted, ById.INSTANCE);
+		List<String> descriptions = new ArrayList<String>();
+		StringBuilder description;
+		List<String> names;
+		for (Individual current : sorted) {
+			description = new StringBuilder();
+			description.append(current.getId()).append(' ').append(current.getFirstName()).append(' ').append(current.getLastName());
+			names = Collections.list(current.getProperties().keys());
+			Collections.sort(names);
+			for (String name : names) {
+				for (AttributeReliabilityPair pair : current.getAttribute(name)) {
+					description.append(' ').append(name).append('=').append(pair.getAttribute()).append('@').append(pair.getReliability());
+				}
+			}
+			descriptions.add(description.toString());
+		}
+		return descriptions;
+	}
+
+	/**
+	 * Orders individuals by their ID.
+	 */
+	private static class ById implements Comparator<Individual> {
+		static final ById	INSTANCE	= new ById();
+
+		@Override
+		public int compare(Individual first, Individual second) {
+			return Long.compare(first.getId(), second.getId());
+		}
+	}
+
+	/**
+	 * Database manager that stores attributes through another manager of the same database right
+	 * after it has read the individuals of a show, before it reads their attributes.
+	 */
+	private static class ChangingDatabaseManager extends DatabaseManager {
+		private final SecondaryDatabaseManager	other;
+		private Individual						change;
+
+		ChangingDatabaseManager(Hashtable<String, AttributeCategories> globalAttributeTable, String config, SecondaryDatabaseManager other) throws ConfigFileNotFoundException, IOException, ClassNotFoundException, SQLException {
+			super(globalAttributeTable, config);
+			this.other = other;
+		}
+
+		void changeDuringNextRead(Individual individual) {
+			this.change = individual;
+		}
+
+		@Override
+		public List<Individual> getByShow(Show show) throws SQLException {
+			List<Individual> individuals = super.getByShow(show);
+			if (this.change != null) {
+				this.other.storeAttributes(Collections.singletonList(this.change));
+				this.change = null;
+			}
+			return individuals;
+		}
+	}
+}
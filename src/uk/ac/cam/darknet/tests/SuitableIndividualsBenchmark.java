@@ -0,0 +1,213 @@
+package uk.ac.cam.darknet.tests;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.List;
+
+import uk.ac.cam.darknet.common.AttributeCategories;
+import uk.ac.cam.darknet.common.Individual;
+import uk.ac.cam.darknet.common.IndividualRequirements;
+import uk.ac.cam.darknet.common.Show;
+import uk.ac.cam.darknet.common.Strings;
+import uk.ac.cam.darknet.common.Venue;
+import uk.ac.cam.darknet.database.DatabaseManager;
+import uk.ac.cam.darknet.database.PrimaryDatabaseManager;
+import uk.ac.cam.darknet.database.SecondaryDatabaseManager;
+import uk.ac.cam.darknet.exceptions.ConfigFileNotFoundException;
+import uk.ac.cam.darknet.exceptions.InvalidAttributeTypeException;
+import uk.ac.cam.darknet.exceptions.InvalidReliabilityException;
+import uk.ac.cam.darknet.exceptions.RequestNotSatisfiableException;
+import uk.ac.cam.darknet.exceptions.UnknownAttributeException;
+
+/**
+ * Compares the latency of <code>getSuitableIndividuals</code> with the temporary table approach it
+ * used to take, on a synthetic show of 5,000 individuals and for requirements of one and of two
+ * categories. It runs against the database configured in <code>res/dbconfig.txt</code> and
+ * removes the synthetic show again when done.
+ */
+public class SuitableIndividualsBenchmark {
+	private static final int	INDIVIDUALS	= 5000;
+	private static final int	WARMUP		= 5;
+	private static final int	RUNS		= 20;
+
+	/**
+	 * @param args
+	 *            The arguments are ignored.
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Hashtable<String, AttributeCategories> globalAttributeTable = new Hashtable<String, AttributeCategories>();
+		globalAttributeTable.put("fb_photo", AttributeCategories.PHOTO);
+		globalAttributeTable.put("tw_photo", AttributeCategories.PHOTO);
+		globalAttributeTable.put("fb_gender", AttributeCategories.GENDER);
+		globalAttributeTable.put("fb_locale", AttributeCategories.LOCALE);
+		PrimaryDatabaseManager pdbm = new PrimaryDatabaseManager(globalAttributeTable);
+		SecondaryDatabaseManager sdbm = new SecondaryDatabaseManager(globalAttributeTable);
+		LegacyDatabaseManager legacy = new LegacyDatabaseManager(globalAttributeTable);
+		String venueName = "Benchmark " + System.currentTimeMillis();
+		int venueId = pdbm.createVenue(venueName);
+		// Shows are stored with a precision of one second.
+		Show show = new Show(new Date(Show.toSeconds(new Date()) * 1000), new Venue(venueId, venueName));
+		try {
+			createShow(pdbm, sdbm, show, globalAttributeTable);
+			IndividualRequirements photo = new IndividualRequirements(show);
+			photo.addRequirement(AttributeCategories.PHOTO, 0.5);
+			IndividualRequirements photoAndGender = new IndividualRequirements(show);
+			photoAndGender.addRequirement(AttributeCategories.PHOTO, 0.5);
+			photoAndGender.addRequirement(AttributeCategories.GENDER, 0.7);
+			compare("photo", photo, sdbm, legacy);
+			compare("photo and gender", photoAndGender, sdbm, legacy);
+		} finally {
+			legacy.deleteVenue(venueId);
+			legacy.closeConnection();
+			pdbm.closeConnection();
+			sdbm.closeConnection();
+		}
+	}
+
+	private static void compare(String name, IndividualRequirements requirements, SecondaryDatabaseManager sdbm, LegacyDatabaseManager legacy) throws Exception {
+		int legacyCount = 0;
+		int plannedCount = 0;
+		long legacyTime = 0;
+		long plannedTime = 0;
+		long start;
+		for (int run = 0; run < WARMUP + RUNS; run++) {
+			start = System.nanoTime();
+			legacyCount = legacy.getSuitableIndividualsWithTemporaryTables(requirements).size();
+			if (run >= WARMUP)
+				legacyTime += System.nanoTime() - start;
+			start = System.nanoTime();
+			plannedCount = sdbm.getSuitableIndividuals(requirements).size();
+			if (run >= WARMUP)
+				plannedTime += System.nanoTime() - start;
+		}
+		System.out.println("Requirements '" + name + "': temporary tables " + legacyTime / RUNS / 1000 + " us (" + legacyCount + " individuals), single query " + plannedTime / RUNS / 1000 + " us (" + plannedCount + " individuals)");
+	}
+
+	private static void createShow(PrimaryDatabaseManager pdbm, SecondaryDatabaseManager sdbm, Show show, Hashtable<String, AttributeCategories> globalAttributeTable) throws SQLException, UnknownAttributeException, InvalidAttributeTypeException, InvalidReliabilityException {
+		List<Individual> individuals = new ArrayList<Individual>();
+		for (int i = 0; i < INDIVIDUALS; i++) {
+			individuals.add(Individual.getNewIndividual("First" + i, "Last" + i, "benchmark" + i + "@example.org", show.getDate(), show.getVenue().getId(), Integer.toString(i), globalAttributeTable));
+		}
+		pdbm.storeIndividual(individuals);
+		individuals = pdbm.getByShow(show);
+		for (int i = 0; i < individuals.size(); i++) {
+			Individual current = individuals.get(i);
+			current.addAttribute("fb_gender", i % 2 == 0 ? "female" : "male", i % 3 == 0 ? 0.6 : 0.8);
+			current.addAttribute("fb_locale", "en_GB", 1.0);
+			if (i % 2 == 0)
+				current.addAttribute("fb_photo", "benchmark" + i + "-jpg", 0.8);
+			if (i % 3 == 0)
+				current.addAttribute("tw_photo", "benchmark" + i + "-png", 0.9);
+		}
+		sdbm.storeAttributes(individuals);
+	}
+
+	/**
+	 * Database manager that still selects suitable individuals the way
+	 * <code>getSuitableIndividuals</code> used to, with a temporary table per category.
+	 */
+	private static class LegacyDatabaseManager extends DatabaseManager {
+		private static final String	CREATE_FILTER_TABLE	= "DECLARE LOCAL TEMPORARY TABLE filter AS (SELECT * FROM INDIVIDUALS WHERE date = '%1$s' AND venue = %2$d) WITH DATA";
+		private static final String	DROP_FILTER_TABLE	= "DROP TABLE IF EXISTS session.filter";
+		private static final String	CREATE_TEMP_TABLE	= "DECLARE LOCAL TEMPORARY TABLE temp%1$d AS (%2$s) WITH DATA";
+		private static final String	DROP_TEMP_TABLE		= "DROP TABLE IF EXISTS session.temp%1$d";
+		private static final String	SELECT_FILTERED		= "SELECT DISTINCT filter.* FROM filter";
+		private static final String	FILTER_JOIN			= " JOIN temp%1$d ON temp%1$d.id = filter.id";
+		private static final String	DELETE_INDIVIDUALS	= "DELETE FROM individuals WHERE venue = ?";
+		private static final String	DELETE_SHOWS		= "DELETE FROM shows WHERE venue = ?";
+		private static final String	DELETE_VENUE		= "DELETE FROM venues WHERE id = ?";
+
+		LegacyDatabaseManager(Hashtable<String, AttributeCategories> globalAttributeTable) throws ConfigFileNotFoundException, IOException, ClassNotFoundException, SQLException {
+			super(globalAttributeTable);
+		}
+
+		List<Individual> getSuitableIndividualsWithTemporaryTables(IndividualRequirements requirements) throws SQLException, RequestNotSatisfiableException, UnknownAttributeException, InvalidAttributeTypeException, InvalidReliabilityException {
+			ArrayList<String> attributes = new ArrayList<String>();
+			ArrayList<Individual> toReturn = new ArrayList<Individual>();
+			Enumeration<AttributeCategories> categories = requirements.getRequiredCategories().keys();
+			AttributeCategories currentCategory;
+			double currentMinReliability;
+			int tableCounter = 0;
+			String statement = SELECT_FILTERED;
+			try (Connection connection = this.getConnection();) {
+				try (Statement stmt = connection.createStatement();) {
+					stmt.execute(String.format(CREATE_FILTER_TABLE, formatDate(requirements.getShow().getDate()), requirements.getShow().getVenue().getId()));
+					while (categories.hasMoreElements()) {
+						currentCategory = categories.nextElement();
+						currentMinReliability = requirements.getRequiredCategories().get(currentCategory);
+						this.filterAttributes(currentCategory, attributes);
+						if (attributes.isEmpty())
+							throw new RequestNotSatisfiableException(Strings.REQUEST_NOT_SATISFIABLE);
+						this.createTemporaryTable(connection, attributes, currentMinReliability, tableCounter++);
+					}
+					for (int i = 0; i < tableCounter; i++) {
+						statement += String.format(FILTER_JOIN, i);
+					}
+					try (ResultSet resultSet = stmt.executeQuery(statement);) {
+						while (resultSet.next()) {
+							toReturn.add(new Individual(resultSet.getLong(1), resultSet.getString(2), resultSet.getString(3), resultSet.getString(4), resultSet.getTimestamp(5), resultSet.getInt(6), resultSet.getString(7), this.globalAttributeTable));
+						}
+					}
+				} finally {
+					try (Statement stmt = connection.createStatement();) {
+						stmt.execute(DROP_FILTER_TABLE);
+						for (int i = 0; i < tableCounter; i++) {
+							stmt.execute(String.format(DROP_TEMP_TABLE, i));
+						}
+					}
+				}
+			}
+			if (toReturn.size() == 0)
+				throw new RequestNotSatisfiableException(Strings.REQUEST_NOT_SATISFIABLE);
+			this.getAllAttributes(toReturn, requirements.getShow());
+			return toReturn;
+		}
+
+		private void createTemporaryTable(Connection connection, ArrayList<String> attributes, double minReliability, int tableCounter) throws SQLException {
+			ArrayList<String> subQueries = new ArrayList<String>();
+			String finalSubQuery;
+			for (String a : attributes) {
+				subQueries.add("(SELECT id FROM " + a + " WHERE reliability >= " + minReliability + ")");
+			}
+			finalSubQuery = subQueries.get(0);
+			for (int i = 1; i < subQueries.size(); i++) {
+				finalSubQuery += " UNION " + subQueries.get(i);
+			}
+			try (Statement stmt = connection.createStatement();) {
+				stmt.execute(String.format(CREATE_TEMP_TABLE, tableCounter, finalSubQuery));
+			}
+		}
+
+		private void filterAttributes(AttributeCategories filter, ArrayList<String> attributes) {
+			attributes.clear();
+			Enumeration<String> allAttributes = this.globalAttributeTable.keys();
+			String currentAttribute;
+			while (allAttributes.hasMoreElements()) {
+				currentAttribute = allAttributes.nextElement();
+				if (this.globalAttributeTable.get(currentAttribute) == filter)
+					attributes.add(currentAttribute);
+			}
+		}
+
+		void deleteVenue(int venueId) throws SQLException {
+			try (Connection connection = this.getConnection();) {
+				for (String statement : new String[] { DELETE_INDIVIDUALS, DELETE_SHOWS, DELETE_VENUE }) {
+					try (PreparedStatement stmt = connection.prepareStatement(statement);) {
+						stmt.setInt(1, venueId);
+						stmt.execute();
+					}
+				}
+				connection.commit();
+			}
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package uk.ac.cam.darknet.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.List;
+
+import org.junit.Test;
+
+import uk.ac.cam.darknet.backend.TargetIndex;
+import uk.ac.cam.darknet.common.AttributeCategories;
+import uk.ac.cam.darknet.common.Individual;
+
+/**
+ * Tests matching people found by the secondary data collectors against an index of the targets.
+ */
+public class TargetIndexTests {
+	private static final Hashtable<String, AttributeCategories>	globalAttributeTable	= new Hashtable<String, AttributeCategories>();
+	private final Individual									anna					= createTarget(1, "Anna", "Smith", "Anna.Smith@Example.org");
+	private final Individual									jose					= createTarget(2, "Jos\u00e9", "N\u00fa\u00f1ez-Garc\u00eda", null);
+	private final Individual									john					= createTarget(3, "John", "Smith", "");
+	private final Individual									otherJohn				= createTarget(4, "john", "SMITH", "john.smith@example.org");
+	private final Individual									christopher				= createTarget(5, "Christopher", "Johnson", null);
+	private final List<Individual>								targets					= Arrays.asList(this.anna, this.jose, this.john, this.otherJohn, this.christopher);
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testNormalizeName() {
+		assertEquals("jose nunez garcia", TargetIndex.normalizeName("  Jos\u00e9  N\u00fa\u00f1ez-Garc\u00eda! "));
+		assertEquals("o brien", TargetIndex.normalizeName("O' Brien"));
+		assertNull(TargetIndex.normalizeName(" .- "));
+		assertNull(TargetIndex.normalizeName(null));
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testNormalizeEmail() {
+		assertEquals("anna.smith@example.org", TargetIndex.normalizeEmail(" Anna.Smith@EXAMPLE.org "));
+		assertNull(TargetIndex.normalizeEmail("  "));
+		assertNull(TargetIndex.normalizeEmail(null));
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testExactMatches() {
+		TargetIndex index = new TargetIndex(this.targets, false);
+		assertEquals(Arrays.asList(this.anna), index.find("anna.smith@example.org", null, null));
+		assertEquals(Arrays.asList(this.anna), index.find(null, "ANNA", "smith"));
+		assertEquals(Arrays.asList(this.jose), index.find(null, "Jose", "Nunez Garcia"));
+		// Both John Smiths match by name, and only once although one also matches by email.
+		assertEquals(Arrays.asList(this.otherJohn, this.john), index.find("john.smith@example.org", "John", "Smith"));
+		assertEquals(Collections.<Individual> emptyList(), index.find(null, "Christophe", "Johnson"));
+		assertEquals(Collections.<Individual> emptyList(), index.find(null, null, "Smith"));
+		assertEquals(Collections.<Individual> emptyList(), index.find("", "", ""));
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testFuzzyMatches() {
+		TargetIndex index = new TargetIndex(this.targets, true);
+		// A typo in either the first or the last name.
+		assertEquals(Arrays.asList(this.christopher), index.find(null, "Christophe", "Johnson"));
+		assertEquals(Arrays.asList(this.christopher), index.find(null, "Christopher", "Jonson"));
+		assertEquals(Arrays.asList(this.anna), index.find(null, "Ana", "Smith"));
+		// Too many edits, or typos in the first letter of both names.
+		assertEquals(Collections.<Individual> emptyList(), index.find(null, "Chris", "Johnson"));
+		assertEquals(Collections.<Individual> emptyList(), index.find(null, "Bnna", "Tmith"));
+		// Exact matches take precedence.
+		assertEquals(Arrays.asList(this.john, this.otherJohn), index.find(null, "John", "Smith"));
+	}
+
+	@SuppressWarnings("javadoc")
+	@Test
+	public void testManyTargets() {
+		List<Individual> many = new ArrayList<Individual>();
+		for (int i = 0; i < 10000; i++) {
+			many.add(createTarget(i, "First" + i, "Last" + i, "person" + i + "@example.org"));
+		}
+		TargetIndex index = new TargetIndex(many, true);
+		for (int i = 0; i < many.size(); i += 997) {
+			assertEquals(Arrays.asList(many.get(i)), index.find(null, "First" + i, "Last" + i));
+			assertEquals(Arrays.asList(many.get(i)), index.find("PERSON" + i + "@example.org", null, null));
+		}
+	}
+
+	private static Individual createTarget(long id, String firstName, String lastName, String email) {
+		return new Individual(id, firstName, lastName, email, new Date(0), 1, "A1", globalAttributeTable);
+	}
+}
@@ -0,0 +1,125 @@
+package uk.ac.cam.darknet.tests;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Random;
+
+import uk.ac.cam.darknet.backend.TargetIndex;
+import uk.ac.cam.darknet.common.AttributeCategories;
+import uk.ac.cam.darknet.common.Individual;
+
+/**
+ * Compares matching 10,000 targets against 5,000 friends with the nested loop
+ * the Facebook collector used to run and with a <code>TargetIndex</code>,
+ * exactly and fuzzily. Half of the friends are targets, some of them with a
+ * typo in their name. No database or network access is needed.
+ */
+public class TargetMatchingBenchmark {
+	private static final int TARGETS = 10000;
+	private static final int FRIENDS = 5000;
+	private static final int WARMUP = 3;
+	private static final int RUNS = 10;
+
+	/**
+	 * @param args The arguments are ignored.
+	 */
+	public static void main(String[] args) {
+		Random random = new Random(42);
+		List<Individual> targets = new ArrayList<Individual>(TARGETS);
+		List<Friend> friends = new ArrayList<Friend>(FRIENDS);
+		Hashtable<String, AttributeCategories> table = new Hashtable<String, AttributeCategories>();
+		Date date = new Date();
+		Individual target;
+		for (int i = 0; i < TARGETS; i++) {
+			targets.add(Individual.getNewIndividual("First" + i, "Last" + i,
+					i % 3 == 0 ? null : "target" + i + "@example.org", date, 1,
+					Integer.toString(i), table));
+		}
+		for (int i = 0; i < FRIENDS; i++) {
+			if (i % 2 == 0) {
+				target = targets.get(random.nextInt(TARGETS));
+				// Every tenth matching friend has a typo in their last name.
+				friends.add(new Friend(target.getFirstName().toUpperCase(),
+						i % 20 == 0 ? target.getLastName() + "x" : target
+								.getLastName(), i % 4 == 0 ? target.getEmail()
+								: null));
+			}
+			else {
+				friends.add(new Friend("Friend" + i, "Other" + i, null));
+			}
+		}
+
+		long nestedTime = 0, indexedTime = 0, fuzzyTime = 0, start;
+		int nested = 0, indexed = 0, fuzzy = 0;
+		for (int run = 0; run < WARMUP + RUNS; run++) {
+			start = System.nanoTime();
+			nested = matchNested(targets, friends);
+			if (run >= WARMUP) {
+				nestedTime += System.nanoTime() - start;
+			}
+			start = System.nanoTime();
+			indexed = matchIndexed(targets, friends, false);
+			if (run >= WARMUP) {
+				indexedTime += System.nanoTime() - start;
+			}
+			start = System.nanoTime();
+			fuzzy = matchIndexed(targets, friends, true);
+			if (run >= WARMUP) {
+				fuzzyTime += System.nanoTime() - start;
+			}
+		}
+		System.out.println("Nested loop: " + nestedTime / RUNS / 1000
+				+ " us (" + nested + " targets matched)");
+		System.out.println("Index: " + indexedTime / RUNS / 1000 + " us ("
+				+ indexed + " targets matched)");
+		System.out.println("Fuzzy index: " + fuzzyTime / RUNS / 1000 + " us ("
+				+ fuzzy + " targets matched)");
+	}
+
+	// The matching step of the collector before it used an index.
+	private static int matchNested(List<Individual> targets,
+			List<Friend> friends) {
+		int matched = 0;
+		boolean emailMatch;
+		for (Individual target : targets) {
+			for (Friend f : friends) {
+				emailMatch = f.email == null ? false : f.email
+						.equalsIgnoreCase(target.getEmail());
+				if ((f.firstName.equalsIgnoreCase(target.getFirstName()) && f.lastName
+						.equalsIgnoreCase(target.getLastName())) || emailMatch) {
+					matched++;
+					break;
+				}
+			}
+		}
+		return matched;
+	}
+
+	private static int matchIndexed(List<Individual> targets,
+			List<Friend> friends, boolean fuzzy) {
+		TargetIndex index = new TargetIndex(targets, fuzzy);
+		HashSet<String> matched = new HashSet<String>();
+		for (Friend f : friends) {
+			for (Individual target : index.find(f.email, f.firstName,
+					f.lastName)) {
+				matched.add(target.getSeat());
+			}
+		}
+		return matched.size();
+	}
+
+	private static class Friend {
+		private final String firstName;
+		private final String lastName;
+		private final String email;
+
+		Friend(String firstName, String lastName, String email) {
+			this.firstName = firstName;
+			this.lastName = lastName;
+			this.email = email;
+		}
+	}
+}
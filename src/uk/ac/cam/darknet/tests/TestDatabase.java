@@ -0,0 +1,41 @@
+package uk.ac.cam.darknet.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes database configuration files for the tests. Each file describes a new, empty in-memory
+ * database, so the tests need neither a database server nor any data left over from other tests.
+ */
+public class TestDatabase {
+	private static final AtomicInteger	count	= new AtomicInteger();
+
+	/**
+	 * Writes the configuration file of a new in-memory database. The file is deleted when the
+	 * virtual machine exits.
+	 * 
+	 * @param settings
+	 *            Further <code>key=value</code> lines of the file, such as
+	 *            <code>cacheshows=0</code>.
+	 * @return The path to the configuration file.
+	 * @throws IOException
+	 */
+	public static String createConfig(String... settings) throws IOException {
+		File config = File.createTempFile("dbconfig", ".txt");
+		config.deleteOnExit();
+		try (PrintWriter writer = new PrintWriter(config);) {
+			writer.println("prefix=jdbc:hsqldb:mem:");
+			writer.println("host=memory");
+			writer.println("port=0");
+			writer.println("alias=test" + count.incrementAndGet());
+			writer.println("username=SA");
+			writer.println("password=");
+			for (String setting : settings) {
+				writer.println(setting);
+			}
+		}
+		return config.getPath();
+	}
+}